@@ -17,10 +17,19 @@
 
 package edu.usf.cutr.gtfsrtvalidator;
 
+import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.ErrorWriter;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedBuffer;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedFetcher;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedScheduler;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsDataRegistry;
+import edu.usf.cutr.gtfsrtvalidator.db.FileFeedBlobStore;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.GetFile;
 import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
 import edu.usf.cutr.gtfsrtvalidator.servlets.GetFeedJSON;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
 import org.apache.commons.cli.*;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.DefaultServlet;
@@ -31,6 +40,8 @@ import org.glassfish.jersey.servlet.ServletContainer;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(Main.class);
@@ -38,12 +49,46 @@ public class Main {
     static String BASE_RESOURCE = Main.class.getResource("/webroot").toExternalForm();
     static String jsonFilePath = new GetFile().getJarLocation().getParentFile() + "/classes" + File.separator + "/webroot";
     private static String PORT_NUMBER_OPTION = "port";
+    private static String RULE_THREADS_OPTION = "ruleThreads";
+    private static String ENTITY_CHUNK_SIZE_OPTION = "entityChunkSize";
+    private static String WRITE_QUEUE_SIZE_OPTION = "writeQueueSize";
+    private static String WRITE_QUEUE_POLICY_OPTION = "writeQueuePolicy";
+    private static String FEED_THREADS_OPTION = "feedThreads";
+    private static String FETCH_TIMEOUT_OPTION = "fetchTimeout";
+    private static String MAX_CONNECTIONS_PER_HOST_OPTION = "maxConnectionsPerHost";
+    private static String MAX_FEED_BYTES_OPTION = "maxFeedBytes";
+    private static String FEED_STORE_DIR_OPTION = "feedStoreDir";
+    private static String FEED_STORE_GZIP_OPTION = "feedStoreGzip";
+    private static String MAX_GTFS_CACHE_BYTES_OPTION = "maxGtfsCacheBytes";
+    private static String HASH_ALGORITHM_OPTION = "hashAlgorithm";
+    private static String INCREMENTAL_VALIDATION_OPTION = "incrementalValidation";
+    // Stores GTFS-realtime feeds in the database instead of in feedStoreDir
+    private static String FEED_STORE_DATABASE = "database";
+    // Created in the same directory as the jar, like the GTFS zip files and 'classes/webroot'
+    private static String DEFAULT_FEED_STORE_DIR = "gtfsrt-feeds";
+    // Maximum time to wait for queued errors and warnings to be saved when shutting down
+    private static final long WRITE_QUEUE_DRAIN_TIMEOUT_SECONDS = 30;
+    // Maximum time to wait for feed iterations in progress to finish when shutting down
+    private static final long FEED_STOP_TIMEOUT_SECONDS = 30;
 
-    public static void main(String[] args) throws InterruptedException, ParseException {
+    public static void main(String[] args) throws InterruptedException, ParseException, IOException {
         // Parse command line parameters
-        int port = getPortFromArgs(args);
+        CommandLine cmd = parseArgs(args);
+        int port = getPortFromArgs(cmd);
+        BackgroundTask.setRuleThreads(getRuleThreadsFromArgs(cmd));
+        BackgroundTask.setEntityChunkSize(getEntityChunkSizeFromArgs(cmd));
+        BackgroundTask.setIncrementalValidation(cmd.hasOption(INCREMENTAL_VALIDATION_OPTION));
+        FeedHashAlgorithm.setCurrent(getHashAlgorithmFromArgs(cmd));
+        BackgroundTask.setFeedFetcher(new FeedFetcher(getFetchTimeoutFromArgs(cmd), TimeUnit.SECONDS, getMaxConnectionsPerHostFromArgs(cmd), getMaxFeedBytesFromArgs(cmd)));
         HibernateUtil.configureSessionFactory();
         GTFSDB.initializeDB();
+        setFeedBlobStore(getFeedStoreDirFromArgs(cmd), cmd.hasOption(FEED_STORE_GZIP_OPTION));
+        GtfsDataRegistry.setMaxSize(getMaxGtfsCacheBytesFromArgs(cmd));
+        FeedScheduler feedScheduler = new FeedScheduler(getFeedThreadsFromArgs(cmd));
+        FeedScheduler.setDefault(feedScheduler);
+        ErrorWriter errorWriter = startErrorWriter(getWriteQueueSizeFromArgs(cmd), getWriteQueuePolicyFromArgs(cmd));
+        addShutdownHook(feedScheduler, errorWriter);
+        registerMetrics(feedScheduler, errorWriter);
 
         Server server = new Server(port);
         ServletContextHandler context = new ServletContextHandler();
@@ -90,24 +135,337 @@ public class Main {
     }
 
     /**
-     * Returns the port to use from command line arguments, or 8080 if no args are provided
+     * Stores the content of GTFS-realtime feeds in files under feedStoreDir, or in the database if feedStoreDir is
+     * FEED_STORE_DATABASE
+     *
+     * @param feedStoreDir directory to store feeds in, or FEED_STORE_DATABASE
+     * @param gzip         true to compress feeds stored in files
+     * @throws IOException if feedStoreDir can't be created
+     */
+    private static void setFeedBlobStore(String feedStoreDir, boolean gzip) throws IOException {
+        if (FEED_STORE_DATABASE.equals(feedStoreDir)) {
+            _log.info("Storing GTFS-realtime feeds in the database");
+            return;
+        }
+        File directory = new File(feedStoreDir);
+        GTFSDB.setFeedBlobStore(new FileFeedBlobStore(directory, gzip));
+        // Compute the key of each feed while it's downloaded, instead of reading unique feeds again to store them
+        FeedBuffer.setComputeBlobKey(true);
+        _log.info("Storing GTFS-realtime feeds in " + directory.getAbsolutePath() + (gzip ? " (gzip)" : ""));
+    }
+
+    /**
+     * Starts saving errors and warnings to the database on a separate thread.  If queueSize is 0 or less, errors and
+     * warnings are saved on each feed's own thread.
+     *
+     * @param queueSize      maximum number of iterations waiting to be saved
+     * @param overflowPolicy what to do when the queue is full
+     * @return the ErrorWriter saving errors and warnings, or null if they are saved on each feed's own thread
+     */
+    private static ErrorWriter startErrorWriter(int queueSize, ErrorWriter.OverflowPolicy overflowPolicy) {
+        if (queueSize <= 0) {
+            _log.info("Saving errors and warnings on each feed's thread");
+            return null;
+        }
+        ErrorWriter errorWriter = new ErrorWriter(queueSize, overflowPolicy);
+        BackgroundTask.setErrorWriter(errorWriter);
+        _log.info("Saving errors and warnings on a separate thread with a queue of " + queueSize + " iterations (" + overflowPolicy + " when full)");
+        return errorWriter;
+    }
+
+    /**
+     * Exports the counts kept by the FeedScheduler, the ErrorWriter and the GtfsDataRegistry in /api/metrics, along
+     * with the durations recorded while feeds are processed
+     *
+     * @param feedScheduler the FeedScheduler running all feeds
+     * @param errorWriter   the ErrorWriter saving errors and warnings, or null if they are saved on each feed's own thread
+     */
+    private static void registerMetrics(FeedScheduler feedScheduler, ErrorWriter errorWriter) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("gtfsrt_scheduler_feeds", "Number of GTFS-realtime feeds being monitored", feedScheduler::getScheduledCount);
+        metrics.functionCounter("gtfsrt_scheduler_runs_total", "Number of iterations run for all feeds", feedScheduler::getRunCount);
+        metrics.functionCounter("gtfsrt_scheduler_overruns_total", "Number of iterations that took longer than the update interval of their feed", feedScheduler::getOverrunCount);
+
+        metrics.gauge("gtfsrt_gtfs_cache_datasets", "Number of GTFS datasets loaded in memory", GtfsDataRegistry::getDatasetCount);
+        metrics.gauge("gtfsrt_gtfs_cache_bytes", "Estimated size of the GTFS datasets loaded in memory", GtfsDataRegistry::getSize);
+        metrics.functionCounter("gtfsrt_gtfs_cache_hits_total", "Number of times a GTFS dataset was already loaded", GtfsDataRegistry::getHitCount);
+        metrics.functionCounter("gtfsrt_gtfs_cache_misses_total", "Number of times a GTFS dataset had to be loaded", GtfsDataRegistry::getMissCount);
+        metrics.functionCounter("gtfsrt_gtfs_cache_evictions_total", "Number of GTFS datasets evicted from memory", GtfsDataRegistry::getEvictionCount);
+
+        if (errorWriter != null) {
+            metrics.gauge("gtfsrt_error_writer_queue_depth", "Number of iterations waiting to have their errors and warnings saved", errorWriter::getQueueDepth);
+            metrics.gauge("gtfsrt_error_writer_max_queue_depth", "Largest number of iterations that waited to have their errors and warnings saved", errorWriter::getMaxQueueDepth);
+            metrics.functionCounter("gtfsrt_error_writer_written_total", "Number of iterations whose errors and warnings were saved", errorWriter::getWrittenCount);
+            metrics.functionCounter("gtfsrt_error_writer_dropped_total", "Number of iterations whose errors and warnings were dropped because the queue was full", errorWriter::getDroppedCount);
+            metrics.functionCounter("gtfsrt_error_writer_failed_total", "Number of iterations whose errors and warnings couldn't be saved", errorWriter::getFailedCount);
+        }
+    }
+
+    /**
+     * When the JVM shuts down, stops monitoring feeds and then saves any errors and warnings that are still queued
+     *
+     * @param feedScheduler the FeedScheduler running all feeds
+     * @param errorWriter   the ErrorWriter saving errors and warnings, or null if they are saved on each feed's own thread
+     */
+    private static void addShutdownHook(FeedScheduler feedScheduler, ErrorWriter errorWriter) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                feedScheduler.stop(FEED_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (errorWriter != null) {
+                    errorWriter.shutdown(WRITE_QUEUE_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                _log.warn("Interrupted while shutting down", e);
+            }
+        }));
+    }
+
+    /**
+     * Parses the command line arguments
      *
      * @param args
-     * @return the port to use from command line arguments, or 8080 if no args are provided
+     * @return the parsed command line arguments
      */
-    private static int getPortFromArgs(String[] args) throws ParseException {
-        int port = 8080;
+    private static CommandLine parseArgs(String[] args) throws ParseException {
         Option portOption = Option.builder(PORT_NUMBER_OPTION)
                 .hasArg()
                 .desc("Port number the server should run on")
                 .build();
+        Option ruleThreadsOption = Option.builder(RULE_THREADS_OPTION)
+                .hasArg()
+                .desc("Number of threads shared by all feeds to validate rules in parallel (default 1, all rules in a single pass)")
+                .build();
+        Option entityChunkSizeOption = Option.builder(ENTITY_CHUNK_SIZE_OPTION)
+                .hasArg()
+                .desc("When validating rules in parallel, the number of entities above which a feed is split into chunks that are validated in parallel (default " + BackgroundTask.DEFAULT_ENTITY_CHUNK_SIZE + ", 0 to never split feeds)")
+                .build();
+        Option writeQueueSizeOption = Option.builder(WRITE_QUEUE_SIZE_OPTION)
+                .hasArg()
+                .desc("Maximum number of feed iterations waiting to have their errors and warnings saved to the database (default " + ErrorWriter.DEFAULT_CAPACITY + ", 0 to save them on each feed's thread)")
+                .build();
+        Option writeQueuePolicyOption = Option.builder(WRITE_QUEUE_POLICY_OPTION)
+                .hasArg()
+                .desc("What to do when the write queue is full - BLOCK, DROP_NEWEST or DROP_OLDEST (default " + ErrorWriter.DEFAULT_OVERFLOW_POLICY + ")")
+                .build();
+        Option feedThreadsOption = Option.builder(FEED_THREADS_OPTION)
+                .hasArg()
+                .desc("Number of threads shared by all feeds to fetch and validate feeds (default " + FeedScheduler.DEFAULT_THREADS + ")")
+                .build();
+        Option fetchTimeoutOption = Option.builder(FETCH_TIMEOUT_OPTION)
+                .hasArg()
+                .desc("Maximum number of seconds to wait for a GTFS-realtime feed to download (default " + FeedFetcher.DEFAULT_TIMEOUT_SECONDS + ")")
+                .build();
+        Option maxConnectionsPerHostOption = Option.builder(MAX_CONNECTIONS_PER_HOST_OPTION)
+                .hasArg()
+                .desc("Maximum number of GTFS-realtime feeds downloaded from the same host at the same time (default " + FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST + ")")
+                .build();
+        Option maxFeedBytesOption = Option.builder(MAX_FEED_BYTES_OPTION)
+                .hasArg()
+                .desc("Maximum size of a GTFS-realtime feed in bytes (default " + FeedFetcher.DEFAULT_MAX_FEED_BYTES + ")")
+                .build();
+        Option feedStoreDirOption = Option.builder(FEED_STORE_DIR_OPTION)
+                .hasArg()
+                .desc("Directory to store the content of GTFS-realtime feeds in (default " + DEFAULT_FEED_STORE_DIR + " in the directory of the jar), or '" + FEED_STORE_DATABASE + "' to store them in the database")
+                .build();
+        Option feedStoreGzipOption = Option.builder(FEED_STORE_GZIP_OPTION)
+                .desc("Compress GTFS-realtime feeds stored in feedStoreDir with gzip")
+                .build();
+        Option maxGtfsCacheBytesOption = Option.builder(MAX_GTFS_CACHE_BYTES_OPTION)
+                .hasArg()
+                .desc("Maximum estimated memory in bytes used by the GTFS data kept loaded when not used by monitored GTFS-realtime feeds, estimated from the number of stop_times, shape points and other GTFS entities (default " + GtfsDataRegistry.DEFAULT_MAX_SIZE + ")")
+                .build();
+        Option hashAlgorithmOption = Option.builder(HASH_ALGORITHM_OPTION)
+                .hasArg()
+                .desc("Algorithm used to detect duplicate GTFS-realtime feeds - MURMUR3_128, MD5 or SHA256 (default " + FeedHashAlgorithm.DEFAULT + ", use MD5 to keep matching hashes stored by earlier versions)")
+                .build();
+        Option incrementalValidationOption = Option.builder(INCREMENTAL_VALIDATION_OPTION)
+                .desc("Only validate GTFS-realtime entities that changed since the previous iteration for rules that check each entity on its own without the feed header (currently the stop_time_update rules E002, E009, E036, E037 and E040-E046), reusing the errors and warnings of unchanged entities")
+                .build();
         CommandLineParser parser = new DefaultParser();
         Options options = new Options();
         options.addOption(portOption);
-        CommandLine cmd = parser.parse(options, args);
+        options.addOption(ruleThreadsOption);
+        options.addOption(entityChunkSizeOption);
+        options.addOption(writeQueueSizeOption);
+        options.addOption(writeQueuePolicyOption);
+        options.addOption(feedThreadsOption);
+        options.addOption(fetchTimeoutOption);
+        options.addOption(maxConnectionsPerHostOption);
+        options.addOption(maxFeedBytesOption);
+        options.addOption(feedStoreDirOption);
+        options.addOption(feedStoreGzipOption);
+        options.addOption(maxGtfsCacheBytesOption);
+        options.addOption(hashAlgorithmOption);
+        options.addOption(incrementalValidationOption);
+        return parser.parse(options, args);
+    }
+
+    /**
+     * Returns the port to use from command line arguments, or 8080 if no args are provided
+     *
+     * @param cmd
+     * @return the port to use from command line arguments, or 8080 if no args are provided
+     */
+    private static int getPortFromArgs(CommandLine cmd) {
+        int port = 8080;
         if (cmd.hasOption(PORT_NUMBER_OPTION)) {
             port = Integer.valueOf(cmd.getOptionValue(PORT_NUMBER_OPTION));
         }
         return port;
     }
+
+    /**
+     * Returns the number of threads to use to validate rules in parallel from command line arguments, or 1 if not provided
+     *
+     * @param cmd
+     * @return the number of threads to use to validate rules in parallel from command line arguments, or 1 if not provided
+     */
+    private static int getRuleThreadsFromArgs(CommandLine cmd) {
+        int threads = 1;
+        if (cmd.hasOption(RULE_THREADS_OPTION)) {
+            threads = Integer.valueOf(cmd.getOptionValue(RULE_THREADS_OPTION));
+        }
+        return threads;
+    }
+
+    /**
+     * Returns the entity chunk size to use from command line arguments, or BackgroundTask.DEFAULT_ENTITY_CHUNK_SIZE if not provided
+     *
+     * @param cmd
+     * @return the entity chunk size to use from command line arguments, or BackgroundTask.DEFAULT_ENTITY_CHUNK_SIZE if not provided
+     */
+    private static int getEntityChunkSizeFromArgs(CommandLine cmd) {
+        int chunkSize = BackgroundTask.DEFAULT_ENTITY_CHUNK_SIZE;
+        if (cmd.hasOption(ENTITY_CHUNK_SIZE_OPTION)) {
+            chunkSize = Integer.valueOf(cmd.getOptionValue(ENTITY_CHUNK_SIZE_OPTION));
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Returns the write queue size to use from command line arguments, or ErrorWriter.DEFAULT_CAPACITY if not provided
+     *
+     * @param cmd
+     * @return the write queue size to use from command line arguments, or ErrorWriter.DEFAULT_CAPACITY if not provided
+     */
+    private static int getWriteQueueSizeFromArgs(CommandLine cmd) {
+        int queueSize = ErrorWriter.DEFAULT_CAPACITY;
+        if (cmd.hasOption(WRITE_QUEUE_SIZE_OPTION)) {
+            queueSize = Integer.valueOf(cmd.getOptionValue(WRITE_QUEUE_SIZE_OPTION));
+        }
+        return queueSize;
+    }
+
+    /**
+     * Returns the write queue overflow policy to use from command line arguments, or ErrorWriter.DEFAULT_OVERFLOW_POLICY if not provided
+     *
+     * @param cmd
+     * @return the write queue overflow policy to use from command line arguments, or ErrorWriter.DEFAULT_OVERFLOW_POLICY if not provided
+     */
+    private static ErrorWriter.OverflowPolicy getWriteQueuePolicyFromArgs(CommandLine cmd) {
+        ErrorWriter.OverflowPolicy policy = ErrorWriter.DEFAULT_OVERFLOW_POLICY;
+        if (cmd.hasOption(WRITE_QUEUE_POLICY_OPTION)) {
+            policy = ErrorWriter.OverflowPolicy.valueOf(cmd.getOptionValue(WRITE_QUEUE_POLICY_OPTION).toUpperCase());
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the number of threads to use to fetch and validate feeds from command line arguments, or FeedScheduler.DEFAULT_THREADS if not provided
+     *
+     * @param cmd
+     * @return the number of threads to use to fetch and validate feeds from command line arguments, or FeedScheduler.DEFAULT_THREADS if not provided
+     */
+    private static int getFeedThreadsFromArgs(CommandLine cmd) {
+        int threads = FeedScheduler.DEFAULT_THREADS;
+        if (cmd.hasOption(FEED_THREADS_OPTION)) {
+            threads = Integer.valueOf(cmd.getOptionValue(FEED_THREADS_OPTION));
+        }
+        return threads;
+    }
+
+    /**
+     * Returns the fetch timeout in seconds from command line arguments, or FeedFetcher.DEFAULT_TIMEOUT_SECONDS if not provided
+     *
+     * @param cmd
+     * @return the fetch timeout in seconds from command line arguments, or FeedFetcher.DEFAULT_TIMEOUT_SECONDS if not provided
+     */
+    private static int getFetchTimeoutFromArgs(CommandLine cmd) {
+        int timeout = FeedFetcher.DEFAULT_TIMEOUT_SECONDS;
+        if (cmd.hasOption(FETCH_TIMEOUT_OPTION)) {
+            timeout = Integer.valueOf(cmd.getOptionValue(FETCH_TIMEOUT_OPTION));
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the maximum number of connections per host from command line arguments, or FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST if not provided
+     *
+     * @param cmd
+     * @return the maximum number of connections per host from command line arguments, or FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST if not provided
+     */
+    private static int getMaxConnectionsPerHostFromArgs(CommandLine cmd) {
+        int maxConnections = FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        if (cmd.hasOption(MAX_CONNECTIONS_PER_HOST_OPTION)) {
+            maxConnections = Integer.valueOf(cmd.getOptionValue(MAX_CONNECTIONS_PER_HOST_OPTION));
+        }
+        return maxConnections;
+    }
+
+    /**
+     * Returns the maximum feed size in bytes from command line arguments, or FeedFetcher.DEFAULT_MAX_FEED_BYTES if not provided
+     *
+     * @param cmd
+     * @return the maximum feed size in bytes from command line arguments, or FeedFetcher.DEFAULT_MAX_FEED_BYTES if not provided
+     */
+    private static int getMaxFeedBytesFromArgs(CommandLine cmd) {
+        int maxFeedBytes = FeedFetcher.DEFAULT_MAX_FEED_BYTES;
+        if (cmd.hasOption(MAX_FEED_BYTES_OPTION)) {
+            maxFeedBytes = Integer.valueOf(cmd.getOptionValue(MAX_FEED_BYTES_OPTION));
+        }
+        return maxFeedBytes;
+    }
+
+    /**
+     * Returns the directory to store GTFS-realtime feeds in from command line arguments, or DEFAULT_FEED_STORE_DIR in the directory of the jar if not provided
+     *
+     * @param cmd
+     * @return the directory to store GTFS-realtime feeds in from command line arguments, or DEFAULT_FEED_STORE_DIR in the directory of the jar if not provided
+     */
+    private static String getFeedStoreDirFromArgs(CommandLine cmd) {
+        // Don't depend on the directory the validator is started from, so feeds are found again after a restart
+        String feedStoreDir = new File(new GetFile().getJarLocation().getParentFile(), DEFAULT_FEED_STORE_DIR).getAbsolutePath();
+        if (cmd.hasOption(FEED_STORE_DIR_OPTION)) {
+            feedStoreDir = cmd.getOptionValue(FEED_STORE_DIR_OPTION);
+        }
+        return feedStoreDir;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the GTFS data kept in memory from command line arguments, or GtfsDataRegistry.DEFAULT_MAX_SIZE if not provided
+     *
+     * @param cmd
+     * @return the maximum size in bytes of the GTFS data kept in memory from command line arguments, or GtfsDataRegistry.DEFAULT_MAX_SIZE if not provided
+     */
+    private static long getMaxGtfsCacheBytesFromArgs(CommandLine cmd) {
+        long maxCacheBytes = GtfsDataRegistry.DEFAULT_MAX_SIZE;
+        if (cmd.hasOption(MAX_GTFS_CACHE_BYTES_OPTION)) {
+            maxCacheBytes = Long.valueOf(cmd.getOptionValue(MAX_GTFS_CACHE_BYTES_OPTION));
+        }
+        return maxCacheBytes;
+    }
+
+    /**
+     * Returns the algorithm used to detect duplicate GTFS-realtime feeds from command line arguments, or FeedHashAlgorithm.DEFAULT if not provided
+     *
+     * @param cmd
+     * @return the algorithm used to detect duplicate GTFS-realtime feeds from command line arguments, or FeedHashAlgorithm.DEFAULT if not provided
+     */
+    private static FeedHashAlgorithm getHashAlgorithmFromArgs(CommandLine cmd) {
+        FeedHashAlgorithm algorithm = FeedHashAlgorithm.DEFAULT;
+        if (cmd.hasOption(HASH_ALGORITHM_OPTION)) {
+            algorithm = FeedHashAlgorithm.valueOf(cmd.getOptionValue(HASH_ALGORITHM_OPTION).toUpperCase());
+        }
+        return algorithm;
+    }
 }
@@ -52,6 +52,18 @@ public class GtfsRtFeedIterationModel implements Serializable {
     private GtfsRtFeedModel gtfsRtFeedModel;
     @Column(name = "feedHash")
     private byte[] feedHash;
+    /*
+     * True if the feed of this iteration is stored in the FeedBlobStore under blobKey instead of in feedprotobuf.
+     * Null for iterations with a duplicate feed, and for iterations saved before the FeedBlobStore existed.
+     */
+    @Column(name = "blobStored")
+    private Boolean blobStored;
+    /*
+     * The key of the feed in the FeedBlobStore (see FeedBlobStore.getKey()).  Null for iterations that aren't stored in
+     * the FeedBlobStore, and for iterations stored in it under feedHash before blobKey existed.
+     */
+    @Column(name = "blobKey")
+    private byte[] blobKey;
 
     /*
      * '@Transient' does not persist 'dateFormat' to the database i.e., 'dateFormat' is not added as a column in this table.
@@ -108,6 +120,22 @@ public class GtfsRtFeedIterationModel implements Serializable {
         this.feedHash = feedHash;
     }
 
+    public Boolean getBlobStored() {
+        return blobStored;
+    }
+
+    public void setBlobStored(Boolean blobStored) {
+        this.blobStored = blobStored;
+    }
+
+    public byte[] getBlobKey() {
+        return blobKey;
+    }
+
+    public void setBlobKey(byte[] blobKey) {
+        this.blobKey = blobKey;
+    }
+
     public String getDateFormat() {
         return dateFormat;
     }
@@ -30,7 +30,7 @@ import javax.xml.bind.annotation.XmlRootElement;
                 "FROM GtfsRtFeedIteration " +
                 "WHERE (rtFeedID = ? " +
                     "AND IterationTimestamp >= ? AND IterationTimestamp <= ? " +
-                    "AND feedProtobuf IS NOT NULL) ",
+                    "AND (feedProtobuf IS NOT NULL OR blobStored = TRUE)) ",
         resultClass = ViewFeedUniqueResponseCount.class)
 public class ViewFeedUniqueResponseCount {
 
@@ -24,8 +24,12 @@ import com.conveyal.gtfs.validator.json.FeedValidationResultSet;
 import com.conveyal.gtfs.validator.json.backends.FileSystemFeedBackend;
 import com.conveyal.gtfs.validator.json.serialization.JsonSerializer;
 import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsDataRegistry;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadataSnapshot;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.GetFile;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
 import org.hibernate.Session;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.serialization.GtfsReader;
@@ -41,14 +45,13 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -61,7 +64,6 @@ public class GtfsFeed {
 
     private static final int BUFFER_SIZE = 4096;
     private static final String jsonFilePath = "classes"+File.separator+"webroot";
-    public static Map<Integer, GtfsDaoImpl> GtfsDaoMap = new ConcurrentHashMap<>();
 
     //DELETE {id} remove feed with the given id
     @DELETE
@@ -143,7 +145,7 @@ public class GtfsFeed {
             gtfsFeed = createGtfsFeedModel(gtfsFeedUrl, saveFileName);
         } else {
             _log.info("GTFS URL already exists exists in database - checking if data has changed...");
-            byte[] newChecksum = calculateMD5checksum(gtfsFeed.getFeedLocation());
+            byte[] newChecksum = calculateChecksum(gtfsFeed.getFeedLocation());
             byte[] oldChecksum = gtfsFeed.getChecksum();
             // If file digest are equal, check whether validated json file exists
             if (MessageDigest.isEqual(newChecksum, oldChecksum)) {
@@ -158,17 +160,16 @@ public class GtfsFeed {
             }
         }
 
-        //Saves GTFS data to store and validates GTFS feed
-        GtfsDaoImpl store = saveGtfsFeed(gtfsFeed);
-        if (store == null) {
+        //Loads GTFS data, unless another GTFS feed with the same data is already loaded
+        GtfsFeedModel loadFeed = gtfsFeed;
+        GtfsDataRegistry.Dataset dataset = GtfsDataRegistry.register(gtfsFeed.getFeedId(), gtfsFeed.getChecksum(), () -> loadDataset(loadFeed));
+        if (dataset == null) {
             return generateError("Can't read content", "Can't read content from the GTFS URL", Response.Status.NOT_FOUND);
         }
         // Save gtfs agency to the database
-        gtfsFeed.setAgency(store.getAllAgencies().iterator().next().getTimezone());
+        gtfsFeed.setAgency(dataset.getGtfsData().getAllAgencies().iterator().next().getTimezone());
         session.update(gtfsFeed);
         GTFSDB.commitAndCloseSession(session);
-
-        GtfsDaoMap.put(gtfsFeed.getFeedId(), store);
         
         if(canReturn)
             return Response.ok(gtfsFeed).build();
@@ -239,7 +240,7 @@ public class GtfsFeed {
         gtfsFeed.setGtfsUrl(gtfsFeedUrl);
         gtfsFeed.setStartTime(System.currentTimeMillis());
         
-        byte[] checksum = calculateMD5checksum(saveFilePath);
+        byte[] checksum = calculateChecksum(saveFilePath);
         gtfsFeed.setChecksum(checksum);
 
         //Create GTFS feed row in database
@@ -256,25 +257,81 @@ public class GtfsFeed {
         GTFSDB.commitAndCloseSession(session);
         return gtfsFeed;
     }
-    private byte[] calculateMD5checksum(String inputFile) {
-        byte[] digest = null;
-        byte[] dataBytes = new byte[1024];
-        int nread;
+    /**
+     * Returns the checksum of a GTFS zip file, using the current FeedHashAlgorithm
+     *
+     * @param inputFile path of the GTFS zip file
+     * @return the checksum of the GTFS zip file, or null if it couldn't be read
+     */
+    private byte[] calculateChecksum(String inputFile) {
         try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            try {
-                InputStream is = Files.newInputStream(Paths.get(inputFile));
-                while ((nread = is.read(dataBytes)) != -1)
-                    md.update(dataBytes, 0, nread);
-                } catch (IOException ex) {
-                    Logger.getLogger(GtfsFeed.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            digest = md.digest();
-            }   catch (NoSuchAlgorithmException ex) {
-                Logger.getLogger(GtfsFeed.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        return digest;
+            // GTFS data is shared between feeds with the same checksum, so it must resist deliberate collisions
+            return FeedHashAlgorithm.SHA256.hashFile(Paths.get(inputFile));
+        } catch (IOException ex) {
+            Logger.getLogger(GtfsFeed.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the current version of a GTFS feed from its snapshot if there is one, otherwise from its zip file, and
+     * starts building its metadata in the background.  This is called again by GtfsDataRegistry if the GTFS data is
+     * needed after it's evicted.
+     *
+     * @param gtfsFeed the GTFS feed
+     * @return the GTFS data and metadata of the GTFS feed, or null if the GTFS feed couldn't be read
+     */
+    private GtfsDataRegistry.Dataset loadDataset(GtfsFeedModel gtfsFeed) {
+        // GTFS data loaded from a GtfsMetadataSnapshot only contains the entities used by GtfsMetadata, and no stop_times or shapes
+        GtfsMetadataSnapshot snapshot = readSnapshot(gtfsFeed);
+        GtfsDaoImpl store = snapshot != null ? snapshot.getGtfsData() : saveGtfsFeed(gtfsFeed);
+        if (store == null) {
+            return null;
+        }
+        TimeZone timeZone = TimeZone.getTimeZone(store.getAllAgencies().iterator().next().getTimezone());
+        GtfsMetadata metadata = snapshot != null ? snapshot.createMetadata(gtfsFeed.getGtfsUrl(), timeZone) : new GtfsMetadata(gtfsFeed.getGtfsUrl(), timeZone, store);
+        CompletableFuture<Void> metadataBuilt = metadata.buildInBackground(ForkJoinPool.commonPool());
+        if (snapshot == null) {
+            // Save a snapshot so this version of the GTFS feed loads faster next time
+            metadataBuilt.thenRun(() -> writeSnapshot(gtfsFeed, store, metadata));
+        }
+        long size = snapshot != null ? GtfsDataRegistry.Dataset.estimateSize(store, snapshot.getStopTimes(), snapshot.getShapePoints())
+                : GtfsDataRegistry.Dataset.estimateSize(store, null, null);
+        return new GtfsDataRegistry.Dataset(gtfsFeed.getChecksum(), size, store, metadata);
+    }
+
+    /**
+     * Reads the snapshot of the current version of a GTFS feed
+     *
+     * @param gtfsFeed the GTFS feed
+     * @return the snapshot of the current version of the GTFS feed, or null if there isn't one or it couldn't be read
+     */
+    private GtfsMetadataSnapshot readSnapshot(GtfsFeedModel gtfsFeed) {
+        File snapshotFile = GtfsMetadataSnapshot.getFile(gtfsFeed.getFeedLocation());
+        try {
+            return GtfsMetadataSnapshot.read(snapshotFile, gtfsFeed.getChecksum());
+        } catch (IOException e) {
+            _log.warn("Couldn't read GTFS snapshot " + snapshotFile + ", reading GTFS data from " + gtfsFeed.getFeedLocation(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current version of a GTFS feed, so it can be loaded by readSnapshot()
+     *
+     * @param gtfsFeed the GTFS feed
+     * @param store    the GTFS data read from the GTFS feed
+     * @param metadata the metadata built from store
+     */
+    private static void writeSnapshot(GtfsFeedModel gtfsFeed, GtfsDaoImpl store, GtfsMetadata metadata) {
+        File snapshotFile = GtfsMetadataSnapshot.getFile(gtfsFeed.getFeedLocation());
+        try {
+            GtfsMetadataSnapshot.write(snapshotFile, gtfsFeed.getChecksum(), store, metadata);
+        } catch (IOException | RuntimeException e) {
+            _log.error("Couldn't write GTFS snapshot " + snapshotFile, e);
+        }
     }
+
     private GtfsDaoImpl saveGtfsFeed(GtfsFeedModel gtfsFeed) {
         GtfsDaoImpl store = new GtfsDaoImpl();
 
@@ -23,6 +23,9 @@ import edu.usf.cutr.gtfsrtvalidator.api.model.*;
 import edu.usf.cutr.gtfsrtvalidator.api.model.combined.CombinedIterationMessageModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.combined.CombinedMessageOccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedScheduler;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsDataRegistry;
+import edu.usf.cutr.gtfsrtvalidator.background.LatestFeedCache;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.IterationErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.helper.MergeMonitorData;
@@ -34,6 +37,7 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
@@ -43,8 +47,6 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Path("/gtfs-rt-feed")
@@ -126,8 +128,6 @@ public class GtfsRtFeed {
         return Response.ok(feedList).build();
     }
 
-    private static HashMap<String, ScheduledExecutorService> runningTasks = new HashMap<>();
-
     @PUT
     @Path("/monitor/{id}")
     public Response startMonitor(
@@ -156,6 +156,21 @@ public class GtfsRtFeed {
         return Response.ok(sessionModel, MediaType.APPLICATION_JSON).build();
     }
 
+    @DELETE
+    @Path("/monitor/{id}")
+    public Response stopMonitor(@PathParam("id") int id) {
+        Session session = GTFSDB.initSessionBeginTrans();
+        GtfsRtFeedModel gtfsRtFeed = (GtfsRtFeedModel) session.createQuery(" FROM GtfsRtFeedModel "
+                + "WHERE rtFeedID = "+id).uniqueResult();
+        GTFSDB.closeSession(session);
+        if (gtfsRtFeed == null) {
+            return generateError("GTFS-RT feed " + id + " doesn't exist");
+        }
+
+        stopBackgroundTask(gtfsRtFeed);
+        return Response.ok().build();
+    }
+
     // Get Monitor data for requested gtfsRtId
     @GET
     @Path("/monitor-data/{id : \\d+}")
@@ -258,13 +273,20 @@ public class GtfsRtFeed {
      public String getFeedMessage(
              @PathParam("iterationId") int iterationId) {
 
-        ViewFeedMessageModel feedMessageModel;
-         Session session = GTFSDB.initSessionBeginTrans();
-        feedMessageModel = session.createNamedQuery("feedMessageByIterationId", ViewFeedMessageModel.class)
-                .setParameter(0, iterationId)
-                .uniqueResult();
+        ViewFeedMessageModel feedMessageModel = new ViewFeedMessageModel();
+        Session session = GTFSDB.initSessionBeginTrans();
+        GtfsRtFeedIterationModel feedIteration = session.get(GtfsRtFeedIterationModel.class, iterationId);
         GTFSDB.commitAndCloseSession(session);
-        feedMessageModel.setJsonFeedMessage(feedMessageModel.getByteFeedMessage());
+        try {
+            // The feed may be stored in the FeedBlobStore instead of the database
+            feedMessageModel.setJsonFeedMessage(GTFSDB.getFeedProtobuf(feedIteration));
+        } catch (FileNotFoundException e) {
+            // Old feeds may have been deleted from the feed store to reclaim space
+            throw new NotFoundException("The feed of iteration " + iterationId + " isn't stored anymore", e);
+        } catch (IOException e) {
+            _log.error("Couldn't read the feed of iteration " + iterationId, e);
+            throw new InternalServerErrorException(e);
+        }
         return feedMessageModel.getJsonFeedMessage();
      }
 
@@ -438,6 +460,12 @@ public class GtfsRtFeed {
                             createQuery("  FROM GtfsRtFeedIterationModel WHERE IterationId = "+iterationId).uniqueResult();
 
         GtfsRtFeedIterationString iterationString = new GtfsRtFeedIterationString(iterationModel);
+        try {
+            // The feed may be stored in the FeedBlobStore instead of the database
+            iterationString.setFeedprotobuf(GTFSDB.getFeedProtobuf(iterationModel));
+        } catch (IOException e) {
+            _log.error("Couldn't read the feed of iteration " + iterationId, e);
+        }
 
         messageList.setGtfsFeedIterationModel(iterationString);
 
@@ -481,17 +509,41 @@ public class GtfsRtFeed {
         return INVALID_FEED;
     }
 
-    public synchronized static ScheduledExecutorService startBackgroundTask(GtfsRtFeedModel gtfsRtFeed, int updateInterval) {
-        String rtFeedUrl = gtfsRtFeed.getGtfsUrl();
+    /**
+     * Starts fetching and validating the given GTFS-realtime feed every updateInterval seconds on the shared
+     * FeedScheduler, unless it's already being monitored.  The GTFS data of the feed's GTFS feed is kept loaded while
+     * the feed is monitored.
+     *
+     * @param gtfsRtFeed     the GTFS-realtime feed to monitor
+     * @param updateInterval time between each fetch of the feed, in seconds
+     * @return true if monitoring was started, false if the feed was already being monitored
+     */
+    public static boolean startBackgroundTask(GtfsRtFeedModel gtfsRtFeed, int updateInterval) {
+        // Load the latest feed stored by an earlier run before the first download, so it can be recognized as a duplicate
+        LatestFeedCache.warm(gtfsRtFeed);
+        boolean started = FeedScheduler.getDefault().schedule(gtfsRtFeed.getGtfsUrl(), new BackgroundTask(gtfsRtFeed), updateInterval, TimeUnit.SECONDS);
+        if (started) {
+            GtfsDataRegistry.acquire(gtfsRtFeed.getGtfsFeedModel().getFeedId());
+        }
+        return started;
+    }
 
-        if (!runningTasks.containsKey(rtFeedUrl)) {
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-            scheduler.scheduleAtFixedRate(new BackgroundTask(gtfsRtFeed), 0, updateInterval, TimeUnit.SECONDS);
-            runningTasks.put(rtFeedUrl, scheduler);
-            return scheduler;
-        } else {
-            return runningTasks.get(rtFeedUrl);
+    /**
+     * Stops fetching and validating the given GTFS-realtime feed, and stops validating its latest feed with the other
+     * GTFS-realtime feeds of the same GTFS feed.  If no other monitored feeds use the same GTFS data, the GTFS data is
+     * unloaded.
+     *
+     * @param gtfsRtFeed the GTFS-realtime feed to stop monitoring
+     * @return true if monitoring was stopped, false if the feed wasn't being monitored
+     */
+    public static boolean stopBackgroundTask(GtfsRtFeedModel gtfsRtFeed) {
+        boolean stopped = FeedScheduler.getDefault().cancel(gtfsRtFeed.getGtfsUrl());
+        if (stopped) {
+            GtfsDataRegistry.release(gtfsRtFeed.getGtfsFeedModel().getFeedId());
+            BackgroundTask.remove(gtfsRtFeed.getGtfsRtId());
+            BackgroundTask.removeMetrics(gtfsRtFeed);
         }
+        return stopped;
     }
 
     public String getDateFormat(long feedTimestamp, int gtfsRtId) {
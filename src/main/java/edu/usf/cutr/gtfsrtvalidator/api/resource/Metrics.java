@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.api.resource;
+
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+/**
+ * Exports the metrics of the validator (see MetricsRegistry) in the Prometheus text format, so they can be scraped
+ * from /api/metrics
+ */
+@Path("/metrics")
+public class Metrics {
+
+    @GET
+    @Produces(MetricsRegistry.CONTENT_TYPE)
+    public Response getMetrics() {
+        return Response.ok(MetricsRegistry.getDefault().scrape()).build();
+    }
+}
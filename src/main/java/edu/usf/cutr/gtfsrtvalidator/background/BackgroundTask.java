@@ -20,27 +20,30 @@ package edu.usf.cutr.gtfsrtvalidator.background;
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedModel;
-import edu.usf.cutr.gtfsrtvalidator.api.resource.GtfsFeed;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.DBHelper;
 import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.metrics.Histogram;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import edu.usf.cutr.gtfsrtvalidator.validation.EntityResultCache;
+import edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
 import edu.usf.cutr.gtfsrtvalidator.validation.rules.*;
-import org.apache.commons.io.IOUtils;
 import org.hibernate.Session;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import static edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils.logDuration;
@@ -49,15 +52,60 @@ public class BackgroundTask implements Runnable {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(BackgroundTask.class);
 
+    public static final int DEFAULT_ENTITY_CHUNK_SIZE = 2000;
+
+    // The latest feed of each monitored GTFS-realtime feed, validated together with the other feeds of the same GTFS feed
     private static Map<Integer, GtfsRealtime.FeedMessage> mGtfsRtFeedMap = new ConcurrentHashMap<>();
-    private static Map<Integer, edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata> mGtfsMetadata = new ConcurrentHashMap<>();
+    // GTFS-realtime feeds that stopped being monitored, so an iteration that was still running doesn't add them back
+    private static final Set<Integer> mRemovedFeeds = ConcurrentHashMap.newKeySet();
     private final static List<FeedEntityValidator> mValidationRules = new ArrayList<>();
+    // Shared by all feeds to run validation rules in parallel, or null if rules are validated in a single pass on the feed's thread
+    private static volatile ExecutorService mRuleExecutor = null;
+    // When validating rules in parallel, feeds with more entities than this are split into chunks validated in parallel (for entity-local rules)
+    private static volatile int mEntityChunkSize = DEFAULT_ENTITY_CHUNK_SIZE;
+    // Saves errors and warnings on a separate thread, or null if they are saved on the feed's thread
+    private static volatile ErrorWriter mErrorWriter = null;
+    // Downloads feeds with timeouts and limits shared by all feeds
+    private static volatile FeedFetcher mFeedFetcher = new FeedFetcher();
+    // True if entity-local rules only validate the entities that changed since the previous iteration
+    private static volatile boolean mIncrementalValidation = false;
 
     private GtfsRtFeedModel mCurrentGtfsRtFeed = null;
 
+    // Values returned by the server for the last feed that was processed, used to only download the feed if it changed
+    private String mETag = null;
+    private long mLastModified = 0;
+
+    // Results of entity-local rules for each entity validated in the previous iteration, used for incremental validation
+    private final EntityResultCache mEntityResultCache = new EntityResultCache();
+
+    // Names of the histograms with the durations of each step of an iteration of a feed
+    private static final String FETCH_DURATION = "gtfsrt_feed_fetch_duration_seconds";
+    private static final String PARSE_DURATION = "gtfsrt_feed_parse_duration_seconds";
+    private static final String VALIDATION_DURATION = "gtfsrt_feed_validation_duration_seconds";
+    private static final String PERSIST_DURATION = "gtfsrt_feed_persist_duration_seconds";
+    private static final String ITERATION_DURATION = "gtfsrt_feed_iteration_duration_seconds";
+
+    // Durations of each step of an iteration of this feed, exported by /api/metrics with the URL of the feed as a label
+    private final Histogram mFetchDuration;
+    private final Histogram mParseDuration;
+    private final Histogram mValidationDuration;
+    private final Histogram mPersistDuration;
+    private final Histogram mIterationDuration;
+
     public BackgroundTask(GtfsRtFeedModel gtfsRtFeed) {
         // Accept the gtfs feed id and save entities of the same feed in an array
         mCurrentGtfsRtFeed = gtfsRtFeed;
+        // The feed may have been monitored before
+        mRemovedFeeds.remove(gtfsRtFeed.getGtfsRtId());
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String feed = gtfsRtFeed.getGtfsUrl();
+        mFetchDuration = metrics.histogram(FETCH_DURATION, "Time spent downloading a GTFS-realtime feed", "feed", feed);
+        mParseDuration = metrics.histogram(PARSE_DURATION, "Time spent parsing a GTFS-realtime feed", "feed", feed);
+        mValidationDuration = metrics.histogram(VALIDATION_DURATION, "Time spent validating a GTFS-realtime feed with all rules", "feed", feed);
+        mPersistDuration = metrics.histogram(PERSIST_DURATION, "Time spent saving an iteration of a GTFS-realtime feed to the database, including its errors and warnings unless they are saved by the ErrorWriter", "feed", feed);
+        mIterationDuration = metrics.histogram(ITERATION_DURATION, "Total time spent on an iteration of a GTFS-realtime feed", "feed", feed);
 
         // Initialize validation rules
         synchronized (mValidationRules) {
@@ -75,10 +123,67 @@ public class BackgroundTask implements Runnable {
         }
     }
 
+    /**
+     * Sets the number of threads shared by all feeds to validate rules in parallel.  If threads is 1 or less, all rules
+     * are validated in a single pass over the feed on the feed's own thread (the default).
+     *
+     * @param threads the number of threads to use to validate rules in parallel
+     */
+    public static synchronized void setRuleThreads(int threads) {
+        ExecutorService previous = mRuleExecutor;
+        mRuleExecutor = threads > 1 ? new ForkJoinPool(threads) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+        _log.info(threads > 1 ? "Validating rules in parallel on " + threads + " threads" : "Validating rules in a single pass");
+    }
+
+    /**
+     * Sets the maximum number of entities of a feed validated by a single thread for rules that validate each entity
+     * independently, when rules are validated in parallel (see setRuleThreads()).  Feeds with more entities are split
+     * into chunks that are validated in parallel.  If chunkSize is 0 or less, feeds are never split.
+     *
+     * @param chunkSize the maximum number of entities of a feed validated by a single thread
+     */
+    public static void setEntityChunkSize(int chunkSize) {
+        mEntityChunkSize = chunkSize > 0 ? chunkSize : FeedEntityTraversal.NO_CHUNKS;
+    }
+
+    /**
+     * Sets the ErrorWriter used by all feeds to save errors and warnings to the database on a separate thread.  If
+     * errorWriter is null, errors and warnings are saved on the feed's own thread (the default).
+     *
+     * @param errorWriter the ErrorWriter used to save errors and warnings, or null to save them on the feed's thread
+     */
+    public static void setErrorWriter(ErrorWriter errorWriter) {
+        mErrorWriter = errorWriter;
+    }
+
+    /**
+     * Sets the FeedFetcher used by all feeds to download GTFS-realtime feeds
+     *
+     * @param feedFetcher the FeedFetcher used to download GTFS-realtime feeds
+     */
+    public static void setFeedFetcher(FeedFetcher feedFetcher) {
+        mFeedFetcher = feedFetcher;
+    }
+
+    /**
+     * Sets whether entity-local rules (see FeedEntityValidator.isEntityLocal()) that don't depend on the feed header
+     * only validate the entities that were added or changed since the previous iteration of each feed, reusing the
+     * errors and warnings found for unchanged entities (see EntityResultCache).  Of the current rules, only
+     * StopTimeUpdateValidator does.  Other rules always validate the whole feed.  Disabled by default.
+     *
+     * @param incrementalValidation true to only validate new or changed entities for entity-local rules, false to validate all entities
+     */
+    public static void setIncrementalValidation(boolean incrementalValidation) {
+        mIncrementalValidation = incrementalValidation;
+    }
+
     @Override
     public void run() {
+        long startTimeNanos = System.nanoTime();
         try {
-            long startTimeNanos = System.nanoTime();
             GtfsRealtime.FeedMessage currentFeedMessage;
             GtfsRealtime.FeedMessage previousFeedMessage = null;
             GtfsDaoImpl gtfsData;
@@ -86,14 +191,17 @@ public class BackgroundTask implements Runnable {
 
             // Holds data needed in the database under each iteration
             GtfsRtFeedIterationModel feedIteration;
+            // Time spent saving this iteration to the database
+            long persistNanos;
 
-            // Get the GTFS feed from the GtfsDaoMap using the gtfsFeedId of the current feed.
-            gtfsData = GtfsFeed.GtfsDaoMap.get(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId());
-            // Create the GTFS metadata if it doesn't already exist
-            gtfsMetadata = mGtfsMetadata.computeIfAbsent(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId(),
-                    k -> new GtfsMetadata(mCurrentGtfsRtFeed.getGtfsFeedModel().getGtfsUrl(),
-                            TimeZone.getTimeZone(mCurrentGtfsRtFeed.getGtfsFeedModel().getAgency()),
-                            gtfsData));
+            // Get the GTFS data and metadata for the gtfsFeedId of the current feed, which may be shared with other GTFS feeds, and is loaded again if it was evicted
+            GtfsDataRegistry.Dataset dataset = GtfsDataRegistry.get(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId());
+            if (dataset == null) {
+                _log.error("Can't load GTFS data for " + mCurrentGtfsRtFeed.getGtfsFeedModel().getGtfsUrl() + " - add the GTFS feed again to validate " + mCurrentGtfsRtFeed.getGtfsUrl());
+                return;
+            }
+            gtfsData = dataset.getGtfsData();
+            gtfsMetadata = dataset.getMetadata();
 
             // Read the GTFS-rt feed from the feed URL
             URL gtfsRtFeedUrl;
@@ -106,127 +214,213 @@ public class BackgroundTask implements Runnable {
                 return;
             }
 
+            // Download into this thread's reusable buffer, computing the digest while downloading
+            FeedBuffer buffer = FeedBuffer.get();
             try {
-                // Get the GTFS-RT feedMessage for this method
-                InputStream in = gtfsRtFeedUrl.openStream();
-                byte[] gtfsRtProtobuf = IOUtils.toByteArray(in);
-
-                boolean isUniqueFeed = true;
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] prevFeedDigest = null;
-                byte[] currentFeedDigest = md.digest(gtfsRtProtobuf);
-
-                session = GTFSDB.initSessionBeginTrans();
-                feedIteration = (GtfsRtFeedIterationModel) session.createQuery("FROM GtfsRtFeedIterationModel"
-                        + " WHERE rtFeedId = " + mCurrentGtfsRtFeed.getGtfsRtId()
-                            + " ORDER BY IterationId DESC").setMaxResults(1).uniqueResult();
-                if (feedIteration != null) {
-                    prevFeedDigest = feedIteration.getFeedHash();
+                int gtfsRtId = mCurrentGtfsRtFeed.getGtfsRtId();
+                // The latest unique feed downloaded for this GTFS-rt feed, from this iteration or when the server started
+                LatestFeedCache.LatestFeed latestFeed = LatestFeedCache.get(gtfsRtId);
+
+                // Get the GTFS-RT feedMessage for this method, unless it hasn't changed since the last time we downloaded it
+                FeedFetcher.FetchResult fetchResult;
+                long fetchStartTimeNanos = System.nanoTime();
+                if (latestFeed != null) {
+                    fetchResult = mFeedFetcher.fetch(gtfsRtFeedUrl, mETag, mLastModified, buffer);
+                } else {
+                    fetchResult = mFeedFetcher.fetch(gtfsRtFeedUrl, null, 0, buffer);
                 }
+                mFetchDuration.observeSince(fetchStartTimeNanos);
+                if (fetchResult.isNotModified()) {
+                    // Record the iteration as a duplicate of the latest feed without comparing digests
+                    saveDuplicateIteration(latestFeed);
+                    _log.debug(gtfsRtFeedUrl + " has not been modified");
+                    return;
+                }
+                byte[] currentFeedDigest = buffer.getDigest();
 
-                if(MessageDigest.isEqual(currentFeedDigest, prevFeedDigest)) {
+                if (latestFeed != null && MessageDigest.isEqual(currentFeedDigest, latestFeed.getDigest())) {
                     // If previous feed digest and newly fetched/current feed digest are equal means, we received the same feed again.
-                    isUniqueFeed = false;
+                    saveDuplicateIteration(latestFeed);
+                    // This is the feed that was already processed, so it's safe to only download it again if it changed
+                    mETag = fetchResult.getETag();
+                    mLastModified = fetchResult.getLastModified();
+                    return;
                 }
 
-                InputStream is = new ByteArrayInputStream(gtfsRtProtobuf);
-                currentFeedMessage = GtfsRealtime.FeedMessage.parseFrom(is);
+                long parseStartTimeNanos = System.nanoTime();
+                currentFeedMessage = buffer.parseFeedMessage();
+                mParseDuration.observeSince(parseStartTimeNanos);
 
                 long feedTimestamp = TimeUnit.SECONDS.toMillis(currentFeedMessage.getHeader().getTimestamp());
 
-                // Create new feedIteration object and save the iteration to the database
-                if(isUniqueFeed) {
-                    if (feedIteration != null && feedIteration.getFeedprotobuf() != null) {
-                        // Get the previous feed message
-                        InputStream previousIs = new ByteArrayInputStream(feedIteration.getFeedprotobuf());
-                        previousFeedMessage = GtfsRealtime.FeedMessage.parseFrom(previousIs);
-                    }
-
-                    feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), feedTimestamp, gtfsRtProtobuf, mCurrentGtfsRtFeed, currentFeedDigest);
-                } else {
-                    feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), feedTimestamp, null, mCurrentGtfsRtFeed, currentFeedDigest);
+                if (latestFeed != null) {
+                    // Get the previous feed message
+                    previousFeedMessage = latestFeed.getFeedMessage();
                 }
+
+                // Create new feedIteration object and save the iteration to the database
+                feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), feedTimestamp, null, mCurrentGtfsRtFeed, currentFeedDigest);
+                long persistStartTimeNanos = System.nanoTime();
+                GTFSDB.storeFeedProtobuf(feedIteration, buffer.getBytes(), buffer.size(), buffer.getBlobKey());
+                session = GTFSDB.initSessionBeginTrans();
                 session.save(feedIteration);
                 GTFSDB.commitAndCloseSession(session);
+                persistNanos = System.nanoTime() - persistStartTimeNanos;
 
-                if (!isUniqueFeed) {
-                    return;
-                }
+                LatestFeedCache.put(gtfsRtId, currentFeedDigest, currentFeedMessage);
+                // Only send the ETag and Last-Modified of this feed in the next request now that it's been processed -
+                // if anything failed, the next request downloads the feed again instead of getting a 304
+                mETag = fetchResult.getETag();
+                mLastModified = fetchResult.getLastModified();
             } catch (Exception e) {
                 _log.error("The URL '" + gtfsRtFeedUrl + "' does not contain valid Gtfs-Rt data", e);
                 return;
+            } finally {
+                buffer.release();
             }
 
-            // Read all GTFS-rt entities for the current feed
-            mGtfsRtFeedMap.put(feedIteration.getGtfsRtFeedModel().getGtfsRtId(), currentFeedMessage);
-
             session = GTFSDB.initSessionBeginTrans();
 
-            List<GtfsRealtime.FeedEntity> allEntitiesArrayList = new ArrayList<>();
-
             List<GtfsRtFeedModel> gtfsRtFeedModelList;
             gtfsRtFeedModelList = session.createQuery("FROM GtfsRtFeedModel"
                     + " WHERE gtfsFeedID = " + mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId()).list();
 
             GTFSDB.closeSession(session);
 
-            GtfsRealtime.FeedHeader header = null;
-
             if (gtfsRtFeedModelList.size() < 1) {
                 _log.error("The URL '" + gtfsRtFeedUrl + "' is not stored properly into the database");
                 return;
             }
 
-            for (GtfsRtFeedModel gtfsRtFeedModel : gtfsRtFeedModelList) {
-                GtfsRealtime.FeedMessage message = mGtfsRtFeedMap.get(gtfsRtFeedModel.getGtfsRtId());
-                if (header == null) {
-                    // Save one header to use in our combined feed below
-                    header = message.getHeader();
-                } else {
-                    if (message.getHeader() != null && message.getHeader().getTimestamp() > header.getTimestamp()) {
-                        // Use largest header timestamp with multiple feeds - see #239
-                        header = message.getHeader();
-                    }
-                }
-                if (message != null) {
-                    allEntitiesArrayList.addAll(message.getEntityList());
-                }
-            }
-
-            GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
-            feedMessageBuilder.setHeader(header);
-            feedMessageBuilder.addAllEntity(allEntitiesArrayList);
-
-            GtfsRealtime.FeedMessage combinedFeed = feedMessageBuilder.build();
+            // Validate the latest messages of all GTFS-rt feeds for this GTFS feed as one feed, without copying them
+            CombinedFeedMessage combinedFeed = new CombinedFeedMessage(getLatestFeeds(mCurrentGtfsRtFeed, currentFeedMessage, gtfsRtFeedModelList));
 
             // Use the same current time for all rules for consistency
             long currentTimeMillis = System.currentTimeMillis();
 
-            // Run validation rules
-            for (FeedEntityValidator rule : mValidationRules) {
-                validateEntity(currentTimeMillis, combinedFeed, previousFeedMessage, gtfsData, gtfsMetadata, feedIteration, rule);
+            long validationStartTimeNanos = System.nanoTime();
+            List<List<ErrorListHelperModel>> results;
+            ExecutorService ruleExecutor = mRuleExecutor;
+            EntityResultCache entityResultCache = mIncrementalValidation ? mEntityResultCache : null;
+            if (ruleExecutor != null) {
+                // Run validation rules in parallel, and wait for all of them to finish before saving the results
+                results = FeedEntityTraversal.validate(mValidationRules, ruleExecutor, mEntityChunkSize, currentTimeMillis, gtfsData, gtfsMetadata, combinedFeed, previousFeedMessage, entityResultCache, mCurrentGtfsRtFeed.getGtfsUrl());
+            } else {
+                // Run all validation rules in a single pass over the feed entities
+                results = FeedEntityTraversal.validate(mValidationRules, currentTimeMillis, gtfsData, gtfsMetadata, combinedFeed, previousFeedMessage, entityResultCache, mCurrentGtfsRtFeed.getGtfsUrl());
+            }
+            mValidationDuration.observeSince(validationStartTimeNanos);
+            logDuration(_log, "Processed " + mValidationRules.size() + " rules in ", validationStartTimeNanos);
+
+            List<ErrorListHelperModel> allErrorLists = new ArrayList<>();
+            for (List<ErrorListHelperModel> errorLists : results) {
+                allErrorLists.addAll(errorLists);
+            }
+            countOccurrences(allErrorLists);
+            ErrorWriter errorWriter = mErrorWriter;
+            if (errorWriter != null) {
+                // Let the writer thread save the errors and warnings, so we don't wait for the database
+                errorWriter.submit(feedIteration, allErrorLists);
+            } else {
+                // Save the errors and warnings of all rules to the database in a single transaction
+                long saveStartTimeNanos = System.nanoTime();
+                DBHelper.saveErrors(feedIteration, allErrorLists);
+                persistNanos += System.nanoTime() - saveStartTimeNanos;
+                logDuration(_log, "Saved errors and warnings for " + mCurrentGtfsRtFeed.getGtfsUrl() + " in ", saveStartTimeNanos);
             }
+            mPersistDuration.observeNanos(persistNanos);
 
             logDuration(_log, "Processed " + mCurrentGtfsRtFeed.getGtfsUrl() + " in ", startTimeNanos);
         } catch (Exception ex) {
             ex.printStackTrace();
+        } finally {
+            mIterationDuration.observeSince(startTimeNanos);
         }
     }
 
-    private void validateEntity(long currentTimeMillis, GtfsRealtime.FeedMessage currentFeedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRtFeedIterationModel feedIteration, FeedEntityValidator feedEntityValidator) {
-        long startTimeNanos = System.nanoTime();
-        List<ErrorListHelperModel> errorLists = feedEntityValidator.validate(currentTimeMillis, gtfsData, gtfsMetadata, currentFeedMessage, previousFeedMessage);
-        logDuration(_log, "Processed " + feedEntityValidator.getClass().getSimpleName() + " in ", startTimeNanos);
-
-        if (errorLists != null) {
-            for (ErrorListHelperModel errorList : errorLists) {
-                if (!errorList.getOccurrenceList().isEmpty()) {
-                    //Set iteration Id
-                    errorList.getErrorMessage().setGtfsRtFeedIterationModel(feedIteration);
-                    //Save the captured errors to the database
-                    DBHelper.saveError(errorList);
-                }
+    /**
+     * Saves the latest feed of gtfsRtFeed, and returns it with the latest feeds of the other GTFS-realtime feeds of the
+     * same GTFS feed.  Feeds that stopped being monitored (see remove()) aren't included.
+     *
+     * @param gtfsRtFeed  the GTFS-realtime feed that was just downloaded
+     * @param feedMessage the feed that was just downloaded for gtfsRtFeed
+     * @param gtfsRtFeeds all GTFS-realtime feeds of the same GTFS feed, including gtfsRtFeed
+     * @return the latest feeds to validate together, in the order of gtfsRtFeeds
+     */
+    public static List<GtfsRealtime.FeedMessage> getLatestFeeds(GtfsRtFeedModel gtfsRtFeed, GtfsRealtime.FeedMessage feedMessage, List<GtfsRtFeedModel> gtfsRtFeeds) {
+        synchronized (mRemovedFeeds) {
+            // Unless the feed stopped being monitored while this iteration was running
+            if (!mRemovedFeeds.contains(gtfsRtFeed.getGtfsRtId())) {
+                mGtfsRtFeedMap.put(gtfsRtFeed.getGtfsRtId(), feedMessage);
             }
         }
+        List<GtfsRealtime.FeedMessage> feedMessages = new ArrayList<>(gtfsRtFeeds.size());
+        for (GtfsRtFeedModel gtfsRtFeedModel : gtfsRtFeeds) {
+            GtfsRealtime.FeedMessage message = gtfsRtFeedModel.getGtfsRtId() == gtfsRtFeed.getGtfsRtId() ? feedMessage : mGtfsRtFeedMap.get(gtfsRtFeedModel.getGtfsRtId());
+            if (message != null) {
+                feedMessages.add(message);
+            }
+        }
+        return feedMessages;
+    }
+
+    /**
+     * Forgets the latest feed of a GTFS-realtime feed that stopped being monitored, so it isn't validated anymore with
+     * the other GTFS-realtime feeds of the same GTFS feed, and isn't kept in memory.  Must be called after the feed's
+     * task is cancelled - an iteration that is still running finishes, but doesn't add the feed back.
+     *
+     * @param gtfsRtId the ID of the GTFS-realtime feed that isn't monitored anymore
+     */
+    public static void remove(int gtfsRtId) {
+        synchronized (mRemovedFeeds) {
+            mRemovedFeeds.add(gtfsRtId);
+            mGtfsRtFeedMap.remove(gtfsRtId);
+        }
+        LatestFeedCache.remove(gtfsRtId);
+    }
+
+    /**
+     * Removes the metrics of gtfsRtFeed from /api/metrics, so feeds that aren't monitored anymore don't keep their
+     * histograms forever
+     *
+     * @param gtfsRtFeed the feed that isn't monitored anymore
+     */
+    public static void removeMetrics(GtfsRtFeedModel gtfsRtFeed) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        for (String name : new String[]{FETCH_DURATION, PARSE_DURATION, VALIDATION_DURATION, PERSIST_DURATION, ITERATION_DURATION}) {
+            metrics.remove(name, "feed", gtfsRtFeed.getGtfsUrl());
+        }
+        synchronized (mValidationRules) {
+            FeedEntityTraversal.removeMetrics(mValidationRules, gtfsRtFeed.getGtfsUrl());
+        }
+    }
+
+    /**
+     * Adds the number of occurrences of each rule in errorLists to the gtfsrt_rule_occurrences_total counter of that rule
+     *
+     * @param errorLists the errors and warnings of an iteration
+     */
+    private static void countOccurrences(List<ErrorListHelperModel> errorLists) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        for (ErrorListHelperModel errorList : errorLists) {
+            metrics.counter("gtfsrt_rule_occurrences_total", "Number of occurrences of each error and warning found in all feeds",
+                    "rule_id", errorList.getErrorMessage().getValidationRule().getErrorId())
+                    .increment(errorList.getOccurrenceList().size());
+        }
+    }
+
+    /**
+     * Saves an iteration where the same feed as latestFeed was received again.  Duplicate iterations don't store the
+     * feed itself and aren't validated.
+     *
+     * @param latestFeed the latest unique feed of this GTFS-rt feed
+     */
+    private void saveDuplicateIteration(LatestFeedCache.LatestFeed latestFeed) {
+        GtfsRtFeedIterationModel feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), latestFeed.getFeedTimestamp(), null, mCurrentGtfsRtFeed, latestFeed.getDigest());
+        long startTimeNanos = System.nanoTime();
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.save(feedIteration);
+        GTFSDB.commitAndCloseSession(session);
+        mPersistDuration.observeSince(startTimeNanos);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
+import edu.usf.cutr.gtfsrtvalidator.helper.DBHelper;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.metrics.Histogram;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Saves the errors and warnings of feed iterations to the database on a dedicated thread, so feeds can fetch and
+ * validate their next iteration without waiting for the database.  Iterations are held in a bounded queue, and
+ * iterations queued by all feeds are coalesced and saved together in a single transaction.  If that transaction
+ * fails, each iteration is saved again in its own transaction, so only the iterations that can't be saved are lost.
+ * <p>
+ * When the queue is full, the OverflowPolicy decides whether feeds wait for room in the queue or iterations are dropped.
+ */
+public class ErrorWriter {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(ErrorWriter.class);
+
+    /**
+     * What to do when an iteration is submitted while the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room in the queue (backpressure on the feed submitting the iteration), or until the writer is shut down
+         */
+        BLOCK,
+        /**
+         * Drop the submitted iteration
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest iteration in the queue to make room for the submitted iteration
+         */
+        DROP_OLDEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+    // Maximum number of iterations saved in a single transaction
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    // How often the writer thread checks whether it has been shut down while the queue is empty, and feeds waiting for
+    // room in a full queue check whether the writer has been shut down
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final BlockingQueue<PendingWrite> mQueue;
+    private final OverflowPolicy mOverflowPolicy;
+    private final int mMaxBatchSize;
+    private final Consumer<Map<GtfsRtFeedIterationModel, List<ErrorListHelperModel>>> mWriter;
+    private final Thread mThread;
+    private volatile boolean mShutdown = false;
+
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final Histogram mBatchDuration = MetricsRegistry.getDefault().histogram("gtfsrt_error_writer_batch_duration_seconds",
+            "Time spent saving a batch of errors and warnings to the database");
+
+    /**
+     * Creates an ErrorWriter that saves errors and warnings to the database using DBHelper.saveErrors(), and starts its
+     * thread
+     *
+     * @param capacity       maximum number of iterations waiting to be saved
+     * @param overflowPolicy what to do when an iteration is submitted while capacity iterations are waiting to be saved
+     */
+    public ErrorWriter(int capacity, OverflowPolicy overflowPolicy) {
+        this(capacity, overflowPolicy, DEFAULT_MAX_BATCH_SIZE, DBHelper::saveErrors);
+    }
+
+    /**
+     * Creates an ErrorWriter and starts its thread
+     *
+     * @param capacity       maximum number of iterations waiting to be saved
+     * @param overflowPolicy what to do when an iteration is submitted while capacity iterations are waiting to be saved
+     * @param maxBatchSize   maximum number of iterations passed to writer at once
+     * @param writer         saves the errors and warnings of one or more iterations, keyed by iteration
+     */
+    public ErrorWriter(int capacity, OverflowPolicy overflowPolicy, int maxBatchSize, Consumer<Map<GtfsRtFeedIterationModel, List<ErrorListHelperModel>>> writer) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mOverflowPolicy = overflowPolicy;
+        mMaxBatchSize = maxBatchSize;
+        mWriter = writer;
+        mThread = new Thread(this::writeLoop, "ErrorWriter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queues the errors and warnings of a feed iteration to be saved.  If the queue is full, the OverflowPolicy of this
+     * writer is applied.  Iterations submitted after shutdown(), or still waiting for room in the queue when it's
+     * called, are dropped.
+     *
+     * @param feedIteration the iteration the errors and warnings were found in, already saved to the database
+     * @param errorLists    the errors and warnings to save
+     * @return true if the iteration was queued, false if it was dropped
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public boolean submit(GtfsRtFeedIterationModel feedIteration, List<ErrorListHelperModel> errorLists) throws InterruptedException {
+        if (mShutdown) {
+            _log.warn("ErrorWriter is shut down - dropping errors for iteration " + feedIteration.getIterationId());
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+        PendingWrite write = new PendingWrite(feedIteration, errorLists);
+        boolean queued = true;
+        switch (mOverflowPolicy) {
+            case BLOCK:
+                // Don't wait forever if the writer thread has stopped saving the queue
+                while (!mQueue.offer(write, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (mShutdown) {
+                        _log.warn("ErrorWriter is shut down - dropping errors for iteration " + feedIteration.getIterationId());
+                        mDroppedCount.incrementAndGet();
+                        return false;
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                queued = mQueue.offer(write);
+                if (!queued) {
+                    _log.warn("ErrorWriter queue is full - dropping errors for iteration " + feedIteration.getIterationId());
+                    mDroppedCount.incrementAndGet();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!mQueue.offer(write)) {
+                    PendingWrite dropped = mQueue.poll();
+                    if (dropped != null) {
+                        _log.warn("ErrorWriter queue is full - dropping errors for iteration " + dropped.feedIteration.getIterationId());
+                        mDroppedCount.incrementAndGet();
+                    }
+                }
+                break;
+        }
+        if (queued) {
+            mMaxQueueDepth.accumulateAndGet(mQueue.size(), Math::max);
+        }
+        return queued;
+    }
+
+    /**
+     * Stops accepting new iterations and waits for the iterations already queued to be saved
+     *
+     * @param timeout maximum time to wait for queued iterations to be saved
+     * @param unit    unit of timeout
+     * @return true if all queued iterations were saved, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        mShutdown = true;
+        mThread.join(unit.toMillis(timeout));
+        if (mThread.isAlive()) {
+            _log.warn("Timed out waiting for ErrorWriter to save " + mQueue.size() + " queued iterations");
+            return false;
+        }
+        // Save anything submitted while the writer thread was finishing
+        writeQueued();
+        return true;
+    }
+
+    /**
+     * @return the number of iterations currently waiting to be saved
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return the largest number of iterations that have been waiting to be saved at once
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of iterations whose errors and warnings have been saved
+     */
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    /**
+     * @return the number of iterations dropped because the queue was full or the writer was shut down
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return the number of iterations that couldn't be saved because of an error
+     */
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * @return the number of transactions used to save iterations
+     */
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            PendingWrite first;
+            try {
+                first = mQueue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                _log.warn("ErrorWriter interrupted with " + mQueue.size() + " queued iterations");
+                return;
+            }
+            if (first == null) {
+                if (mShutdown) {
+                    return;
+                }
+                continue;
+            }
+            List<PendingWrite> batch = new ArrayList<>();
+            batch.add(first);
+            mQueue.drainTo(batch, mMaxBatchSize - 1);
+            write(batch);
+        }
+    }
+
+    /**
+     * Saves everything in the queue on the calling thread
+     */
+    private void writeQueued() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (mQueue.drainTo(batch, mMaxBatchSize) > 0) {
+            write(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        Map<GtfsRtFeedIterationModel, List<ErrorListHelperModel>> errorListsByIteration = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            errorListsByIteration.put(write.feedIteration, write.errorLists);
+        }
+        long startTimeNanos = System.nanoTime();
+        try {
+            mWriter.accept(errorListsByIteration);
+            mBatchDuration.observeSince(startTimeNanos);
+            mWrittenCount.addAndGet(batch.size());
+            mBatchCount.incrementAndGet();
+            _log.debug("Saved errors and warnings for " + batch.size() + " iterations in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos) + " ms, " + mQueue.size() + " iterations queued");
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                _log.error("Failed to save errors and warnings for iteration " + batch.get(0).feedIteration.getIterationId(), e);
+                mFailedCount.incrementAndGet();
+                return;
+            }
+            // The iterations are from unrelated feeds, so don't let one iteration that can't be saved lose the others
+            _log.warn("Failed to save errors and warnings for " + batch.size() + " iterations together, saving them one at a time", e);
+            for (PendingWrite write : batch) {
+                write(Collections.singletonList(write));
+            }
+        }
+    }
+
+    /**
+     * The errors and warnings of a feed iteration waiting to be saved
+     */
+    private static class PendingWrite {
+        final GtfsRtFeedIterationModel feedIteration;
+        final List<ErrorListHelperModel> errorLists;
+
+        PendingWrite(GtfsRtFeedIterationModel feedIteration, List<ErrorListHelperModel> errorLists) {
+            this.feedIteration = feedIteration;
+            this.errorLists = errorLists;
+        }
+    }
+}
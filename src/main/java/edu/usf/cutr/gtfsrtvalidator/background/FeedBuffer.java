@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer that a GTFS-realtime feed is downloaded into.  The digest of the feed is computed while it's read,
+ * and the feed is parsed directly from the buffer, so a feed is only held in memory once while it's processed.  When
+ * feeds are stored in a FeedBlobStore (see setComputeBlobKey()), their SHA-256 key is computed in the same pass, so a
+ * unique feed isn't read again to store it.
+ * <p>
+ * Each thread has its own buffer (see get()) that is reused for every feed downloaded on that thread, so polling feeds
+ * doesn't allocate a new array for each download.  A buffer that grows larger than getMaxPooledSize() for a large feed
+ * is shrunk again by release(), so the memory kept by each thread between downloads is bounded.
+ */
+public class FeedBuffer {
+
+    public static final int DEFAULT_MAX_POOLED_SIZE = 4 * 1024 * 1024;
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+    // Minimum free space to read into, so each read from the stream can return a reasonable amount of data
+    private static final int MIN_READ_SIZE = 8192;
+
+    private static final ThreadLocal<FeedBuffer> mBuffers = ThreadLocal.withInitial(FeedBuffer::new);
+
+    private static volatile int mMaxPooledSize = DEFAULT_MAX_POOLED_SIZE;
+    private static volatile boolean mComputeBlobKey = false;
+
+    private FeedHashAlgorithm mAlgorithm;
+    private FeedHashAlgorithm.Digest mDigest;
+    private byte[] mBytes = new byte[INITIAL_SIZE];
+    private int mSize;
+    private byte[] mDigestValue;
+    // Computes the FeedBlobStore key, or null if it isn't needed or is the same as the digest
+    private FeedHashAlgorithm.Digest mBlobKeyDigest;
+    private byte[] mBlobKeyValue;
+
+    /**
+     * Returns the buffer of the current thread, emptied.  Call release() when done with it.
+     *
+     * @return the buffer of the current thread
+     */
+    public static FeedBuffer get() {
+        FeedBuffer buffer = mBuffers.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Sets the largest buffer each thread keeps between downloads - buffers that grew larger for a large feed are
+     * released after use
+     *
+     * @param maxPooledSize the largest buffer each thread keeps between downloads, in bytes
+     */
+    public static void setMaxPooledSize(int maxPooledSize) {
+        mMaxPooledSize = maxPooledSize;
+    }
+
+    /**
+     * @return the largest buffer each thread keeps between downloads, in bytes
+     */
+    public static int getMaxPooledSize() {
+        return mMaxPooledSize;
+    }
+
+    /**
+     * Sets whether the FeedBlobStore key (see FeedBlobStore.getKey()) of each feed is computed while it's read, in
+     * addition to its digest.  Takes effect the next time each buffer is emptied.
+     *
+     * @param computeBlobKey true if feeds are stored in a FeedBlobStore
+     */
+    public static void setComputeBlobKey(boolean computeBlobKey) {
+        mComputeBlobKey = computeBlobKey;
+    }
+
+    /**
+     * Creates a buffer that isn't shared with other downloads on the same thread - use get() instead to reuse the
+     * buffer of the current thread
+     */
+    public FeedBuffer() {
+        mAlgorithm = FeedHashAlgorithm.getCurrent();
+        mDigest = mAlgorithm.newDigest();
+        resetBlobKeyDigest();
+    }
+
+    /**
+     * Empties the buffer and resets the digest, using the current FeedHashAlgorithm
+     */
+    public void clear() {
+        mSize = 0;
+        if (mAlgorithm != FeedHashAlgorithm.getCurrent()) {
+            mAlgorithm = FeedHashAlgorithm.getCurrent();
+            mDigest = mAlgorithm.newDigest();
+        } else {
+            mDigest.reset();
+        }
+        mDigestValue = null;
+        resetBlobKeyDigest();
+    }
+
+    private void resetBlobKeyDigest() {
+        mBlobKeyValue = null;
+        if (!mComputeBlobKey || mAlgorithm == FeedHashAlgorithm.SHA256) {
+            mBlobKeyDigest = null;
+        } else if (mBlobKeyDigest == null) {
+            mBlobKeyDigest = FeedHashAlgorithm.SHA256.newDigest();
+        } else {
+            mBlobKeyDigest.reset();
+        }
+    }
+
+    /**
+     * Makes sure the buffer can hold capacity bytes without growing, e.g. when the length of a feed is known in advance
+     *
+     * @param capacity the number of bytes the buffer should hold
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > mBytes.length) {
+            mBytes = Arrays.copyOf(mBytes, Math.max(capacity, (int) Math.min(Integer.MAX_VALUE - 8, mBytes.length * 2L)));
+        }
+    }
+
+    /**
+     * Reads the next bytes available from in into the buffer, updating the digest
+     *
+     * @param in the stream to read from
+     * @return the number of bytes read, or -1 if the end of in was reached
+     * @throws IOException if in couldn't be read
+     */
+    public int read(InputStream in) throws IOException {
+        if (mBytes.length - mSize < MIN_READ_SIZE) {
+            ensureCapacity(mSize + MIN_READ_SIZE);
+        }
+        int read = in.read(mBytes, mSize, mBytes.length - mSize);
+        if (read > 0) {
+            mDigest.update(mBytes, mSize, read);
+            if (mBlobKeyDigest != null) {
+                mBlobKeyDigest.update(mBytes, mSize, read);
+            }
+            mSize += read;
+        }
+        return read;
+    }
+
+    /**
+     * @return the number of bytes in the buffer
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the array backing the buffer - only the first size() bytes are valid, and the array is reused for the
+     * next feed after release()
+     *
+     * @return the array backing the buffer
+     */
+    public byte[] getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return a copy of the bytes in the buffer
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBytes, mSize);
+    }
+
+    /**
+     * @return the digest (see FeedHashAlgorithm) of the bytes read into the buffer since it was last emptied
+     */
+    public byte[] getDigest() {
+        if (mDigestValue == null) {
+            mDigestValue = mDigest.digest();
+        }
+        return mDigestValue.clone();
+    }
+
+    /**
+     * Returns the FeedBlobStore key (see FeedBlobStore.getKey()) of the bytes read into the buffer since it was last
+     * emptied, if it was computed while they were read
+     *
+     * @return the SHA-256 digest of the bytes read into the buffer, or null if setComputeBlobKey() wasn't enabled when
+     * the buffer was last emptied
+     */
+    public byte[] getBlobKey() {
+        if (mAlgorithm == FeedHashAlgorithm.SHA256) {
+            return mComputeBlobKey ? getDigest() : null;
+        }
+        if (mBlobKeyDigest == null) {
+            return null;
+        }
+        if (mBlobKeyValue == null) {
+            mBlobKeyValue = mBlobKeyDigest.digest();
+        }
+        return mBlobKeyValue.clone();
+    }
+
+    /**
+     * Parses the bytes in the buffer as a GTFS-realtime feed.  The parsed feed doesn't reference the buffer, so it can
+     * be kept after the buffer is reused.
+     *
+     * @return the parsed feed
+     * @throws IOException if the bytes in the buffer aren't a valid GTFS-realtime feed
+     */
+    public GtfsRealtime.FeedMessage parseFeedMessage() throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(mBytes, 0, mSize);
+        GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(input);
+        input.checkLastTagWas(0);
+        return feedMessage;
+    }
+
+    /**
+     * Empties the buffer after use, and shrinks it if it grew larger than getMaxPooledSize()
+     */
+    public void release() {
+        clear();
+        if (mBytes.length > mMaxPooledSize) {
+            mBytes = new byte[Math.max(0, Math.min(INITIAL_SIZE, mMaxPooledSize))];
+        }
+    }
+}
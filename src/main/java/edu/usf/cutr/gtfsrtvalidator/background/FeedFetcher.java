@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads GTFS-realtime feeds with a timeout, a limit on the number of concurrent connections to each host, and a
+ * limit on the size of each feed, so a slow or misbehaving server can't tie up the threads shared by all feeds (see
+ * FeedScheduler) or exhaust memory.
+ */
+public class FeedFetcher {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FeedFetcher.class);
+
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final int DEFAULT_MAX_FEED_BYTES = 50 * 1024 * 1024;
+
+    private final long mTimeoutMillis;
+    private final int mMaxConnectionsPerHost;
+    private final int mMaxFeedBytes;
+    private final Map<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a FeedFetcher with the default timeout and limits
+     */
+    public FeedFetcher() {
+        this(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_FEED_BYTES);
+    }
+
+    /**
+     * Creates a FeedFetcher
+     *
+     * @param timeout               maximum time to wait for a connection to a host, and for a feed to download
+     * @param unit                  unit of timeout
+     * @param maxConnectionsPerHost maximum number of feeds downloaded from the same host at the same time
+     * @param maxFeedBytes          maximum size of a feed, in bytes
+     */
+    public FeedFetcher(long timeout, TimeUnit unit, int maxConnectionsPerHost, int maxFeedBytes) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        }
+        mTimeoutMillis = unit.toMillis(timeout);
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+        mMaxFeedBytes = maxFeedBytes;
+    }
+
+    /**
+     * Downloads the feed at the given URL.  If maxConnectionsPerHost feeds are already being downloaded from the same
+     * host, waits up to the timeout for one of them to finish.
+     *
+     * @param url the URL of the feed
+     * @return the content of the feed
+     * @throws IOException if the feed can't be downloaded, is larger than maxFeedBytes, or if the timeout elapses
+     */
+    public byte[] fetch(URL url) throws IOException {
+        return fetch(url, null, 0).getBody();
+    }
+
+    /**
+     * Downloads the feed at the given URL if it has changed since a previous download, using a conditional GET with the
+     * ETag and Last-Modified values returned by the server for that download.  If maxConnectionsPerHost feeds are
+     * already being downloaded from the same host, waits up to the timeout for one of them to finish.
+     *
+     * @param url          the URL of the feed
+     * @param eTag         the ETag of the previous download, or null to not send If-None-Match
+     * @param lastModified the Last-Modified time of the previous download in milliseconds, or 0 to not send
+     *                     If-Modified-Since
+     * @return the result of the download, which has no body if the server says the feed hasn't changed
+     * @throws IOException if the feed can't be downloaded, is larger than maxFeedBytes, or if the timeout elapses
+     */
+    public FetchResult fetch(URL url, String eTag, long lastModified) throws IOException {
+        return fetch(url, eTag, lastModified, new FeedBuffer());
+    }
+
+    /**
+     * Downloads the feed at the given URL into buffer if it has changed since a previous download, using a conditional
+     * GET with the ETag and Last-Modified values returned by the server for that download.  The digest of the feed is
+     * computed while it's downloaded (see FeedBuffer.getDigest()).  If maxConnectionsPerHost feeds are already being
+     * downloaded from the same host, waits up to the timeout for one of them to finish.
+     *
+     * @param url          the URL of the feed
+     * @param eTag         the ETag of the previous download, or null to not send If-None-Match
+     * @param lastModified the Last-Modified time of the previous download in milliseconds, or 0 to not send
+     *                     If-Modified-Since
+     * @param buffer       the empty buffer to download the feed into (see FeedBuffer.get())
+     * @return the result of the download, which has no body if the server says the feed hasn't changed
+     * @throws IOException if the feed can't be downloaded, is larger than maxFeedBytes, or if the timeout elapses
+     */
+    public FetchResult fetch(URL url, String eTag, long lastModified, FeedBuffer buffer) throws IOException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mTimeoutMillis);
+        Semaphore permits = mHostPermits.computeIfAbsent(url.getHost(), k -> new Semaphore(mMaxConnectionsPerHost));
+        try {
+            if (!permits.tryAcquire(mTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for one of " + mMaxConnectionsPerHost + " connections to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + url.getHost(), e);
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            int remainingMillis = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+            connection.setConnectTimeout(remainingMillis);
+            connection.setReadTimeout(remainingMillis);
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified > 0) {
+                connection.setIfModifiedSince(lastModified);
+            }
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                int responseCode = httpConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    httpConnection.disconnect();
+                    return new FetchResult(null, eTag, lastModified);
+                }
+                if (responseCode / 100 != 2) {
+                    // Don't leave the connection open with the unread error page
+                    InputStream errorStream = httpConnection.getErrorStream();
+                    if (errorStream != null) {
+                        errorStream.close();
+                    }
+                    httpConnection.disconnect();
+                    throw new IOException(url + " returned HTTP " + responseCode);
+                }
+            }
+            try (InputStream in = connection.getInputStream()) {
+                long contentLength = connection.getContentLengthLong();
+                if (contentLength > mMaxFeedBytes) {
+                    throw new IOException(url + " is " + contentLength + " bytes, larger than the limit of " + mMaxFeedBytes + " bytes");
+                }
+                read(url, in, contentLength, deadlineNanos, buffer);
+                return new FetchResult(buffer, connection.getHeaderField("ETag"), connection.getLastModified());
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Reads all of in into buffer, failing if there are more than maxFeedBytes or if the deadline passes
+     */
+    private void read(URL url, InputStream in, long contentLength, long deadlineNanos, FeedBuffer buffer) throws IOException {
+        if (contentLength > 0) {
+            // Read a final byte past contentLength to detect the end of the stream without growing the buffer
+            buffer.ensureCapacity((int) contentLength + 1);
+        }
+        while (buffer.read(in) != -1) {
+            if (buffer.size() > mMaxFeedBytes) {
+                throw new IOException(url + " is larger than the limit of " + mMaxFeedBytes + " bytes");
+            }
+            if (System.nanoTime() > deadlineNanos) {
+                // The read timeout only applies to each read, so also stop servers that send data very slowly
+                throw new SocketTimeoutException("Timed out after " + mTimeoutMillis + " ms downloading " + url);
+            }
+        }
+        _log.debug("Downloaded " + buffer.size() + " bytes from " + url);
+    }
+
+    /**
+     * @param host the host name of a feed URL
+     * @return the number of feeds currently being downloaded from host
+     */
+    public int getActiveConnections(String host) {
+        Semaphore permits = mHostPermits.get(host);
+        return permits != null ? mMaxConnectionsPerHost - permits.availablePermits() : 0;
+    }
+
+    /**
+     * The result of downloading a feed
+     */
+    public static class FetchResult {
+        private final FeedBuffer mBuffer;
+        private final String mETag;
+        private final long mLastModified;
+
+        FetchResult(FeedBuffer buffer, String eTag, long lastModified) {
+            mBuffer = buffer;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * @return a copy of the content of the feed, or null if the feed hasn't changed since the previous download
+         */
+        public byte[] getBody() {
+            return mBuffer != null ? mBuffer.toByteArray() : null;
+        }
+
+        /**
+         * @return the buffer holding the content of the feed, or null if the feed hasn't changed since the previous
+         * download
+         */
+        public FeedBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        /**
+         * @return true if the server said the feed hasn't changed since the previous download (HTTP 304)
+         */
+        public boolean isNotModified() {
+            return mBuffer == null;
+        }
+
+        /**
+         * @return the ETag of the feed to use in the next conditional request, or null if the server didn't send one
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * @return the Last-Modified time of the feed in milliseconds to use in the next conditional request, or 0 if
+         * the server didn't send one
+         */
+        public long getLastModified() {
+            return mLastModified;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the periodic tasks of all monitored feeds (e.g., BackgroundTask) on a shared pool with a fixed number of
+ * threads, instead of one thread per feed.  Tasks are identified by a key (e.g., the GTFS-realtime feed URL), so each
+ * feed is only scheduled once and can be cancelled later.
+ * <p>
+ * The first run of each task is delayed by a random jitter so feeds added at the same time don't all hit the thread
+ * pool (and the network) at the same moment.  Runs that take longer than the task's interval are counted as overruns -
+ * the next run of that task then starts late, as soon as the previous run finishes.
+ */
+public class FeedScheduler {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FeedScheduler.class);
+
+    public static final int DEFAULT_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    public static final long DEFAULT_MAX_JITTER_MILLIS = 2000;
+
+    private static FeedScheduler sDefault = null;
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final long mMaxJitterMillis;
+    private final Map<String, ScheduledFeed> mScheduledFeeds = new ConcurrentHashMap<>();
+
+    private final AtomicLong mRunCount = new AtomicLong();
+    private final AtomicLong mOverrunCount = new AtomicLong();
+
+    /**
+     * Creates a FeedScheduler that runs tasks on up to threads threads, with the default jitter
+     *
+     * @param threads number of threads shared by all tasks
+     */
+    public FeedScheduler(int threads) {
+        this(threads, DEFAULT_MAX_JITTER_MILLIS);
+    }
+
+    /**
+     * Creates a FeedScheduler
+     *
+     * @param threads         number of threads shared by all tasks
+     * @param maxJitterMillis maximum random delay before the first run of each task, in milliseconds.  The delay is
+     *                        also never more than the interval of the task.
+     */
+    public FeedScheduler(int threads, long maxJitterMillis) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ScheduledThreadPoolExecutor(threads, r -> new Thread(r, "FeedScheduler-" + threadCount.incrementAndGet()));
+        // Don't keep cancelled tasks in the queue until their next run
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mMaxJitterMillis = maxJitterMillis;
+    }
+
+    /**
+     * Returns the FeedScheduler shared by all feeds, creating one with DEFAULT_THREADS threads if setDefault() hasn't
+     * been called
+     *
+     * @return the FeedScheduler shared by all feeds
+     */
+    public static synchronized FeedScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new FeedScheduler(DEFAULT_THREADS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Sets the FeedScheduler shared by all feeds.  Must be called before any feeds are scheduled.
+     *
+     * @param scheduler the FeedScheduler shared by all feeds
+     */
+    public static synchronized void setDefault(FeedScheduler scheduler) {
+        if (sDefault != null && sDefault.getScheduledCount() > 0) {
+            throw new IllegalStateException("Feeds have already been scheduled on the default FeedScheduler");
+        }
+        sDefault = scheduler;
+    }
+
+    /**
+     * Runs task every interval, after a random jitter, unless a task has already been scheduled with the same key
+     *
+     * @param key      identifies the task, e.g. the feed URL
+     * @param task     the task to run
+     * @param interval time between the start of each run
+     * @param unit     unit of interval
+     * @return true if the task was scheduled, false if a task with the same key was already scheduled
+     */
+    public boolean schedule(String key, Runnable task, long interval, TimeUnit unit) {
+        if (mExecutor.isShutdown()) {
+            throw new IllegalStateException("FeedScheduler has been stopped");
+        }
+        boolean[] scheduled = {false};
+        mScheduledFeeds.computeIfAbsent(key, k -> {
+            long intervalMillis = unit.toMillis(interval);
+            long jitterMillis = ThreadLocalRandom.current().nextLong(Math.max(1, Math.min(mMaxJitterMillis, intervalMillis)));
+            ScheduledFeed scheduledFeed = new ScheduledFeed(key, task, intervalMillis);
+            scheduledFeed.mFuture = mExecutor.scheduleAtFixedRate(scheduledFeed, jitterMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            scheduled[0] = true;
+            _log.info("Scheduled " + key + " every " + intervalMillis + " ms, starting in " + jitterMillis + " ms");
+            return scheduledFeed;
+        });
+        return scheduled[0];
+    }
+
+    /**
+     * Stops running the task with the given key.  A run that is already in progress is allowed to finish.
+     *
+     * @param key identifies the task, e.g. the feed URL
+     * @return true if the task was cancelled, false if no task was scheduled with this key
+     */
+    public boolean cancel(String key) {
+        ScheduledFeed scheduledFeed = mScheduledFeeds.remove(key);
+        if (scheduledFeed == null) {
+            return false;
+        }
+        scheduledFeed.mFuture.cancel(false);
+        _log.info("Cancelled " + key);
+        return true;
+    }
+
+    /**
+     * Cancels all tasks and waits for runs in progress to finish.  No tasks can be scheduled afterwards.
+     *
+     * @param timeout maximum time to wait for runs in progress to finish
+     * @param unit    unit of timeout
+     * @return true if all runs finished, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        mExecutor.shutdown();
+        for (String key : mScheduledFeeds.keySet()) {
+            cancel(key);
+        }
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @param key identifies the task, e.g. the feed URL
+     * @return true if a task is scheduled with this key
+     */
+    public boolean isScheduled(String key) {
+        return mScheduledFeeds.containsKey(key);
+    }
+
+    /**
+     * @return the number of tasks currently scheduled
+     */
+    public int getScheduledCount() {
+        return mScheduledFeeds.size();
+    }
+
+    /**
+     * @return the number of runs of all tasks that have finished
+     */
+    public long getRunCount() {
+        return mRunCount.get();
+    }
+
+    /**
+     * @return the number of runs of all tasks that took longer than the interval of their task
+     */
+    public long getOverrunCount() {
+        return mOverrunCount.get();
+    }
+
+    /**
+     * @param key identifies the task, e.g. the feed URL
+     * @return the number of runs of the task with this key that took longer than its interval, or 0 if no task is
+     * scheduled with this key
+     */
+    public long getOverrunCount(String key) {
+        ScheduledFeed scheduledFeed = mScheduledFeeds.get(key);
+        return scheduledFeed != null ? scheduledFeed.mOverrunCount.get() : 0;
+    }
+
+    /**
+     * @param key identifies the task, e.g. the feed URL
+     * @return the duration of the longest run of the task with this key in milliseconds, or 0 if no task is scheduled
+     * with this key
+     */
+    public long getMaxRunMillis(String key) {
+        ScheduledFeed scheduledFeed = mScheduledFeeds.get(key);
+        return scheduledFeed != null ? scheduledFeed.mMaxRunMillis.get() : 0;
+    }
+
+    /**
+     * A scheduled task, which keeps track of how long each of its runs takes
+     */
+    private class ScheduledFeed implements Runnable {
+        final String mKey;
+        final Runnable mTask;
+        final long mIntervalMillis;
+        final AtomicLong mOverrunCount = new AtomicLong();
+        final AtomicLong mMaxRunMillis = new AtomicLong();
+        volatile ScheduledFuture<?> mFuture;
+
+        ScheduledFeed(String key, Runnable task, long intervalMillis) {
+            mKey = key;
+            mTask = task;
+            mIntervalMillis = intervalMillis;
+        }
+
+        @Override
+        public void run() {
+            long startTimeNanos = System.nanoTime();
+            try {
+                mTask.run();
+            } catch (RuntimeException e) {
+                // Keep running the task - an exception thrown from a scheduled task would cancel all future runs
+                _log.error("Error running " + mKey, e);
+            }
+            long runMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos);
+            mRunCount.incrementAndGet();
+            mMaxRunMillis.accumulateAndGet(runMillis, Math::max);
+            if (runMillis > mIntervalMillis) {
+                mOverrunCount.incrementAndGet();
+                FeedScheduler.this.mOverrunCount.incrementAndGet();
+                _log.warn(mKey + " took " + runMillis + " ms, longer than its interval of " + mIntervalMillis + " ms");
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.common.io.BaseEncoding;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils.logDuration;
+
+/**
+ * A memory-bounded cache of the GTFS data and metadata of each GTFS feed (keyed by feedId).  Datasets are shared
+ * between all GTFS feeds whose zip files have the same content (GtfsFeedModel.checksum), so identical GTFS datasets
+ * served from different URLs (or posted again) are only loaded and processed once, even if several threads need the
+ * same dataset while it's being loaded.
+ * <p>
+ * Each GTFS-realtime feed being monitored holds a reference to its GTFS feed (see acquire() and release()), which pins
+ * the dataset of the GTFS feed in the cache.  Datasets that aren't pinned are evicted, least recently used first, when
+ * the estimated memory used by all loaded datasets (see Dataset.estimateSize()) is more than getMaxSize().  A GTFS feed
+ * whose dataset was evicted is transparently loaded again the next time get() is called for it.
+ */
+public class GtfsDataRegistry {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(GtfsDataRegistry.class);
+
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+    // Datasets keyed by the hex checksum of their zip file, from least to most recently used
+    private static final LinkedHashMap<String, Dataset> mDatasets = new LinkedHashMap<>(16, 0.75f, true);
+    // Datasets that are being loaded, keyed by the hex checksum of their zip file, so they are only loaded once
+    private static final Map<String, CompletableFuture<Dataset>> mLoading = new HashMap<>();
+    // The data of each GTFS feedId, and how to load it
+    private static final Map<Integer, Source> mSources = new HashMap<>();
+    // The number of GTFS-realtime feeds being monitored for each GTFS feedId
+    private static final Map<Integer, Integer> mFeedReferences = new HashMap<>();
+
+    private static long mMaxSize = DEFAULT_MAX_SIZE;
+    private static long mSize = 0;
+
+    private static long mHitCount = 0;
+    private static long mMissCount = 0;
+    private static long mEvictionCount = 0;
+
+    /**
+     * Sets the maximum estimated memory used by the datasets kept in memory (see Dataset.estimateSize()), evicting
+     * datasets if needed.  Datasets used by monitored GTFS-realtime feeds are kept even if they are larger than this.
+     *
+     * @param maxSize the maximum estimated memory used by the datasets kept in memory, in bytes
+     */
+    public static synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        evict(null);
+    }
+
+    /**
+     * @return the maximum estimated memory used by the datasets kept in memory, in bytes
+     */
+    public static synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Sets the data of a GTFS feed and loads it, unless a GTFS feed with a zip file with the same checksum is already
+     * loaded
+     *
+     * @param feedId   the ID of the GTFS feed
+     * @param checksum the checksum of the GTFS zip file
+     * @param loader   loads the dataset from the GTFS zip file, returning null if it couldn't be loaded.  It's called
+     *                 again if the dataset is needed after it's evicted.
+     * @return the dataset of the GTFS feed, or null if it couldn't be loaded
+     */
+    public static Dataset register(int feedId, byte[] checksum, Supplier<Dataset> loader) {
+        Source source = new Source(toHex(checksum), loader);
+        synchronized (GtfsDataRegistry.class) {
+            Source previous = mSources.put(feedId, source);
+            if (previous != null && !previous.mKey.equals(source.mKey)) {
+                // The GTFS feed has changed - remove its previous data if no other GTFS feeds use it
+                removeIfUnused(previous.mKey);
+            }
+        }
+        return load(source);
+    }
+
+    /**
+     * Returns the dataset of a GTFS feed, loading it again if it was evicted
+     *
+     * @param feedId the ID of a GTFS feed
+     * @return the dataset of the GTFS feed, or null if the GTFS feed was never registered or couldn't be loaded
+     */
+    public static Dataset get(int feedId) {
+        Source source;
+        synchronized (GtfsDataRegistry.class) {
+            source = mSources.get(feedId);
+        }
+        return source != null ? load(source) : null;
+    }
+
+    private static Dataset load(Source source) {
+        CompletableFuture<Dataset> loading;
+        synchronized (GtfsDataRegistry.class) {
+            Dataset dataset = mDatasets.get(source.mKey);
+            if (dataset != null) {
+                mHitCount++;
+                return dataset;
+            }
+            loading = mLoading.get(source.mKey);
+            if (loading != null) {
+                // Another thread is already loading the same data - wait for it instead of loading it again
+                mHitCount++;
+            } else {
+                mMissCount++;
+                mLoading.put(source.mKey, new CompletableFuture<>());
+            }
+        }
+        if (loading != null) {
+            return loading.join();
+        }
+        // Load outside the lock, as this can take a long time for large feeds
+        long startTime = System.nanoTime();
+        Dataset loaded = null;
+        try {
+            loaded = source.mLoader.get();
+            if (loaded == null) {
+                return null;
+            }
+            synchronized (GtfsDataRegistry.class) {
+                // Don't keep the data if its GTFS feed changed while it was loading
+                if (isUsed(source.mKey)) {
+                    mDatasets.put(source.mKey, loaded);
+                    mSize += loaded.getSize();
+                    evict(source.mKey);
+                }
+            }
+            logDuration(_log, "Loaded GTFS data with checksum " + source.mKey + " (about " + loaded.getSize() + " bytes) in ", startTime);
+            return loaded;
+        } finally {
+            // Threads waiting for this data get null if it couldn't be loaded
+            CompletableFuture<Dataset> loadingFuture;
+            synchronized (GtfsDataRegistry.class) {
+                loadingFuture = mLoading.remove(source.mKey);
+            }
+            loadingFuture.complete(loaded);
+        }
+    }
+
+    /**
+     * Records that a GTFS-realtime feed using a GTFS feed has started being monitored, so the GTFS feed's dataset isn't
+     * evicted until release() is called
+     *
+     * @param feedId the ID of the GTFS feed
+     */
+    public static synchronized void acquire(int feedId) {
+        mFeedReferences.merge(feedId, 1, Integer::sum);
+    }
+
+    /**
+     * Records that a GTFS-realtime feed using a GTFS feed has stopped being monitored.  If no monitored GTFS-realtime
+     * feeds use the GTFS feed's dataset anymore, it can be evicted.
+     *
+     * @param feedId the ID of the GTFS feed
+     */
+    public static synchronized void release(int feedId) {
+        Integer references = mFeedReferences.get(feedId);
+        if (references == null) {
+            return;
+        }
+        if (references > 1) {
+            mFeedReferences.put(feedId, references - 1);
+        } else {
+            mFeedReferences.remove(feedId);
+            evict(null);
+        }
+    }
+
+    /**
+     * @return the number of distinct datasets loaded
+     */
+    public static synchronized int getDatasetCount() {
+        return mDatasets.size();
+    }
+
+    /**
+     * @return the estimated memory used by the datasets loaded, in bytes (see Dataset.estimateSize())
+     */
+    public static synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of times a dataset was requested and was already loaded
+     */
+    public static synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of times a dataset was requested and had to be loaded
+     */
+    public static synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of datasets evicted to stay within getMaxSize()
+     */
+    public static synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Removes all datasets, GTFS feeds and references, and resets the metrics
+     */
+    public static synchronized void clear() {
+        mDatasets.clear();
+        mSources.clear();
+        mFeedReferences.clear();
+        mSize = 0;
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    /**
+     * Evicts the least recently used datasets that aren't pinned until the total size is at most mMaxSize
+     *
+     * @param keepKey the key of a dataset that was just loaded and shouldn't be evicted, or null
+     */
+    private static void evict(String keepKey) {
+        Iterator<Map.Entry<String, Dataset>> datasets = mDatasets.entrySet().iterator();
+        while (mSize > mMaxSize && datasets.hasNext()) {
+            Map.Entry<String, Dataset> dataset = datasets.next();
+            if (dataset.getKey().equals(keepKey) || isPinned(dataset.getKey())) {
+                continue;
+            }
+            datasets.remove();
+            mSize -= dataset.getValue().getSize();
+            mEvictionCount++;
+            _log.info("Evicted GTFS data with checksum " + dataset.getKey() + ", " + mDatasets.size() + " GTFS datasets (" + mSize + " bytes) still loaded");
+        }
+    }
+
+    /**
+     * @return true if a GTFS feed being monitored uses the dataset with the given key
+     */
+    private static boolean isPinned(String key) {
+        for (Integer feedId : mFeedReferences.keySet()) {
+            Source source = mSources.get(feedId);
+            if (source != null && source.mKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if any GTFS feed uses the dataset with the given key
+     */
+    private static boolean isUsed(String key) {
+        for (Source source : mSources.values()) {
+            if (source.mKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void removeIfUnused(String key) {
+        if (isUsed(key)) {
+            return;
+        }
+        Dataset dataset = mDatasets.remove(key);
+        if (dataset != null) {
+            mSize -= dataset.getSize();
+            _log.info("Removed unused GTFS data with checksum " + key + ", " + mDatasets.size() + " GTFS datasets still loaded");
+        }
+    }
+
+    private static String toHex(byte[] checksum) {
+        return BaseEncoding.base16().lowerCase().encode(checksum);
+    }
+
+    /**
+     * The data of a GTFS feed - the checksum of its zip file, and how to load it
+     */
+    private static class Source {
+        private final String mKey;
+        private final Supplier<Dataset> mLoader;
+
+        Source(String key, Supplier<Dataset> loader) {
+            mKey = key;
+            mLoader = loader;
+        }
+    }
+
+    /**
+     * The GTFS data and metadata loaded from a GTFS zip file
+     */
+    public static class Dataset {
+
+        // Approximate memory used by each object read from a GTFS zip file, including its entry in GtfsDaoImpl
+        private static final long STOP_TIME_BYTES = 160;
+        private static final long SHAPE_POINT_BYTES = 96;
+        private static final long ENTITY_BYTES = 256;
+        // Approximate memory used by each row of StopTimeTable and ShapePointTable, and by the other structures of
+        // GtfsMetadata for each trip, stop and shape
+        private static final long STOP_TIME_ROW_BYTES = 20;
+        private static final long SHAPE_POINT_ROW_BYTES = 20;
+        private static final long METADATA_ENTITY_BYTES = 128;
+
+        private final byte[] mChecksum;
+        private final long mSize;
+        private final GtfsDaoImpl mGtfsData;
+        private final GtfsMetadata mMetadata;
+
+        /**
+         * @param checksum the checksum of the GTFS zip file
+         * @param size     the estimated memory used by this dataset in bytes (see estimateSize())
+         * @param gtfsData the GTFS data read from the zip file
+         * @param metadata the metadata built from gtfsData
+         */
+        public Dataset(byte[] checksum, long size, GtfsDaoImpl gtfsData, GtfsMetadata metadata) {
+            mChecksum = checksum;
+            mSize = size;
+            mGtfsData = gtfsData;
+            mMetadata = metadata;
+        }
+
+        /**
+         * @return the checksum of the GTFS zip file
+         */
+        public byte[] getChecksum() {
+            return mChecksum;
+        }
+
+        /**
+         * Estimates the memory used by GTFS data and its metadata from the number of entities it contains.  The size of
+         * the GTFS zip file isn't used, as stop_times.txt and shapes.txt compress very well and take much more memory
+         * once they are loaded.
+         *
+         * @param gtfsData    the GTFS data read from the zip file
+         * @param stopTimes   the stop_times of the GTFS data if they were loaded from a GtfsMetadataSnapshot, or null if
+         *                    they are in gtfsData
+         * @param shapePoints the shapes of the GTFS data if they were loaded from a GtfsMetadataSnapshot, or null if
+         *                    they are in gtfsData
+         * @return the estimated memory used by the GTFS data and its metadata, in bytes
+         */
+        public static long estimateSize(GtfsDaoImpl gtfsData, StopTimeTable stopTimes, ShapePointTable shapePoints) {
+            long size = 0;
+            long stopTimeCount;
+            if (stopTimes != null) {
+                stopTimeCount = stopTimes.size();
+            } else {
+                stopTimeCount = gtfsData.getAllStopTimes().size();
+                size += stopTimeCount * STOP_TIME_BYTES;
+            }
+            long shapePointCount = 0;
+            if (shapePoints != null) {
+                shapePointCount = shapePoints.size();
+            } else if (gtfsData.getAllShapePoints() != null) {
+                shapePointCount = gtfsData.getAllShapePoints().size();
+                size += shapePointCount * SHAPE_POINT_BYTES;
+            }
+            size += stopTimeCount * STOP_TIME_ROW_BYTES + shapePointCount * SHAPE_POINT_ROW_BYTES;
+
+            long entityCount = gtfsData.getAllAgencies().size() + gtfsData.getAllRoutes().size()
+                    + gtfsData.getAllTrips().size() + gtfsData.getAllStops().size()
+                    + gtfsData.getAllCalendars().size() + gtfsData.getAllCalendarDates().size()
+                    + gtfsData.getAllFrequencies().size();
+            size += entityCount * (ENTITY_BYTES + METADATA_ENTITY_BYTES);
+            return size;
+        }
+
+        /**
+         * @return the estimated memory used by this dataset in bytes (see estimateSize())
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return the GTFS data read from the zip file
+         */
+        public GtfsDaoImpl getGtfsData() {
+            return mGtfsData;
+        }
+
+        /**
+         * @return the metadata for the GTFS data
+         */
+        public GtfsMetadata getMetadata() {
+            return mMetadata;
+        }
+    }
+}
@@ -17,6 +17,9 @@
 
 package edu.usf.cutr.gtfsrtvalidator.background;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Maps;
 import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
 import org.locationtech.spatial4j.distance.DistanceUtils;
 import org.locationtech.spatial4j.shape.Rectangle;
@@ -27,7 +30,9 @@ import org.onebusaway.gtfs.model.*;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils.logDuration;
 import static org.hibernate.internal.util.StringHelper.isEmpty;
@@ -47,34 +52,40 @@ public class GtfsMetadata {
     String mFeedUrl;
     TimeZone mTimeZone;
 
-    private Set<String> mAgencyIds = new HashSet<>();
-    private Set<String> mRouteIds = new HashSet<>();
+    // The GTFS feed that all other structures are built from when they are first used
+    private final GtfsDaoImpl mGtfsData;
+
+    private final Supplier<Set<String>> mAgencyIds = Suppliers.memoize(this::buildAgencyIds);
+    private final Supplier<Set<String>> mRouteIds = Suppliers.memoize(this::buildRouteIds);
     // Maps trip_ids to the GTFS trip
-    private Map<String, Trip> mTrips = new HashMap<>();
-    // Maps trip_ids to a list of StopTimes
-    private Map<String, List<StopTime>> mTripStopTimes = new HashMap<>();
-    private Set<String> mStopIds = new HashSet<>();
-    private Set<String> mExactTimesZeroTripIds = new HashSet<>();
+    private final Supplier<Map<String, Trip>> mTrips = Suppliers.memoize(this::buildTrips);
+    // All StopTimes grouped by trip_id and sorted by stop_sequence, held in primitive arrays
+    private final Supplier<StopTimeTable> mStopTimes;
+    private final Supplier<Set<String>> mStopIds = Suppliers.memoize(this::buildStopIds);
+    private final Supplier<Set<String>> mExactTimesZeroTripIds = Suppliers.memoize(this::buildExactTimesZeroTripIds);
     // Maps trip_id to a list of Frequency objects
-    private Map<String, List<Frequency>> mExactTimesOneTrips = new HashMap<>();
-    // Maps shape_id to a list of ShapePoints
-    private Map<String, List<ShapePoint>> mShapePoints = new HashMap<>();
-    // Map trip_id to a polyline of the trip shape from shapes.txt
-    private Map<String, Shape> mTripShapes = new HashMap<>();
-    // Map trip_id to a buffered polyline of the trip shape from shapes.txt
-    private Map<String, Shape> mTripShapesBuffered = new ConcurrentHashMap<>();
+    private final Supplier<Map<String, List<Frequency>>> mExactTimesOneTrips = Suppliers.memoize(this::buildExactTimesOneTrips);
+    // All ShapePoints grouped by shape_id and sorted by shape_pt_sequence, held in primitive arrays
+    private final Supplier<ShapePointTable> mShapePoints;
+    // Map trip_id to the index of the trip shape in mShapePoints, for trips with a shape in shapes.txt
+    private final Supplier<Map<String, Integer>> mTripShapeIndices = Suppliers.memoize(this::buildTripShapeIndices);
+    // The polyline, buffered polyline and segment grid of each shape in mShapePoints (by its index in the table),
+    // created when they are first used and shared by all trips with the same shape
+    private final Supplier<AtomicReferenceArray<Shape>> mShapes = Suppliers.memoize(() -> new AtomicReferenceArray<>(mShapePoints.get().getShapeCount()));
+    private final Supplier<AtomicReferenceArray<Shape>> mShapesBuffered = Suppliers.memoize(() -> new AtomicReferenceArray<>(mShapePoints.get().getShapeCount()));
+    private final Supplier<AtomicReferenceArray<ShapeSegmentGrid>> mShapeGrids = Suppliers.memoize(() -> new AtomicReferenceArray<>(mShapePoints.get().getShapeCount()));
 
     // A geographic bounding box that includes all the stops from GTFS stops.txt
-    private Rectangle mStopBoundingBox;
+    private final Supplier<Rectangle> mStopBoundingBox = Suppliers.memoize(this::buildStopBoundingBox);
 
     // A geographic bounding box that that includes all stops from GTFS stops.txt PLUS a buffer
-    private Rectangle mStopBoundingBoxWithBuffer;
+    private final Supplier<Rectangle> mStopBoundingBoxWithBuffer = Suppliers.memoize(() -> addRegionBuffer(mStopBoundingBox.get()));
 
     // A geographic bounding box that includes all the points from GTFS shapes.txt, if the GTFS feed includes shapes.txt
-    private Rectangle mShapeBoundingBox = null;
+    private final Supplier<Rectangle> mShapeBoundingBox = Suppliers.memoize(this::buildShapeBoundingBox);
 
     // A geographic bounding box that includes all the points from GTFS shapes.txt, if the GTFS feed includes shapes.txt, PLUS a buffer
-    private Rectangle mShapeBoundingBoxWithBuffer = null;
+    private final Supplier<Rectangle> mShapeBoundingBoxWithBuffer = Suppliers.memoize(() -> addRegionBuffer(mShapeBoundingBox.get()));
 
     /**
      * key is stops.txt stop_id, value is stops.txt location_type
@@ -82,173 +93,310 @@ public class GtfsMetadata {
      * Note that we can't consolidate this with the mStopIds HashSet, because location_type is an optional
      * field in stops.txt and therefore can be null.
      */
-    private Map<String, Integer> mStopToLocationTypeMap = new HashMap<>();
+    private final Supplier<Map<String, Integer>> mStopToLocationTypeMap = Suppliers.memoize(this::buildStopToLocationTypeMap);
 
     // A map of trips that visit a stop more than once, where the key is the trip_id and the value is a list of the stops visited more than once
-    private Map<String, List<String>> mTripsWithMultiStops = new HashMap<>();
+    private final Supplier<Map<String, List<String>>> mTripsWithMultiStops = Suppliers.memoize(this::buildTripsWithMultiStops);
 
     /**
-     * Builds the metadata for a particular GTFS feed
+     * Creates the metadata for a particular GTFS feed.  Each structure is built from the GTFS feed the first time it's
+     * used, so validation can start right away - call buildInBackground() to build the rest ahead of time.  Structures
+     * are only built once, even if they are first used by several threads at the same time.
      *
      * @param feedUrl URL for the GTFS zip file
      * @param timeZone the agency_timezone from GTFS agency.txt, or null if the current time zone should be used.
      * @param gtfsData GTFS feed to build the metadata for
      */
     public GtfsMetadata(String feedUrl, TimeZone timeZone, GtfsDaoImpl gtfsData) {
-        long startTime = System.nanoTime();
-        _log.info("Building GtfsMetadata for " + feedUrl + "...");
+        this(feedUrl, timeZone, gtfsData, null, null);
+    }
 
+    /**
+     * Creates the metadata for a particular GTFS feed with stop_times and shapes that have already been processed (e.g.,
+     * from a GtfsMetadataSnapshot), so gtfsData doesn't need to contain stop_times or shapes.
+     *
+     * @param feedUrl     URL for the GTFS zip file
+     * @param timeZone    the agency_timezone from GTFS agency.txt, or null if the current time zone should be used.
+     * @param gtfsData    GTFS feed to build the rest of the metadata for
+     * @param stopTimes   the stop_times of the GTFS feed, or null to build them from gtfsData
+     * @param shapePoints the shapes of the GTFS feed, or null to build them from gtfsData
+     */
+    public GtfsMetadata(String feedUrl, TimeZone timeZone, GtfsDaoImpl gtfsData, StopTimeTable stopTimes, ShapePointTable shapePoints) {
         mFeedUrl = feedUrl;
         mTimeZone = timeZone;
+        mGtfsData = gtfsData;
+        mStopTimes = stopTimes != null ? Suppliers.ofInstance(stopTimes) : Suppliers.memoize(this::buildStopTimes);
+        mShapePoints = shapePoints != null ? Suppliers.ofInstance(shapePoints) : Suppliers.memoize(this::buildShapePoints);
+    }
+
+    /**
+     * Builds all structures that haven't been used yet on the given executor, so they are ready when rules need them.
+     * Rules that need a structure that is still being built wait for it to finish, and structures that are already
+     * built are used right away.  The segment grid of each shape (see getTripShapeGrid()) is built as a separate task,
+     * so feeds with many shapes use all threads of the executor.
+     *
+     * @param executor executor to build the structures on
+     * @return a future that completes when all structures are built
+     */
+    public CompletableFuture<Void> buildInBackground(Executor executor) {
+        long startTime = System.nanoTime();
+        _log.info("Building GtfsMetadata for " + mFeedUrl + " in the background...");
+        List<Supplier<?>> structures = Arrays.asList(mAgencyIds, mRouteIds, mStopIds, mStopToLocationTypeMap,
+                mStopBoundingBoxWithBuffer, mExactTimesZeroTripIds, mExactTimesOneTrips, mTripsWithMultiStops,
+                mShapeBoundingBoxWithBuffer, mTripShapeIndices);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[structures.size() + 1];
+        for (int i = 0; i < structures.size(); i++) {
+            futures[i] = CompletableFuture.runAsync(structures.get(i)::get, executor);
+        }
+        // Shapes are independent of each other, so their grids are built in parallel
+        futures[structures.size()] = buildShapeGrids(executor);
+        return CompletableFuture.allOf(futures).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                _log.error("Failed to build GtfsMetadata for " + mFeedUrl, throwable);
+            } else {
+                logDuration(_log, "Built GtfsMetadata for " + mFeedUrl + " in ", startTime);
+            }
+        });
+    }
 
+    private Set<String> buildAgencyIds() {
         // Get all agency_ids from the GTFS feed
-        Collection<Agency> agencyAndIds = gtfsData.getAllAgencies();
+        Set<String> agencyIds = new HashSet<>();
+        Collection<Agency> agencyAndIds = mGtfsData.getAllAgencies();
         for (Agency a : agencyAndIds) {
-            mAgencyIds.add(a.getId());
+            agencyIds.add(a.getId());
         }
+        return agencyIds;
+    }
 
+    private Set<String> buildRouteIds() {
         // Get all route_ids from the GTFS feed
-        Collection<Route> gtfsRouteList = gtfsData.getAllRoutes();
+        Set<String> routeIds = new HashSet<>();
+        Collection<Route> gtfsRouteList = mGtfsData.getAllRoutes();
         for (Route r : gtfsRouteList) {
-            mRouteIds.add(r.getId().getId());
+            routeIds.add(r.getId().getId());
         }
+        return routeIds;
+    }
+
+    private Map<String, Trip> buildTrips() {
+        Map<String, Trip> trips = new HashMap<>();
+        for (Trip trip : mGtfsData.getAllTrips()) {
+            trips.put(trip.getId().getId(), trip);
+        }
+        return trips;
+    }
 
+    private StopTimeTable buildStopTimes() {
+        // Get all StopTimes, grouped by trip_id and sorted by stop_sequence (stop_times.txt isn't necessary sorted)
+        long startTime = System.nanoTime();
+        StopTimeTable stopTimes = new StopTimeTable(mGtfsData.getAllStopTimes());
+        logDuration(_log, "stop_times.txt processed for " + mFeedUrl + " in ", startTime);
+        return stopTimes;
+    }
+
+    private Map<String, List<String>> buildTripsWithMultiStops() {
         /**
-         * Process GTFS shapes.txt
+         * Process GTFS stop_times.txt
          */
-        double regionBufferDegrees = DistanceUtils.KM_TO_DEG * (REGION_BUFFER_METERS / 1000.0d);
+        StopTimeTable stopTimes = mStopTimes.get();
+        long stopTimesStartTime = System.nanoTime();
+        Map<String, List<String>> tripsWithMultiStops = new HashMap<>();
+        Set<Integer> allStopIndices = new HashSet<>();
+        for (int tripIndex = 0; tripIndex < stopTimes.getTripCount(); tripIndex++) {
+            // Create the map of trip_ids to List of stop_ids for trips that visit a stop more than once
+            String tripId = stopTimes.getTrip(tripIndex).getId().getId();
+            allStopIndices.clear();
+            List<String> duplicateStopIds = null;
 
-        ShapeFactory sf = JtsSpatialContext.GEO.getShapeFactory();
-        ShapeFactory.MultiPointBuilder shapeBuilder = sf.multiPoint();
-        Collection<ShapePoint> shapePoints = gtfsData.getAllShapePoints();
-        if (shapePoints != null && shapePoints.size() > 3) {
-            for (ShapePoint p : shapePoints) {
-                String shapeId = p.getShapeId().getId();
-                // If there isn't already a list for this shape_id, create one
-                List<ShapePoint> shapePointList = mShapePoints.computeIfAbsent(shapeId, k -> new ArrayList<>());
-                shapePointList.add(p);
-                // Create GTFS shapes.txt bounding box
-                shapeBuilder.pointXY(p.getLon(), p.getLat());
-            }
-            _log.debug("Loaded shapes.txt points for " + feedUrl);
-
-            Shape shapePointShape = shapeBuilder.build();
-            mShapeBoundingBox = shapePointShape.getBoundingBox();
-            mShapeBoundingBoxWithBuffer = mShapeBoundingBox.getBuffered(regionBufferDegrees, mShapeBoundingBox.getContext()).getBoundingBox();
-            _log.debug("Generated shapes.txt bounding boxes for " + feedUrl);
-
-            // Order shape points by GTFS shapes.txt shape_pt_sequence
-            _log.debug("Sorting shape points for " + feedUrl + "...");
-            Collection<List<ShapePoint>> shapePointLists = mShapePoints.values();
-            for (List<ShapePoint> shapePointList : shapePointLists) {
-                shapePointList.sort(Comparator.comparing(shapePoint -> (shapePoint.getSequence())));
+            for (int i = stopTimes.getStart(tripIndex); i < stopTimes.getEnd(tripIndex); i++) {
+                if (!allStopIndices.add(stopTimes.getStopIndex(i))) {
+                    // If we've already seen this stop_id for this trip, then add it to the duplicates list
+                    if (duplicateStopIds == null) {
+                        duplicateStopIds = new ArrayList<>();
+                    }
+                    duplicateStopIds.add(stopTimes.getStopId(i));
+                }
             }
-            _log.debug("Shape points for " + feedUrl + " are sorted.");
-        }
 
-        // Get all StopTimes and map them to trip_ids
-        for (StopTime stopTime : gtfsData.getAllStopTimes()) {
-            String tripId = stopTime.getTrip().getId().getId();
-
-            // If there isn't already a list for this trip, create one
-            List<StopTime> stopTimes = mTripStopTimes.computeIfAbsent(tripId, k -> new ArrayList<>());
-            stopTimes.add(stopTime);
+            // Most trips don't visit a stop more than once, so share one empty list between them
+            tripsWithMultiStops.put(tripId, duplicateStopIds != null ? duplicateStopIds : Collections.emptyList());
         }
+        logDuration(_log, "Repeated stop_ids for trips in stop_times.txt processed for " + mFeedUrl + " in ", stopTimesStartTime);
+        return tripsWithMultiStops;
+    }
 
+    private ShapePointTable buildShapePoints() {
         /**
-         * Process GTFS trips.txt - this is a long-running operation for feeds with huge shapes.txt, so log to INFO
+         * Process GTFS shapes.txt
          */
-        _log.info("Processing trips and building trip shapes for " + feedUrl + "...");
-        long tripStartTime = System.nanoTime();
-        Collection<Trip> gtfsTripList = gtfsData.getAllTrips();
-        for (Trip trip : gtfsTripList) {
-            String tripId = trip.getId().getId();
-            mTrips.put(tripId, trip);
-
-            List<StopTime> stopTimes = mTripStopTimes.get(tripId);
-            if (stopTimes != null) {
-                // Make sure StopTimes are sorted by stop_sequence for this trip (stop_times.txt isn't necessary sorted)
-                stopTimes.sort(Comparator.comparing(stopTime -> (stopTime.getStopSequence())));
-            }
+        Collection<ShapePoint> shapePoints = mGtfsData.getAllShapePoints();
+        if (shapePoints == null || shapePoints.size() <= 3) {
+            return new ShapePointTable(Collections.emptyList());
+        }
+        // Group shape points by shape_id and order them by GTFS shapes.txt shape_pt_sequence
+        long startTime = System.nanoTime();
+        ShapePointTable shapePointTable = new ShapePointTable(shapePoints);
+        logDuration(_log, "Loaded shapes.txt points for " + mFeedUrl + " in ", startTime);
+        return shapePointTable;
+    }
 
-            // Create a polyline for each trip if the GTFS shapes.txt data exists
+    private Rectangle buildShapeBoundingBox() {
+        ShapePointTable shapePoints = mShapePoints.get();
+        if (shapePoints.size() == 0) {
+            return null;
+        }
+        // Create GTFS shapes.txt bounding box
+        ShapeFactory.MultiPointBuilder shapeBuilder = JtsSpatialContext.GEO.getShapeFactory().multiPoint();
+        for (int i = 0; i < shapePoints.size(); i++) {
+            shapeBuilder.pointXY(shapePoints.getLon(i), shapePoints.getLat(i));
+        }
+        Shape shapePointShape = shapeBuilder.build();
+        _log.debug("Generated shapes.txt bounding boxes for " + mFeedUrl);
+        return shapePointShape.getBoundingBox();
+    }
+
+    private Map<String, Integer> buildTripShapeIndices() {
+        ShapePointTable shapePoints = mShapePoints.get();
+        // One Integer per shape, shared by all trips with that shape
+        Integer[] shapeIndices = new Integer[shapePoints.getShapeCount()];
+        Map<String, Integer> tripShapeIndices = new HashMap<>();
+        for (Trip trip : mTrips.get().values()) {
             AgencyAndId shapeAgencyAndId = trip.getShapeId();
             if (shapeAgencyAndId != null && !isEmpty(shapeAgencyAndId.getId())) {
-                List<ShapePoint> tripShape = mShapePoints.get(shapeAgencyAndId.getId());
-                if (tripShape != null) {
-                    ShapeFactory.LineStringBuilder lineBuilder = sf.lineString();
-                    for (ShapePoint p : tripShape) {
-                        lineBuilder.pointXY(p.getLon(), p.getLat());
+                int shapeIndex = shapePoints.getShapeIndex(shapeAgencyAndId.getId());
+                if (shapeIndex != -1) {
+                    if (shapeIndices[shapeIndex] == null) {
+                        shapeIndices[shapeIndex] = shapeIndex;
                     }
-                    mTripShapes.put(tripId, lineBuilder.build());
+                    tripShapeIndices.put(trip.getId().getId(), shapeIndices[shapeIndex]);
                 }
             }
         }
-        logDuration(_log, "Trips polylines processed for " + feedUrl + " in ", tripStartTime);
+        return tripShapeIndices;
+    }
 
-        /**
-         * Process GTFS stop_times.txt
-         */
-        long stopTimesStartTime = System.nanoTime();
-        for (Map.Entry<String, List<StopTime>> tripStopTimes : mTripStopTimes.entrySet()) {
-            // Create the map of trip_ids to List of stop_ids for trips that visit a stop more than once
-            String tripId = tripStopTimes.getKey();
-            Set<String> allStopIds = new HashSet<>();
-            List<String> duplicateStopIds = new ArrayList<>();
+    /**
+     * Creates the segment grids of all shapes that don't have one yet, in parallel on the given executor.  This is a
+     * long-running operation for feeds with huge shapes.txt, so log to INFO.
+     */
+    private CompletableFuture<Void> buildShapeGrids(Executor executor) {
+        return CompletableFuture.supplyAsync(mShapePoints::get, executor).thenCompose(shapePoints -> {
+            _log.info("Building " + shapePoints.getShapeCount() + " shape grids for " + mFeedUrl + "...");
+            long startTime = System.nanoTime();
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[shapePoints.getShapeCount()];
+            for (int i = 0; i < futures.length; i++) {
+                int shapeIndex = i;
+                futures[i] = CompletableFuture.runAsync(() -> getShapeGrid(shapeIndex), executor);
+            }
+            return CompletableFuture.allOf(futures).thenRun(() -> logDuration(_log, "Shape grids built for " + mFeedUrl + " in ", startTime));
+        });
+    }
 
-            for (StopTime stopTime : tripStopTimes.getValue()) {
-                if (allStopIds.contains(stopTime.getStop().getId().getId())) {
-                    // If we've already seen this stop_id for this trip, then add it to the duplicates list
-                    duplicateStopIds.add(stopTime.getStop().getId().getId());
-                }
-                allStopIds.add(stopTime.getStop().getId().getId());
+    /**
+     * Returns the polyline of a shape, creating it if it doesn't exist yet
+     */
+    private Shape getShape(int shapeIndex) {
+        AtomicReferenceArray<Shape> shapes = mShapes.get();
+        Shape shape = shapes.get(shapeIndex);
+        if (shape == null) {
+            ShapePointTable shapePoints = mShapePoints.get();
+            ShapeFactory.LineStringBuilder lineBuilder = JtsSpatialContext.GEO.getShapeFactory().lineString();
+            for (int i = shapePoints.getStart(shapeIndex); i < shapePoints.getEnd(shapeIndex); i++) {
+                lineBuilder.pointXY(shapePoints.getLon(i), shapePoints.getLat(i));
             }
+            // If another thread creates it first, use that one
+            shapes.compareAndSet(shapeIndex, null, lineBuilder.build());
+            shape = shapes.get(shapeIndex);
+        }
+        return shape;
+    }
 
-            mTripsWithMultiStops.put(tripId, duplicateStopIds);
+    /**
+     * Returns the segment grid of a shape, creating it if it doesn't exist yet
+     */
+    private ShapeSegmentGrid getShapeGrid(int shapeIndex) {
+        AtomicReferenceArray<ShapeSegmentGrid> shapeGrids = mShapeGrids.get();
+        ShapeSegmentGrid grid = shapeGrids.get(shapeIndex);
+        if (grid == null) {
+            // If another thread creates it first, use that one
+            shapeGrids.compareAndSet(shapeIndex, null, new ShapeSegmentGrid(mShapePoints.get(), shapeIndex, TRIP_BUFFER_DEGREES));
+            grid = shapeGrids.get(shapeIndex);
         }
-        logDuration(_log, "Repeated stop_ids for trips in stop_times.txt processed for " + feedUrl + " in ", stopTimesStartTime);
+        return grid;
+    }
 
-        /**
-         * Process GTFS stops.txt
-         */
-        ShapeFactory.MultiPointBuilder stopBuilder = sf.multiPoint();
-        Collection<Stop> stops = gtfsData.getAllStops();
-        for (Stop stop : stops) {
-            // Create a set of stop_ids from the GTFS feeds stops.txt, and store their location_type in a map
-            mStopIds.add(stop.getId().getId());
-            mStopToLocationTypeMap.put(stop.getId().getId(), stop.getLocationType());
-            // Create GTFS stops.txt bounding box
-            stopBuilder.pointXY(stop.getLon(), stop.getLat());
+    private Set<String> buildStopIds() {
+        // Create a set of stop_ids from the GTFS feeds stops.txt
+        Set<String> stopIds = new HashSet<>();
+        for (Stop stop : mGtfsData.getAllStops()) {
+            stopIds.add(stop.getId().getId());
         }
+        return stopIds;
+    }
 
+    private Map<String, Integer> buildStopToLocationTypeMap() {
+        // Store the location_type of each stop_id from the GTFS feeds stops.txt in a map
+        Map<String, Integer> stopToLocationTypeMap = new HashMap<>();
+        for (Stop stop : mGtfsData.getAllStops()) {
+            stopToLocationTypeMap.put(stop.getId().getId(), stop.getLocationType());
+        }
+        return stopToLocationTypeMap;
+    }
+
+    private Rectangle buildStopBoundingBox() {
+        // Create GTFS stops.txt bounding box
+        ShapeFactory.MultiPointBuilder stopBuilder = JtsSpatialContext.GEO.getShapeFactory().multiPoint();
+        for (Stop stop : mGtfsData.getAllStops()) {
+            stopBuilder.pointXY(stop.getLon(), stop.getLat());
+        }
         Shape stopShape = stopBuilder.build();
-        mStopBoundingBox = stopShape.getBoundingBox();
-        mStopBoundingBoxWithBuffer = mStopBoundingBox.getBuffered(regionBufferDegrees, mStopBoundingBox.getContext()).getBoundingBox();
+        return stopShape.getBoundingBox();
+    }
 
+    /**
+     * Returns the given bounding box with an added buffer REGION_BUFFER_METERS, or null if the bounding box is null
+     */
+    private static Rectangle addRegionBuffer(Rectangle boundingBox) {
+        if (boundingBox == null) {
+            return null;
+        }
+        double regionBufferDegrees = DistanceUtils.KM_TO_DEG * (REGION_BUFFER_METERS / 1000.0d);
+        return boundingBox.getBuffered(regionBufferDegrees, boundingBox.getContext()).getBoundingBox();
+    }
+
+    private Set<String> buildExactTimesZeroTripIds() {
         /**
          * Process GTFS frequencies.txt
          */
-        Collection<Frequency> frequencies = gtfsData.getAllFrequencies();
-        for (Frequency f : frequencies) {
+        Set<String> exactTimesZeroTripIds = new HashSet<>();
+        for (Frequency f : mGtfsData.getAllFrequencies()) {
             if (f.getExactTimes() == 0) {
                 // All exact_times=0 trips
-                mExactTimesZeroTripIds.add(f.getTrip().getId().getId());
-            } else if (f.getExactTimes() == 1) {
+                exactTimesZeroTripIds.add(f.getTrip().getId().getId());
+            }
+        }
+        return exactTimesZeroTripIds;
+    }
+
+    private Map<String, List<Frequency>> buildExactTimesOneTrips() {
+        Map<String, List<Frequency>> exactTimesOneTrips = new HashMap<>();
+        for (Frequency f : mGtfsData.getAllFrequencies()) {
+            if (f.getExactTimes() == 1) {
                 // All exact_times=1 trips
-                List<Frequency> frequencyList = mExactTimesOneTrips.get(f.getTrip().getId().getId());
+                List<Frequency> frequencyList = exactTimesOneTrips.get(f.getTrip().getId().getId());
                 if (frequencyList == null) {
                     frequencyList = new ArrayList<>();
                 }
                 frequencyList.add(f);
-                mExactTimesOneTrips.put(f.getTrip().getId().getId(), frequencyList);
+                exactTimesOneTrips.put(f.getTrip().getId().getId(), frequencyList);
             }
         }
-
-        logDuration(_log, "Built GtfsMetadata for " + feedUrl + " in ", startTime);
+        return exactTimesOneTrips;
     }
 
     public Set<String> getRouteIds() {
-        return mRouteIds;
+        return mRouteIds.get();
     }
 
     /**
@@ -257,11 +405,11 @@ public class GtfsMetadata {
      * @return a map where key is trips.txt trip_id, and value is an object representing the GTFS trip
      */
     public Map<String, Trip> getTrips() {
-        return mTrips;
+        return mTrips.get();
     }
 
     public Set<String> getStopIds() {
-        return mStopIds;
+        return mStopIds.get();
     }
 
     /**
@@ -270,11 +418,11 @@ public class GtfsMetadata {
      * @return a map where key is stops.txt stop_id, value is stops.txt location_type
      */
     public Map<String, Integer> getStopToLocationTypeMap() {
-        return mStopToLocationTypeMap;
+        return mStopToLocationTypeMap.get();
     }
 
     public Set<String> getExactTimesZeroTripIds() {
-        return mExactTimesZeroTripIds;
+        return mExactTimesZeroTripIds.get();
     }
 
     /**
@@ -283,16 +431,26 @@ public class GtfsMetadata {
      * @return a map where key is trips.txt trip_id, value is a list of Frequency objects representing frequencies.txt data for that trip_id
      */
     public Map<String, List<Frequency>> getExactTimesOneTrips() {
-        return mExactTimesOneTrips;
+        return mExactTimesOneTrips.get();
     }
 
     /**
      * Returns a map where key is trips.txt trip_id, and the value is a list of StopTime objects from stop_times.txt sorted by stop_sequence
      *
      * @return a map where key is trips.txt trip_id, and the value is a list of StopTime objects from stop_times.txt sorted by stop_sequence
+     * @see StopTimeTable#asMap()
      */
     public Map<String, List<StopTime>> getTripStopTimes() {
-        return mTripStopTimes;
+        return mStopTimes.get().asMap();
+    }
+
+    /**
+     * Returns the StopTimes from stop_times.txt grouped by trip_id and sorted by stop_sequence, for rules that can read them without creating StopTime objects
+     *
+     * @return the StopTimes from stop_times.txt grouped by trip_id and sorted by stop_sequence
+     */
+    public StopTimeTable getStopTimeTable() {
+        return mStopTimes.get();
     }
 
     /**
@@ -310,7 +468,7 @@ public class GtfsMetadata {
      * @return a geographic bounding box for the stop locations from GTFS stops.txt
      */
     public Rectangle getStopBoundingBox() {
-        return mStopBoundingBox;
+        return mStopBoundingBox.get();
     }
 
     /**
@@ -319,7 +477,7 @@ public class GtfsMetadata {
      * @return a geographic bounding box for the stop locations from GTFS stops.txt with an added buffer REGION_BUFFER_METERS
      */
     public Rectangle getStopBoundingBoxWithBuffer() {
-        return mStopBoundingBoxWithBuffer;
+        return mStopBoundingBoxWithBuffer.get();
     }
 
     /**
@@ -328,7 +486,7 @@ public class GtfsMetadata {
      * @return a geographic bounding box for the shape locations from GTFS shapes.txt, if the GTFS feed includes shapes.txt, or null if it does not
      */
     public Rectangle getShapeBoundingBox() {
-        return mShapeBoundingBox;
+        return mShapeBoundingBox.get();
     }
 
     /**
@@ -337,48 +495,81 @@ public class GtfsMetadata {
      * @return a geographic bounding box for the shape locations from GTFS shapes.txt, if the GTFS feed includes shapes.txt, with an added buffer REGION_BUFFER_METERS, or null if it does not
      */
     public Rectangle getShapeBoundingBoxWithBuffer() {
-        return mShapeBoundingBoxWithBuffer;
+        return mShapeBoundingBoxWithBuffer.get();
     }
 
     /**
      * Returns a map of GTFS shape_id to a list of ShapePoints from GTFS shapes.txt
      *
      * @return a map of GTFS shape_id to a list of ShapePoints from GTFS shapes.txt
+     * @see ShapePointTable#asMap()
      */
     public Map<String, List<ShapePoint>> getShapePoints() {
-        return mShapePoints;
+        return mShapePoints.get().asMap();
     }
 
     /**
-     * Returns a map of GTFS trip_ids to a polyline of that trip's shape from shapes.txt
+     * Returns the ShapePoints from GTFS shapes.txt grouped by shape_id and sorted by shape_pt_sequence
+     *
+     * @return the ShapePoints from GTFS shapes.txt grouped by shape_id and sorted by shape_pt_sequence
+     */
+    public ShapePointTable getShapePointTable() {
+        return mShapePoints.get();
+    }
+
+    /**
+     * Returns a map of GTFS trip_ids to a polyline of that trip's shape from shapes.txt.  Polylines are created when
+     * they are first retrieved from the map, and trips with the same shape share the same polyline.
      *
      * @return a map of GTFS trip_ids to a polyline of that trip's shape from shapes.txt
      */
     public Map<String, Shape> getTripShapes() {
-        return mTripShapes;
+        return Maps.transformValues(mTripShapeIndices.get(), this::getShape);
     }
 
     /**
      * Returns a buffered representation (TRIP_BUFFER_METERS) of a GTFS trip shape from shapes.txt for the given tripId,
-     * or null if a shape doesn't exist for the given tripId.
+     * or null if a shape doesn't exist for the given tripId.  Trips with the same shape share the same buffered shape.
      * <p>
      *
      * @param tripId the GTFS trip_id to retrieve a buffered trip shape for
      * @return a buffered representation (TRIP_BUFFER_METERS) of a GTFS trip shape from shapes.txt for the given tripId,
      * or null if a shape doesn't exist for the given trip.
+     * @see #getTripShapeGrid(String)
      */
     public Shape getBufferedTripShape(String tripId) {
-        if (mTripShapes == null) {
-            // No shapes at all
+        Integer shapeIndex = mTripShapeIndices.get().get(tripId);
+        if (shapeIndex == null) {
+            // No shape for this trip_id
             return null;
         }
-        Shape s = mTripShapes.get(tripId);
-        if (s == null) {
+        // Create the buffered version of the shape if it doesn't yet exist
+        AtomicReferenceArray<Shape> shapesBuffered = mShapesBuffered.get();
+        Shape buffered = shapesBuffered.get(shapeIndex);
+        if (buffered == null) {
+            Shape s = getShape(shapeIndex);
+            shapesBuffered.compareAndSet(shapeIndex, null, s.getBuffered(TRIP_BUFFER_DEGREES, s.getContext()));
+            buffered = shapesBuffered.get(shapeIndex);
+        }
+        return buffered;
+    }
+
+    /**
+     * Returns a spatial index of the GTFS trip shape from shapes.txt for the given tripId, which can check if a position
+     * is within TRIP_BUFFER_METERS of the shape much faster than getBufferedTripShape(), or null if a shape doesn't
+     * exist for the given tripId.  All trips with the same shape_id share the same index.
+     *
+     * @param tripId the GTFS trip_id to retrieve a trip shape index for
+     * @return a spatial index of the GTFS trip shape from shapes.txt for the given tripId, or null if a shape doesn't
+     * exist for the given trip.
+     */
+    public ShapeSegmentGrid getTripShapeGrid(String tripId) {
+        Integer shapeIndex = mTripShapeIndices.get().get(tripId);
+        if (shapeIndex == null) {
             // No shape for this trip_id
             return null;
         }
-        // Create the buffered version of the trip shape if it doesn't yet exist
-        return mTripShapesBuffered.computeIfAbsent(tripId, k -> s.getBuffered(TRIP_BUFFER_DEGREES, s.getContext()));
+        return getShapeGrid(shapeIndex);
     }
 
     /**
@@ -387,7 +578,7 @@ public class GtfsMetadata {
      * @return a set of agency_ids from GTFS agency.txt
      */
     public Set<String> getAgencyIds() {
-        return mAgencyIds;
+        return mAgencyIds.get();
     }
 
     /**
@@ -396,6 +587,6 @@ public class GtfsMetadata {
      * @return a map of trips that visit a stop more than once, where the key is the trip_id and the value is a list of the stops visited more than once
      */
     public Map<String, List<String>> getTripsWithMultiStops() {
-        return mTripsWithMultiStops;
+        return mTripsWithMultiStops.get();
     }
 }
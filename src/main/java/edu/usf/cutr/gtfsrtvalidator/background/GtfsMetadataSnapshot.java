@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TimeZone;
+
+import static edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils.logDuration;
+
+/**
+ * A binary snapshot of a processed GTFS feed, written next to the GTFS zip file, so the feed can be loaded after a
+ * restart without reading the zip file with GtfsReader and processing stop_times.txt and shapes.txt again.
+ * <p>
+ * The snapshot holds the agencies, routes, trips, stops and frequencies of the feed, plus its StopTimeTable and
+ * ShapePointTable.  It's keyed by the checksum of the zip file (GtfsFeedModel.checksum), so a snapshot of an older
+ * version of the feed is never loaded.
+ */
+public class GtfsMetadataSnapshot {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(GtfsMetadataSnapshot.class);
+
+    public static final String EXTENSION = ".metadata";
+
+    // Identifies snapshot files, and the version of their format
+    private static final int MAGIC = 0x47544653;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final GtfsDaoImpl mGtfsData;
+    private final StopTimeTable mStopTimes;
+    private final ShapePointTable mShapePoints;
+
+    private GtfsMetadataSnapshot(GtfsDaoImpl gtfsData, StopTimeTable stopTimes, ShapePointTable shapePoints) {
+        mGtfsData = gtfsData;
+        mStopTimes = stopTimes;
+        mShapePoints = shapePoints;
+    }
+
+    /**
+     * @param feedLocation the location of a GTFS zip file (GtfsFeedModel.feedLocation)
+     * @return the snapshot file for the GTFS zip file
+     */
+    public static File getFile(String feedLocation) {
+        return new File(feedLocation + EXTENSION);
+    }
+
+    /**
+     * Writes a snapshot of a GTFS feed, replacing any snapshot of an older version of the feed.  The StopTimeTable and
+     * ShapePointTable of the metadata are built first if they haven't been yet.
+     *
+     * @param file     the snapshot file
+     * @param checksum the checksum of the GTFS zip file the feed was read from
+     * @param gtfsData the GTFS feed
+     * @param metadata the metadata for the GTFS feed
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public static void write(File file, byte[] checksum, GtfsDaoImpl gtfsData, GtfsMetadata metadata) throws IOException {
+        long startTime = System.nanoTime();
+        Path path = file.toPath().toAbsolutePath();
+        // Write to a temporary file first so a partially-written snapshot is never loaded
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(checksum.length);
+                out.write(checksum);
+                // Written as one object graph, so trips, stops, etc. shared by the tables are only written once
+                out.writeObject(new ArrayList<>(gtfsData.getAllAgencies()));
+                out.writeObject(new ArrayList<>(gtfsData.getAllRoutes()));
+                out.writeObject(new ArrayList<>(gtfsData.getAllTrips()));
+                out.writeObject(new ArrayList<>(gtfsData.getAllStops()));
+                out.writeObject(new ArrayList<>(gtfsData.getAllFrequencies()));
+                out.writeObject(metadata.getStopTimeTable());
+                out.writeObject(metadata.getShapePointTable());
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        logDuration(_log, "Wrote GTFS snapshot " + file + " in ", startTime);
+    }
+
+    /**
+     * Reads the snapshot of a GTFS feed
+     *
+     * @param file     the snapshot file
+     * @param checksum the checksum of the current version of the GTFS zip file
+     * @return the snapshot, or null if there's no snapshot for this version of the GTFS zip file
+     * @throws IOException if the snapshot couldn't be read
+     */
+    public static GtfsMetadataSnapshot read(File file, byte[] checksum) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                _log.info("Ignoring GTFS snapshot " + file + " written in a different format");
+                return null;
+            }
+            byte[] snapshotChecksum = new byte[in.readInt()];
+            in.readFully(snapshotChecksum);
+            if (!MessageDigest.isEqual(checksum, snapshotChecksum)) {
+                _log.info("Ignoring GTFS snapshot " + file + " of a different version of the GTFS feed");
+                return null;
+            }
+            GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+            for (int i = 0; i < 5; i++) {
+                // Agencies, routes, trips, stops and frequencies
+                saveEntities(gtfsData, (Collection<?>) in.readObject());
+            }
+            StopTimeTable stopTimes = (StopTimeTable) in.readObject();
+            ShapePointTable shapePoints = (ShapePointTable) in.readObject();
+            logDuration(_log, "Read GTFS snapshot " + file + " in ", startTime);
+            return new GtfsMetadataSnapshot(gtfsData, stopTimes, shapePoints);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException("Invalid GTFS snapshot " + file + ": " + e);
+        }
+    }
+
+    private static void saveEntities(GtfsDaoImpl gtfsData, Collection<?> entities) {
+        for (Object entity : entities) {
+            gtfsData.saveEntity(entity);
+        }
+    }
+
+    /**
+     * Returns the GTFS feed, which only contains agencies, routes, trips, stops and frequencies - its stop_times and
+     * shapes are in getStopTimes() and getShapePoints()
+     *
+     * @return the GTFS feed, which only contains agencies, routes, trips, stops and frequencies
+     */
+    public GtfsDaoImpl getGtfsData() {
+        return mGtfsData;
+    }
+
+    /**
+     * @return the stop_times of the GTFS feed
+     */
+    public StopTimeTable getStopTimes() {
+        return mStopTimes;
+    }
+
+    /**
+     * @return the shapes of the GTFS feed
+     */
+    public ShapePointTable getShapePoints() {
+        return mShapePoints;
+    }
+
+    /**
+     * Creates the metadata for the GTFS feed in this snapshot
+     *
+     * @param feedUrl  URL for the GTFS zip file
+     * @param timeZone the agency_timezone from GTFS agency.txt, or null if the current time zone should be used.
+     * @return the metadata for the GTFS feed in this snapshot
+     */
+    public GtfsMetadata createMetadata(String feedUrl, TimeZone timeZone) {
+        return new GtfsMetadata(feedUrl, timeZone, mGtfsData, mStopTimes, mShapePoints);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.hibernate.Session;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the latest unique feed downloaded for each monitored GTFS-realtime feed (keyed by gtfsRtId), so each iteration
+ * can detect duplicate feeds and validate against the previous feed without querying the database or parsing the
+ * previous feed again.  A feed is loaded from the database when it starts being monitored (see warm()), and removed
+ * when it stops.
+ */
+public class LatestFeedCache {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(LatestFeedCache.class);
+
+    private static final Map<Integer, LatestFeed> mLatestFeeds = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the latest unique feed of a GTFS-realtime feed from the database into the cache when it starts being
+     * monitored, unless a newer feed has already been downloaded
+     *
+     * @param gtfsRtFeed the GTFS-realtime feed that starts being monitored
+     */
+    public static void warm(GtfsRtFeedModel gtfsRtFeed) {
+        if (mLatestFeeds.containsKey(gtfsRtFeed.getGtfsRtId())) {
+            return;
+        }
+        long startTimeNanos = System.nanoTime();
+        Session session = GTFSDB.initSessionBeginTrans();
+        try {
+            GtfsRtFeedIterationModel feedIteration = (GtfsRtFeedIterationModel) session.createQuery("FROM GtfsRtFeedIterationModel"
+                    + " WHERE rtFeedId = " + gtfsRtFeed.getGtfsRtId()
+                    + " AND (feedprotobuf IS NOT NULL OR blobStored = true)"
+                    + " ORDER BY IterationId DESC").setMaxResults(1).uniqueResult();
+            if (feedIteration == null) {
+                return;
+            }
+            warm(gtfsRtFeed.getGtfsRtId(), GTFSDB.getFeedProtobuf(feedIteration));
+            _log.debug("Loaded the latest feed of " + gtfsRtFeed.getGtfsUrl() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos) + " ms");
+        } catch (IOException e) {
+            _log.error("Couldn't parse the latest feed of " + gtfsRtFeed.getGtfsUrl(), e);
+        } finally {
+            GTFSDB.closeSession(session);
+        }
+    }
+
+    /**
+     * Loads a feed that was stored by an earlier run into the cache, unless a newer feed has already been downloaded.
+     * The digest is computed again with the current FeedHashAlgorithm, as the stored feedHash may have been computed
+     * with another algorithm and would never match the feeds downloaded from now on.
+     *
+     * @param gtfsRtId     the ID of the GTFS-realtime feed
+     * @param feedProtobuf the content of the latest unique feed of the GTFS-realtime feed
+     * @throws IOException if the feed couldn't be parsed
+     */
+    public static void warm(int gtfsRtId, byte[] feedProtobuf) throws IOException {
+        byte[] feedDigest = FeedHashAlgorithm.getCurrent().hash(feedProtobuf, 0, feedProtobuf.length);
+        GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(feedProtobuf);
+        mLatestFeeds.putIfAbsent(gtfsRtId, new LatestFeed(feedDigest, feedMessage));
+    }
+
+    /**
+     * @param gtfsRtId the ID of a GTFS-realtime feed
+     * @return the latest unique feed of the GTFS-realtime feed, or null if none has been downloaded
+     */
+    public static LatestFeed get(int gtfsRtId) {
+        return mLatestFeeds.get(gtfsRtId);
+    }
+
+    /**
+     * Sets the latest unique feed of a GTFS-realtime feed, after its iteration has been saved to the database
+     *
+     * @param gtfsRtId    the ID of the GTFS-realtime feed
+     * @param feedDigest  the digest of the feed
+     * @param feedMessage the parsed feed
+     */
+    public static void put(int gtfsRtId, byte[] feedDigest, GtfsRealtime.FeedMessage feedMessage) {
+        mLatestFeeds.put(gtfsRtId, new LatestFeed(feedDigest, feedMessage));
+    }
+
+    /**
+     * Removes the latest unique feed of a GTFS-realtime feed that stopped being monitored, so it isn't kept in memory
+     *
+     * @param gtfsRtId the ID of the GTFS-realtime feed
+     */
+    public static void remove(int gtfsRtId) {
+        mLatestFeeds.remove(gtfsRtId);
+    }
+
+    /**
+     * The latest unique feed downloaded for a GTFS-realtime feed
+     */
+    public static class LatestFeed {
+        private final byte[] mDigest;
+        private final GtfsRealtime.FeedMessage mFeedMessage;
+
+        LatestFeed(byte[] digest, GtfsRealtime.FeedMessage feedMessage) {
+            mDigest = digest;
+            mFeedMessage = feedMessage;
+        }
+
+        /**
+         * @return the digest of the feed with the current FeedHashAlgorithm, as stored in
+         * GtfsRtFeedIterationModel.feedHash
+         */
+        public byte[] getDigest() {
+            return mDigest;
+        }
+
+        /**
+         * @return the parsed feed
+         */
+        public GtfsRealtime.FeedMessage getFeedMessage() {
+            return mFeedMessage;
+        }
+
+        /**
+         * @return the timestamp of the feed header in milliseconds, as stored in GtfsRtFeedIterationModel.feedTimestamp
+         */
+        public long getFeedTimestamp() {
+            return TimeUnit.SECONDS.toMillis(mFeedMessage.getHeader().getTimestamp());
+        }
+    }
+}
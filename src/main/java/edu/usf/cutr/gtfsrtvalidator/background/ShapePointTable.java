@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A compact, read-only copy of GTFS shapes.txt grouped by shape_id.  Shape IDs are mapped to int indices, and the
+ * points of all shapes are held in packed primitive arrays, with the points of each shape sorted by shape_pt_sequence
+ * in a contiguous range.
+ * <p>
+ * Points are addressed by their position in the table - the points of a shape are the positions from
+ * getStart(shapeIndex) (inclusive) to getEnd(shapeIndex) (exclusive).  asMap() provides a view of the table as
+ * Map&lt;String, List&lt;ShapePoint&gt;&gt; for code that needs ShapePoint objects.
+ */
+public class ShapePointTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Integer> mShapeIndices;
+    private final AgencyAndId[] mShapeIds;
+    // The points of shape i are at positions mShapeOffsets[i] to mShapeOffsets[i + 1] - 1
+    private final int[] mShapeOffsets;
+    private final int[] mSequences;
+    private final double[] mLats;
+    private final double[] mLons;
+
+    // Created on first use, so it isn't serialized with the table
+    private transient Map<String, List<ShapePoint>> mMapView;
+
+    /**
+     * Copies shape points into a new table.  Only the shape_id, shape_pt_sequence, shape_pt_lat and shape_pt_lon of
+     * each point are kept.
+     *
+     * @param shapePoints all points from GTFS shapes.txt, in any order
+     */
+    public ShapePointTable(Collection<ShapePoint> shapePoints) {
+        mShapeIndices = new HashMap<>();
+        List<AgencyAndId> shapeIds = new ArrayList<>();
+        int[] shapeIndexOfPoint = new int[shapePoints.size()];
+        int[] shapeCounts = new int[16];
+        int position = 0;
+        for (ShapePoint p : shapePoints) {
+            Integer shapeIndex = mShapeIndices.get(p.getShapeId().getId());
+            if (shapeIndex == null) {
+                shapeIndex = shapeIds.size();
+                mShapeIndices.put(p.getShapeId().getId(), shapeIndex);
+                shapeIds.add(p.getShapeId());
+                if (shapeIndex == shapeCounts.length) {
+                    shapeCounts = Arrays.copyOf(shapeCounts, shapeCounts.length * 2);
+                }
+            }
+            shapeCounts[shapeIndex]++;
+            shapeIndexOfPoint[position++] = shapeIndex;
+        }
+        mShapeIds = shapeIds.toArray(new AgencyAndId[0]);
+
+        mShapeOffsets = new int[mShapeIds.length + 1];
+        for (int i = 0; i < mShapeIds.length; i++) {
+            mShapeOffsets[i + 1] = mShapeOffsets[i] + shapeCounts[i];
+        }
+
+        int count = shapePoints.size();
+        mSequences = new int[count];
+        mLats = new double[count];
+        mLons = new double[count];
+        int[] nextPositions = Arrays.copyOf(mShapeOffsets, mShapeIds.length);
+        position = 0;
+        for (ShapePoint p : shapePoints) {
+            int target = nextPositions[shapeIndexOfPoint[position++]]++;
+            mSequences[target] = p.getSequence();
+            mLats[target] = p.getLat();
+            mLons[target] = p.getLon();
+        }
+
+        // Order shape points by GTFS shapes.txt shape_pt_sequence
+        for (int i = 0; i < mShapeIds.length; i++) {
+            sortBySequence(mShapeOffsets[i], mShapeOffsets[i + 1]);
+        }
+    }
+
+    /**
+     * Sorts the points from start (inclusive) to end (exclusive) by shape_pt_sequence, keeping points with the same
+     * shape_pt_sequence in their original order
+     */
+    private void sortBySequence(int start, int end) {
+        boolean sorted = true;
+        for (int i = start + 1; i < end && sorted; i++) {
+            sorted = mSequences[i - 1] <= mSequences[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // Sort by shape_pt_sequence in the high bits and original position in the low bits
+        long[] keys = new long[end - start];
+        for (int i = start; i < end; i++) {
+            keys[i - start] = ((long) mSequences[i] << 32) | (i - start);
+        }
+        Arrays.sort(keys);
+        double[] lats = Arrays.copyOfRange(mLats, start, end);
+        double[] lons = Arrays.copyOfRange(mLons, start, end);
+        for (int i = 0; i < keys.length; i++) {
+            int from = (int) keys[i];
+            mSequences[start + i] = (int) (keys[i] >> 32);
+            mLats[start + i] = lats[from];
+            mLons[start + i] = lons[from];
+        }
+    }
+
+    /**
+     * @param shapeId a shapes.txt shape_id
+     * @return the index of the shape in this table, or -1 if there are no points for the shape
+     */
+    public int getShapeIndex(String shapeId) {
+        Integer shapeIndex = mShapeIndices.get(shapeId);
+        return shapeIndex != null ? shapeIndex : -1;
+    }
+
+    /**
+     * @return the number of shapes in this table
+     */
+    public int getShapeCount() {
+        return mShapeIds.length;
+    }
+
+    /**
+     * @return the total number of points in this table
+     */
+    public int size() {
+        return mSequences.length;
+    }
+
+    /**
+     * @param shapeIndex the index of a shape in this table
+     * @return the position of the first point of the shape
+     */
+    public int getStart(int shapeIndex) {
+        return mShapeOffsets[shapeIndex];
+    }
+
+    /**
+     * @param shapeIndex the index of a shape in this table
+     * @return the position after the last point of the shape
+     */
+    public int getEnd(int shapeIndex) {
+        return mShapeOffsets[shapeIndex + 1];
+    }
+
+    /**
+     * @param position the position of a point in this table
+     * @return the shape_pt_lat of the point
+     */
+    public double getLat(int position) {
+        return mLats[position];
+    }
+
+    /**
+     * @param position the position of a point in this table
+     * @return the shape_pt_lon of the point
+     */
+    public double getLon(int position) {
+        return mLons[position];
+    }
+
+    /**
+     * Returns a read-only view of this table where the key is shapes.txt shape_id, and the value is a list of
+     * ShapePoint objects sorted by shape_pt_sequence.  ShapePoint objects are created each time they are retrieved from
+     * a list, and only have their shape_id, shape_pt_sequence, shape_pt_lat and shape_pt_lon set.
+     *
+     * @return a read-only view of this table where the key is shapes.txt shape_id, and the value is a list of
+     * ShapePoint objects sorted by shape_pt_sequence
+     */
+    public Map<String, List<ShapePoint>> asMap() {
+        if (mMapView == null) {
+            mMapView = new MapView();
+        }
+        return mMapView;
+    }
+
+    private ShapePoint createShapePoint(int shapeIndex, int position) {
+        ShapePoint p = new ShapePoint();
+        p.setShapeId(mShapeIds[shapeIndex]);
+        p.setSequence(mSequences[position]);
+        p.setLat(mLats[position]);
+        p.setLon(mLons[position]);
+        return p;
+    }
+
+    /**
+     * The points of one shape as a list
+     */
+    private class ShapePointList extends AbstractList<ShapePoint> implements RandomAccess {
+        private final int mShapeIndex;
+
+        ShapePointList(int shapeIndex) {
+            mShapeIndex = shapeIndex;
+        }
+
+        @Override
+        public ShapePoint get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            return createShapePoint(mShapeIndex, getStart(mShapeIndex) + index);
+        }
+
+        @Override
+        public int size() {
+            return getEnd(mShapeIndex) - getStart(mShapeIndex);
+        }
+    }
+
+    /**
+     * The whole table as a map of shape_ids to lists of points
+     */
+    private class MapView extends AbstractMap<String, List<ShapePoint>> {
+
+        @Override
+        public List<ShapePoint> get(Object key) {
+            Integer shapeIndex = mShapeIndices.get(key);
+            return shapeIndex != null ? new ShapePointList(shapeIndex) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return mShapeIndices.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return mShapeIds.length;
+        }
+
+        @Override
+        public Set<Entry<String, List<ShapePoint>>> entrySet() {
+            return new AbstractSet<Entry<String, List<ShapePoint>>>() {
+                @Override
+                public Iterator<Entry<String, List<ShapePoint>>> iterator() {
+                    Iterator<Entry<String, Integer>> shapeIndices = mShapeIndices.entrySet().iterator();
+                    return new Iterator<Entry<String, List<ShapePoint>>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return shapeIndices.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, List<ShapePoint>> next() {
+                            Entry<String, Integer> shapeIndex = shapeIndices.next();
+                            return new SimpleImmutableEntry<>(shapeIndex.getKey(), new ShapePointList(shapeIndex.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return mShapeIds.length;
+                }
+            };
+        }
+    }
+}
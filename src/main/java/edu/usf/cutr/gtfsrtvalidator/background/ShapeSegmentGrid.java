@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index of the segments of one shape from GTFS shapes.txt, used to check if a point is within a buffer
+ * distance of the shape without building a buffered polygon of the shape.
+ * <p>
+ * The bounding box of the shape (plus the buffer) is divided into a grid of square cells the size of the buffer, and
+ * each segment of the shape is added to the cells along the segment that may be within the buffer distance of it -
+ * row by row, only the cells next to the part of the segment that crosses the row, so the number of cells of a
+ * segment grows with its length, not with the area of its bounding box (e.g., for a stray shape point far from the
+ * rest of the shape).  A point is within the buffer if it's within the buffer distance of one of the segments in its
+ * cell, so each check only measures the distance to the few segments near the point.  Only the cells that contain
+ * segments are stored.
+ * <p>
+ * Distances are measured in degrees on a plane of longitude and latitude, the same way as the Spatial4j buffer
+ * previously used for E029 (see GtfsMetadata.TRIP_BUFFER_DEGREES), so results are equivalent up to the buffer's polygon
+ * approximation - the grid checks the exact distance to each segment, with round ends and joins, while the buffered
+ * polygon approximated them with straight edges.
+ */
+public class ShapeSegmentGrid {
+
+    private final double mBuffer;
+    private final double mBufferSquared;
+    // Shape points, in shape_pt_sequence order
+    private final double[] mLons;
+    private final double[] mLats;
+
+    // Grid origin and size
+    private final double mMinLon;
+    private final double mMinLat;
+    private final long mColumns;
+    private final long mRows;
+
+    // IDs of the cells that contain segments in ascending order (row * mColumns + column), and the segments in cell
+    // mCellIds[i] are mCellSegments[mCellOffsets[i]] to mCellSegments[mCellOffsets[i + 1] - 1]
+    private final long[] mCellIds;
+    private final int[] mCellOffsets;
+    private final int[] mCellSegments;
+
+    /**
+     * Creates a grid for one shape
+     *
+     * @param shapePoints the table of GTFS shapes.txt points
+     * @param shapeIndex  the index of the shape in shapePoints
+     * @param buffer      the buffer distance around the shape, in degrees
+     */
+    public ShapeSegmentGrid(ShapePointTable shapePoints, int shapeIndex, double buffer) {
+        mBuffer = buffer;
+        mBufferSquared = buffer * buffer;
+        int start = shapePoints.getStart(shapeIndex);
+        int count = shapePoints.getEnd(shapeIndex) - start;
+        mLons = new double[count];
+        mLats = new double[count];
+        double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            mLons[i] = shapePoints.getLon(start + i);
+            mLats[i] = shapePoints.getLat(start + i);
+            minLon = Math.min(minLon, mLons[i]);
+            minLat = Math.min(minLat, mLats[i]);
+            maxLon = Math.max(maxLon, mLons[i]);
+            maxLat = Math.max(maxLat, mLats[i]);
+        }
+        mMinLon = minLon - buffer;
+        mMinLat = minLat - buffer;
+        mColumns = count > 0 ? getCell(maxLon + buffer, mMinLon) + 1 : 0;
+        mRows = count > 0 ? getCell(maxLat + buffer, mMinLat) + 1 : 0;
+
+        // Find the cells near each segment, as (cell ID * segment count + segment) so sorting groups them by cell
+        int segmentCount = getSegmentCount();
+        long[] entries = new long[Math.max(segmentCount * 4, 16)];
+        int entryCount = 0;
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int end = Math.min(segment + 1, count - 1);
+            double x1 = mLons[segment], y1 = mLats[segment];
+            double dx = mLons[end] - x1, dy = mLats[end] - y1;
+            // Rows and columns are widened by one cell on each side, so rounding errors can't leave out a cell
+            long firstRow = Math.max(0, getCell(Math.min(y1, y1 + dy) - buffer, mMinLat) - 1);
+            long lastRow = Math.min(mRows - 1, getCell(Math.max(y1, y1 + dy) + buffer, mMinLat) + 1);
+            for (long row = firstRow; row <= lastRow; row++) {
+                // Points of this row within the buffer are near the part of the segment between these latitudes
+                double rowMinLat = mMinLat + row * buffer - buffer;
+                double rowMaxLat = mMinLat + (row + 1) * buffer + buffer;
+                double rowMinLon, rowMaxLon;
+                if (dy == 0) {
+                    rowMinLon = Math.min(x1, x1 + dx);
+                    rowMaxLon = Math.max(x1, x1 + dx);
+                } else {
+                    double t1 = Math.max(0, Math.min(1, (rowMinLat - y1) / dy));
+                    double t2 = Math.max(0, Math.min(1, (rowMaxLat - y1) / dy));
+                    rowMinLon = Math.min(x1 + t1 * dx, x1 + t2 * dx);
+                    rowMaxLon = Math.max(x1 + t1 * dx, x1 + t2 * dx);
+                }
+                long firstColumn = Math.max(0, getCell(rowMinLon - buffer, mMinLon) - 1);
+                long lastColumn = Math.min(mColumns - 1, getCell(rowMaxLon + buffer, mMinLon) + 1);
+                for (long column = firstColumn; column <= lastColumn; column++) {
+                    if (entryCount == entries.length) {
+                        entries = Arrays.copyOf(entries, entries.length * 2);
+                    }
+                    entries[entryCount++] = (row * mColumns + column) * segmentCount + segment;
+                }
+            }
+        }
+        Arrays.sort(entries, 0, entryCount);
+
+        // Group the segments by cell
+        long[] cellIds = new long[entryCount];
+        int[] cellOffsets = new int[entryCount + 1];
+        mCellSegments = new int[entryCount];
+        int cellCount = 0;
+        for (int i = 0; i < entryCount; i++) {
+            long cellId = entries[i] / segmentCount;
+            if (cellCount == 0 || cellIds[cellCount - 1] != cellId) {
+                cellIds[cellCount] = cellId;
+                cellOffsets[cellCount] = i;
+                cellCount++;
+            }
+            mCellSegments[i] = (int) (entries[i] % segmentCount);
+        }
+        cellOffsets[cellCount] = entryCount;
+        mCellIds = Arrays.copyOf(cellIds, cellCount);
+        mCellOffsets = Arrays.copyOf(cellOffsets, cellCount + 1);
+    }
+
+    private long getCell(double value, double min) {
+        return (long) Math.floor((value - min) / mBuffer);
+    }
+
+    /**
+     * @return the number of segments in the shape - a shape with one point has one segment of zero length
+     */
+    private int getSegmentCount() {
+        return mLons.length > 1 ? mLons.length - 1 : mLons.length;
+    }
+
+    /**
+     * Returns true if the given point is within the buffer distance of the shape, false if it isn't
+     *
+     * @param lat latitude of the point
+     * @param lon longitude of the point
+     * @return true if the given point is within the buffer distance of the shape, false if it isn't
+     */
+    public boolean isWithinBuffer(double lat, double lon) {
+        long column = getCell(lon, mMinLon);
+        long row = getCell(lat, mMinLat);
+        if (column < 0 || column >= mColumns || row < 0 || row >= mRows) {
+            return false;
+        }
+        int cell = Arrays.binarySearch(mCellIds, row * mColumns + column);
+        if (cell < 0) {
+            return false;
+        }
+        for (int i = mCellOffsets[cell]; i < mCellOffsets[cell + 1]; i++) {
+            if (getDistanceSquared(mCellSegments[i], lon, lat) <= mBufferSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the squared distance from a point to a segment of the shape, in degrees
+     */
+    private double getDistanceSquared(int segment, double x, double y) {
+        int end = Math.min(segment + 1, mLons.length - 1);
+        double x1 = mLons[segment], y1 = mLats[segment];
+        double dx = mLons[end] - x1, dy = mLats[end] - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            // Position of the closest point on the segment to (x, y), from 0 (x1, y1) to 1 (the end of the segment)
+            t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        }
+        double px = x1 + t * dx - x, py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+
+    /**
+     * @return the number of points in the shape
+     */
+    public int size() {
+        return mLons.length;
+    }
+
+    /**
+     * @return the number of grid cells that contain segments of the shape
+     */
+    public int getCellCount() {
+        return mCellIds.length;
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A compact, read-only copy of GTFS stop_times.txt grouped by trip.  Trip and stop IDs are mapped to int indices, and
+ * the stop_times of all trips are held in parallel primitive arrays (stop_sequence, stop index, arrival_time and
+ * departure_time), with the stop_times of each trip sorted by stop_sequence in a contiguous range.  This takes a
+ * fraction of the memory of a map of trip_ids to lists of StopTime objects, which matters for large feeds with
+ * millions of stop_times.
+ * <p>
+ * Stop_times are addressed by their position in the table - the stop_times of a trip are the positions from
+ * getStart(tripIndex) (inclusive) to getEnd(tripIndex) (exclusive).  asMap() provides a view of the table as
+ * Map&lt;String, List&lt;StopTime&gt;&gt; for code that needs StopTime objects.
+ * <p>
+ * The stop_times of a trip can be looked up by stop_sequence (findStopSequence()) and by stop_id (findStopId()) without
+ * looping through the trip's stop_times, which is used to match GTFS-realtime stop_time_updates to GTFS stop_times.
+ */
+public class StopTimeTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Integer> mTripIndices;
+    private final Trip[] mTrips;
+    private final Stop[] mStops;
+    // The stop_times of trip i are at positions mTripOffsets[i] to mTripOffsets[i + 1] - 1
+    private final int[] mTripOffsets;
+    private final int[] mStopSequences;
+    private final int[] mStopIndices;
+    private final int[] mArrivalTimes;
+    private final int[] mDepartureTimes;
+
+    // Created on first use, so it isn't serialized with the table
+    private transient Map<String, List<StopTime>> mMapView;
+
+    // Index of stop_times by stop_id, rebuilt when the table is deserialized - stop_id indices are assigned in
+    // mStopIdIndices, and the range of each trip holds (stop_id index << 32 | position) of its stop_times, sorted
+    private transient Map<String, Integer> mStopIdIndices;
+    private transient long[] mStopIdKeys;
+
+    /**
+     * Copies stop_times into a new table.  Only the trip, stop, stop_sequence, arrival_time and departure_time of each
+     * stop_time are kept.
+     *
+     * @param stopTimes all stop_times from GTFS stop_times.txt, in any order
+     */
+    public StopTimeTable(Collection<StopTime> stopTimes) {
+        // Assign indices to trips and stops, and count the stop_times of each trip
+        mTripIndices = new HashMap<>();
+        List<Trip> trips = new ArrayList<>();
+        Map<Stop, Integer> stopIndices = new HashMap<>();
+        List<Stop> stops = new ArrayList<>();
+        int[] tripIndexOfStopTime = new int[stopTimes.size()];
+        int[] tripCounts = new int[16];
+        int position = 0;
+        for (StopTime stopTime : stopTimes) {
+            Trip trip = stopTime.getTrip();
+            Integer tripIndex = mTripIndices.get(trip.getId().getId());
+            if (tripIndex == null) {
+                tripIndex = trips.size();
+                mTripIndices.put(trip.getId().getId(), tripIndex);
+                trips.add(trip);
+                if (tripIndex == tripCounts.length) {
+                    tripCounts = Arrays.copyOf(tripCounts, tripCounts.length * 2);
+                }
+            }
+            tripCounts[tripIndex]++;
+            tripIndexOfStopTime[position++] = tripIndex;
+            stopIndices.computeIfAbsent(stopTime.getStop(), stop -> {
+                stops.add(stop);
+                return stops.size() - 1;
+            });
+        }
+        mTrips = trips.toArray(new Trip[0]);
+        mStops = stops.toArray(new Stop[0]);
+
+        mTripOffsets = new int[mTrips.length + 1];
+        for (int i = 0; i < mTrips.length; i++) {
+            mTripOffsets[i + 1] = mTripOffsets[i] + tripCounts[i];
+        }
+
+        // Place the stop_times of each trip in its range, in the order they were provided
+        int count = stopTimes.size();
+        mStopSequences = new int[count];
+        mStopIndices = new int[count];
+        mArrivalTimes = new int[count];
+        mDepartureTimes = new int[count];
+        int[] nextPositions = Arrays.copyOf(mTripOffsets, mTrips.length);
+        position = 0;
+        for (StopTime stopTime : stopTimes) {
+            int target = nextPositions[tripIndexOfStopTime[position++]]++;
+            mStopSequences[target] = stopTime.getStopSequence();
+            mStopIndices[target] = stopIndices.get(stopTime.getStop());
+            mArrivalTimes[target] = stopTime.getArrivalTime();
+            mDepartureTimes[target] = stopTime.getDepartureTime();
+        }
+
+        // Sort the stop_times of each trip by stop_sequence (stop_times.txt isn't necessarily sorted)
+        for (int i = 0; i < mTrips.length; i++) {
+            sortByStopSequence(mTripOffsets[i], mTripOffsets[i + 1]);
+        }
+        buildStopIdIndex();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildStopIdIndex();
+    }
+
+    /**
+     * Builds the index of the stop_times of each trip by stop_id, used by findStopId()
+     */
+    private void buildStopIdIndex() {
+        mStopIdIndices = new HashMap<>();
+        int[] stopIdIndexOfStop = new int[mStops.length];
+        for (int i = 0; i < mStops.length; i++) {
+            stopIdIndexOfStop[i] = mStopIdIndices.computeIfAbsent(mStops[i].getId().getId(), stopId -> mStopIdIndices.size());
+        }
+        mStopIdKeys = new long[mStopIndices.length];
+        for (int position = 0; position < mStopIndices.length; position++) {
+            mStopIdKeys[position] = ((long) stopIdIndexOfStop[mStopIndices[position]] << 32) | position;
+        }
+        for (int i = 0; i < mTrips.length; i++) {
+            Arrays.sort(mStopIdKeys, mTripOffsets[i], mTripOffsets[i + 1]);
+        }
+    }
+
+    /**
+     * Sorts the stop_times from start (inclusive) to end (exclusive) by stop_sequence, keeping stop_times with the same
+     * stop_sequence in their original order
+     */
+    private void sortByStopSequence(int start, int end) {
+        boolean sorted = true;
+        for (int i = start + 1; i < end && sorted; i++) {
+            sorted = mStopSequences[i - 1] <= mStopSequences[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // Sort by stop_sequence in the high bits and original position in the low bits
+        long[] keys = new long[end - start];
+        for (int i = start; i < end; i++) {
+            keys[i - start] = ((long) mStopSequences[i] << 32) | (i - start);
+        }
+        Arrays.sort(keys);
+        int[] stopIndices = Arrays.copyOfRange(mStopIndices, start, end);
+        int[] arrivalTimes = Arrays.copyOfRange(mArrivalTimes, start, end);
+        int[] departureTimes = Arrays.copyOfRange(mDepartureTimes, start, end);
+        for (int i = 0; i < keys.length; i++) {
+            int from = (int) keys[i];
+            mStopSequences[start + i] = (int) (keys[i] >> 32);
+            mStopIndices[start + i] = stopIndices[from];
+            mArrivalTimes[start + i] = arrivalTimes[from];
+            mDepartureTimes[start + i] = departureTimes[from];
+        }
+    }
+
+    /**
+     * @param tripId a trips.txt trip_id
+     * @return the index of the trip in this table, or -1 if the trip has no stop_times
+     */
+    public int getTripIndex(String tripId) {
+        Integer tripIndex = mTripIndices.get(tripId);
+        return tripIndex != null ? tripIndex : -1;
+    }
+
+    /**
+     * @return the number of trips that have stop_times
+     */
+    public int getTripCount() {
+        return mTrips.length;
+    }
+
+    /**
+     * @return the total number of stop_times in this table
+     */
+    public int size() {
+        return mStopSequences.length;
+    }
+
+    /**
+     * @param tripIndex the index of a trip in this table
+     * @return the trip
+     */
+    public Trip getTrip(int tripIndex) {
+        return mTrips[tripIndex];
+    }
+
+    /**
+     * @param tripIndex the index of a trip in this table
+     * @return the position of the first stop_time of the trip
+     */
+    public int getStart(int tripIndex) {
+        return mTripOffsets[tripIndex];
+    }
+
+    /**
+     * @param tripIndex the index of a trip in this table
+     * @return the position after the last stop_time of the trip
+     */
+    public int getEnd(int tripIndex) {
+        return mTripOffsets[tripIndex + 1];
+    }
+
+    /**
+     * @param position the position of a stop_time in this table
+     * @return the stop_sequence of the stop_time
+     */
+    public int getStopSequence(int position) {
+        return mStopSequences[position];
+    }
+
+    /**
+     * Returns the index of the stop of a stop_time, which can be used to compare stops without comparing stop_ids
+     *
+     * @param position the position of a stop_time in this table
+     * @return the index of the stop of the stop_time
+     */
+    public int getStopIndex(int position) {
+        return mStopIndices[position];
+    }
+
+    /**
+     * @param position the position of a stop_time in this table
+     * @return the stop of the stop_time
+     */
+    public Stop getStop(int position) {
+        return mStops[mStopIndices[position]];
+    }
+
+    /**
+     * @param position the position of a stop_time in this table
+     * @return the stop_id of the stop_time
+     */
+    public String getStopId(int position) {
+        return getStop(position).getId().getId();
+    }
+
+    /**
+     * @param position the position of a stop_time in this table
+     * @return the arrival_time of the stop_time in seconds after midnight, or StopTime.MISSING_VALUE if it isn't set
+     */
+    public int getArrivalTime(int position) {
+        return mArrivalTimes[position];
+    }
+
+    /**
+     * @param position the position of a stop_time in this table
+     * @return the departure_time of the stop_time in seconds after midnight, or StopTime.MISSING_VALUE if it isn't set
+     */
+    public int getDepartureTime(int position) {
+        return mDepartureTimes[position];
+    }
+
+    /**
+     * Returns the position of the stop_time of a trip with the given stop_sequence
+     *
+     * @param tripIndex    the index of a trip in this table
+     * @param stopSequence a stop_times.txt stop_sequence
+     * @return the position of the first stop_time of the trip with the given stop_sequence, or -1 if the trip doesn't
+     * have that stop_sequence
+     */
+    public int findStopSequence(int tripIndex, int stopSequence) {
+        int start = getStart(tripIndex);
+        int position = Arrays.binarySearch(mStopSequences, start, getEnd(tripIndex), stopSequence);
+        if (position < 0) {
+            return -1;
+        }
+        // stop_sequences should be unique within a trip, but if they aren't use the first one
+        while (position > start && mStopSequences[position - 1] == stopSequence) {
+            position--;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the position of the first stop_time of a trip that visits the given stop_id, starting from fromPosition.
+     * Trips on routes with loops visit the same stop_id more than once, so fromPosition can be used to skip the visits
+     * that were already matched.
+     *
+     * @param tripIndex    the index of a trip in this table
+     * @param stopId       a stops.txt stop_id
+     * @param fromPosition the position of the first stop_time of the trip to consider
+     * @return the position of the first stop_time of the trip at or after fromPosition that visits the given stop_id,
+     * or -1 if there isn't one
+     */
+    public int findStopId(int tripIndex, String stopId, int fromPosition) {
+        Integer stopIdIndex = mStopIdIndices.get(stopId);
+        if (stopIdIndex == null) {
+            return -1;
+        }
+        int end = getEnd(tripIndex);
+        long key = ((long) stopIdIndex << 32) | Math.max(fromPosition, getStart(tripIndex));
+        int i = Arrays.binarySearch(mStopIdKeys, getStart(tripIndex), end, key);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        if (i < end && (int) (mStopIdKeys[i] >>> 32) == stopIdIndex) {
+            return (int) mStopIdKeys[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a read-only view of this table where the key is trips.txt trip_id, and the value is a list of StopTime
+     * objects from stop_times.txt sorted by stop_sequence.  StopTime objects are created each time they are retrieved
+     * from a list, and only have their trip, stop, stop_sequence, arrival_time and departure_time set.
+     *
+     * @return a read-only view of this table where the key is trips.txt trip_id, and the value is a list of StopTime
+     * objects from stop_times.txt sorted by stop_sequence
+     */
+    public Map<String, List<StopTime>> asMap() {
+        if (mMapView == null) {
+            mMapView = new MapView();
+        }
+        return mMapView;
+    }
+
+    private StopTime createStopTime(int tripIndex, int position) {
+        StopTime stopTime = new StopTime();
+        stopTime.setTrip(mTrips[tripIndex]);
+        stopTime.setStop(getStop(position));
+        stopTime.setStopSequence(mStopSequences[position]);
+        stopTime.setArrivalTime(mArrivalTimes[position]);
+        stopTime.setDepartureTime(mDepartureTimes[position]);
+        return stopTime;
+    }
+
+    /**
+     * The stop_times of one trip as a list
+     */
+    private class TripStopTimeList extends AbstractList<StopTime> implements RandomAccess {
+        private final int mTripIndex;
+
+        TripStopTimeList(int tripIndex) {
+            mTripIndex = tripIndex;
+        }
+
+        @Override
+        public StopTime get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            return createStopTime(mTripIndex, getStart(mTripIndex) + index);
+        }
+
+        @Override
+        public int size() {
+            return getEnd(mTripIndex) - getStart(mTripIndex);
+        }
+    }
+
+    /**
+     * The whole table as a map of trip_ids to lists of stop_times
+     */
+    private class MapView extends AbstractMap<String, List<StopTime>> {
+
+        @Override
+        public List<StopTime> get(Object key) {
+            Integer tripIndex = mTripIndices.get(key);
+            return tripIndex != null ? new TripStopTimeList(tripIndex) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return mTripIndices.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return mTrips.length;
+        }
+
+        @Override
+        public Set<Entry<String, List<StopTime>>> entrySet() {
+            return new AbstractSet<Entry<String, List<StopTime>>>() {
+                @Override
+                public Iterator<Entry<String, List<StopTime>>> iterator() {
+                    Iterator<Entry<String, Integer>> tripIndices = mTripIndices.entrySet().iterator();
+                    return new Iterator<Entry<String, List<StopTime>>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return tripIndices.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, List<StopTime>> next() {
+                            Entry<String, Integer> tripIndex = tripIndices.next();
+                            return new SimpleImmutableEntry<>(tripIndex.getKey(), new TripStopTimeList(tripIndex.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return mTrips.length;
+                }
+            };
+        }
+    }
+}
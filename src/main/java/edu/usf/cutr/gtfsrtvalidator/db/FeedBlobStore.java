@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.db;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stores the content of GTFS-realtime feeds outside of the GtfsRtFeedIteration table, keyed by the SHA-256 digest of
+ * the feed (see getKey() and GtfsRtFeedIterationModel.blobKey).  Because feeds are keyed by their content, each
+ * distinct feed is only stored once, even if it's received by several iterations or GTFS-realtime feeds.
+ * <p>
+ * The store is shared by all GTFS-realtime feeds, so its keys must resist deliberate collisions - otherwise one feed
+ * could be crafted to have the same key as another and be returned in its place.  That's why feeds aren't keyed by
+ * GtfsRtFeedIterationModel.feedHash, which may use a faster hash function that doesn't (see FeedHashAlgorithm).
+ */
+public interface FeedBlobStore {
+
+    /**
+     * Returns the key that a feed held in the first length bytes of an array is stored under
+     *
+     * @param feed   an array starting with the content of the feed
+     * @param length the length of the feed in bytes
+     * @return the SHA-256 digest of the feed
+     */
+    static byte[] getKey(byte[] feed, int length) {
+        return FeedHashAlgorithm.SHA256.hash(feed, 0, length);
+    }
+
+    /**
+     * Stores a feed, unless a feed with the same key is already stored
+     *
+     * @param key  the key of the feed (see getKey())
+     * @param feed the content of the feed
+     * @throws IOException if the feed couldn't be stored
+     */
+    default void put(byte[] key, byte[] feed) throws IOException {
+        put(key, feed, feed.length);
+    }
+
+    /**
+     * Stores a feed held in the first length bytes of an array (e.g., a reused download buffer), unless a feed with
+     * the same key is already stored
+     *
+     * @param key    the key of the feed (see getKey())
+     * @param feed   an array starting with the content of the feed
+     * @param length the length of the feed in bytes
+     * @throws IOException if the feed couldn't be stored
+     */
+    void put(byte[] key, byte[] feed, int length) throws IOException;
+
+    /**
+     * Opens a stored feed for reading.  The caller must close the stream.
+     *
+     * @param key the key of the feed (see getKey())
+     * @return a stream with the content of the feed
+     * @throws java.io.FileNotFoundException if no feed is stored with this key
+     * @throws IOException                   if the feed couldn't be read
+     */
+    InputStream open(byte[] key) throws IOException;
+
+    /**
+     * @param key the key of the feed (see getKey())
+     * @return the content of the stored feed
+     * @throws java.io.FileNotFoundException if no feed is stored with this key
+     * @throws IOException                   if the feed couldn't be read
+     */
+    default byte[] get(byte[] key) throws IOException {
+        try (InputStream in = open(key)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * Parses a stored feed directly from the store, without copying it into a byte array first
+     *
+     * @param key the key of the feed (see getKey())
+     * @return the parsed feed
+     * @throws java.io.FileNotFoundException if no feed is stored with this key
+     * @throws IOException                   if the feed couldn't be read or parsed
+     */
+    default GtfsRealtime.FeedMessage getFeedMessage(byte[] key) throws IOException {
+        try (InputStream in = open(key)) {
+            return GtfsRealtime.FeedMessage.parseFrom(in);
+        }
+    }
+}
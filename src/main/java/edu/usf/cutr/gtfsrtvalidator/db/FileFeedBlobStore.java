@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.db;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores each feed in its own file under a directory, named after the hex key of the feed (e.g.,
+ * ab/ab12cd...ef.pb), optionally compressed with gzip (ab/ab12cd...ef.pb.gz).  Uncompressed feeds are read using
+ * memory-mapped files.
+ * <p>
+ * Feeds stored with and without compression can both be read, so compression can be turned on or off at any time.
+ * <p>
+ * Feeds are never deleted by the store, as iterations keep referencing them.  Old files can be deleted by hand at any
+ * time to reclaim space - open() then throws FileNotFoundException for them, and a feed that is received again is
+ * stored again.
+ */
+public class FileFeedBlobStore implements FeedBlobStore {
+
+    private static final String EXTENSION = ".pb";
+    private static final String GZIP_EXTENSION = ".pb.gz";
+
+    private final Path mDirectory;
+    private final boolean mGzip;
+
+    /**
+     * @param directory directory to store feeds in, created if it doesn't exist
+     * @param gzip      true to compress feeds with gzip when they are stored
+     * @throws IOException if the directory couldn't be created
+     */
+    public FileFeedBlobStore(File directory, boolean gzip) throws IOException {
+        mDirectory = directory.toPath();
+        mGzip = gzip;
+        Files.createDirectories(mDirectory);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] feed, int length) throws IOException {
+        Path path = getPath(key, mGzip ? GZIP_EXTENSION : EXTENSION);
+        if (Files.exists(path) || Files.exists(getPath(key, mGzip ? EXTENSION : GZIP_EXTENSION))) {
+            // The same feed has already been stored
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        // Write to a temporary file first so other threads never see a partially-written feed
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = mGzip ? new GZIPOutputStream(Files.newOutputStream(tempPath)) : Files.newOutputStream(tempPath)) {
+                out.write(feed, 0, length);
+            }
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another thread stored the same feed at the same time
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    @Override
+    public InputStream open(byte[] key) throws IOException {
+        Path path = getPath(key, EXTENSION);
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new ByteBufferInputStream(buffer);
+            }
+        }
+        Path gzipPath = getPath(key, GZIP_EXTENSION);
+        if (Files.exists(gzipPath)) {
+            return new GZIPInputStream(Files.newInputStream(gzipPath));
+        }
+        throw new FileNotFoundException("No feed stored for key " + toHex(key) + " in " + mDirectory);
+    }
+
+    /**
+     * Returns the path of a feed, in a subdirectory named after the first byte of the key so no directory holds
+     * too many files
+     */
+    private Path getPath(byte[] key, String extension) {
+        String hex = toHex(key);
+        return mDirectory.resolve(hex.substring(0, 2)).resolve(hex + extension);
+    }
+
+    private static String toHex(byte[] key) {
+        return BaseEncoding.base16().lowerCase().encode(key);
+    }
+
+    /**
+     * Reads the remaining bytes of a ByteBuffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
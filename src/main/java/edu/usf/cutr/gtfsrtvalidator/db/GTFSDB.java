@@ -17,6 +17,8 @@
 
 package edu.usf.cutr.gtfsrtvalidator.db;
 
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.ValidationRule;
 import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
 import edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules;
@@ -25,15 +27,20 @@ import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class GTFSDB {
 
     private static final Logger _log = LoggerFactory.getLogger(GTFSDB.class);
 
+    // Stores the content of unique feeds, or null to store it in GtfsRtFeedIterationModel.feedprotobuf
+    private static volatile FeedBlobStore mFeedBlobStore = null;
+
     public static void initializeDB() {
 
         //Use reflection to get the list of rules from the ValidataionRules class
@@ -70,6 +77,111 @@ public class GTFSDB {
         _log.info("Table initialized successfully");
     }
 
+    /**
+     * Sets where the content of feeds is stored by storeFeedProtobuf().  Feeds already stored elsewhere can still be
+     * read by getFeedProtobuf().
+     *
+     * @param feedBlobStore the store for the content of feeds, or null to store it in the GtfsRtFeedIteration table
+     */
+    public static void setFeedBlobStore(FeedBlobStore feedBlobStore) {
+        mFeedBlobStore = feedBlobStore;
+    }
+
+    /**
+     * Stores the content of the feed of a unique iteration, either in the FeedBlobStore (see FeedBlobStore.getKey()), or
+     * in the iteration itself if there's no FeedBlobStore.  The iteration must be saved afterwards.
+     *
+     * @param feedIteration the iteration to store the feed for
+     * @param feedProtobuf  the content of the feed
+     * @throws IOException if the feed couldn't be stored in the FeedBlobStore
+     */
+    public static void storeFeedProtobuf(GtfsRtFeedIterationModel feedIteration, byte[] feedProtobuf) throws IOException {
+        storeFeedProtobuf(feedIteration, feedProtobuf, feedProtobuf.length);
+    }
+
+    /**
+     * Stores the content of the feed of a unique iteration held in the first length bytes of an array (e.g., a reused
+     * download buffer), either in the FeedBlobStore (see FeedBlobStore.getKey()), or in the iteration itself if there's
+     * no FeedBlobStore.  The array isn't referenced after this returns.  The iteration must be saved
+     * afterwards.
+     *
+     * @param feedIteration the iteration to store the feed for
+     * @param feedProtobuf  an array starting with the content of the feed
+     * @param length        the length of the feed in bytes
+     * @throws IOException if the feed couldn't be stored in the FeedBlobStore
+     */
+    public static void storeFeedProtobuf(GtfsRtFeedIterationModel feedIteration, byte[] feedProtobuf, int length) throws IOException {
+        storeFeedProtobuf(feedIteration, feedProtobuf, length, null);
+    }
+
+    /**
+     * Stores the content of the feed of a unique iteration held in the first length bytes of an array, like
+     * storeFeedProtobuf(feedIteration, feedProtobuf, length), with its FeedBlobStore key if it was already computed
+     * while the feed was downloaded (see FeedBuffer.getBlobKey())
+     *
+     * @param feedIteration the iteration to store the feed for
+     * @param feedProtobuf  an array starting with the content of the feed
+     * @param length        the length of the feed in bytes
+     * @param blobKey       the key of the feed in the FeedBlobStore (see FeedBlobStore.getKey()), or null to compute it
+     * @throws IOException if the feed couldn't be stored in the FeedBlobStore
+     */
+    public static void storeFeedProtobuf(GtfsRtFeedIterationModel feedIteration, byte[] feedProtobuf, int length, byte[] blobKey) throws IOException {
+        FeedBlobStore feedBlobStore = mFeedBlobStore;
+        if (feedBlobStore != null) {
+            byte[] key = blobKey != null ? blobKey : FeedBlobStore.getKey(feedProtobuf, length);
+            feedBlobStore.put(key, feedProtobuf, length);
+            feedIteration.setFeedprotobuf(null);
+            feedIteration.setBlobStored(true);
+            feedIteration.setBlobKey(key);
+        } else {
+            feedIteration.setFeedprotobuf(Arrays.copyOf(feedProtobuf, length));
+        }
+    }
+
+    /**
+     * Returns the content of the feed of an iteration, wherever it was stored by storeFeedProtobuf()
+     *
+     * @param feedIteration the iteration to get the feed for
+     * @return the content of the feed, or null if the iteration received a duplicate feed
+     * @throws IOException if the feed couldn't be read from the FeedBlobStore
+     */
+    public static byte[] getFeedProtobuf(GtfsRtFeedIterationModel feedIteration) throws IOException {
+        if (feedIteration.getFeedprotobuf() != null) {
+            return feedIteration.getFeedprotobuf();
+        }
+        if (Boolean.TRUE.equals(feedIteration.getBlobStored())) {
+            if (mFeedBlobStore == null) {
+                throw new IOException("Feed of iteration " + feedIteration.getIterationId() + " is in a FeedBlobStore, but no FeedBlobStore is set");
+            }
+            return mFeedBlobStore.get(getBlobKey(feedIteration));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the parsed feed of an iteration, wherever it was stored by storeFeedProtobuf().  Feeds in the
+     * FeedBlobStore are parsed directly from the store.
+     *
+     * @param feedIteration the iteration to get the feed for
+     * @return the parsed feed, or null if the iteration received a duplicate feed
+     * @throws IOException if the feed couldn't be read or parsed
+     */
+    public static GtfsRealtime.FeedMessage getFeedMessage(GtfsRtFeedIterationModel feedIteration) throws IOException {
+        if (feedIteration.getFeedprotobuf() == null && Boolean.TRUE.equals(feedIteration.getBlobStored()) && mFeedBlobStore != null) {
+            return mFeedBlobStore.getFeedMessage(getBlobKey(feedIteration));
+        }
+        byte[] feedProtobuf = getFeedProtobuf(feedIteration);
+        return feedProtobuf != null ? GtfsRealtime.FeedMessage.parseFrom(feedProtobuf) : null;
+    }
+
+    /**
+     * Returns the key of the feed of an iteration in the FeedBlobStore.  Feeds stored before blobKey existed are stored
+     * under the feedHash of the iteration.
+     */
+    private static byte[] getBlobKey(GtfsRtFeedIterationModel feedIteration) {
+        return feedIteration.getBlobKey() != null ? feedIteration.getBlobKey() : feedIteration.getFeedHash();
+    }
+
     public static Session initSessionBeginTrans() {
         Session session = null;
         Transaction tx = null;
@@ -17,11 +17,36 @@
 
 package edu.usf.cutr.gtfsrtvalidator.helper;
 
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import org.hibernate.Session;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class DBHelper {
+
+    /**
+     * Maximum number of Occurrence rows sent to the database in a single JDBC batch
+     */
+    public static final int OCCURRENCE_BATCH_SIZE = 1000;
+
+    private static final String INSERT_MESSAGE_LOG = "INSERT INTO MessageLog (iterationID, errorID, errorDetails) VALUES (?, ?, ?)";
+    private static final String INSERT_OCCURRENCE = "INSERT INTO Occurrence (messageID, prefix) VALUES (?, ?)";
+
+    /**
+     * Saves the errors and warnings of a single rule using Hibernate, in two transactions with one INSERT per
+     * occurrence.  Only kept as the baseline of DBHelperBenchmark - use saveErrors() instead.
+     *
+     * @param errorListHelperModel the errors and warnings to save, with the iteration already set in its MessageLogModel
+     */
     public static void saveError(ErrorListHelperModel errorListHelperModel) {
         Session session = GTFSDB.initSessionBeginTrans();
         session.save(errorListHelperModel.getErrorMessage());
@@ -34,4 +59,80 @@ public class DBHelper {
         }
         GTFSDB.commitAndCloseSession(session);
     }
+
+    /**
+     * Saves all errors and warnings found in a feed iteration in a single transaction.  MessageLog rows are inserted
+     * one at a time to get their generated IDs, and Occurrence rows are inserted using JDBC batches of
+     * OCCURRENCE_BATCH_SIZE rows (Hibernate can't batch inserts of entities with IDENTITY IDs).  Error lists without
+     * any occurrences are skipped.
+     * <p>
+     * The ID of each MessageLogModel is set after it's saved.  IDs of OccurrenceModels are not set.
+     *
+     * @param feedIteration the iteration the errors and warnings were found in
+     * @param errorLists    the errors and warnings to save
+     */
+    public static void saveErrors(GtfsRtFeedIterationModel feedIteration, List<ErrorListHelperModel> errorLists) {
+        saveErrors(Collections.singletonMap(feedIteration, errorLists));
+    }
+
+    /**
+     * Saves all errors and warnings found in several feed iterations (possibly of different feeds) in a single
+     * transaction - see saveErrors(GtfsRtFeedIterationModel, List).  If any of them can't be saved, none of them are
+     * saved.
+     *
+     * @param errorListsByIteration the errors and warnings to save, keyed by the iteration they were found in
+     */
+    public static void saveErrors(Map<GtfsRtFeedIterationModel, List<ErrorListHelperModel>> errorListsByIteration) {
+        Session session = GTFSDB.initSessionBeginTrans();
+        try {
+            session.doWork(connection -> {
+                try (PreparedStatement messageStatement = connection.prepareStatement(INSERT_MESSAGE_LOG, Statement.RETURN_GENERATED_KEYS);
+                     PreparedStatement occurrenceStatement = connection.prepareStatement(INSERT_OCCURRENCE)) {
+                    int batchCount = 0;
+                    for (Map.Entry<GtfsRtFeedIterationModel, List<ErrorListHelperModel>> entry : errorListsByIteration.entrySet()) {
+                        GtfsRtFeedIterationModel feedIteration = entry.getKey();
+                        for (ErrorListHelperModel errorList : entry.getValue()) {
+                            if (errorList.getOccurrenceList().isEmpty()) {
+                                continue;
+                            }
+                            MessageLogModel messageLog = errorList.getErrorMessage();
+                            messageLog.setGtfsRtFeedIterationModel(feedIteration);
+                            messageStatement.setInt(1, feedIteration.getIterationId());
+                            messageStatement.setString(2, messageLog.getValidationRule().getErrorId());
+                            if (messageLog.getErrorDetails() != null) {
+                                messageStatement.setString(3, messageLog.getErrorDetails());
+                            } else {
+                                messageStatement.setNull(3, Types.VARCHAR);
+                            }
+                            messageStatement.executeUpdate();
+                            try (ResultSet keys = messageStatement.getGeneratedKeys()) {
+                                keys.next();
+                                messageLog.setMessageId(keys.getInt(1));
+                            }
+
+                            for (OccurrenceModel occurrence : errorList.getOccurrenceList()) {
+                                occurrence.setMessageLogModel(messageLog);
+                                occurrenceStatement.setInt(1, messageLog.getMessageId());
+                                occurrenceStatement.setString(2, occurrence.getPrefix());
+                                occurrenceStatement.addBatch();
+                                if (++batchCount == OCCURRENCE_BATCH_SIZE) {
+                                    occurrenceStatement.executeBatch();
+                                    batchCount = 0;
+                                }
+                            }
+                        }
+                    }
+                    if (batchCount > 0) {
+                        occurrenceStatement.executeBatch();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Don't save any of the errors for these iterations if one of them fails
+            session.getTransaction().rollback();
+            GTFSDB.closeSession(session);
+            throw e;
+        }
+        GTFSDB.commitAndCloseSession(session);
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only increases, e.g. the number of occurrences of a rule.  Get counters from MetricsRegistry.counter().
+ */
+public class Counter {
+
+    private final LongAdder mCount = new LongAdder();
+
+    Counter() {
+    }
+
+    /**
+     * Adds one to the count
+     */
+    public void increment() {
+        mCount.increment();
+    }
+
+    /**
+     * Adds amount to the count
+     *
+     * @param amount the amount to add, which must not be negative
+     */
+    public void increment(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Counters can only increase");
+        }
+        mCount.add(amount);
+    }
+
+    /**
+     * @return the current count
+     */
+    public long get() {
+        return mCount.sum();
+    }
+}
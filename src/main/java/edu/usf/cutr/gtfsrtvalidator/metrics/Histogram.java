@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets, like a Prometheus histogram, so the distribution of durations (e.g., the 99th
+ * percentile) can be calculated by the monitoring system.  Durations are exported in seconds.  Get histograms from
+ * MetricsRegistry.histogram().
+ */
+public class Histogram {
+
+    /**
+     * Upper bounds of the buckets, in seconds - from 1 ms for a rule on a small feed to a minute for a slow download
+     */
+    public static final double[] BUCKETS_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // Number of durations in each bucket (not cumulative), with durations longer than the last bucket at the end
+    private final LongAdder[] mCounts = new LongAdder[BUCKETS_NANOS.length + 1];
+    private final LongAdder mSumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param nanos the duration, in nanoseconds
+     */
+    public void observeNanos(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket].increment();
+        mSumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since startTimeNanos
+     *
+     * @param startTimeNanos the start time, in nanoseconds (e.g., System.nanoTime())
+     */
+    public void observeSince(long startTimeNanos) {
+        observeNanos(System.nanoTime() - startTimeNanos);
+    }
+
+    /**
+     * Returns the number of durations recorded that were less than or equal to each bucket in BUCKETS_SECONDS,
+     * followed by the total number of durations recorded
+     *
+     * @return the cumulative number of durations in each bucket, with the total count at the end
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[mCounts.length];
+        long total = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            total += mCounts[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * @return the total number of durations recorded
+     */
+    public long getCount() {
+        long[] counts = getCumulativeCounts();
+        return counts[counts.length - 1];
+    }
+
+    /**
+     * @return the sum of the durations recorded, in seconds
+     */
+    public double getSumSeconds() {
+        return mSumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
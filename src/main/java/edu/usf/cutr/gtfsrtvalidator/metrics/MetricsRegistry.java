@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Holds the metrics of the validator - counters and histograms recorded while feeds are processed, and gauges that
+ * read values from other components (e.g., the size of the ErrorWriter queue) when the metrics are exported - and
+ * exports them in the Prometheus text format (see /api/metrics).
+ * <p>
+ * Each metric has a name and optional labels, given as pairs of label names and values (e.g., "feed", url).  Metrics
+ * with the same name are one family and must have the same type and label names.  Getting a metric that already
+ * exists returns the same instance, so callers that record often should keep the metric instead of looking it up.
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final MetricsRegistry sDefault = new MetricsRegistry();
+
+    // Families sorted by name, so the output is stable
+    private final Map<String, Family> mFamilies = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the registry exported by /api/metrics
+     */
+    public static MetricsRegistry getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Returns the counter with the given name and labels, creating it if it doesn't exist
+     *
+     * @param name   name of the metric, which should end with _total
+     * @param help   description of the metric
+     * @param labels pairs of label names and values
+     * @return the counter with the given name and labels
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) getFamily(name, help, Type.COUNTER).getMetric(labels, k -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, creating it if it doesn't exist
+     *
+     * @param name   name of the metric, which should end with _seconds
+     * @param help   description of the metric
+     * @param labels pairs of label names and values
+     * @return the histogram with the given name and labels
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getFamily(name, help, Type.HISTOGRAM).getMetric(labels, k -> new Histogram());
+    }
+
+    /**
+     * Registers a value that can go up and down, read from value each time the metrics are exported.  Replaces any
+     * gauge already registered with the same name and labels.
+     *
+     * @param name   name of the metric
+     * @param help   description of the metric
+     * @param value  supplies the current value
+     * @param labels pairs of label names and values
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+        getFamily(name, help, Type.GAUGE).putMetric(labels, value);
+    }
+
+    /**
+     * Registers a count that only increases and is kept by another component (e.g., FeedScheduler.getRunCount()), read
+     * from value each time the metrics are exported.  Replaces any counter already registered with the same name and
+     * labels.
+     *
+     * @param name   name of the metric, which should end with _total
+     * @param help   description of the metric
+     * @param value  supplies the current count
+     * @param labels pairs of label names and values
+     */
+    public void functionCounter(String name, String help, Supplier<? extends Number> value, String... labels) {
+        getFamily(name, help, Type.COUNTER).putMetric(labels, value);
+    }
+
+    /**
+     * Removes the metric with the given name and labels, so it isn't exported anymore (e.g., when a feed stops being
+     * monitored).  Does nothing if the metric doesn't exist.
+     *
+     * @param name   name of the metric
+     * @param labels pairs of label names and values
+     */
+    public void remove(String name, String... labels) {
+        Family family = mFamilies.get(name);
+        if (family != null) {
+            family.removeMetric(labels);
+        }
+    }
+
+    /**
+     * Removes all metrics
+     */
+    public void clear() {
+        mFamilies.clear();
+    }
+
+    private Family getFamily(String name, String help, Type type) {
+        Family family = mFamilies.computeIfAbsent(name, k -> new Family(help, type));
+        if (family.mType != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.mType + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format
+     *
+     * @param writer the writer to write the metrics to
+     * @throws IOException if the metrics can't be written
+     */
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> entry : mFamilies.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.write("# HELP " + name + " " + escapeHelp(family.mHelp) + "\n");
+            writer.write("# TYPE " + name + " " + family.mType.name().toLowerCase() + "\n");
+            for (Map.Entry<String, Object> metric : family.mMetrics.entrySet()) {
+                writeMetric(writer, name, metric.getKey(), metric.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format
+     */
+    public String scrape() {
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            // StringWriter doesn't throw IOExceptions
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private static void writeMetric(Writer writer, String name, String labels, Object metric) throws IOException {
+        if (metric instanceof Counter) {
+            writeSample(writer, name, labels, "", ((Counter) metric).get());
+        } else if (metric instanceof Histogram) {
+            Histogram histogram = (Histogram) metric;
+            long[] counts = histogram.getCumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                String le = i < Histogram.BUCKETS_SECONDS.length ? Double.toString(Histogram.BUCKETS_SECONDS[i]) : "+Inf";
+                writeSample(writer, name + "_bucket", labels, "le=\"" + le + "\"", counts[i]);
+            }
+            writeSample(writer, name + "_sum", labels, "", histogram.getSumSeconds());
+            writeSample(writer, name + "_count", labels, "", counts[counts.length - 1]);
+        } else {
+            Object value = ((Supplier<?>) metric).get();
+            writeSample(writer, name, labels, "", value instanceof Number ? (Number) value : Double.NaN);
+        }
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, String extraLabel, Number value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+            writer.write("{" + labels + (!labels.isEmpty() && !extraLabel.isEmpty() ? "," : "") + extraLabel + "}");
+        }
+        writer.write(" " + formatValue(value) + "\n");
+    }
+
+    private static String formatValue(Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d)) {
+                return "NaN";
+            } else if (Double.isInfinite(d)) {
+                return d > 0 ? "+Inf" : "-Inf";
+            }
+            return Double.toString(d);
+        }
+        return Long.toString(value.longValue());
+    }
+
+    /**
+     * Returns labels in the Prometheus format, e.g. feed="http://example.com",rule="E001"
+     */
+    static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of label names and values");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String escapeLabelValue(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    /**
+     * All metrics with the same name, keyed by their formatted labels
+     */
+    private static class Family {
+        private final String mHelp;
+        private final Type mType;
+        private final Map<String, Object> mMetrics = new ConcurrentSkipListMap<>();
+
+        Family(String help, Type type) {
+            mHelp = help;
+            mType = type;
+        }
+
+        Object getMetric(String[] labels, Function<String, Object> factory) {
+            return mMetrics.computeIfAbsent(formatLabels(labels), factory);
+        }
+
+        void putMetric(String[] labels, Object metric) {
+            mMetrics.put(formatLabels(labels), metric);
+        }
+
+        void removeMetric(String[] labels) {
+            mMetrics.remove(formatLabels(labels));
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash functions that can be used to detect duplicate GTFS-realtime feeds (GtfsRtFeedIterationModel.feedHash).
+ * feedHash is only compared with the previous feeds of the same GTFS-realtime feed, so it only needs to tell different
+ * versions of one feed apart - a publisher that crafts a collision only affects its own feed.  The default is the
+ * 128-bit MurmurHash3, which is several times faster than MD5, and MD5 is still available to keep comparing against
+ * hashes stored by earlier versions.
+ * <p>
+ * Hashes that are shared between feeds must resist deliberate collisions, so one feed can't be crafted to take the
+ * place of another - these always use SHA256, whatever the current algorithm is.  They are the keys of the
+ * FeedBlobStore (GtfsRtFeedIterationModel.blobKey) and the checksums of GTFS zip files (GtfsFeedModel.checksum), which
+ * GtfsDataRegistry shares loaded GTFS data by.
+ * <p>
+ * Hashes from different algorithms never match, so after changing the current algorithm the first download of each
+ * feed is stored as a new unique feed.
+ */
+public enum FeedHashAlgorithm {
+
+    MURMUR3_128 {
+        @Override
+        public Digest newDigest() {
+            return new HashFunctionDigest(Hashing.murmur3_128());
+        }
+    },
+
+    MD5 {
+        @Override
+        public Digest newDigest() {
+            return new MessageDigestDigest("MD5");
+        }
+    },
+
+    SHA256 {
+        @Override
+        public Digest newDigest() {
+            return new MessageDigestDigest("SHA-256");
+        }
+    };
+
+    public static final FeedHashAlgorithm DEFAULT = MURMUR3_128;
+
+    // Files are mapped in regions of at most this size, so any file can be hashed
+    private static final long MAX_MAPPED_REGION_SIZE = 256 * 1024 * 1024;
+
+    private static volatile FeedHashAlgorithm mCurrent = DEFAULT;
+
+    /**
+     * Sets the algorithm used to detect duplicate GTFS-realtime feeds from now on
+     *
+     * @param algorithm the algorithm used to detect duplicate GTFS-realtime feeds
+     */
+    public static void setCurrent(FeedHashAlgorithm algorithm) {
+        mCurrent = algorithm;
+    }
+
+    /**
+     * @return the algorithm used to detect duplicate GTFS-realtime feeds
+     */
+    public static FeedHashAlgorithm getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * @return a new digest that hashes data with this algorithm
+     */
+    public abstract Digest newDigest();
+
+    /**
+     * Returns the hash of length bytes of the provided array, starting at offset
+     *
+     * @param bytes  the array containing the bytes to hash
+     * @param offset the index of the first byte to hash
+     * @param length the number of bytes to hash
+     * @return the hash of the bytes
+     */
+    public byte[] hash(byte[] bytes, int offset, int length) {
+        Digest digest = newDigest();
+        digest.update(bytes, offset, length);
+        return digest.digest();
+    }
+
+    /**
+     * Returns the hash of the content of a file.  The file is memory-mapped, so it's hashed without copying it through
+     * a read buffer.
+     *
+     * @param file the file to hash
+     * @return the hash of the content of the file
+     * @throws IOException if the file couldn't be read
+     */
+    public byte[] hashFile(Path file) throws IOException {
+        Digest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAX_MAPPED_REGION_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPED_REGION_SIZE, size - position));
+                digest.update(region);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes a hash from data provided in parts, like MessageDigest.  A digest isn't thread-safe.
+     */
+    public interface Digest {
+
+        /**
+         * Adds length bytes of the provided array, starting at offset, to the data being hashed
+         *
+         * @param bytes  the array containing the bytes to add
+         * @param offset the index of the first byte to add
+         * @param length the number of bytes to add
+         */
+        void update(byte[] bytes, int offset, int length);
+
+        /**
+         * Adds the remaining bytes of the provided buffer to the data being hashed, and moves its position to its limit
+         *
+         * @param buffer the bytes to add
+         */
+        void update(ByteBuffer buffer);
+
+        /**
+         * Returns the hash of the data added since the digest was created or last reset, and resets the digest
+         *
+         * @return the hash of the data added since the digest was created or last reset
+         */
+        byte[] digest();
+
+        /**
+         * Discards the data added since the digest was created or last reset
+         */
+        void reset();
+    }
+
+    /**
+     * A digest using a Guava HashFunction
+     */
+    private static class HashFunctionDigest implements Digest {
+
+        // Bytes are copied from buffers without an accessible array (e.g., mapped files) in chunks of this size
+        private static final int COPY_SIZE = 64 * 1024;
+
+        private final HashFunction mFunction;
+        private Hasher mHasher;
+        private byte[] mCopyBuffer;
+
+        HashFunctionDigest(HashFunction function) {
+            mFunction = function;
+            mHasher = function.newHasher();
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            mHasher.putBytes(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                mHasher.putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            if (mCopyBuffer == null) {
+                mCopyBuffer = new byte[COPY_SIZE];
+            }
+            while (buffer.hasRemaining()) {
+                int length = Math.min(mCopyBuffer.length, buffer.remaining());
+                buffer.get(mCopyBuffer, 0, length);
+                mHasher.putBytes(mCopyBuffer, 0, length);
+            }
+        }
+
+        @Override
+        public byte[] digest() {
+            byte[] hash = mHasher.hash().asBytes();
+            reset();
+            return hash;
+        }
+
+        @Override
+        public void reset() {
+            // A Hasher can't be used after hash(), so start a new one
+            mHasher = mFunction.newHasher();
+        }
+    }
+
+    /**
+     * A digest using a java.security.MessageDigest
+     */
+    private static class MessageDigestDigest implements Digest {
+
+        private final MessageDigest mDigest;
+
+        MessageDigestDigest(String algorithm) {
+            try {
+                mDigest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support MD5 and SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            mDigest.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            mDigest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return mDigest.digest();
+        }
+
+        @Override
+        public void reset() {
+            mDigest.reset();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.validation;
+
+import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for visitors that collect occurrences for one or more ValidationRules.  Rules are reported by
+ * getResults() in the order they were registered, and rules without any occurrences are omitted.
+ */
+public abstract class AbstractFeedEntityVisitor implements FeedEntityVisitor {
+
+    private final Map<ValidationRule, List<OccurrenceModel>> mOccurrences = new LinkedHashMap<>();
+
+    /**
+     * Registers a rule reported by this visitor and returns the list that occurrences for the rule should be added to
+     *
+     * @param rule the rule to register
+     * @return the list that occurrences for the rule should be added to
+     */
+    protected List<OccurrenceModel> register(ValidationRule rule) {
+        return mOccurrences.computeIfAbsent(rule, k -> new ArrayList<>());
+    }
+
+    /**
+     * Appends the occurrences found by other, which must be for the same rule, after the occurrences found by this
+     * visitor.  Used to merge the results of visitors that validated consecutive ranges of entities.
+     *
+     * @param other a visitor for the same rule that visited the entities following the ones visited by this visitor
+     */
+    public void addAll(AbstractFeedEntityVisitor other) {
+        for (Map.Entry<ValidationRule, List<OccurrenceModel>> entry : other.mOccurrences.entrySet()) {
+            register(entry.getKey()).addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the occurrences found so far for each registered rule, in the order the rules were registered.  Used with
+     * clearOccurrences() to collect the occurrences found for each entity separately (see EntityResultCache).
+     *
+     * @return the occurrences found so far for each registered rule
+     */
+    Map<ValidationRule, List<OccurrenceModel>> getOccurrences() {
+        return mOccurrences;
+    }
+
+    /**
+     * Removes the occurrences found so far, keeping the rules registered
+     */
+    void clearOccurrences() {
+        for (List<OccurrenceModel> occurrences : mOccurrences.values()) {
+            occurrences.clear();
+        }
+    }
+
+    @Override
+    public List<ErrorListHelperModel> getResults() {
+        List<ErrorListHelperModel> errors = new ArrayList<>();
+        for (Map.Entry<ValidationRule, List<OccurrenceModel>> entry : mOccurrences.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(entry.getKey()), entry.getValue()));
+            }
+        }
+        return errors;
+    }
+}
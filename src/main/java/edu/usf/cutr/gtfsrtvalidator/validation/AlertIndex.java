@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.*;
+
+/**
+ * The effects of the service alerts in a GTFS-realtime feed, indexed by the trip_id and route_id of the trips they
+ * inform, so rules can look up the alerts for a trip or route without looping through all entities in the feed.
+ * <p>
+ * Use CombinedFeedMessage.getAlertIndex() to get the index of a feed - it's only built once per feed, and is shared by
+ * all rules (and all chunks of entities) that validate the same feed.
+ */
+public class AlertIndex {
+
+    private final Map<String, Set<GtfsRealtime.Alert.Effect>> mTripEffects = new HashMap<>();
+    private final Map<String, Set<GtfsRealtime.Alert.Effect>> mRouteEffects = new HashMap<>();
+
+    /**
+     * Indexes the alerts in a feed - use CombinedFeedMessage.getAlertIndex() instead, so the index is only built once per feed
+     *
+     * @param feedMessage the GTFS-realtime feed
+     */
+    AlertIndex(CombinedFeedMessage feedMessage) {
+        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
+            if (!entity.hasAlert() || !entity.getAlert().hasEffect()) {
+                continue;
+            }
+            GtfsRealtime.Alert alert = entity.getAlert();
+            for (GtfsRealtime.EntitySelector entitySelector : alert.getInformedEntityList()) {
+                if (entitySelector.hasTrip()) {
+                    GtfsRealtime.TripDescriptor trip = entitySelector.getTrip();
+                    if (trip.hasTripId()) {
+                        add(mTripEffects, trip.getTripId(), alert.getEffect());
+                    }
+                    if (trip.hasRouteId()) {
+                        add(mRouteEffects, trip.getRouteId(), alert.getEffect());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void add(Map<String, Set<GtfsRealtime.Alert.Effect>> effects, String id, GtfsRealtime.Alert.Effect effect) {
+        effects.computeIfAbsent(id, k -> EnumSet.noneOf(GtfsRealtime.Alert.Effect.class)).add(effect);
+    }
+
+    /**
+     * Returns the effects of the alerts with an informed entity with a trip for the given trip_id
+     *
+     * @param tripId the trip_id to get alert effects for
+     * @return the effects of the alerts with an informed entity with a trip for the given trip_id, or an empty set if there are none
+     */
+    public Set<GtfsRealtime.Alert.Effect> getTripEffects(String tripId) {
+        return mTripEffects.getOrDefault(tripId, Collections.emptySet());
+    }
+
+    /**
+     * Returns the effects of the alerts with an informed entity with a trip for the given route_id
+     *
+     * @param routeId the route_id to get alert effects for
+     * @return the effects of the alerts with an informed entity with a trip for the given route_id, or an empty set if there are none
+     */
+    public Set<GtfsRealtime.Alert.Effect> getRouteEffects(String routeId) {
+        return mRouteEffects.getOrDefault(routeId, Collections.emptySet());
+    }
+
+    /**
+     * Returns true if there is an alert with the given effect for either the provided trip_id or the provided route_id, or false if there is not
+     *
+     * @param tripId  trip_id to check in the service alerts
+     * @param routeId route_id to check in the service alerts, or null if the route isn't known
+     * @param effect  the alert effect to look for
+     * @return true if there is an alert with the given effect for either the provided trip_id or the provided route_id, or false if there is not
+     */
+    public boolean hasEffect(String tripId, String routeId, GtfsRealtime.Alert.Effect effect) {
+        return getTripEffects(tripId).contains(effect) || (routeId != null && getRouteEffects(routeId).contains(effect));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.*;
+
+/**
+ * A read-only view of the GTFS-realtime feeds for the same GTFS feed (e.g., TripUpdates and VehiclePositions) as a
+ * single feed, which is what the rules validate.  The entities of all feeds are exposed as one list without copying
+ * them into a new FeedMessage, so the combined feed doesn't need to be built for each iteration.
+ */
+public class CombinedFeedMessage {
+
+    private final List<GtfsRealtime.FeedMessage> mFeedMessages;
+    private final GtfsRealtime.FeedHeader mHeader;
+    // The entities of mFeedMessages.get(i) start at index mOffsets[i] of the entity list, and mOffsets[size] is the total
+    private final int[] mOffsets;
+    private final List<GtfsRealtime.FeedEntity> mEntities = new EntityList();
+    // Built the first time a rule needs it, and dropped with this combined feed at the end of the iteration
+    private volatile AlertIndex mAlertIndex;
+
+    /**
+     * Returns a view of a single GTFS-realtime feed
+     *
+     * @param feedMessage the GTFS-realtime feed
+     * @return a view of the provided GTFS-realtime feed
+     */
+    public static CombinedFeedMessage of(GtfsRealtime.FeedMessage feedMessage) {
+        return new CombinedFeedMessage(Collections.singletonList(feedMessage));
+    }
+
+    /**
+     * @param feedMessages the GTFS-realtime feeds to combine, in the order their entities should be validated.  The
+     *                     header with the largest timestamp is used as the header of the combined feed (see #239).
+     */
+    public CombinedFeedMessage(List<GtfsRealtime.FeedMessage> feedMessages) {
+        if (feedMessages.isEmpty()) {
+            throw new IllegalArgumentException("At least one GTFS-realtime feed is required");
+        }
+        mFeedMessages = new ArrayList<>(feedMessages);
+        mOffsets = new int[mFeedMessages.size() + 1];
+        GtfsRealtime.FeedHeader header = null;
+        for (int i = 0; i < mFeedMessages.size(); i++) {
+            GtfsRealtime.FeedMessage message = mFeedMessages.get(i);
+            if (header == null || message.getHeader().getTimestamp() > header.getTimestamp()) {
+                header = message.getHeader();
+            }
+            mOffsets[i + 1] = mOffsets[i] + message.getEntityCount();
+        }
+        mHeader = header;
+    }
+
+    /**
+     * @return the header of the combined feed - the header with the largest timestamp
+     */
+    public GtfsRealtime.FeedHeader getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * @return the entities of all feeds, in the order of the feeds
+     */
+    public List<GtfsRealtime.FeedEntity> getEntityList() {
+        return mEntities;
+    }
+
+    /**
+     * @return the total number of entities in all feeds
+     */
+    public int getEntityCount() {
+        return mOffsets[mFeedMessages.size()];
+    }
+
+    /**
+     * @return the GTFS-realtime feeds that are combined in this view
+     */
+    public List<GtfsRealtime.FeedMessage> getFeedMessages() {
+        return Collections.unmodifiableList(mFeedMessages);
+    }
+
+    /**
+     * Returns the index of the service alerts in this combined feed, building it if this is the first time it's
+     * requested.  Rules validating chunks of entities in parallel share the same index.
+     *
+     * @return the index of the service alerts in this combined feed
+     */
+    public AlertIndex getAlertIndex() {
+        AlertIndex alertIndex = mAlertIndex;
+        if (alertIndex == null) {
+            synchronized (this) {
+                alertIndex = mAlertIndex;
+                if (alertIndex == null) {
+                    alertIndex = new AlertIndex(this);
+                    mAlertIndex = alertIndex;
+                }
+            }
+        }
+        return alertIndex;
+    }
+
+    /**
+     * Returns true if this combined feed has the same header and entities as feedMessage, the same way a
+     * FeedMessage built from this combined feed would be equal to feedMessage
+     *
+     * @param feedMessage the GTFS-realtime feed to compare to, or null
+     * @return true if this combined feed has the same header and entities as feedMessage, false if it doesn't
+     */
+    public boolean contentEquals(GtfsRealtime.FeedMessage feedMessage) {
+        if (feedMessage == null) {
+            return false;
+        }
+        if (mFeedMessages.size() == 1) {
+            return mFeedMessages.get(0).equals(feedMessage);
+        }
+        return mHeader.equals(feedMessage.getHeader()) && mEntities.equals(feedMessage.getEntityList());
+    }
+
+    /**
+     * The entities of all feeds as one list
+     */
+    private class EntityList extends AbstractList<GtfsRealtime.FeedEntity> implements RandomAccess {
+
+        @Override
+        public GtfsRealtime.FeedEntity get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            // There are only a few feeds, so a linear search is fastest
+            int feed = 0;
+            while (index >= mOffsets[feed + 1]) {
+                feed++;
+            }
+            return mFeedMessages.get(feed).getEntity(index - mOffsets[feed]);
+        }
+
+        @Override
+        public int size() {
+            return getEntityCount();
+        }
+    }
+}
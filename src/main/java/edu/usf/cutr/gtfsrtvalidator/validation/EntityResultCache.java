@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+
+import java.util.*;
+
+/**
+ * The errors and warnings that entity-local rules (see FeedEntityValidator.isEntityLocal()) found for each entity of
+ * the last feed validated, so the next feed can be validated incrementally - entities that are exactly the same as in
+ * the last feed (same entity id and content) get the same occurrences again without being visited, and only new or
+ * changed entities are validated.  Rules that aren't entity-local, or that depend on the feed header (see
+ * FeedEntityValidator.isHeaderDependent()), are always validated against the whole feed.
+ * <p>
+ * Results are dropped when the GTFS data changes.  Use one cache for each series of feeds validated one after the
+ * other, e.g. one per GTFS-realtime feed.
+ */
+public class EntityResultCache {
+
+    private GtfsMetadata mGtfsMetadata;
+    private final Map<FeedEntityValidator, RuleResults> mRuleResults = new IdentityHashMap<>();
+
+    /**
+     * Returns the results of the last feed validated for rule, or null if they can't be reused for a feed with
+     * gtfsMetadata
+     */
+    synchronized RuleResults get(FeedEntityValidator rule, GtfsMetadata gtfsMetadata) {
+        if (mGtfsMetadata != gtfsMetadata) {
+            // The GTFS data changed, so none of the results can be reused
+            mRuleResults.clear();
+            mGtfsMetadata = gtfsMetadata;
+            return null;
+        }
+        return mRuleResults.get(rule);
+    }
+
+    /**
+     * Replaces the results for rule with the results of the feed that was just validated
+     */
+    synchronized void put(FeedEntityValidator rule, RuleResults results) {
+        mRuleResults.put(rule, results);
+    }
+
+    /**
+     * Returns the number of entities of the last feed validated whose results for rule were reused from the previous
+     * feed instead of being validated again
+     *
+     * @param rule an entity-local rule that doesn't depend on the header
+     * @return the number of entities whose results for rule were reused in the last validation
+     */
+    public synchronized int getReusedCount(FeedEntityValidator rule) {
+        RuleResults results = mRuleResults.get(rule);
+        return results != null ? results.mReusedCount : 0;
+    }
+
+    /**
+     * Removes all results, so the next feed is validated in full
+     */
+    public synchronized void clear() {
+        mRuleResults.clear();
+        mGtfsMetadata = null;
+    }
+
+    /**
+     * The occurrences that one rule found for each entity of a feed
+     */
+    static class RuleResults {
+        // Keyed by the content of each entity (including its id), so only identical entities match
+        private final Map<GtfsRealtime.FeedEntity, EntityResults> mEntities;
+        private final int mReusedCount;
+
+        RuleResults(Map<GtfsRealtime.FeedEntity, EntityResults> entities, int reusedCount) {
+            mEntities = entities;
+            mReusedCount = reusedCount;
+        }
+
+        /**
+         * @return the occurrences found for an entity with the same content as entity, or null if there wasn't one
+         */
+        EntityResults get(GtfsRealtime.FeedEntity entity) {
+            return mEntities.get(entity);
+        }
+    }
+
+    /**
+     * The occurrences that one rule found for one entity, stored as the rule and prefix of each occurrence so new
+     * OccurrenceModels are created each time they're reused
+     */
+    static class EntityResults {
+        static final EntityResults NONE = new EntityResults(new ValidationRule[0], new String[0]);
+
+        private final ValidationRule[] mRules;
+        private final String[] mPrefixes;
+
+        private EntityResults(ValidationRule[] rules, String[] prefixes) {
+            mRules = rules;
+            mPrefixes = prefixes;
+        }
+
+        /**
+         * Returns the occurrences found by visitor since its occurrences were last cleared
+         */
+        static EntityResults of(AbstractFeedEntityVisitor visitor) {
+            int count = 0;
+            for (List<OccurrenceModel> occurrences : visitor.getOccurrences().values()) {
+                count += occurrences.size();
+            }
+            if (count == 0) {
+                return NONE;
+            }
+            ValidationRule[] rules = new ValidationRule[count];
+            String[] prefixes = new String[count];
+            int i = 0;
+            for (Map.Entry<ValidationRule, List<OccurrenceModel>> entry : visitor.getOccurrences().entrySet()) {
+                for (OccurrenceModel occurrence : entry.getValue()) {
+                    rules[i] = entry.getKey();
+                    prefixes[i] = occurrence.getPrefix();
+                    i++;
+                }
+            }
+            return new EntityResults(rules, prefixes);
+        }
+
+        /**
+         * Adds these occurrences to the occurrences of results
+         */
+        void addTo(AbstractFeedEntityVisitor results) {
+            for (int i = 0; i < mRules.length; i++) {
+                results.register(mRules[i]).add(new OccurrenceModel(mPrefixes[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.api.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Walks a GTFS-rt FeedMessage once and dispatches each FeedEntity, TripUpdate, StopTimeUpdate, VehiclePosition and
+ * Alert to every visitor, so that any number of rules can be validated with a single traversal of the feed instead
+ * of one traversal per rule.
+ * <p>
+ * The validate() methods that are given the URL of the feed record the time spent in each rule in the
+ * gtfsrt_rule_duration_seconds histogram of the default MetricsRegistry, which is labelled by the feed and by the class
+ * of the rule.
+ */
+public class FeedEntityTraversal {
+
+    /**
+     * Chunk size that disables splitting the entities of a feed into chunks
+     */
+    public static final int NO_CHUNKS = 0;
+
+    // Entities are visited in blocks of this size, one visitor at a time, so the time spent in each visitor can be
+    // measured without calling System.nanoTime() for each element of the feed
+    private static final int TIMING_BLOCK_SIZE = 64;
+
+    private static final String RULE_DURATION = "gtfsrt_rule_duration_seconds";
+
+    /**
+     * Validates all of the provided rules against feedMessage in a single pass over its entities
+     *
+     * @param rules               the rules to validate
+     * @param currentTimeMillis   the current system time, in milliseconds
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedMessage         Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed, or null if there isn't one
+     * @return a list with one entry per rule (in the same order as rules) containing the errors and warnings generated by that rule
+     */
+    public static List<List<ErrorListHelperModel>> validate(List<FeedEntityValidator> rules, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return validate(rules, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage, null, null);
+    }
+
+    /**
+     * Validates all of the provided rules against feedMessage in a single pass over its entities.  If cache isn't null,
+     * entity-local rules that don't depend on the header only visit the entities that changed since the last feed
+     * validated with cache, and reuse the occurrences found for the other entities (see EntityResultCache) - the
+     * results are exactly the same as validating every entity.
+     *
+     * @param rules               the rules to validate
+     * @param currentTimeMillis   the current system time, in milliseconds
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedMessage         Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed, or null if there isn't one
+     * @param cache               the results of the last feed validated, updated with the results of feedMessage, or null to validate every entity
+     * @param feed                the URL of the feed, used to label the time spent in each rule, or null to not record it
+     * @return a list with one entry per rule (in the same order as rules) containing the errors and warnings generated by that rule
+     */
+    public static List<List<ErrorListHelperModel>> validate(List<FeedEntityValidator> rules, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, EntityResultCache cache, String feed) {
+        List<FeedEntityVisitor> visitors = new ArrayList<>(rules.size());
+        long[] nanos = new long[rules.size()];
+        // Visitors of the rules that visit every entity, in a single pass, and the index of their rule
+        List<FeedEntityVisitor> fullVisitors = new ArrayList<>(rules.size());
+        List<Integer> fullVisitorRules = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            FeedEntityValidator rule = rules.get(i);
+            long startTimeNanos = System.nanoTime();
+            FeedEntityVisitor visitor = rule.createVisitor(currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+            if (isIncremental(rule, cache)) {
+                visitor = visitIncrementally(rule, visitor, cache, gtfsMetadata, feedMessage.getHeader(), feedMessage.getEntityList());
+            } else {
+                fullVisitors.add(visitor);
+                fullVisitorRules.add(i);
+            }
+            nanos[i] = System.nanoTime() - startTimeNanos;
+            visitors.add(visitor);
+        }
+        long[] fullVisitorNanos = visit(feedMessage.getHeader(), feedMessage.getEntityList(), fullVisitors.toArray(new FeedEntityVisitor[fullVisitors.size()]));
+        for (int i = 0; i < fullVisitorNanos.length; i++) {
+            nanos[fullVisitorRules.get(i)] += fullVisitorNanos[i];
+        }
+
+        List<List<ErrorListHelperModel>> results = new ArrayList<>(visitors.size());
+        for (FeedEntityVisitor visitor : visitors) {
+            results.add(visitor.getResults());
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            recordDuration(feed, rules.get(i), nanos[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Validates each of the provided rules concurrently on executor, with each rule walking feedMessage on its own,
+     * and waits for all rules to finish.  Rules only read the GTFS data and the immutable GTFS-rt messages, so they
+     * can safely run in parallel.  The total time is roughly the time of the slowest rule.
+     *
+     * @param rules               the rules to validate
+     * @param executor            the executor to run the rules on
+     * @param currentTimeMillis   the current system time, in milliseconds
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedMessage         Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed, or null if there isn't one
+     * @return a list with one entry per rule (in the same order as rules) containing the errors and warnings generated by that rule
+     * @throws InterruptedException if the current thread was interrupted while waiting for the rules to finish
+     * @throws ExecutionException   if a rule threw an exception
+     */
+    public static List<List<ErrorListHelperModel>> validate(List<FeedEntityValidator> rules, ExecutorService executor, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) throws InterruptedException, ExecutionException {
+        return validate(rules, executor, NO_CHUNKS, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+    }
+
+    /**
+     * Validates each of the provided rules concurrently on executor and waits for all rules to finish.  In addition,
+     * for rules that are entity-local (see FeedEntityValidator.isEntityLocal()) and feeds with more than chunkSize
+     * entities, the entities are split into chunks of chunkSize entities that are validated in parallel by separate
+     * visitors, and the occurrences of each chunk are appended in entity order - so the results are exactly the same
+     * as validating the rule sequentially.
+     *
+     * @param rules               the rules to validate
+     * @param executor            the executor to run the rules on
+     * @param chunkSize           the maximum number of entities validated by a single task for entity-local rules, or NO_CHUNKS to never split the entities of a feed
+     * @param currentTimeMillis   the current system time, in milliseconds
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedMessage         Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed, or null if there isn't one
+     * @return a list with one entry per rule (in the same order as rules) containing the errors and warnings generated by that rule
+     * @throws InterruptedException if the current thread was interrupted while waiting for the rules to finish
+     * @throws ExecutionException   if a rule threw an exception
+     */
+    public static List<List<ErrorListHelperModel>> validate(List<FeedEntityValidator> rules, ExecutorService executor, int chunkSize, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) throws InterruptedException, ExecutionException {
+        return validate(rules, executor, chunkSize, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage, null, null);
+    }
+
+    /**
+     * Validates each of the provided rules concurrently on executor and waits for all rules to finish, splitting the
+     * entities of entity-local rules into chunks of chunkSize entities (see above).  If cache isn't null, entity-local
+     * rules that don't depend on the header instead only visit the entities that changed since the last feed validated
+     * with cache, in a single task per rule, and reuse the occurrences found for the other entities (see
+     * EntityResultCache).
+     *
+     * @param rules               the rules to validate
+     * @param executor            the executor to run the rules on
+     * @param chunkSize           the maximum number of entities validated by a single task for entity-local rules, or NO_CHUNKS to never split the entities of a feed
+     * @param currentTimeMillis   the current system time, in milliseconds
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedMessage         Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed, or null if there isn't one
+     * @param cache               the results of the last feed validated, updated with the results of feedMessage, or null to validate every entity
+     * @param feed                the URL of the feed, used to label the time spent in each rule, or null to not record it
+     * @return a list with one entry per rule (in the same order as rules) containing the errors and warnings generated by that rule
+     * @throws InterruptedException if the current thread was interrupted while waiting for the rules to finish
+     * @throws ExecutionException   if a rule threw an exception
+     */
+    public static List<List<ErrorListHelperModel>> validate(List<FeedEntityValidator> rules, ExecutorService executor, int chunkSize, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, EntityResultCache cache, String feed) throws InterruptedException, ExecutionException {
+        GtfsRealtime.FeedHeader header = feedMessage.getHeader();
+        List<GtfsRealtime.FeedEntity> entities = feedMessage.getEntityList();
+
+        // One list of tasks per rule - each task visits a consecutive range of entities, in entity order
+        List<List<Future<FeedEntityVisitor>>> futures = new ArrayList<>(rules.size());
+        // Time spent in each rule, summed over all of its tasks
+        AtomicLongArray nanos = new AtomicLongArray(rules.size());
+        try {
+            for (int i = 0; i < rules.size(); i++) {
+                FeedEntityValidator rule = rules.get(i);
+                int ruleIndex = i;
+                List<Future<FeedEntityVisitor>> ruleFutures = new ArrayList<>();
+                if (isIncremental(rule, cache)) {
+                    FeedEntityVisitor visitor = createVisitor(rule, nanos, ruleIndex, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+                    ruleFutures.add(executor.submit(() -> {
+                        long startTimeNanos = System.nanoTime();
+                        FeedEntityVisitor results = visitIncrementally(rule, visitor, cache, gtfsMetadata, header, entities);
+                        nanos.addAndGet(ruleIndex, System.nanoTime() - startTimeNanos);
+                        return results;
+                    }));
+                } else if (chunkSize > 0 && entities.size() > chunkSize && rule.isEntityLocal()) {
+                    for (int start = 0; start < entities.size(); start += chunkSize) {
+                        List<GtfsRealtime.FeedEntity> chunk = entities.subList(start, Math.min(start + chunkSize, entities.size()));
+                        // Only the first chunk validates the header, so header occurrences stay in front
+                        GtfsRealtime.FeedHeader chunkHeader = start == 0 ? header : null;
+                        FeedEntityVisitor visitor = createVisitor(rule, nanos, ruleIndex, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+                        ruleFutures.add(executor.submit(() -> visit(chunkHeader, chunk, visitor, nanos, ruleIndex)));
+                    }
+                } else {
+                    FeedEntityVisitor visitor = createVisitor(rule, nanos, ruleIndex, currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+                    ruleFutures.add(executor.submit(() -> visit(header, entities, visitor, nanos, ruleIndex)));
+                }
+                futures.add(ruleFutures);
+            }
+
+            List<List<ErrorListHelperModel>> results = new ArrayList<>(rules.size());
+            for (List<Future<FeedEntityVisitor>> ruleFutures : futures) {
+                FeedEntityVisitor visitor = ruleFutures.get(0).get();
+                for (int i = 1; i < ruleFutures.size(); i++) {
+                    ((AbstractFeedEntityVisitor) visitor).addAll((AbstractFeedEntityVisitor) ruleFutures.get(i).get());
+                }
+                results.add(visitor.getResults());
+            }
+            for (int i = 0; i < rules.size(); i++) {
+                recordDuration(feed, rules.get(i), nanos.get(i));
+            }
+            return results;
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+            // A rule failed or we were interrupted - don't leave the other rules running
+            for (List<Future<FeedEntityVisitor>> ruleFutures : futures) {
+                for (Future<FeedEntityVisitor> future : ruleFutures) {
+                    future.cancel(true);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Walks feedMessage once, invoking all visitors for each element of the feed, and returns the results of each visitor
+     *
+     * @param feedMessage the GTFS-rt data to walk
+     * @param visitors    the visitors to invoke
+     * @return a list with one entry per visitor (in the same order as visitors) containing the results of that visitor
+     */
+    public static List<List<ErrorListHelperModel>> traverse(CombinedFeedMessage feedMessage, List<FeedEntityVisitor> visitors) {
+        // Copy to an array so the inner loops don't allocate iterators for each element of the feed
+        FeedEntityVisitor[] v = visitors.toArray(new FeedEntityVisitor[visitors.size()]);
+        visit(feedMessage.getHeader(), feedMessage.getEntityList(), v);
+
+        List<List<ErrorListHelperModel>> results = new ArrayList<>(v.length);
+        for (FeedEntityVisitor visitor : v) {
+            results.add(visitor.getResults());
+        }
+        return results;
+    }
+
+    /**
+     * Creates the visitor of rule, adding the time it took to nanos[ruleIndex]
+     */
+    private static FeedEntityVisitor createVisitor(FeedEntityValidator rule, AtomicLongArray nanos, int ruleIndex, long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        long startTimeNanos = System.nanoTime();
+        FeedEntityVisitor visitor = rule.createVisitor(currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+        nanos.addAndGet(ruleIndex, System.nanoTime() - startTimeNanos);
+        return visitor;
+    }
+
+    /**
+     * Invokes a single visitor for header (if it's not null) and entities, and finishes the visitor, adding the time it
+     * took to nanos[ruleIndex]
+     *
+     * @return visitor
+     */
+    private static FeedEntityVisitor visit(GtfsRealtime.FeedHeader header, List<GtfsRealtime.FeedEntity> entities, FeedEntityVisitor visitor, AtomicLongArray nanos, int ruleIndex) {
+        long startTimeNanos = System.nanoTime();
+        visit(header, entities, new FeedEntityVisitor[]{visitor});
+        nanos.addAndGet(ruleIndex, System.nanoTime() - startTimeNanos);
+        return visitor;
+    }
+
+    /**
+     * Invokes all visitors for header (if it's not null) and each element of entities, and finishes the visitors.
+     * Entities are visited in blocks of TIMING_BLOCK_SIZE, each visitor visiting the whole block before the next one,
+     * so the blocks stay in the CPU cache while the time spent in each visitor is measured once per block.
+     *
+     * @return the time spent in each visitor (in the same order as v), in nanoseconds
+     */
+    private static long[] visit(GtfsRealtime.FeedHeader header, List<GtfsRealtime.FeedEntity> entities, FeedEntityVisitor[] v) {
+        long[] nanos = new long[v.length];
+        long time = System.nanoTime();
+        if (header != null) {
+            for (int i = 0; i < v.length; i++) {
+                v[i].visitHeader(header);
+                long now = System.nanoTime();
+                nanos[i] += now - time;
+                time = now;
+            }
+        }
+
+        for (int start = 0; start < entities.size(); start += TIMING_BLOCK_SIZE) {
+            int end = Math.min(start + TIMING_BLOCK_SIZE, entities.size());
+            for (int i = 0; i < v.length; i++) {
+                for (int j = start; j < end; j++) {
+                    visitEntity(entities.get(j), v[i]);
+                }
+                long now = System.nanoTime();
+                nanos[i] += now - time;
+                time = now;
+            }
+        }
+
+        for (int i = 0; i < v.length; i++) {
+            v[i].finish();
+            long now = System.nanoTime();
+            nanos[i] += now - time;
+            time = now;
+        }
+        return nanos;
+    }
+
+    /**
+     * Invokes visitor for entity and each of its elements
+     */
+    private static void visitEntity(GtfsRealtime.FeedEntity entity, FeedEntityVisitor visitor) {
+        visitor.visitEntity(entity);
+        if (entity.hasTripUpdate()) {
+            GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
+            visitor.visitTripUpdate(entity, tripUpdate);
+            for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : tripUpdate.getStopTimeUpdateList()) {
+                visitor.visitStopTimeUpdate(entity, tripUpdate, stopTimeUpdate);
+            }
+            visitor.endTripUpdate(entity, tripUpdate);
+        }
+        if (entity.hasVehicle()) {
+            visitor.visitVehiclePosition(entity, entity.getVehicle());
+        }
+        if (entity.hasAlert()) {
+            visitor.visitAlert(entity, entity.getAlert());
+        }
+    }
+
+    /**
+     * Records the time spent validating feed with rule, unless feed is null
+     */
+    private static void recordDuration(String feed, FeedEntityValidator rule, long nanos) {
+        if (feed == null) {
+            return;
+        }
+        MetricsRegistry.getDefault()
+                .histogram(RULE_DURATION, "Time spent validating a GTFS-realtime feed with each FeedEntityValidator", "feed", feed, "validator", rule.getClass().getSimpleName())
+                .observeNanos(nanos);
+    }
+
+    /**
+     * Removes the time spent validating feed with each of the provided rules from the default MetricsRegistry (e.g.,
+     * when the feed stops being monitored)
+     *
+     * @param rules the rules the feed was validated with
+     * @param feed  the URL of the feed
+     */
+    public static void removeMetrics(List<FeedEntityValidator> rules, String feed) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        for (FeedEntityValidator rule : rules) {
+            metrics.remove(RULE_DURATION, "feed", feed, "validator", rule.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Returns true if rule only visits the entities that changed since the last feed validated with cache.  Rules that
+     * depend on the header always visit every entity, as the header timestamp changes with every new feed, so their
+     * results could never be reused.
+     */
+    private static boolean isIncremental(FeedEntityValidator rule, EntityResultCache cache) {
+        return cache != null && rule.isEntityLocal() && !rule.isHeaderDependent();
+    }
+
+    /**
+     * Invokes visitor, the visitor of an entity-local rule, for header and the elements of entities that weren't in the
+     * last feed validated with cache, and finishes the visitor.  The occurrences of the other entities are copied from
+     * cache, and cache is updated with the occurrences of all entities.
+     *
+     * @return a visitor with the occurrences of all entities, in entity order
+     */
+    private static FeedEntityVisitor visitIncrementally(FeedEntityValidator rule, FeedEntityVisitor visitor, EntityResultCache cache, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedHeader header, List<GtfsRealtime.FeedEntity> entities) {
+        AbstractFeedEntityVisitor ruleVisitor = (AbstractFeedEntityVisitor) visitor;
+        EntityResultCache.RuleResults previous = cache.get(rule, gtfsMetadata);
+        Map<GtfsRealtime.FeedEntity, EntityResultCache.EntityResults> current = new HashMap<>();
+        int reusedCount = 0;
+
+        // Collects the occurrences of all entities, with the rules registered in the same order as by visitor
+        AbstractFeedEntityVisitor results = new AbstractFeedEntityVisitor() {
+        };
+        for (ValidationRule validationRule : ruleVisitor.getOccurrences().keySet()) {
+            results.register(validationRule);
+        }
+
+        visitor.visitHeader(header);
+        EntityResultCache.EntityResults.of(ruleVisitor).addTo(results);
+        ruleVisitor.clearOccurrences();
+
+        for (GtfsRealtime.FeedEntity entity : entities) {
+            EntityResultCache.EntityResults entityResults = previous != null ? previous.get(entity) : null;
+            if (entityResults != null) {
+                reusedCount++;
+            } else {
+                visitEntity(entity, visitor);
+                entityResults = EntityResultCache.EntityResults.of(ruleVisitor);
+                ruleVisitor.clearOccurrences();
+            }
+            current.put(entity, entityResults);
+            entityResults.addTo(results);
+        }
+
+        visitor.finish();
+        EntityResultCache.EntityResults.of(ruleVisitor).addTo(results);
+
+        cache.put(rule, new EntityResultCache.RuleResults(current, reusedCount));
+        return results;
+    }
+}
@@ -20,8 +20,11 @@ package edu.usf.cutr.gtfsrtvalidator.validation.interfaces;
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
 import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -38,5 +41,44 @@ public interface FeedEntityValidator {
      * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
      * @return a list of errors and warnings that was generated by the implementing rule
      */
-    List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage);
+    default List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        CombinedFeedMessage combinedFeed = CombinedFeedMessage.of(feedMessage);
+        FeedEntityVisitor visitor = createVisitor(currentTimeMillis, gtfsData, gtfsMetadata, combinedFeed, previousFeedMessage);
+        return FeedEntityTraversal.traverse(combinedFeed, Collections.singletonList(visitor)).get(0);
+    }
+
+    /**
+     * Creates a visitor that validates the rule implemented by this interface during a traversal of feedMessage (see
+     * FeedEntityTraversal).  A new visitor must be created for each feedMessage.
+     *
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param feedMessage Current GTFS-rt data that was most recently captured, combined from all GTFS-rt feeds for the GTFS data (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @return a visitor that collects the errors and warnings generated by the implementing rule
+     */
+    FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage);
+
+    /**
+     * Returns true if the errors and warnings generated for each entity depend only on that entity (and the feed
+     * header), so that ranges of entities can be validated independently by separate visitors and their results
+     * appended in entity order.  Rules that return true must create visitors that extend AbstractFeedEntityVisitor.
+     *
+     * @return true if ranges of entities can be validated independently for this rule, false if they can't
+     */
+    default boolean isEntityLocal() {
+        return false;
+    }
+
+    /**
+     * Returns true if the errors and warnings this entity-local rule generates for each entity also depend on the feed
+     * header.  The header timestamp changes with every new feed, so these rules always validate every entity instead of
+     * reusing the results of entities that didn't change since the previous feed (see EntityResultCache).
+     *
+     * @return true if the results for each entity depend on the feed header, false if they only depend on the entity
+     */
+    default boolean isHeaderDependent() {
+        return false;
+    }
 }
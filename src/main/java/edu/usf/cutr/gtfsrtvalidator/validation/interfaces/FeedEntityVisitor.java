@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.validation.interfaces;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+
+import java.util.List;
+
+/**
+ * Callbacks for a single pass over a GTFS-rt FeedMessage.  A visitor holds the state of one rule for one feed
+ * iteration, so a new visitor must be created for each FeedMessage that is validated.
+ * <p>
+ * Within each FeedEntity the callbacks are invoked in the order: visitEntity(), visitTripUpdate(),
+ * visitStopTimeUpdate() for each stop_time_update, endTripUpdate(), visitVehiclePosition(), and visitAlert().
+ *
+ * @see edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal
+ */
+public interface FeedEntityVisitor {
+
+    /**
+     * Called once before any entities are visited
+     *
+     * @param header the header of the FeedMessage being validated
+     */
+    default void visitHeader(GtfsRealtime.FeedHeader header) {
+    }
+
+    /**
+     * Called for every FeedEntity, before any of the TripUpdate, VehiclePosition or Alert callbacks for that entity
+     *
+     * @param entity the entity being visited
+     */
+    default void visitEntity(GtfsRealtime.FeedEntity entity) {
+    }
+
+    /**
+     * Called for an entity that has a TripUpdate, before its stop_time_updates are visited
+     *
+     * @param entity     the entity that contains the TripUpdate
+     * @param tripUpdate the TripUpdate being visited
+     */
+    default void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+    }
+
+    /**
+     * Called for each stop_time_update of a TripUpdate, in feed order
+     *
+     * @param entity         the entity that contains the TripUpdate
+     * @param tripUpdate     the TripUpdate that contains the stop_time_update
+     * @param stopTimeUpdate the stop_time_update being visited
+     */
+    default void visitStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+    }
+
+    /**
+     * Called after all stop_time_updates of a TripUpdate have been visited
+     *
+     * @param entity     the entity that contains the TripUpdate
+     * @param tripUpdate the TripUpdate that was visited
+     */
+    default void endTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+    }
+
+    /**
+     * Called for an entity that has a VehiclePosition
+     *
+     * @param entity          the entity that contains the VehiclePosition
+     * @param vehiclePosition the VehiclePosition being visited
+     */
+    default void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+    }
+
+    /**
+     * Called for an entity that has an Alert
+     *
+     * @param entity the entity that contains the Alert
+     * @param alert  the Alert being visited
+     */
+    default void visitAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+    }
+
+    /**
+     * Called once after all entities have been visited, for rules that need to look at the feed as a whole
+     */
+    default void finish() {
+    }
+
+    /**
+     * Returns the errors and warnings found by this visitor.  Must only be called after finish().
+     *
+     * @return the errors and warnings found by this visitor
+     */
+    List<ErrorListHelperModel> getResults();
+}
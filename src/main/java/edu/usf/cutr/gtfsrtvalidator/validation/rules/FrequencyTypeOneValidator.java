@@ -17,18 +17,18 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.util.TimestampUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.Frequency;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules.E019;
@@ -43,95 +43,95 @@ public class FrequencyTypeOneValidator implements FeedEntityValidator {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FrequencyTypeOneValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<OccurrenceModel> errorListE019 = new ArrayList<>();
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor(gtfsMetadata);
+    }
 
-        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
+    private static class Visitor extends AbstractFeedEntityVisitor {
+        private final GtfsMetadata gtfsMetadata;
+        private final List<OccurrenceModel> errorListE019 = register(E019);
 
-                List<Frequency> frequenceTypeOneList = gtfsMetadata.getExactTimesOneTrips().get(tripUpdate.getTrip().getTripId());
-                if (frequenceTypeOneList != null) {
-                    boolean foundMatch = false;
-                    String gtfsStartTimeString = null;
-                    Integer headwaySecs = null;
-                    // For at least one frequency period for this trip_id, start_time in the GTFS-rt data must be some multiple (including zero) of headway_secs later than the start_time
-                    for (Frequency f : frequenceTypeOneList) {
-                        int startTime = f.getStartTime();
-                        // See if the GTFS-rt start_time matches at least one multiple of GTFS start_time for this frequency
-                        while (startTime < f.getEndTime()) {
-                            // Convert seconds after midnight to 24hr clock time like "06:00:00"
-                            gtfsStartTimeString = TimestampUtils.secondsAfterMidnightToClock(startTime);
-                            headwaySecs = f.getHeadwaySecs();
-                            _log.debug("start time = " + startTime);
-                            _log.debug("formatted start time = " + gtfsStartTimeString);
-                            if (tripUpdate.getTrip().getStartTime().equals(gtfsStartTimeString)) {
-                                // We found a matching multiple - no error for this GTFS-rt start_time
-                                foundMatch = true;
-                                break;
-                            }
-                            startTime += f.getHeadwaySecs();
-                        }
-                        if (foundMatch) {
-                            // If we found at least one matching frequency with a matching multiple of headway_secs for the GTFS-rt start_time, then no error
+        Visitor(GtfsMetadata gtfsMetadata) {
+            this.gtfsMetadata = gtfsMetadata;
+        }
+
+        @Override
+        public void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            List<Frequency> frequenceTypeOneList = gtfsMetadata.getExactTimesOneTrips().get(tripUpdate.getTrip().getTripId());
+            if (frequenceTypeOneList != null) {
+                boolean foundMatch = false;
+                String gtfsStartTimeString = null;
+                Integer headwaySecs = null;
+                // For at least one frequency period for this trip_id, start_time in the GTFS-rt data must be some multiple (including zero) of headway_secs later than the start_time
+                for (Frequency f : frequenceTypeOneList) {
+                    int startTime = f.getStartTime();
+                    // See if the GTFS-rt start_time matches at least one multiple of GTFS start_time for this frequency
+                    while (startTime < f.getEndTime()) {
+                        // Convert seconds after midnight to 24hr clock time like "06:00:00"
+                        gtfsStartTimeString = TimestampUtils.secondsAfterMidnightToClock(startTime);
+                        headwaySecs = f.getHeadwaySecs();
+                        _log.debug("start time = " + startTime);
+                        _log.debug("formatted start time = " + gtfsStartTimeString);
+                        if (tripUpdate.getTrip().getStartTime().equals(gtfsStartTimeString)) {
+                            // We found a matching multiple - no error for this GTFS-rt start_time
+                            foundMatch = true;
                             break;
                         }
+                        startTime += f.getHeadwaySecs();
                     }
-                    if (!foundMatch) {
-                        // E019 - GTFS-rt frequency exact_times = 1 trip start_time must match GTFS data
-                        String prefix = "GTFS-rt trip_id " + tripUpdate.getTrip().getTripId() +
-                                " has start_time of " + tripUpdate.getTrip().getStartTime() +
-                                " and GTFS frequencies.txt start_time is " + gtfsStartTimeString + " with a headway of " + headwaySecs + " seconds ";
-                        RuleUtils.addOccurrence(E019, prefix, errorListE019, _log);
+                    if (foundMatch) {
+                        // If we found at least one matching frequency with a matching multiple of headway_secs for the GTFS-rt start_time, then no error
+                        break;
                     }
                 }
+                if (!foundMatch) {
+                    // E019 - GTFS-rt frequency exact_times = 1 trip start_time must match GTFS data
+                    String prefix = "GTFS-rt trip_id " + tripUpdate.getTrip().getTripId() +
+                            " has start_time of " + tripUpdate.getTrip().getStartTime() +
+                            " and GTFS frequencies.txt start_time is " + gtfsStartTimeString + " with a headway of " + headwaySecs + " seconds ";
+                    RuleUtils.addOccurrence(E019, prefix, errorListE019, _log);
+                }
             }
+        }
 
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition vehiclePosition = entity.getVehicle();
-
-                // E019 - GTFS-rt frequency exact_times = 1 trip start_date and start_time must match GTFS data
-                List<Frequency> frequenceTypeOneList = gtfsMetadata.getExactTimesOneTrips().get(vehiclePosition.getTrip().getTripId());
-                if (frequenceTypeOneList != null) {
-                    boolean foundMatch = false;
-                    String gtfsStartTimeString = null;
-                    Integer headwaySecs = null;
-                    // For at least one frequency period for this trip_id, start_time in the GTFS-rt data must be some multiple (including zero) of headway_secs later than the start_time
-                    for (Frequency f : frequenceTypeOneList) {
-                        int startTime = f.getStartTime();
-                        // See if the GTFS-rt start_time matches at least one multiple of GTFS start_time for this frequency
-                        while (startTime < f.getEndTime()) {
-                            // Convert seconds after midnight to 24hr clock time like "06:00:00"
-                            gtfsStartTimeString = String.format("%02d:%02d:%02d", startTime / 3600, startTime % 360, startTime % 60);
-                            headwaySecs = f.getHeadwaySecs();
-                            _log.debug("start time = " + startTime);
-                            _log.debug("formatted start time = " + gtfsStartTimeString);
-                            if (vehiclePosition.hasTrip() && vehiclePosition.getTrip().getStartTime().equals(gtfsStartTimeString)) {
-                                // We found a matching multiple - no error for this GTFS-rt start_time
-                                foundMatch = true;
-                                break;
-                            }
-                            startTime += f.getHeadwaySecs();
-                        }
-                        if (foundMatch) {
-                            // If we found at least one matching frequency with a matching multiple of headway_secs for the GTFS-rt start_time, then no error
+        @Override
+        public void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+            // E019 - GTFS-rt frequency exact_times = 1 trip start_date and start_time must match GTFS data
+            List<Frequency> frequenceTypeOneList = gtfsMetadata.getExactTimesOneTrips().get(vehiclePosition.getTrip().getTripId());
+            if (frequenceTypeOneList != null) {
+                boolean foundMatch = false;
+                String gtfsStartTimeString = null;
+                Integer headwaySecs = null;
+                // For at least one frequency period for this trip_id, start_time in the GTFS-rt data must be some multiple (including zero) of headway_secs later than the start_time
+                for (Frequency f : frequenceTypeOneList) {
+                    int startTime = f.getStartTime();
+                    // See if the GTFS-rt start_time matches at least one multiple of GTFS start_time for this frequency
+                    while (startTime < f.getEndTime()) {
+                        // Convert seconds after midnight to 24hr clock time like "06:00:00"
+                        gtfsStartTimeString = String.format("%02d:%02d:%02d", startTime / 3600, startTime % 360, startTime % 60);
+                        headwaySecs = f.getHeadwaySecs();
+                        _log.debug("start time = " + startTime);
+                        _log.debug("formatted start time = " + gtfsStartTimeString);
+                        if (vehiclePosition.hasTrip() && vehiclePosition.getTrip().getStartTime().equals(gtfsStartTimeString)) {
+                            // We found a matching multiple - no error for this GTFS-rt start_time
+                            foundMatch = true;
                             break;
                         }
+                        startTime += f.getHeadwaySecs();
                     }
-                    if (!foundMatch) {
-                        // E019 - GTFS-rt frequency exact_times = 1 trip start_time must match GTFS data
-                        String prefix = "GTFS-rt trip_id " + vehiclePosition.getTrip().getTripId() +
-                                " has start_time of " + vehiclePosition.getTrip().getStartTime() +
-                                " and GTFS frequencies.txt start_time is " + gtfsStartTimeString + " with a headway of " + headwaySecs + " seconds ";
-                        RuleUtils.addOccurrence(E019, prefix, errorListE019, _log);
+                    if (foundMatch) {
+                        // If we found at least one matching frequency with a matching multiple of headway_secs for the GTFS-rt start_time, then no error
+                        break;
                     }
                 }
+                if (!foundMatch) {
+                    // E019 - GTFS-rt frequency exact_times = 1 trip start_time must match GTFS data
+                    String prefix = "GTFS-rt trip_id " + vehiclePosition.getTrip().getTripId() +
+                            " has start_time of " + vehiclePosition.getTrip().getStartTime() +
+                            " and GTFS frequencies.txt start_time is " + gtfsStartTimeString + " with a headway of " + headwaySecs + " seconds ";
+                    RuleUtils.addOccurrence(E019, prefix, errorListE019, _log);
+                }
             }
         }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!errorListE019.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E019), errorListE019));
-        }
-        return errors;
     }
 }
@@ -17,16 +17,16 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules.E038;
@@ -41,32 +41,32 @@ public class HeaderValidator implements FeedEntityValidator {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(HeaderValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<OccurrenceModel> errorListE038 = new ArrayList<>();
-        List<OccurrenceModel> errorListE039 = new ArrayList<>();
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor();
+    }
 
-        String version = feedMessage.getHeader().getGtfsRealtimeVersion();
-        if (!version.equals("1.0")) {
-            // E038 - Invalid header.gtfs_realtime_version
-            RuleUtils.addOccurrence(E038, "header.gtfs_realtime_version of " + version, errorListE038, _log);
-        }
+    private static class Visitor extends AbstractFeedEntityVisitor {
+        private final List<OccurrenceModel> errorListE038 = register(E038);
+        private final List<OccurrenceModel> errorListE039 = register(E039);
+
+        private boolean isFullDataset;
 
-        if (feedMessage.getHeader().getIncrementality().equals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET)) {
-            for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-                if (entity.hasIsDeleted()) {
-                    // E039 - FULL_DATASET feeds should not include entity.is_deleted
-                    RuleUtils.addOccurrence(E039, "entity ID " + entity.getId() + " has is_deleted=" + entity.getIsDeleted(), errorListE039, _log);
-                }
+        @Override
+        public void visitHeader(GtfsRealtime.FeedHeader header) {
+            String version = header.getGtfsRealtimeVersion();
+            if (!version.equals("1.0")) {
+                // E038 - Invalid header.gtfs_realtime_version
+                RuleUtils.addOccurrence(E038, "header.gtfs_realtime_version of " + version, errorListE038, _log);
             }
+            isFullDataset = header.getIncrementality().equals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
         }
 
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!errorListE038.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E038), errorListE038));
-        }
-        if (!errorListE039.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E039), errorListE039));
+        @Override
+        public void visitEntity(GtfsRealtime.FeedEntity entity) {
+            if (isFullDataset && entity.hasIsDeleted()) {
+                // E039 - FULL_DATASET feeds should not include entity.is_deleted
+                RuleUtils.addOccurrence(E039, "entity ID " + entity.getId() + " has is_deleted=" + entity.getIsDeleted(), errorListE039, _log);
+            }
         }
-        return errors;
     }
 }
@@ -19,12 +19,14 @@ package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.common.collect.Ordering;
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.background.StopTimeTable;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
@@ -58,148 +60,121 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(StopTimeUpdateValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<GtfsRealtime.FeedEntity> entityList = feedMessage.getEntityList();
-        List<OccurrenceModel> e002List = new ArrayList<>();
-        List<OccurrenceModel> e009List = new ArrayList<>();
-        List<OccurrenceModel> e036List = new ArrayList<>();
-        List<OccurrenceModel> e037List = new ArrayList<>();
-        List<OccurrenceModel> e040List = new ArrayList<>();
-        List<OccurrenceModel> e041List = new ArrayList<>();
-        List<OccurrenceModel> e042List = new ArrayList<>();
-        List<OccurrenceModel> e043List = new ArrayList<>();
-        List<OccurrenceModel> e044List = new ArrayList<>();
-        List<OccurrenceModel> e045List = new ArrayList<>();
-        List<OccurrenceModel> e046List = new ArrayList<>();
+    public boolean isEntityLocal() {
+        return true;
+    }
 
-        for (GtfsRealtime.FeedEntity entity : entityList) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                checkE041(entity, tripUpdate, e041List);
-                List<StopTime> gtfsStopTimes = null;
-                int gtfsStopTimeIndex = 0;
-                String tripId = null;
-                if (tripUpdate.hasTrip() && tripUpdate.getTrip().hasTripId()) {
-                    tripId = tripUpdate.getTrip().getTripId();
-                    gtfsStopTimes = gtfsMetadata.getTripStopTimes().get(tripId);
-                }
+    @Override
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor(gtfsMetadata);
+    }
 
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> rtStopTimeUpdateList = tripUpdate.getStopTimeUpdateList();
+    private class Visitor extends AbstractFeedEntityVisitor {
+        private final StopTimeTable gtfsStopTimes;
+        private final Map<String, List<String>> tripWithMultiStop;
+        private final List<OccurrenceModel> e002List = register(E002);
+        private final List<OccurrenceModel> e009List = register(E009);
+        private final List<OccurrenceModel> e036List = register(E036);
+        private final List<OccurrenceModel> e037List = register(E037);
+        private final List<OccurrenceModel> e040List = register(E040);
+        private final List<OccurrenceModel> e041List = register(E041);
+        private final List<OccurrenceModel> e042List = register(E042);
+        private final List<OccurrenceModel> e043List = register(E043);
+        private final List<OccurrenceModel> e044List = register(E044);
+        private final List<OccurrenceModel> e045List = register(E045);
+        private final List<OccurrenceModel> e046List = register(E046);
 
-                List<Integer> rtStopSequenceList = new ArrayList<>();
-                Integer previousRtStopSequence = null;
-                String previousRtStopId = null;
-                boolean foundE009error = false;
-                Map<String, List<String>> tripWithMultiStop = gtfsMetadata.getTripsWithMultiStops();
-                for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : rtStopTimeUpdateList) {
-                    if (!foundE009error && tripId != null && tripWithMultiStop.containsKey(tripId) && !stopTimeUpdate.hasStopSequence()) {
-                        // E009 - GTFS-rt stop_sequence isn't provided for trip that visits same stop_id more than once
-                        List<String> stopIds = tripWithMultiStop.get(tripId);
-                        RuleUtils.addOccurrence(E009, "trip_id " + tripId + " visits stop_id " + stopIds.toString(), e009List, _log);
-                        foundE009error = true;  // Only log error once for this trip
-                    }
-                    if (previousRtStopSequence != null) {
-                        checkE036(entity, previousRtStopSequence, stopTimeUpdate, e036List);
-                    }
-                    if (previousRtStopId != null) {
-                        checkE037(entity, previousRtStopId, stopTimeUpdate, e037List);
-                    }
-                    previousRtStopSequence = stopTimeUpdate.getStopSequence();
-                    previousRtStopId = stopTimeUpdate.getStopId();
-                    if (stopTimeUpdate.hasStopSequence()) {
-                        rtStopSequenceList.add(stopTimeUpdate.getStopSequence());
-                    }
-                    if (gtfsStopTimes != null) {
-                        // Loop through GTFS stop_time.txt to try and find a matching GTFS stop
-                        while (gtfsStopTimeIndex < gtfsStopTimes.size()) {
-                            int gtfsStopSequence = gtfsStopTimes.get(gtfsStopTimeIndex).getStopSequence();
-                            Stop gtfsStop = gtfsStopTimes.get(gtfsStopTimeIndex).getStop();
-                            boolean foundStopSequence = false;
-                            boolean foundStopId = false;
-                            if (stopTimeUpdate.hasStopSequence()) {
-                                if (gtfsStopSequence == stopTimeUpdate.getStopSequence()) {
-                                    // Found a matching stop_sequence from GTFS stop_times.txt
-                                    checkE045(entity, tripUpdate, stopTimeUpdate, gtfsStopSequence, gtfsStop, e045List);
-                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes.get(gtfsStopTimeIndex), e046List);
-                                    foundStopSequence = true;
-                                }
-                            }
-                            if (stopTimeUpdate.hasStopId()) {
-                                if (gtfsStop.getId().getId().equals(stopTimeUpdate.getStopId())) {
-                                    /**
-                                     * Found a matching stop_id - note that there could be loops in routes, so unlike
-                                     * stop_sequence this isn't a definitive match between this stopTimeUpdate and a GTFS stop_times.txt entry
-                                     */
-                                    foundStopId = true;
-                                }
-                            }
-                            gtfsStopTimeIndex++;
-                            if (foundStopSequence) {
-                                // We caught up with the stop_sequence in GTFS data - stop so we can pick up from here in next WHILE loop
-                                break;
-                            } else {
-                                if (foundStopId) {
-                                    // E046 hasn't been checked yet if we didn't find a stop_sequence - check now
-                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes.get(gtfsStopTimeIndex - 1), e046List);
-                                    // We caught up with a matching stop_id in GTFS data - stop so we can pick up from here in next WHILE loop
-                                    // Note that for routes with loops, we could potentially be stopping prematurely
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    checkE040(entity, tripUpdate, stopTimeUpdate, e040List);
-                    checkE042(entity, tripUpdate, stopTimeUpdate, e042List);
-                    checkE043(entity, tripUpdate, stopTimeUpdate, e043List);
-                    checkE044(entity, tripUpdate, stopTimeUpdate, e044List);
-                }
+        // State of the TripUpdate currently being visited
+        private int gtfsTripIndex;
+        // Position in gtfsStopTimes after the GTFS stop_time matched by the previous stop_time_update
+        private int nextGtfsPosition;
+        private String tripId;
+        private List<Integer> rtStopSequenceList;
+        private Integer previousRtStopSequence;
+        private String previousRtStopId;
+        private boolean foundE009error;
 
-                boolean sorted = Ordering.natural().isOrdered(rtStopSequenceList);
-                if (!sorted) {
-                    // E002 - stop_time_updates for a given trip_id must be sorted by increasing stop_sequence
-                    String id = getTripId(entity, tripUpdate);
-                    RuleUtils.addOccurrence(E002, id + " stop_sequence " + rtStopSequenceList.toString(), e002List, _log);
-                }
+        Visitor(GtfsMetadata gtfsMetadata) {
+            this.gtfsStopTimes = gtfsMetadata.getStopTimeTable();
+            this.tripWithMultiStop = gtfsMetadata.getTripsWithMultiStops();
+        }
 
-                // TODO - detect out-of-order stops when stop_sequence isn't provided - see https://github.com/CUTR-at-USF/gtfs-realtime-validator/issues/159
+        @Override
+        public void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            checkE041(entity, tripUpdate, e041List);
+            gtfsTripIndex = -1;
+            nextGtfsPosition = 0;
+            tripId = null;
+            if (tripUpdate.hasTrip() && tripUpdate.getTrip().hasTripId()) {
+                tripId = tripUpdate.getTrip().getTripId();
+                gtfsTripIndex = gtfsStopTimes.getTripIndex(tripId);
             }
-        }
 
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!e002List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E002), e002List));
-        }
-        if (!e009List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E009), e009List));
-        }
-        if (!e036List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E036), e036List));
-        }
-        if (!e037List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E037), e037List));
-        }
-        if (!e040List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E040), e040List));
-        }
-        if (!e041List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E041), e041List));
+            rtStopSequenceList = new ArrayList<>();
+            previousRtStopSequence = null;
+            previousRtStopId = null;
+            foundE009error = false;
         }
-        if (!e042List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E042), e042List));
-        }
-        if (!e043List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E043), e043List));
-        }
-        if (!e044List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E044), e044List));
-        }
-        if (!e045List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E045), e045List));
+
+        @Override
+        public void visitStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            if (!foundE009error && tripId != null && tripWithMultiStop.containsKey(tripId) && !stopTimeUpdate.hasStopSequence()) {
+                // E009 - GTFS-rt stop_sequence isn't provided for trip that visits same stop_id more than once
+                List<String> stopIds = tripWithMultiStop.get(tripId);
+                RuleUtils.addOccurrence(E009, "trip_id " + tripId + " visits stop_id " + stopIds.toString(), e009List, _log);
+                foundE009error = true;  // Only log error once for this trip
+            }
+            if (previousRtStopSequence != null) {
+                checkE036(entity, previousRtStopSequence, stopTimeUpdate, e036List);
+            }
+            if (previousRtStopId != null) {
+                checkE037(entity, previousRtStopId, stopTimeUpdate, e037List);
+            }
+            previousRtStopSequence = stopTimeUpdate.getStopSequence();
+            previousRtStopId = stopTimeUpdate.getStopId();
+            if (stopTimeUpdate.hasStopSequence()) {
+                rtStopSequenceList.add(stopTimeUpdate.getStopSequence());
+            }
+            if (gtfsTripIndex != -1) {
+                // Find the GTFS stop_times.txt entry for this stop_time_update
+                int position = -1;
+                if (stopTimeUpdate.hasStopSequence()) {
+                    position = gtfsStopTimes.findStopSequence(gtfsTripIndex, stopTimeUpdate.getStopSequence());
+                    if (position != -1) {
+                        // Found a matching stop_sequence from GTFS stop_times.txt
+                        checkE045(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes.getStopSequence(position), gtfsStopTimes.getStop(position), e045List);
+                    }
+                }
+                if (position == -1 && stopTimeUpdate.hasStopId()) {
+                    /**
+                     * Find a matching stop_id - note that there could be loops in routes, so unlike stop_sequence
+                     * this isn't a definitive match.  Use the first visit to the stop after the GTFS stop_times.txt
+                     * entry matched by the previous stop_time_update.
+                     */
+                    position = gtfsStopTimes.findStopId(gtfsTripIndex, stopTimeUpdate.getStopId(), nextGtfsPosition);
+                }
+                if (position != -1) {
+                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes, position, e046List);
+                    nextGtfsPosition = position + 1;
+                }
+            }
+            checkE040(entity, tripUpdate, stopTimeUpdate, e040List);
+            checkE042(entity, tripUpdate, stopTimeUpdate, e042List);
+            checkE043(entity, tripUpdate, stopTimeUpdate, e043List);
+            checkE044(entity, tripUpdate, stopTimeUpdate, e044List);
         }
-        if (!e046List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E046), e046List));
+
+        @Override
+        public void endTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            boolean sorted = Ordering.natural().isOrdered(rtStopSequenceList);
+            if (!sorted) {
+                // E002 - stop_time_updates for a given trip_id must be sorted by increasing stop_sequence
+                String id = getTripId(entity, tripUpdate);
+                RuleUtils.addOccurrence(E002, id + " stop_sequence " + rtStopSequenceList.toString(), e002List, _log);
+            }
+
+            // TODO - detect out-of-order stops when stop_sequence isn't provided - see https://github.com/CUTR-at-USF/gtfs-realtime-validator/issues/159
         }
-        return errors;
     }
 
     /**
@@ -381,21 +356,22 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
      * @param entity         entity that the trip_update is from
      * @param tripUpdate     the trip_update to examine
      * @param stopTimeUpdate the stop_time_update to examine
-     * @param gtfsStopTime   the entry from GTFS stop_times.txt that corresponds to the provided GTFS stopTimeUpdate
+     * @param gtfsStopTimes  the GTFS stop_times.txt data
+     * @param gtfsPosition   the position in gtfsStopTimes of the entry that corresponds to the provided GTFS stopTimeUpdate
      * @param errors         the list to add the errors to
      */
-    private void checkE046(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, StopTime gtfsStopTime, List<OccurrenceModel> errors) {
+    private void checkE046(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, StopTimeTable gtfsStopTimes, int gtfsPosition, List<OccurrenceModel> errors) {
         StringBuilder prefixBuilder = new StringBuilder();
         prefixBuilder.append("GTFS-rt " + getTripId(entity, tripUpdate) + " ");
         prefixBuilder.append(getStopTimeUpdateId(stopTimeUpdate) + " ");
         if (stopTimeUpdate.hasArrival()) {
-            if (!stopTimeUpdate.getArrival().hasTime() && !gtfsStopTime.isArrivalTimeSet()) {
+            if (!stopTimeUpdate.getArrival().hasTime() && gtfsStopTimes.getArrivalTime(gtfsPosition) == StopTime.MISSING_VALUE) {
                 String prefix = prefixBuilder.toString() + "arrival.time";
                 RuleUtils.addOccurrence(E046, prefix, errors, _log);
             }
         }
         if (stopTimeUpdate.hasDeparture()) {
-            if (!stopTimeUpdate.getDeparture().hasTime() && !gtfsStopTime.isDepartureTimeSet()) {
+            if (!stopTimeUpdate.getDeparture().hasTime() && gtfsStopTimes.getDepartureTime(gtfsPosition) == StopTime.MISSING_VALUE) {
                 String prefix = prefixBuilder.toString() + "departure.time";
                 RuleUtils.addOccurrence(E046, prefix, errors, _log);
             }
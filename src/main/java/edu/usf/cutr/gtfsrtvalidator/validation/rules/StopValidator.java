@@ -18,16 +18,16 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules.E011;
@@ -44,73 +44,72 @@ public class StopValidator implements FeedEntityValidator {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(StopValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<OccurrenceModel> e011List = new ArrayList<>();
-        List<OccurrenceModel> e015List = new ArrayList<>();
-        List<GtfsRealtime.FeedEntity> allEntities = feedMessage.getEntityList();
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor(gtfsMetadata);
+    }
 
-        // Checks all of the RT feeds entities and checks if matching stop_ids are available in the GTFS feed
-        for (GtfsRealtime.FeedEntity entity : allEntities) {
-            String entityId = entity.getId();
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> stopTimeUpdateList = tripUpdate.getStopTimeUpdateList();
-                for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : stopTimeUpdateList) {
-                    if (stopTimeUpdate.hasStopId()) {
-                        String prefix = "trip_id " + tripUpdate.getTrip().getTripId() + " stop_id " + stopTimeUpdate.getStopId();
-                        if (!gtfsMetadata.getStopIds().contains(stopTimeUpdate.getStopId())) {
-                            // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                            RuleUtils.addOccurrence(E011, prefix, e011List, _log);
-                        }
-                        Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(stopTimeUpdate.getStopId());
-                        if (locationType != null && locationType != 0) {
-                            // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
-                            RuleUtils.addOccurrence(E015, prefix, e015List, _log);
-                        }
-                    }
+    /**
+     * Checks all of the RT feeds entities and checks if matching stop_ids are available in the GTFS feed
+     */
+    private static class Visitor extends AbstractFeedEntityVisitor {
+        private final GtfsMetadata gtfsMetadata;
+        private final List<OccurrenceModel> e011List = register(E011);
+        private final List<OccurrenceModel> e015List = register(E015);
+
+        Visitor(GtfsMetadata gtfsMetadata) {
+            this.gtfsMetadata = gtfsMetadata;
+        }
+
+        @Override
+        public void visitStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            if (stopTimeUpdate.hasStopId()) {
+                String prefix = "trip_id " + tripUpdate.getTrip().getTripId() + " stop_id " + stopTimeUpdate.getStopId();
+                if (!gtfsMetadata.getStopIds().contains(stopTimeUpdate.getStopId())) {
+                    // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
+                    RuleUtils.addOccurrence(E011, prefix, e011List, _log);
+                }
+                Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(stopTimeUpdate.getStopId());
+                if (locationType != null && locationType != 0) {
+                    // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
+                    RuleUtils.addOccurrence(E015, prefix, e015List, _log);
+                }
+            }
+        }
+
+        @Override
+        public void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition v) {
+            if (v.hasStopId()) {
+                if (!gtfsMetadata.getStopIds().contains(v.getStopId())) {
+                    // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
+                    String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
+                    RuleUtils.addOccurrence(E011, prefix, e011List, _log);
+                }
+                Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(v.getStopId());
+                if (locationType != null && locationType != 0) {
+                    // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
+                    String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
+                    RuleUtils.addOccurrence(E015, prefix, e015List, _log);
                 }
             }
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition v = entity.getVehicle();
-                if (v.hasStopId()) {
-                    if (!gtfsMetadata.getStopIds().contains(v.getStopId())) {
+        }
+
+        @Override
+        public void visitAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+            List<GtfsRealtime.EntitySelector> informedEntityList = alert.getInformedEntityList();
+            for (GtfsRealtime.EntitySelector entitySelector : informedEntityList) {
+                if (entitySelector.hasStopId()) {
+                    String prefix = "alert entity ID " + entity.getId() + " stop_id " + entitySelector.getStopId();
+                    if (!gtfsMetadata.getStopIds().contains(entitySelector.getStopId())) {
                         // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                        String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
                         RuleUtils.addOccurrence(E011, prefix, e011List, _log);
                     }
-                    Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(v.getStopId());
+                    Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(entitySelector.getStopId());
                     if (locationType != null && locationType != 0) {
                         // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
-                        String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
                         RuleUtils.addOccurrence(E015, prefix, e015List, _log);
                     }
                 }
             }
-            if (entity.hasAlert()) {
-                List<GtfsRealtime.EntitySelector> informedEntityList = entity.getAlert().getInformedEntityList();
-                for (GtfsRealtime.EntitySelector entitySelector : informedEntityList) {
-                    if (entitySelector.hasStopId()) {
-                        String prefix = "alert entity ID " + entityId + " stop_id " + entitySelector.getStopId();
-                        if (!gtfsMetadata.getStopIds().contains(entitySelector.getStopId())) {
-                            // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                            RuleUtils.addOccurrence(E011, prefix, e011List, _log);
-                        }
-                        Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(entitySelector.getStopId());
-                        if (locationType != null && locationType != 0) {
-                            // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
-                            RuleUtils.addOccurrence(E015, prefix, e015List, _log);
-                        }
-                    }
-                }
-            }
-        }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!e011List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E011), e011List));
-        }
-        if (!e015List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E015), e015List));
         }
-        return errors;
     }
 }
@@ -18,17 +18,17 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.util.TimestampUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -59,234 +59,240 @@ public class TimestampValidator implements FeedEntityValidator {
     public static long MAX_AGE_SECONDS = 65L; // Maximum allowed age for GTFS-realtime feed, in seconds (W008)
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        if (feedMessage.equals(previousFeedMessage)) {
+    public boolean isEntityLocal() {
+        return true;
+    }
+
+    @Override
+    public boolean isHeaderDependent() {
+        // E012 compares the timestamp of each TripUpdate to the header timestamp
+        return true;
+    }
+
+    @Override
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        if (feedMessage.contentEquals(previousFeedMessage)) {
             throw new IllegalArgumentException("feedMessage and previousFeedMessage must not be the same");
         }
-        List<OccurrenceModel> w001List = new ArrayList<>();
-        List<OccurrenceModel> w007List = new ArrayList<>();
-        List<OccurrenceModel> w008List = new ArrayList<>();
-        List<OccurrenceModel> e001List = new ArrayList<>();
-        List<OccurrenceModel> e012List = new ArrayList<>();
-        List<OccurrenceModel> e017List = new ArrayList<>();
-        List<OccurrenceModel> e018List = new ArrayList<>();
-        List<OccurrenceModel> e022List = new ArrayList<>();
-        List<OccurrenceModel> e025List = new ArrayList<>();
+        return new Visitor(currentTimeMillis, gtfsMetadata, feedMessage.getHeader().getTimestamp(), previousFeedMessage);
+    }
+
+    private class Visitor extends AbstractFeedEntityVisitor {
+        private final long currentTimeMillis;
+        private final GtfsMetadata gtfsMetadata;
+        private final GtfsRealtime.FeedMessage previousFeedMessage;
+        private final List<OccurrenceModel> w001List = register(W001);
+        private final List<OccurrenceModel> w007List = register(W007);
+        private final List<OccurrenceModel> w008List = register(W008);
+        private final List<OccurrenceModel> e001List = register(E001);
+        private final List<OccurrenceModel> e012List = register(E012);
+        private final List<OccurrenceModel> e017List = register(E017);
+        private final List<OccurrenceModel> e018List = register(E018);
+        private final List<OccurrenceModel> e022List = register(E022);
+        private final List<OccurrenceModel> e025List = register(E025);
+
+        // Read from the FeedMessage instead of visitHeader(), as visitors for later chunks of entities don't visit the header
+        private final long headerTimestamp;
+
+        // State of the TripUpdate currently being visited
+        private String id;
+        private Long previousArrivalTime;
+        private String previousArrivalTimeText;
+        private Long previousDepartureTime;
+        private String previousDepartureTimeText;
+
+        Visitor(long currentTimeMillis, GtfsMetadata gtfsMetadata, long headerTimestamp, GtfsRealtime.FeedMessage previousFeedMessage) {
+            this.currentTimeMillis = currentTimeMillis;
+            this.gtfsMetadata = gtfsMetadata;
+            this.headerTimestamp = headerTimestamp;
+            this.previousFeedMessage = previousFeedMessage;
+        }
 
         /**
          * Validate FeedHeader timestamp
          */
-        long headerTimestamp = feedMessage.getHeader().getTimestamp();
-        if (headerTimestamp == 0) {
-            // W001 - Timestamp not populated
-            RuleUtils.addOccurrence(W001, "header", w001List, _log);
-        } else {
-            if (!isPosix(headerTimestamp)) {
-                // E001 - Not in POSIX time
-                RuleUtils.addOccurrence(E001, "header.timestamp", e001List, _log);
+        @Override
+        public void visitHeader(GtfsRealtime.FeedHeader header) {
+            if (headerTimestamp == 0) {
+                // W001 - Timestamp not populated
+                RuleUtils.addOccurrence(W001, "header", w001List, _log);
             } else {
-                long age = getAge(currentTimeMillis, headerTimestamp);
-                if (age > TimeUnit.SECONDS.toMillis(MAX_AGE_SECONDS)) {
-                    // W008 - Header timestamp is older than 65 seconds
-                    long ageMinutes = TimeUnit.MILLISECONDS.toMinutes(age);
-                    long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(age);
-                    RuleUtils.addOccurrence(W008, "header.timestamp is " + ageMinutes + " min " + ageSeconds % 60 + " sec", w008List, _log);
+                if (!isPosix(headerTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, "header.timestamp", e001List, _log);
+                } else {
+                    long age = getAge(currentTimeMillis, headerTimestamp);
+                    if (age > TimeUnit.SECONDS.toMillis(MAX_AGE_SECONDS)) {
+                        // W008 - Header timestamp is older than 65 seconds
+                        long ageMinutes = TimeUnit.MILLISECONDS.toMinutes(age);
+                        long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(age);
+                        RuleUtils.addOccurrence(W008, "header.timestamp is " + ageMinutes + " min " + ageSeconds % 60 + " sec", w008List, _log);
+                    }
                 }
-            }
 
-            if (previousFeedMessage != null && previousFeedMessage.getHeader().getTimestamp() != 0) {
-                long previousTimestamp = previousFeedMessage.getHeader().getTimestamp();
-                long interval = headerTimestamp - previousTimestamp;
-                if (headerTimestamp == previousTimestamp) {
-                    // E017 - GTFS-rt content changed but has the same timestamp
-                    RuleUtils.addOccurrence(E017, "header.timestamp of " + headerTimestamp, e017List, _log);
-                } else if (headerTimestamp < previousTimestamp) {
-                    // E018 - GTFS-rt header timestamp decreased between two sequential iterations
-                    String prefix = "header.timestamp of " + headerTimestamp + " is less than the header.timestamp of " + previousFeedMessage.getHeader().getTimestamp();
-                    RuleUtils.addOccurrence(E018, prefix, e018List, _log);
-                } else if (interval > MINIMUM_REFRESH_INTERVAL_SECONDS) {
-                    // W007 - Refresh interval is more than 35 seconds
-                    RuleUtils.addOccurrence(W007, interval + " second interval between consecutive header.timestamps", w007List, _log);
+                if (previousFeedMessage != null && previousFeedMessage.getHeader().getTimestamp() != 0) {
+                    long previousTimestamp = previousFeedMessage.getHeader().getTimestamp();
+                    long interval = headerTimestamp - previousTimestamp;
+                    if (headerTimestamp == previousTimestamp) {
+                        // E017 - GTFS-rt content changed but has the same timestamp
+                        RuleUtils.addOccurrence(E017, "header.timestamp of " + headerTimestamp, e017List, _log);
+                    } else if (headerTimestamp < previousTimestamp) {
+                        // E018 - GTFS-rt header timestamp decreased between two sequential iterations
+                        String prefix = "header.timestamp of " + headerTimestamp + " is less than the header.timestamp of " + previousFeedMessage.getHeader().getTimestamp();
+                        RuleUtils.addOccurrence(E018, prefix, e018List, _log);
+                    } else if (interval > MINIMUM_REFRESH_INTERVAL_SECONDS) {
+                        // W007 - Refresh interval is more than 35 seconds
+                        RuleUtils.addOccurrence(W007, interval + " second interval between consecutive header.timestamps", w007List, _log);
+                    }
                 }
             }
         }
 
-        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                long tripUpdateTimestamp = tripUpdate.getTimestamp();
+        @Override
+        public void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            long tripUpdateTimestamp = tripUpdate.getTimestamp();
 
-                /**
-                 * Validate TripUpdate timestamps
-                 */
-                String id = getTripId(entity, tripUpdate);
-                if (tripUpdateTimestamp == 0) {
-                    // W001 - Timestamp not populated
-                    RuleUtils.addOccurrence(W001, id, w001List, _log);
-                } else {
-                    if (headerTimestamp != 0 && tripUpdateTimestamp > headerTimestamp) {
-                        // E012 - Header timestamp should be greater than or equal to all other timestamps
-                        RuleUtils.addOccurrence(E012, id + " timestamp " + tripUpdateTimestamp, e012List, _log);
-                    }
-                    if (!isPosix(tripUpdateTimestamp)) {
-                        // E001 - Not in POSIX time
-                        RuleUtils.addOccurrence(E001, id + " timestamp " + tripUpdateTimestamp, e001List, _log);
-                    }
+            /**
+             * Validate TripUpdate timestamps
+             */
+            id = getTripId(entity, tripUpdate);
+            if (tripUpdateTimestamp == 0) {
+                // W001 - Timestamp not populated
+                RuleUtils.addOccurrence(W001, id, w001List, _log);
+            } else {
+                if (headerTimestamp != 0 && tripUpdateTimestamp > headerTimestamp) {
+                    // E012 - Header timestamp should be greater than or equal to all other timestamps
+                    RuleUtils.addOccurrence(E012, id + " timestamp " + tripUpdateTimestamp, e012List, _log);
                 }
+                if (!isPosix(tripUpdateTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, id + " timestamp " + tripUpdateTimestamp, e001List, _log);
+                }
+            }
 
-                /**
-                 * Validate TripUpdate StopTimeUpdate times
-                 */
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> stopTimeUpdates = tripUpdate.getStopTimeUpdateList();
-                if (stopTimeUpdates != null) {
-
-                    Long previousArrivalTime = null;
-                    String previousArrivalTimeText = null;
-                    Long previousDepartureTime = null;
-                    String previousDepartureTimeText = null;
-                    for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : stopTimeUpdates) {
-                        String stopDescription = stopTimeUpdate.hasStopSequence() ? " stop_sequence " + stopTimeUpdate.getStopSequence() : " stop_id " + stopTimeUpdate.getStopId();
-                        Long arrivalTime = null;
-                        String arrivalTimeText;
-                        Long departureTime = null;
-                        String departureTimeText;
-                        if (stopTimeUpdate.hasArrival()) {
-                            if (stopTimeUpdate.getArrival().hasTime()) {
-                                arrivalTime = stopTimeUpdate.getArrival().getTime();
-                                arrivalTimeText = TimestampUtils.posixToClock(arrivalTime, gtfsMetadata.getTimeZone());
-
-                                if (!isPosix(arrivalTime)) {
-                                    // E001 - Not in POSIX time
-                                    RuleUtils.addOccurrence(E001, id + stopDescription + " arrival_time " + arrivalTime, e001List, _log);
-                                }
-                                if (previousArrivalTime != null && arrivalTime < previousArrivalTime) {
-                                    // E022 - this stop arrival time is < previous stop arrival time
-                                    String prefix = id + stopDescription +
-                                            " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && Objects.equals(arrivalTime, previousArrivalTime)) {
-                                    // E022 - this stop arrival time is == previous stop arrival time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && arrivalTime < previousDepartureTime) {
-                                    // E022 - this stop arrival time is < previous stop departure time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && Objects.equals(arrivalTime, previousDepartureTime)) {
-                                    // E022 - this stop arrival time is == previous stop departure time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                            }
-                        }
+            // Reset the times of the previous stop_time_update for the stop_time_updates of this TripUpdate
+            previousArrivalTime = null;
+            previousArrivalTimeText = null;
+            previousDepartureTime = null;
+            previousDepartureTimeText = null;
+        }
 
-                        if (stopTimeUpdate.hasDeparture()) {
-                            if (stopTimeUpdate.getDeparture().hasTime()) {
-                                departureTime = stopTimeUpdate.getDeparture().getTime();
-                                departureTimeText = TimestampUtils.posixToClock(departureTime, gtfsMetadata.getTimeZone());
+        /**
+         * Validate TripUpdate StopTimeUpdate times
+         */
+        @Override
+        public void visitStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            String stopDescription = stopTimeUpdate.hasStopSequence() ? " stop_sequence " + stopTimeUpdate.getStopSequence() : " stop_id " + stopTimeUpdate.getStopId();
+            Long arrivalTime = null;
+            String arrivalTimeText;
+            Long departureTime = null;
+            String departureTimeText;
+            if (stopTimeUpdate.hasArrival()) {
+                if (stopTimeUpdate.getArrival().hasTime()) {
+                    arrivalTime = stopTimeUpdate.getArrival().getTime();
+                    arrivalTimeText = TimestampUtils.posixToClock(arrivalTime, gtfsMetadata.getTimeZone());
 
-                                if (!isPosix(departureTime)) {
-                                    // E001 - Not in POSIX time
-                                    RuleUtils.addOccurrence(E001, id + stopDescription + " departure_time " + departureTime, e001List, _log);
-                                }
-                                if (previousDepartureTime != null && departureTime < previousDepartureTime) {
-                                    // E022 - this stop departure time is < previous stop departure time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && Objects.equals(departureTime, previousDepartureTime)) {
-                                    // E022 - this stop departure time is == previous stop departure time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && departureTime < previousArrivalTime) {
-                                    // E022 - this stop departure time is < previous stop arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && Objects.equals(departureTime, previousArrivalTime)) {
-                                    // E022 - this stop departure time is == previous stop arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (stopTimeUpdate.getArrival().hasTime() && departureTime < stopTimeUpdate.getArrival().getTime()) {
-                                    // E025 - stop_time_update departure time is before arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText
-                                            + " (" + departureTime + ") is less than the same stop arrival_time " +
-                                            TimestampUtils.posixToClock(stopTimeUpdate.getArrival().getTime(), gtfsMetadata.getTimeZone())
-                                            + " (" + stopTimeUpdate.getArrival().getTime() + ")";
-                                    RuleUtils.addOccurrence(E025, prefix, e025List, _log);
-                                }
-                            }
-                        }
-                        if (arrivalTime != null) {
-                            previousArrivalTime = arrivalTime;
-                            previousArrivalTimeText = TimestampUtils.posixToClock(previousArrivalTime, gtfsMetadata.getTimeZone());
-                        }
-                        if (departureTime != null) {
-                            previousDepartureTime = departureTime;
-                            previousDepartureTimeText = TimestampUtils.posixToClock(previousDepartureTime, gtfsMetadata.getTimeZone());
-                        }
+                    if (!isPosix(arrivalTime)) {
+                        // E001 - Not in POSIX time
+                        RuleUtils.addOccurrence(E001, id + stopDescription + " arrival_time " + arrivalTime, e001List, _log);
+                    }
+                    if (previousArrivalTime != null && arrivalTime < previousArrivalTime) {
+                        // E022 - this stop arrival time is < previous stop arrival time
+                        String prefix = id + stopDescription +
+                                " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousArrivalTime != null && Objects.equals(arrivalTime, previousArrivalTime)) {
+                        // E022 - this stop arrival time is == previous stop arrival time
+                        String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousDepartureTime != null && arrivalTime < previousDepartureTime) {
+                        // E022 - this stop arrival time is < previous stop departure time
+                        String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousDepartureTime != null && Objects.equals(arrivalTime, previousDepartureTime)) {
+                        // E022 - this stop arrival time is == previous stop departure time
+                        String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
                     }
                 }
             }
 
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition vehiclePosition = entity.getVehicle();
-                long vehicleTimestamp = vehiclePosition.getTimestamp();
+            if (stopTimeUpdate.hasDeparture()) {
+                if (stopTimeUpdate.getDeparture().hasTime()) {
+                    departureTime = stopTimeUpdate.getDeparture().getTime();
+                    departureTimeText = TimestampUtils.posixToClock(departureTime, gtfsMetadata.getTimeZone());
 
-                if (vehicleTimestamp == 0) {
-                    // W001 - Timestamp not populated
-                    RuleUtils.addOccurrence(W001, "vehicle_id " + vehiclePosition.getVehicle().getId(), w001List, _log);
-                } else {
-                    String prefix = "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestamp;
-                    if (headerTimestamp != 0 && vehicleTimestamp > headerTimestamp) {
-                        // E012 - Header timestamp should be greater than or equal to all other timestamps
-                        RuleUtils.addOccurrence(E012, prefix, e012List, _log);
-                    }
-                    if (!isPosix(vehicleTimestamp)) {
+                    if (!isPosix(departureTime)) {
                         // E001 - Not in POSIX time
-                        RuleUtils.addOccurrence(E001, prefix, e001List, _log);
+                        RuleUtils.addOccurrence(E001, id + stopDescription + " departure_time " + departureTime, e001List, _log);
+                    }
+                    if (previousDepartureTime != null && departureTime < previousDepartureTime) {
+                        // E022 - this stop departure time is < previous stop departure time
+                        String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousDepartureTime != null && Objects.equals(departureTime, previousDepartureTime)) {
+                        // E022 - this stop departure time is == previous stop departure time
+                        String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousArrivalTime != null && departureTime < previousArrivalTime) {
+                        // E022 - this stop departure time is < previous stop arrival time
+                        String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (previousArrivalTime != null && Objects.equals(departureTime, previousArrivalTime)) {
+                        // E022 - this stop departure time is == previous stop arrival time
+                        String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
+                        RuleUtils.addOccurrence(E022, prefix, e022List, _log);
+                    }
+                    if (stopTimeUpdate.getArrival().hasTime() && departureTime < stopTimeUpdate.getArrival().getTime()) {
+                        // E025 - stop_time_update departure time is before arrival time
+                        String prefix = id + stopDescription + " departure_time " + departureTimeText
+                                + " (" + departureTime + ") is less than the same stop arrival_time " +
+                                TimestampUtils.posixToClock(stopTimeUpdate.getArrival().getTime(), gtfsMetadata.getTimeZone())
+                                + " (" + stopTimeUpdate.getArrival().getTime() + ")";
+                        RuleUtils.addOccurrence(E025, prefix, e025List, _log);
                     }
                 }
             }
-
-            if (entity.hasAlert()) {
-                checkAlertE001(entity, e001List);
+            if (arrivalTime != null) {
+                previousArrivalTime = arrivalTime;
+                previousArrivalTimeText = TimestampUtils.posixToClock(previousArrivalTime, gtfsMetadata.getTimeZone());
+            }
+            if (departureTime != null) {
+                previousDepartureTime = departureTime;
+                previousDepartureTimeText = TimestampUtils.posixToClock(previousDepartureTime, gtfsMetadata.getTimeZone());
             }
         }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!w001List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W001), w001List));
-        }
-        if (!w007List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W007), w007List));
-        }
-        if (!w008List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W008), w008List));
-        }
-        if (!e001List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E001), e001List));
-        }
-        if (!e012List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E012), e012List));
-        }
-        if (!e017List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E017), e017List));
-        }
-        if (!e018List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E018), e018List));
-        }
-        if (!e022List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E022), e022List));
+
+        @Override
+        public void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+            long vehicleTimestamp = vehiclePosition.getTimestamp();
+
+            if (vehicleTimestamp == 0) {
+                // W001 - Timestamp not populated
+                RuleUtils.addOccurrence(W001, "vehicle_id " + vehiclePosition.getVehicle().getId(), w001List, _log);
+            } else {
+                String prefix = "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestamp;
+                if (headerTimestamp != 0 && vehicleTimestamp > headerTimestamp) {
+                    // E012 - Header timestamp should be greater than or equal to all other timestamps
+                    RuleUtils.addOccurrence(E012, prefix, e012List, _log);
+                }
+                if (!isPosix(vehicleTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, prefix, e001List, _log);
+                }
+            }
         }
-        if (!e025List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E025), e025List));
+
+        @Override
+        public void visitAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+            checkAlertE001(entity, e001List);
         }
-        return errors;
     }
 
     /**
@@ -17,19 +17,19 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.util.TimestampUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.hsqldb.lib.StringUtil;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.Trip;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils.*;
@@ -72,173 +72,146 @@ public class TripDescriptorValidator implements FeedEntityValidator {
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(TripDescriptorValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<OccurrenceModel> errorListE003 = new ArrayList<>();
-        List<OccurrenceModel> errorListE004 = new ArrayList<>();
-        List<OccurrenceModel> errorListE016 = new ArrayList<>();
-        List<OccurrenceModel> errorListE020 = new ArrayList<>();
-        List<OccurrenceModel> errorListE021 = new ArrayList<>();
-        List<OccurrenceModel> errorListE023 = new ArrayList<>();
-        List<OccurrenceModel> errorListE024 = new ArrayList<>();
-        List<OccurrenceModel> errorListE030 = new ArrayList<>();
-        List<OccurrenceModel> errorListE031 = new ArrayList<>();
-        List<OccurrenceModel> errorListE032 = new ArrayList<>();
-        List<OccurrenceModel> errorListE033 = new ArrayList<>();
-        List<OccurrenceModel> errorListE034 = new ArrayList<>();
-        List<OccurrenceModel> errorListE035 = new ArrayList<>();
-        List<OccurrenceModel> errorListW006 = new ArrayList<>();
-        List<OccurrenceModel> errorListW009 = new ArrayList<>();
-
-        // Check the route_id values against the values from the GTFS feed
-        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                if (!tripUpdate.getTrip().hasTripId()) {
-                    checkW006(entity, tripUpdate.getTrip(), errorListW006);
-                } else {
-                    String tripId = tripUpdate.getTrip().getTripId();
-                    Trip trip = gtfsMetadata.getTrips().get(tripId);
-                    if (trip == null) {
-                        if (!isAddedTrip(tripUpdate.getTrip())) {
-                            // Trip isn't in GTFS data and isn't an ADDED trip - E003
-                            RuleUtils.addOccurrence(E003, getTripId(entity, tripUpdate), errorListE003, _log);
-                        }
-                    } else {
-                        if (isAddedTrip(tripUpdate.getTrip())) {
-                            // Trip is in GTFS data and is an ADDED trip - E016
-                            RuleUtils.addOccurrence(E016, getTripId(entity, tripUpdate), errorListE016, _log);
-                        }
-                    }
-                }
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor(gtfsMetadata);
+    }
 
-                if (tripUpdate.getTrip().hasStartTime()) {
-                    checkE020(tripUpdate, tripUpdate.getTrip(), errorListE020);
-                    checkE023(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE023);
-                }
+    private class Visitor extends AbstractFeedEntityVisitor {
+        private final GtfsMetadata gtfsMetadata;
+        private final List<OccurrenceModel> errorListE003 = register(E003);
+        private final List<OccurrenceModel> errorListE004 = register(E004);
+        private final List<OccurrenceModel> errorListE016 = register(E016);
+        private final List<OccurrenceModel> errorListE020 = register(E020);
+        private final List<OccurrenceModel> errorListE021 = register(E021);
+        private final List<OccurrenceModel> errorListE023 = register(E023);
+        private final List<OccurrenceModel> errorListE024 = register(E024);
+        private final List<OccurrenceModel> errorListE030 = register(E030);
+        private final List<OccurrenceModel> errorListE031 = register(E031);
+        private final List<OccurrenceModel> errorListE032 = register(E032);
+        private final List<OccurrenceModel> errorListE033 = register(E033);
+        private final List<OccurrenceModel> errorListE034 = register(E034);
+        private final List<OccurrenceModel> errorListE035 = register(E035);
+        private final List<OccurrenceModel> errorListW006 = register(W006);
+        private final List<OccurrenceModel> errorListW009 = register(W009);
 
-                checkE021(tripUpdate, tripUpdate.getTrip(), errorListE021);
-                checkE004(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE004);
-                checkE024(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE024);
-                checkE035(entity, tripUpdate.getTrip(), gtfsMetadata, errorListE035);
-
-                boolean foundW009 = false;
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> stopTimeUpdateList = tripUpdate.getStopTimeUpdateList();
-                for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : stopTimeUpdateList) {
-                    // Only flag one occurrence of W009 for stop_time_update per trip to avoid flooding the database
-                    if (!foundW009) {
-                        checkW009(entity, stopTimeUpdate, errorListW009);
-                        if (!errorListW009.isEmpty()) {
-                            foundW009 = true;
-                        }
+        // True if W009 has already been found for a stop_time_update in the TripUpdate currently being visited
+        private boolean foundW009;
+
+        Visitor(GtfsMetadata gtfsMetadata) {
+            this.gtfsMetadata = gtfsMetadata;
+        }
+
+        @Override
+        public void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            if (!tripUpdate.getTrip().hasTripId()) {
+                checkW006(entity, tripUpdate.getTrip(), errorListW006);
+            } else {
+                String tripId = tripUpdate.getTrip().getTripId();
+                Trip trip = gtfsMetadata.getTrips().get(tripId);
+                if (trip == null) {
+                    if (!isAddedTrip(tripUpdate.getTrip())) {
+                        // Trip isn't in GTFS data and isn't an ADDED trip - E003
+                        RuleUtils.addOccurrence(E003, getTripId(entity, tripUpdate), errorListE003, _log);
                     }
-                }
-                if (tripUpdate.hasTrip()) {
-                    checkW009(entity, tripUpdate.getTrip(), errorListW009);
-                }
-            }
-            if (entity.hasVehicle() && entity.getVehicle().hasTrip()) {
-                GtfsRealtime.TripDescriptor trip = entity.getVehicle().getTrip();
-                if (!trip.hasTripId()) {
-                    checkW006(entity, trip, errorListW006);
                 } else {
-                    String tripId = trip.getTripId();
-                    if (!StringUtil.isEmpty(tripId)) {
-                        Trip gtfsTrip = gtfsMetadata.getTrips().get(tripId);
-                        if (gtfsTrip == null) {
-                            if (!isAddedTrip(trip)) {
-                                // E003 - Trip isn't in GTFS data and isn't an ADDED trip
-                                RuleUtils.addOccurrence(E003, "vehicle_id " + entity.getVehicle().getVehicle().getId() + " trip_id " + tripId, errorListE003, _log);
-                            }
-                        } else {
-                            if (isAddedTrip(trip)) {
-                                // E016 - Trip is in GTFS data and is an ADDED trip
-                                RuleUtils.addOccurrence(E016, "vehicle_id " + entity.getVehicle().getVehicle().getId() + " trip_id " + tripId, errorListE016, _log);
-                            }
-                        }
+                    if (isAddedTrip(tripUpdate.getTrip())) {
+                        // Trip is in GTFS data and is an ADDED trip - E016
+                        RuleUtils.addOccurrence(E016, getTripId(entity, tripUpdate), errorListE016, _log);
                     }
                 }
+            }
+
+            if (tripUpdate.getTrip().hasStartTime()) {
+                checkE020(tripUpdate, tripUpdate.getTrip(), errorListE020);
+                checkE023(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE023);
+            }
+
+            checkE021(tripUpdate, tripUpdate.getTrip(), errorListE021);
+            checkE004(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE004);
+            checkE024(tripUpdate, tripUpdate.getTrip(), gtfsMetadata, errorListE024);
+            checkE035(entity, tripUpdate.getTrip(), gtfsMetadata, errorListE035);
 
-                if (trip.hasStartTime()) {
-                    checkE020(entity.getVehicle(), trip, errorListE020);
-                    checkE023(entity.getVehicle(), trip, gtfsMetadata, errorListE023);
+            foundW009 = false;
+        }
+
+        @Override
+        public void visitStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            // Only flag one occurrence of W009 for stop_time_update per trip to avoid flooding the database
+            if (!foundW009) {
+                checkW009(entity, stopTimeUpdate, errorListW009);
+                if (!errorListW009.isEmpty()) {
+                    foundW009 = true;
                 }
+            }
+        }
+
+        @Override
+        public void endTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            if (tripUpdate.hasTrip()) {
+                checkW009(entity, tripUpdate.getTrip(), errorListW009);
+            }
+        }
 
-                checkE004(entity.getVehicle(), trip, gtfsMetadata, errorListE004);
-                checkE021(entity.getVehicle(), trip, errorListE021);
-                checkE024(entity.getVehicle(), trip, gtfsMetadata, errorListE024);
-                checkE035(entity, trip, gtfsMetadata, errorListE035);
-                checkW009(entity, trip, errorListW009);
+        @Override
+        public void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+            if (!vehiclePosition.hasTrip()) {
+                return;
             }
-            if (entity.hasAlert()) {
-                GtfsRealtime.Alert alert = entity.getAlert();
-                List<GtfsRealtime.EntitySelector> entitySelectors = alert.getInformedEntityList();
-                if (entitySelectors != null && entitySelectors.size() > 0) {
-                    for (GtfsRealtime.EntitySelector entitySelector : entitySelectors) {
-                        checkE033(entity, entitySelector, errorListE033);
-                        checkE034(entity, entitySelector, gtfsMetadata, errorListE034);
-                        checkE035(entity, entitySelector.getTrip(), gtfsMetadata, errorListE035);
-                        if (entitySelector.hasRouteId() && entitySelector.hasTrip()) {
-                            checkE030(entity, entitySelector, gtfsMetadata, errorListE030);
-                            checkE031(entity, entitySelector, errorListE031);
+            GtfsRealtime.TripDescriptor trip = entity.getVehicle().getTrip();
+            if (!trip.hasTripId()) {
+                checkW006(entity, trip, errorListW006);
+            } else {
+                String tripId = trip.getTripId();
+                if (!StringUtil.isEmpty(tripId)) {
+                    Trip gtfsTrip = gtfsMetadata.getTrips().get(tripId);
+                    if (gtfsTrip == null) {
+                        if (!isAddedTrip(trip)) {
+                            // E003 - Trip isn't in GTFS data and isn't an ADDED trip
+                            RuleUtils.addOccurrence(E003, "vehicle_id " + entity.getVehicle().getVehicle().getId() + " trip_id " + tripId, errorListE003, _log);
                         }
-                        if (entitySelector.hasTrip()) {
-                            checkW006(entity, entitySelector.getTrip(), errorListW006);
-                            checkW009(entity, entitySelector.getTrip(), errorListW009);
+                    } else {
+                        if (isAddedTrip(trip)) {
+                            // E016 - Trip is in GTFS data and is an ADDED trip
+                            RuleUtils.addOccurrence(E016, "vehicle_id " + entity.getVehicle().getVehicle().getId() + " trip_id " + tripId, errorListE016, _log);
                         }
                     }
-                } else {
-                    // E032 - Alert does not have an informed_entity
-                    RuleUtils.addOccurrence(E032, "alert ID " + entity.getId() + " does not have an informed_entity", errorListE032, _log);
                 }
             }
+
+            if (trip.hasStartTime()) {
+                checkE020(entity.getVehicle(), trip, errorListE020);
+                checkE023(entity.getVehicle(), trip, gtfsMetadata, errorListE023);
+            }
+
+            checkE004(entity.getVehicle(), trip, gtfsMetadata, errorListE004);
+            checkE021(entity.getVehicle(), trip, errorListE021);
+            checkE024(entity.getVehicle(), trip, gtfsMetadata, errorListE024);
+            checkE035(entity, trip, gtfsMetadata, errorListE035);
+            checkW009(entity, trip, errorListW009);
         }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!errorListE003.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E003), errorListE003));
-        }
-        if (!errorListE004.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E004), errorListE004));
-        }
-        if (!errorListE016.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E016), errorListE016));
-        }
-        if (!errorListE020.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E020), errorListE020));
-        }
-        if (!errorListE021.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E021), errorListE021));
-        }
-        if (!errorListE023.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E023), errorListE023));
-        }
-        if (!errorListE024.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E024), errorListE024));
-        }
-        if (!errorListE030.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E030), errorListE030));
-        }
-        if (!errorListE031.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E031), errorListE031));
-        }
-        if (!errorListE032.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E032), errorListE032));
-        }
-        if (!errorListE033.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E033), errorListE033));
-        }
-        if (!errorListE034.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E034), errorListE034));
-        }
-        if (!errorListE035.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E035), errorListE035));
-        }
-        if (!errorListW006.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W006), errorListW006));
-        }
-        if (!errorListW009.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W009), errorListW009));
+
+        @Override
+        public void visitAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+            List<GtfsRealtime.EntitySelector> entitySelectors = alert.getInformedEntityList();
+            if (entitySelectors != null && entitySelectors.size() > 0) {
+                for (GtfsRealtime.EntitySelector entitySelector : entitySelectors) {
+                    checkE033(entity, entitySelector, errorListE033);
+                    checkE034(entity, entitySelector, gtfsMetadata, errorListE034);
+                    checkE035(entity, entitySelector.getTrip(), gtfsMetadata, errorListE035);
+                    if (entitySelector.hasRouteId() && entitySelector.hasTrip()) {
+                        checkE030(entity, entitySelector, gtfsMetadata, errorListE030);
+                        checkE031(entity, entitySelector, errorListE031);
+                    }
+                    if (entitySelector.hasTrip()) {
+                        checkW006(entity, entitySelector.getTrip(), errorListW006);
+                        checkW009(entity, entitySelector.getTrip(), errorListW009);
+                    }
+                }
+            } else {
+                // E032 - Alert does not have an informed_entity
+                RuleUtils.addOccurrence(E032, "alert ID " + entity.getId() + " does not have an informed_entity", errorListE032, _log);
+            }
         }
-        return errors;
     }
 
 
@@ -18,19 +18,20 @@
 package edu.usf.cutr.gtfsrtvalidator.validation.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
-import edu.usf.cutr.gtfsrtvalidator.api.model.MessageLogModel;
 import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.background.ShapeSegmentGrid;
 import edu.usf.cutr.gtfsrtvalidator.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.util.RuleUtils;
+import edu.usf.cutr.gtfsrtvalidator.validation.AbstractFeedEntityVisitor;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
 import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityVisitor;
 import org.hsqldb.lib.StringUtil;
 import org.locationtech.spatial4j.shape.Shape;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata.TRIP_BUFFER_METERS;
@@ -55,87 +56,73 @@ public class VehicleValidator implements FeedEntityValidator {
     public static final float MAX_REALISTIC_SPEED_METERS_PER_SECOND = 26.0f;  // Approx. 60 miles per hour
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
-        List<GtfsRealtime.FeedEntity> entityList = feedMessage.getEntityList();
-        List<OccurrenceModel> e026List = new ArrayList<>();
-        List<OccurrenceModel> e027List = new ArrayList<>();
-        List<OccurrenceModel> e028List = new ArrayList<>();
-        List<OccurrenceModel> e029List = new ArrayList<>();
-        List<OccurrenceModel> w002List = new ArrayList<>();
-        List<OccurrenceModel> w004List = new ArrayList<>();
-
-        for (GtfsRealtime.FeedEntity entity : entityList) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-
-                if (StringUtil.isEmpty(tripUpdate.getVehicle().getId())) {
-                    // W002 - vehicle_id not populated
-                    RuleUtils.addOccurrence(W002, getTripId(entity, tripUpdate), w002List, _log);
-                }
+    public FeedEntityVisitor createVisitor(long currentTimeMillis, GtfsDaoImpl gtfsData, GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage) {
+        return new Visitor(gtfsMetadata, feedMessage);
+    }
+
+    private class Visitor extends AbstractFeedEntityVisitor {
+        private final GtfsMetadata gtfsMetadata;
+        private final CombinedFeedMessage feedMessage;
+        private final List<OccurrenceModel> e026List = register(E026);
+        private final List<OccurrenceModel> e027List = register(E027);
+        private final List<OccurrenceModel> e028List = register(E028);
+        private final List<OccurrenceModel> e029List = register(E029);
+        private final List<OccurrenceModel> w002List = register(W002);
+        private final List<OccurrenceModel> w004List = register(W004);
+
+        Visitor(GtfsMetadata gtfsMetadata, CombinedFeedMessage feedMessage) {
+            this.gtfsMetadata = gtfsMetadata;
+            this.feedMessage = feedMessage;
+        }
+
+        @Override
+        public void visitTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            if (StringUtil.isEmpty(tripUpdate.getVehicle().getId())) {
+                // W002 - vehicle_id not populated
+                RuleUtils.addOccurrence(W002, getTripId(entity, tripUpdate), w002List, _log);
             }
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition v = entity.getVehicle();
+        }
 
-                if (StringUtil.isEmpty(v.getVehicle().getId())) {
-                    // W002 - vehicle_id not populated
-                    RuleUtils.addOccurrence(W002, "entity ID " + entity.getId(), w002List, _log);
-                }
+        @Override
+        public void visitVehiclePosition(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition v) {
+            if (StringUtil.isEmpty(v.getVehicle().getId())) {
+                // W002 - vehicle_id not populated
+                RuleUtils.addOccurrence(W002, "entity ID " + entity.getId(), w002List, _log);
+            }
 
-                if (v.hasPosition() && v.getPosition().hasSpeed()) {
-                    if (v.getPosition().getSpeed() > MAX_REALISTIC_SPEED_METERS_PER_SECOND ||
-                            v.getPosition().getSpeed() < 0f) {
-                        // W004 - vehicle speed is unrealistic
-                        String prefix = getVehicleId(entity, v) +
-                                " speed of " + v.getPosition().getSpeed() + " m/s (" + String.format("%.2f", GtfsUtils.toMilesPerHour(v.getPosition().getSpeed())) + " mph)";
-                        RuleUtils.addOccurrence(W004, prefix, w004List, _log);
-                    }
+            if (v.hasPosition() && v.getPosition().hasSpeed()) {
+                if (v.getPosition().getSpeed() > MAX_REALISTIC_SPEED_METERS_PER_SECOND ||
+                        v.getPosition().getSpeed() < 0f) {
+                    // W004 - vehicle speed is unrealistic
+                    String prefix = getVehicleId(entity, v) +
+                            " speed of " + v.getPosition().getSpeed() + " m/s (" + String.format("%.2f", GtfsUtils.toMilesPerHour(v.getPosition().getSpeed())) + " mph)";
+                    RuleUtils.addOccurrence(W004, prefix, w004List, _log);
                 }
+            }
 
-                if (v.hasPosition()) {
-                    GtfsRealtime.Position position = v.getPosition();
-                    String id = getVehicleId(entity, v);
-                    if (!position.hasLatitude() || !position.hasLongitude()) {
-                        // E026 - Invalid vehicle position - missing lat/long
-                        RuleUtils.addOccurrence(E026, id + " position is missing lat/long", e026List, _log);
-                    } else if (!GtfsUtils.isPositionValid(position)) {
-                        // E026 - Invalid vehicle position - invalid lat/long
-                        RuleUtils.addOccurrence(E026, id + " has latitude/longitude of (" + position.getLatitude() + "," + position.getLongitude() + ")", e026List, _log);
-                    } else {
-                        // Position is valid - check E028, if it lies within the agency bounds, using shapes.txt if it exists
-                        boolean insideBounds = checkE028(entity, gtfsMetadata, e028List);
-                        if (insideBounds) {
-                            // Position is within agency bounds - check E029, if it lies within the trip bounds using shapes.txt
-                            checkE029(entityList, entity, gtfsMetadata, e029List);
-                        }
-                    }
-                    if (!GtfsUtils.isBearingValid(position)) {
-                        // E027 - Invalid vehicle bearing
-                        RuleUtils.addOccurrence(E027, id + " has bearing of " + position.getBearing(), e027List, _log);
+            if (v.hasPosition()) {
+                GtfsRealtime.Position position = v.getPosition();
+                String id = getVehicleId(entity, v);
+                if (!position.hasLatitude() || !position.hasLongitude()) {
+                    // E026 - Invalid vehicle position - missing lat/long
+                    RuleUtils.addOccurrence(E026, id + " position is missing lat/long", e026List, _log);
+                } else if (!GtfsUtils.isPositionValid(position)) {
+                    // E026 - Invalid vehicle position - invalid lat/long
+                    RuleUtils.addOccurrence(E026, id + " has latitude/longitude of (" + position.getLatitude() + "," + position.getLongitude() + ")", e026List, _log);
+                } else {
+                    // Position is valid - check E028, if it lies within the agency bounds, using shapes.txt if it exists
+                    boolean insideBounds = checkE028(entity, gtfsMetadata, e028List);
+                    if (insideBounds) {
+                        // Position is within agency bounds - check E029, if it lies within the trip bounds using shapes.txt
+                        checkE029(feedMessage, entity, gtfsMetadata, e029List);
                     }
                 }
+                if (!GtfsUtils.isBearingValid(position)) {
+                    // E027 - Invalid vehicle bearing
+                    RuleUtils.addOccurrence(E027, id + " has bearing of " + position.getBearing(), e027List, _log);
+                }
             }
         }
-
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!e026List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E026), e026List));
-        }
-        if (!e027List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E027), e027List));
-        }
-        if (!e028List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E028), e028List));
-        }
-        if (!e029List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E029), e029List));
-        }
-        if (!w002List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W002), w002List));
-        }
-        if (!w004List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W004), w004List));
-        }
-        return errors;
     }
 
     /**
@@ -177,12 +164,12 @@ public class VehicleValidator implements FeedEntityValidator {
     /**
      * Vehicle position outside trip shape buffer - E029
      *
-     * @param entityList   a list of all entities for this feed iteration (needed to check if there are any detour alerts for this trip)
+     * @param feedMessage  the feed for this iteration (needed to check if there are any detour alerts for this trip)
      * @param entity       entity that has a vehicle position to check
      * @param gtfsMetadata GTFS metadata for this entity
      * @param errors       list to which any errors can be added
      */
-    private void checkE029(List<GtfsRealtime.FeedEntity> entityList, GtfsRealtime.FeedEntity entity, GtfsMetadata gtfsMetadata, List<OccurrenceModel> errors) {
+    private void checkE029(CombinedFeedMessage feedMessage, GtfsRealtime.FeedEntity entity, GtfsMetadata gtfsMetadata, List<OccurrenceModel> errors) {
         GtfsRealtime.VehiclePosition v = entity.getVehicle();
 
         // If the vehicle doesn't have a trip_id, we can't check E029 - return
@@ -197,14 +184,14 @@ public class VehicleValidator implements FeedEntityValidator {
         GtfsRealtime.Position position = v.getPosition();
         String id = getVehicleId(entity, v);
 
-        Shape bufferedShape = gtfsMetadata.getBufferedTripShape(tripId);
-        if (bufferedShape == null) {
+        ShapeSegmentGrid shapeGrid = gtfsMetadata.getTripShapeGrid(tripId);
+        if (shapeGrid == null) {
             // No shape data for this trip, so we can't check E029 - return
             return;
         }
 
-        if (!GtfsUtils.isPositionWithinShape(position, bufferedShape)) {
-            if (hasDetourAlert(entityList, tripId, routeId)) {
+        if (!shapeGrid.isWithinBuffer(position.getLatitude(), position.getLongitude())) {
+            if (feedMessage.getAlertIndex().hasEffect(tripId, routeId, GtfsRealtime.Alert.Effect.DETOUR)) {
                 // There is a DETOUR alert for this vehicle's trip_id or route_id, so it's allowed to be outside the trip shape
                 return;
             }
@@ -215,36 +202,4 @@ public class VehicleValidator implements FeedEntityValidator {
             RuleUtils.addOccurrence(E029, prefix, errors, _log);
         }
     }
-
-    /**
-     * Returns true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
-     *
-     * @param entityList GTFS-rt entities to check for DETOUR service alerts
-     * @param tripId     trip_id to check in the service alerts
-     * @param routeId    route_id to check in the service alerts
-     * @return true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
-     */
-    private boolean hasDetourAlert(List<GtfsRealtime.FeedEntity> entityList, String tripId, String routeId) {
-        // This could get expensive for a lot of alerts
-        for (GtfsRealtime.FeedEntity e : entityList) {
-            if (e.hasAlert()) {
-                GtfsRealtime.Alert a = e.getAlert();
-                if (a.hasEffect() && a.getEffect().equals(GtfsRealtime.Alert.Effect.DETOUR)) {
-                    for (GtfsRealtime.EntitySelector entitySelector : a.getInformedEntityList()) {
-                        if (entitySelector.hasTrip()) {
-                            if (tripId.equals(entitySelector.getTrip().getTripId())) {
-                                // There is a DETOUR alert for this vehicle's trip, so it's allowed to be outside the trip shape
-                                return true;
-                            }
-                            if (routeId != null && routeId.equals(entitySelector.getTrip().getRouteId())) {
-                                // There is a DETOUR alert for this vehicle's route, so it's allowed to be outside the trip shape
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return false;
-    }
 }
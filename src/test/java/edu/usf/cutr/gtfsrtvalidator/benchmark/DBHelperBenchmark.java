@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import edu.usf.cutr.gtfsrtvalidator.api.model.*;
+import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
+import edu.usf.cutr.gtfsrtvalidator.helper.DBHelper;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
+import edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of saving the errors and warnings of an iteration with one DBHelper.saveError() call per
+ * rule (two transactions per rule and one INSERT per occurrence) against a single DBHelper.saveErrors() call (one
+ * transaction and JDBC batches of occurrences).
+ * <p>
+ * Note that this writes to the database configured in hibernate.cfg.xml.  Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.DBHelperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DBHelperBenchmark {
+
+    private static final List<ValidationRule> RULES = Arrays.asList(ValidationRules.E001, ValidationRules.E002,
+            ValidationRules.E003, ValidationRules.E004, ValidationRules.E009, ValidationRules.E022, ValidationRules.E026,
+            ValidationRules.E029, ValidationRules.W001, ValidationRules.W009);
+
+    /**
+     * Total number of occurrences in the iteration, spread evenly over RULES
+     */
+    @Param({"1000", "20000"})
+    public int occurrenceCount;
+
+    private GtfsRtFeedIterationModel feedIteration;
+    private List<ErrorListHelperModel> errorLists;
+
+    @Setup(Level.Trial)
+    public void setupDatabase() {
+        HibernateUtil.configureSessionFactory();
+        GTFSDB.initializeDB();
+
+        GtfsFeedModel gtfsFeed = new GtfsFeedModel();
+        gtfsFeed.setGtfsUrl("http://localhost/benchmark/gtfs.zip");
+        GtfsRtFeedModel gtfsRtFeed = new GtfsRtFeedModel();
+        gtfsRtFeed.setGtfsUrl("http://localhost/benchmark/gtfs-rt");
+        gtfsRtFeed.setGtfsFeedModel(gtfsFeed);
+        feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), System.currentTimeMillis(), null, gtfsRtFeed, null);
+
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.save(gtfsFeed);
+        session.save(gtfsRtFeed);
+        session.save(feedIteration);
+        GTFSDB.commitAndCloseSession(session);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupErrors() {
+        // Models are modified when they are saved, so create new ones for each invocation
+        errorLists = new ArrayList<>();
+        for (ValidationRule rule : RULES) {
+            List<OccurrenceModel> occurrences = new ArrayList<>();
+            for (int i = 0; i < occurrenceCount / RULES.size(); i++) {
+                occurrences.add(new OccurrenceModel("trip_id " + i));
+            }
+            errorLists.add(new ErrorListHelperModel(new MessageLogModel(rule), occurrences));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public void saveErrorPerRule() {
+        for (ErrorListHelperModel errorList : errorLists) {
+            errorList.getErrorMessage().setGtfsRtFeedIterationModel(feedIteration);
+            DBHelper.saveError(errorList);
+        }
+    }
+
+    @Benchmark
+    public void saveErrorsBatched() {
+        DBHelper.saveErrors(feedIteration, errorLists);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DBHelperBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
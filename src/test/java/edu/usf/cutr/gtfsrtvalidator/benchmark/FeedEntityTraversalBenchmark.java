@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import edu.usf.cutr.gtfsrtvalidator.validation.EntityResultCache;
+import edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.rules.*;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares validating all FeedEntityValidators in a single pass over the feed entities against the previous approach
+ * of letting each rule loop over the entire feed on its own, against running each rule in parallel, and against
+ * incremental validation of a feed where 1% of the entities changed since the previous iteration.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.FeedEntityTraversalBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeedEntityTraversalBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int entityCount;
+
+    private List<FeedEntityValidator> rules;
+    private GtfsDaoImpl gtfsData;
+    private GtfsMetadata gtfsMetadata;
+    private GtfsRealtime.FeedMessage feedMessage;
+    private CombinedFeedMessage combinedFeed;
+    private long currentTimeMillis;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        rules = Arrays.asList(
+                new CrossFeedDescriptorValidator(),
+                new VehicleValidator(),
+                new TimestampValidator(),
+                new StopTimeUpdateValidator(),
+                new TripDescriptorValidator(),
+                new StopValidator(),
+                new FrequencyTypeZeroValidator(),
+                new FrequencyTypeOneValidator(),
+                new HeaderValidator());
+
+        gtfsData = new GtfsDaoImpl();
+        GtfsReader reader = new GtfsReader();
+        reader.setInputLocation(new File("src/test/resources/bullrunner-gtfs.zip"));
+        reader.setEntityStore(gtfsData);
+        reader.run();
+        gtfsMetadata = new GtfsMetadata("bullrunner-gtfs.zip", TimeZone.getTimeZone("America/New_York"), gtfsData);
+
+        currentTimeMillis = System.currentTimeMillis();
+        feedMessage = buildFeed(entityCount, TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis));
+        combinedFeed = CombinedFeedMessage.of(feedMessage);
+        executor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Builds a feed where every entity has a TripUpdate with a few stop_time_updates and a VehiclePosition
+     */
+    private static GtfsRealtime.FeedMessage buildFeed(int entityCount, long timestamp) {
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+        feedMessageBuilder.setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setTimestamp(timestamp));
+        for (int i = 0; i < entityCount; i++) {
+            String tripId = "trip" + i;
+            String vehicleId = "vehicle" + i;
+            GtfsRealtime.TripDescriptor trip = GtfsRealtime.TripDescriptor.newBuilder()
+                    .setTripId(tripId)
+                    .setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.SCHEDULED)
+                    .build();
+            GtfsRealtime.TripUpdate.Builder tripUpdate = GtfsRealtime.TripUpdate.newBuilder()
+                    .setTrip(trip)
+                    .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId(vehicleId))
+                    .setTimestamp(timestamp);
+            for (int stopSequence = 1; stopSequence <= 5; stopSequence++) {
+                tripUpdate.addStopTimeUpdate(GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder()
+                        .setStopSequence(stopSequence)
+                        .setScheduleRelationship(GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship.SCHEDULED)
+                        .setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(timestamp + stopSequence * 60)));
+            }
+            GtfsRealtime.VehiclePosition vehiclePosition = GtfsRealtime.VehiclePosition.newBuilder()
+                    .setTrip(trip)
+                    .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId(vehicleId))
+                    .setPosition(GtfsRealtime.Position.newBuilder().setLatitude(28.0587f).setLongitude(-82.4139f))
+                    .setTimestamp(timestamp)
+                    .build();
+            feedMessageBuilder.addEntity(GtfsRealtime.FeedEntity.newBuilder()
+                    .setId(Integer.toString(i))
+                    .setTripUpdate(tripUpdate)
+                    .setVehicle(vehiclePosition));
+        }
+        return feedMessageBuilder.build();
+    }
+
+    @Benchmark
+    public void perRule(Blackhole blackhole) {
+        for (FeedEntityValidator rule : rules) {
+            List<ErrorListHelperModel> results = rule.validate(currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, null);
+            blackhole.consume(results);
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        List<List<ErrorListHelperModel>> results = FeedEntityTraversal.validate(rules, currentTimeMillis, gtfsData, gtfsMetadata, combinedFeed, null);
+        blackhole.consume(results);
+    }
+
+    @Benchmark
+    public void parallel(Blackhole blackhole) throws InterruptedException, ExecutionException {
+        List<List<ErrorListHelperModel>> results = FeedEntityTraversal.validate(rules, executor, currentTimeMillis, gtfsData, gtfsMetadata, combinedFeed, null);
+        blackhole.consume(results);
+    }
+
+    @Benchmark
+    public void incremental(IncrementalState state, Blackhole blackhole) {
+        List<List<ErrorListHelperModel>> results = FeedEntityTraversal.validate(rules, currentTimeMillis, gtfsData, gtfsMetadata, state.feed, null, state.cache);
+        blackhole.consume(results);
+    }
+
+    /**
+     * Alternates between two versions of the feed with different header timestamps, where 1% of the entities have a
+     * different TripUpdate timestamp, for incremental validation.  Each feed is parsed again before it's validated,
+     * like a new iteration, so unchanged entities are compared by content and not by reference.
+     */
+    @State(Scope.Thread)
+    public static class IncrementalState {
+        private final byte[][] feeds = new byte[2][];
+        private int next;
+        private final EntityResultCache cache = new EntityResultCache();
+        private CombinedFeedMessage feed;
+
+        @Setup(Level.Trial)
+        public void setup(FeedEntityTraversalBenchmark benchmark) {
+            GtfsRealtime.FeedMessage.Builder changed = GtfsRealtime.FeedMessage.newBuilder(benchmark.feedMessage);
+            long timestamp = changed.getHeader().getTimestamp() + 30;
+            changed.getHeaderBuilder().setTimestamp(timestamp);
+            for (int i = 0; i < changed.getEntityCount(); i += 100) {
+                changed.getEntityBuilder(i).getTripUpdateBuilder().setTimestamp(timestamp);
+            }
+            feeds[0] = benchmark.feedMessage.toByteArray();
+            feeds[1] = changed.build().toByteArray();
+        }
+
+        @Setup(Level.Invocation)
+        public void nextFeed() throws InvalidProtocolBufferException {
+            feed = CombinedFeedMessage.of(GtfsRealtime.FeedMessage.parseFrom(feeds[next]));
+            next = 1 - next;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FeedEntityTraversalBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
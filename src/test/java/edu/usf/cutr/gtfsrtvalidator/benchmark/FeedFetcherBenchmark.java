@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.sun.net.httpserver.HttpServer;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedFetcher;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test that downloads a canned GTFS-realtime feed from a local stub HTTP server from many threads at once (like
+ * many feeds being polled on the FeedScheduler), using FeedFetcher and using URL.openStream() as BackgroundTask did
+ * before.  The stub server adds a fixed latency to each response to simulate a remote server.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.FeedFetcherBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(64)
+@Fork(1)
+public class FeedFetcherBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entityCount;
+
+    @Param({"0", "20"})
+    public int latencyMillis;
+
+    private HttpServer server;
+    private URL feedUrl;
+    private FeedFetcher feedFetcher;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] feed = buildFeed(entityCount).toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+        server.setExecutor(Executors.newFixedThreadPool(128));
+        server.createContext("/feed", exchange -> {
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, feed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(feed);
+            }
+        });
+        server.start();
+        feedUrl = new URL("http://localhost:" + server.getAddress().getPort() + "/feed");
+
+        // All benchmark threads download from the same host
+        feedFetcher = new FeedFetcher(FeedFetcher.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS, 64, FeedFetcher.DEFAULT_MAX_FEED_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    /**
+     * Builds a feed with entityCount VehiclePositions
+     */
+    private static GtfsRealtime.FeedMessage buildFeed(int entityCount) {
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+        feedMessageBuilder.setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setTimestamp(timestamp));
+        for (int i = 0; i < entityCount; i++) {
+            feedMessageBuilder.addEntity(GtfsRealtime.FeedEntity.newBuilder()
+                    .setId(Integer.toString(i))
+                    .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                            .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip" + i))
+                            .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId("vehicle" + i))
+                            .setPosition(GtfsRealtime.Position.newBuilder().setLatitude(28.0587f).setLongitude(-82.4139f))
+                            .setTimestamp(timestamp)));
+        }
+        return feedMessageBuilder.build();
+    }
+
+    @Benchmark
+    public byte[] openStream() throws IOException {
+        try (InputStream in = feedUrl.openStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    @Benchmark
+    public byte[] feedFetcher() throws IOException {
+        return feedFetcher.fetch(feedUrl);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FeedFetcherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
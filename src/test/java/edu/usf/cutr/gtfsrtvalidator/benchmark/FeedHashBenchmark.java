@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost per MB of hashing a downloaded GTFS-realtime feed in memory (as FeedBuffer does) and of hashing a
+ * GTFS zip file (as GtfsFeed does) with each FeedHashAlgorithm.  The zip file is also hashed with MD5 through a 1 KB
+ * read buffer, as GtfsFeed did before files were memory-mapped.  Each invocation hashes MEGABYTES MB, so scores are
+ * the average time per MB.
+ * <p>
+ * SHA256 is what GTFS zip files and the FeedBlobStore keys of unique feeds are always hashed with.  When feeds are
+ * stored in a FeedBlobStore, FeedBuffer computes the key of every downloaded feed in addition to its digest, so the
+ * cost per MB of a download is the score of hashFeed for the current algorithm plus the score for SHA256.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.FeedHashBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeedHashBenchmark {
+
+    private static final int MEGABYTES = 16;
+
+    @Param({"MURMUR3_128", "MD5", "SHA256"})
+    public FeedHashAlgorithm algorithm;
+
+    private byte[] feed;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        feed = new byte[MEGABYTES * 1024 * 1024];
+        new Random(1).nextBytes(feed);
+        file = Files.createTempFile("gtfs", ".zip");
+        Files.write(file, feed);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public byte[] hashFeed() {
+        return algorithm.hash(feed, 0, feed.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public byte[] hashFile() throws IOException {
+        return algorithm.hashFile(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public byte[] hashFileMd5ReadBuffer() throws IOException, NoSuchAlgorithmException {
+        byte[] dataBytes = new byte[1024];
+        int nread;
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (InputStream is = Files.newInputStream(file)) {
+            while ((nread = is.read(dataBytes)) != -1) {
+                md.update(dataBytes, 0, nread);
+            }
+        }
+        return md.digest();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FeedHashBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
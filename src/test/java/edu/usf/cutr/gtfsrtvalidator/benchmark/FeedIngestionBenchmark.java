@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedBuffer;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ingesting a downloaded GTFS-realtime feed (reading the body, computing its digest and parsing it) by copying
+ * it into a new byte array, digesting the array and parsing it through a ByteArrayInputStream as BackgroundTask did
+ * before, against reading it into the reused FeedBuffer of the thread.  The feed is read from memory so only the
+ * ingestion itself is measured.
+ * <p>
+ * With blobKey, FeedBuffer also computes the SHA-256 FeedBlobStore key of the feed while reading it, as it does when
+ * feeds are stored in a FeedBlobStore (the default).
+ * <p>
+ * The GC profiler is enabled, so gc.alloc.rate.norm shows the bytes allocated per poll.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.FeedIngestionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeedIngestionBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int entityCount;
+
+    @Param({"false", "true"})
+    public boolean blobKey;
+
+    private byte[] feed;
+
+    @Setup
+    public void setup() {
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+        feedMessageBuilder.setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setTimestamp(timestamp));
+        for (int i = 0; i < entityCount; i++) {
+            feedMessageBuilder.addEntity(GtfsRealtime.FeedEntity.newBuilder()
+                    .setId(Integer.toString(i))
+                    .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                            .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip" + i))
+                            .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId("vehicle" + i))
+                            .setPosition(GtfsRealtime.Position.newBuilder().setLatitude(28.0587f).setLongitude(-82.4139f))
+                            .setTimestamp(timestamp)));
+        }
+        feed = feedMessageBuilder.build().toByteArray();
+        FeedBuffer.setComputeBlobKey(blobKey);
+    }
+
+    @Benchmark
+    public void copyAndDigest(Blackhole blackhole) throws IOException, NoSuchAlgorithmException {
+        byte[] body;
+        try (InputStream in = new ByteArrayInputStream(feed)) {
+            body = IOUtils.toByteArray(in);
+        }
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        blackhole.consume(md.digest(body));
+        blackhole.consume(GtfsRealtime.FeedMessage.parseFrom(new ByteArrayInputStream(body)));
+    }
+
+    @Benchmark
+    public void feedBuffer(Blackhole blackhole) throws IOException {
+        FeedBuffer buffer = FeedBuffer.get();
+        try {
+            try (InputStream in = new ByteArrayInputStream(feed)) {
+                while (buffer.read(in) != -1) {
+                }
+            }
+            blackhole.consume(buffer.getDigest());
+            blackhole.consume(buffer.getBlobKey());
+            blackhole.consume(buffer.parseFeedMessage());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FeedIngestionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
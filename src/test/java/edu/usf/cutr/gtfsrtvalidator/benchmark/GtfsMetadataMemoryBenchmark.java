@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import edu.usf.cutr.gtfsrtvalidator.background.ShapePointTable;
+import edu.usf.cutr.gtfsrtvalidator.background.StopTimeTable;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Compares the heap retained by the stop_times and shapes held in GtfsMetadata using StopTimeTable and
+ * ShapePointTable against the previous layout of maps of ids to lists of OneBusAway StopTime and ShapePoint objects.
+ * <p>
+ * Each layout is built from a freshly loaded GTFS feed, and then the GtfsDaoImpl is released so only what the layout
+ * itself keeps reachable is counted.  Heap use is measured after garbage collection, so run with a fixed heap (e.g.,
+ * -Xms4g -Xmx4g) for stable results.
+ * <p>
+ * Run with (optionally passing the path of a large GTFS zip file):
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.GtfsMetadataMemoryBenchmark -Dexec.args="path/to/gtfs.zip"
+ */
+public class GtfsMetadataMemoryBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        File gtfsFile = new File(args.length > 0 ? args[0] : "src/test/resources/bullrunner-gtfs.zip");
+
+        long lists = measure(gtfsFile, GtfsMetadataMemoryBenchmark::buildListLayout);
+        long tables = measure(gtfsFile, GtfsMetadataMemoryBenchmark::buildTableLayout);
+
+        System.out.println("GTFS feed: " + gtfsFile);
+        System.out.println(String.format("Lists of StopTime/ShapePoint objects: %,d bytes", lists));
+        System.out.println(String.format("StopTimeTable/ShapePointTable:        %,d bytes", tables));
+        if (tables > 0) {
+            System.out.println(String.format("Ratio: %.1fx", (double) lists / tables));
+        }
+    }
+
+    /**
+     * The layout used by GtfsMetadata before StopTimeTable and ShapePointTable
+     */
+    private static Object buildListLayout(GtfsDaoImpl gtfsData) {
+        Map<String, List<StopTime>> tripStopTimes = new HashMap<>();
+        for (StopTime stopTime : gtfsData.getAllStopTimes()) {
+            tripStopTimes.computeIfAbsent(stopTime.getTrip().getId().getId(), k -> new ArrayList<>()).add(stopTime);
+        }
+        for (List<StopTime> stopTimes : tripStopTimes.values()) {
+            stopTimes.sort(Comparator.comparing(stopTime -> (stopTime.getStopSequence())));
+        }
+        Map<String, List<ShapePoint>> shapePoints = new HashMap<>();
+        for (ShapePoint p : gtfsData.getAllShapePoints()) {
+            shapePoints.computeIfAbsent(p.getShapeId().getId(), k -> new ArrayList<>()).add(p);
+        }
+        for (List<ShapePoint> shapePointList : shapePoints.values()) {
+            shapePointList.sort(Comparator.comparing(shapePoint -> (shapePoint.getSequence())));
+        }
+        return Arrays.asList(tripStopTimes, shapePoints);
+    }
+
+    private static Object buildTableLayout(GtfsDaoImpl gtfsData) {
+        return Arrays.asList(new StopTimeTable(gtfsData.getAllStopTimes()), new ShapePointTable(gtfsData.getAllShapePoints()));
+    }
+
+    /**
+     * Returns the heap retained by the result of layout after the GTFS feed it was built from is released
+     */
+    private static long measure(File gtfsFile, Function<GtfsDaoImpl, Object> layout) throws IOException {
+        long before = usedHeap();
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        GtfsReader reader = new GtfsReader();
+        reader.setInputLocation(gtfsFile);
+        reader.setEntityStore(gtfsData);
+        reader.run();
+        reader.close();
+        Object result = layout.apply(gtfsData);
+        gtfsData = null;
+        reader = null;
+        long after = usedHeap();
+        // Keep the result reachable until the heap is measured
+        System.out.println("Built " + result.getClass().getSimpleName() + " of " + ((List<?>) result).size() + " structures");
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FeedEntityValidator.validate() for each rule on its own, against synthetic feeds (see SyntheticFeedBuilder)
+ * from 100 to 50,000 entities for the Bull Runner GTFS data.  The previous feed is the same feed 30 seconds earlier,
+ * so rules that compare consecutive feeds do so.
+ * <p>
+ * Throughput and the distribution of latencies are reported for each rule and feed size, and the GC profiler shows
+ * the allocation rate (gc.alloc.rate.norm is the bytes allocated per validation).
+ * <p>
+ * Run with:
+ * mvn -Pbenchmark test -DskipTests -Djmh.include=RuleValidationBenchmark
+ * <p>
+ * or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.RuleValidationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RuleValidationBenchmark {
+
+    @Param({"CrossFeedDescriptorValidator",
+            "VehicleValidator",
+            "TimestampValidator",
+            "StopTimeUpdateValidator",
+            "TripDescriptorValidator",
+            "StopValidator",
+            "FrequencyTypeZeroValidator",
+            "FrequencyTypeOneValidator",
+            "HeaderValidator"})
+    public String rule;
+
+    @Param({"100", "1000", "10000", "50000"})
+    public int entityCount;
+
+    private FeedEntityValidator validator;
+    private GtfsDaoImpl gtfsData;
+    private GtfsMetadata gtfsMetadata;
+    private GtfsRealtime.FeedMessage feedMessage;
+    private GtfsRealtime.FeedMessage previousFeedMessage;
+    private long currentTimeMillis;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        validator = (FeedEntityValidator) Class.forName("edu.usf.cutr.gtfsrtvalidator.validation.rules." + rule).newInstance();
+
+        gtfsData = SyntheticFeedBuilder.loadGtfs(SyntheticFeedBuilder.BULLRUNNER_GTFS);
+        gtfsMetadata = new GtfsMetadata("bullrunner-gtfs.zip", TimeZone.getTimeZone("America/New_York"), gtfsData);
+
+        currentTimeMillis = System.currentTimeMillis();
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis);
+        SyntheticFeedBuilder feedBuilder = new SyntheticFeedBuilder(gtfsData);
+        feedMessage = feedBuilder.build(entityCount, timestamp);
+        previousFeedMessage = feedBuilder.build(entityCount, timestamp - 30);
+    }
+
+    @Benchmark
+    public List<ErrorListHelperModel> validate() {
+        return validator.validate(currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RuleValidationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import edu.usf.cutr.gtfsrtvalidator.background.ShapePointTable;
+import edu.usf.cutr.gtfsrtvalidator.background.ShapeSegmentGrid;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
+import org.locationtech.spatial4j.shape.Shape;
+import org.locationtech.spatial4j.shape.ShapeFactory;
+import org.locationtech.spatial4j.shape.SpatialRelation;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata.TRIP_BUFFER_DEGREES;
+
+/**
+ * Compares checking vehicle positions against a trip shape (E029) using a ShapeSegmentGrid against the previous
+ * approach of buffering a Spatial4j polyline of the shape, both for creating the index of a shape and for checking
+ * positions with an index that was already created.
+ * <p>
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.ShapeBufferBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShapeBufferBenchmark {
+
+    private static final int POSITION_COUNT = 1000;
+
+    @Param({"100", "1000", "10000"})
+    public int shapePointCount;
+
+    private ShapePointTable shapePoints;
+    private int shapeIndex;
+    private Shape bufferedShape;
+    private ShapeSegmentGrid grid;
+    // Vehicle positions near the shape, some inside the buffer and some outside
+    private double[] lats;
+    private double[] lons;
+
+    @Setup
+    public void setup() {
+        // A random walk of points roughly 20 meters apart, like a detailed shape in shapes.txt
+        Random random = new Random(42);
+        List<ShapePoint> points = new ArrayList<>();
+        double lat = 28.0587, lon = -82.4139;
+        for (int i = 0; i < shapePointCount; i++) {
+            ShapePoint p = new ShapePoint();
+            p.setShapeId(new AgencyAndId("agency", "shape"));
+            p.setSequence(i);
+            p.setLat(lat);
+            p.setLon(lon);
+            points.add(p);
+            lat += (random.nextDouble() - 0.3) * 0.0003;
+            lon += (random.nextDouble() - 0.3) * 0.0003;
+        }
+        shapePoints = new ShapePointTable(points);
+        shapeIndex = shapePoints.getShapeIndex("shape");
+        bufferedShape = buildBufferedShape();
+        grid = buildGrid();
+
+        lats = new double[POSITION_COUNT];
+        lons = new double[POSITION_COUNT];
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            ShapePoint near = points.get(random.nextInt(points.size()));
+            lats[i] = near.getLat() + (random.nextDouble() - 0.5) * TRIP_BUFFER_DEGREES * 4;
+            lons[i] = near.getLon() + (random.nextDouble() - 0.5) * TRIP_BUFFER_DEGREES * 4;
+        }
+    }
+
+    private Shape buildBufferedShape() {
+        ShapeFactory sf = JtsSpatialContext.GEO.getShapeFactory();
+        ShapeFactory.LineStringBuilder lineBuilder = sf.lineString();
+        for (int i = shapePoints.getStart(shapeIndex); i < shapePoints.getEnd(shapeIndex); i++) {
+            lineBuilder.pointXY(shapePoints.getLon(i), shapePoints.getLat(i));
+        }
+        Shape shape = lineBuilder.build();
+        return shape.getBuffered(TRIP_BUFFER_DEGREES, shape.getContext());
+    }
+
+    private ShapeSegmentGrid buildGrid() {
+        return new ShapeSegmentGrid(shapePoints, shapeIndex, TRIP_BUFFER_DEGREES);
+    }
+
+    @Benchmark
+    public Shape spatial4jBuild() {
+        return buildBufferedShape();
+    }
+
+    @Benchmark
+    public ShapeSegmentGrid gridBuild() {
+        return buildGrid();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITION_COUNT)
+    public void spatial4jContains(Blackhole blackhole) {
+        ShapeFactory sf = JtsSpatialContext.GEO.getShapeFactory();
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            blackhole.consume(bufferedShape.relate(sf.pointXY(lons[i], lats[i])) == SpatialRelation.CONTAINS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITION_COUNT)
+    public void gridContains(Blackhole blackhole) {
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            blackhole.consume(grid.isWithinBuffer(lats[i], lons[i]));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShapeBufferBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds synthetic GTFS-realtime feeds of any size for the trips and stops of a GTFS feed, so benchmarks exercise the
+ * same lookups into the GTFS data as real feeds.
+ * <p>
+ * Each entity has a TripUpdate with up to 5 stop_time_updates (with the stop_sequence and stop_id of the trip's
+ * stop_times) and a VehiclePosition at the trip's first stop, except every 50th entity, which is an Alert for the
+ * route of the trip.  Trips are used in trip_id order - once all trips are used, they are used again with the next
+ * start_date, so larger feeds don't only add duplicate trips.
+ */
+class SyntheticFeedBuilder {
+
+    static final String BULLRUNNER_GTFS = "src/test/resources/bullrunner-gtfs.zip";
+
+    private static final int MAX_STOP_TIME_UPDATES = 5;
+    private static final int ALERT_INTERVAL = 50;
+
+    private final List<Trip> mTrips = new ArrayList<>();
+    private final Map<Trip, List<StopTime>> mStopTimes = new HashMap<>();
+
+    /**
+     * Loads the GTFS data in the given zip file
+     *
+     * @param path path of the GTFS zip file
+     * @return the GTFS data in the zip file
+     * @throws IOException if the zip file can't be read
+     */
+    static GtfsDaoImpl loadGtfs(String path) throws IOException {
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        GtfsReader reader = new GtfsReader();
+        reader.setInputLocation(new File(path));
+        reader.setEntityStore(gtfsData);
+        reader.run();
+        return gtfsData;
+    }
+
+    SyntheticFeedBuilder(GtfsDaoImpl gtfsData) {
+        for (StopTime stopTime : gtfsData.getAllStopTimes()) {
+            mStopTimes.computeIfAbsent(stopTime.getTrip(), k -> new ArrayList<>()).add(stopTime);
+        }
+        for (Map.Entry<Trip, List<StopTime>> entry : mStopTimes.entrySet()) {
+            entry.getValue().sort(Comparator.comparingInt(StopTime::getStopSequence));
+            mTrips.add(entry.getKey());
+        }
+        mTrips.sort(Comparator.comparing(trip -> trip.getId().getId()));
+    }
+
+    /**
+     * Builds a feed with entityCount entities
+     *
+     * @param entityCount the number of entities in the feed
+     * @param timestamp   the timestamp of the feed, in seconds since the epoch
+     * @return a feed with entityCount entities
+     */
+    GtfsRealtime.FeedMessage build(int entityCount, long timestamp) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+        feedMessageBuilder.setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setTimestamp(timestamp));
+        for (int i = 0; i < entityCount; i++) {
+            Trip trip = mTrips.get(i % mTrips.size());
+            List<StopTime> stopTimes = mStopTimes.get(trip);
+            String startDate = dateFormat.format(new Date(TimeUnit.SECONDS.toMillis(timestamp) + TimeUnit.DAYS.toMillis(i / mTrips.size())));
+            GtfsRealtime.TripDescriptor tripDescriptor = GtfsRealtime.TripDescriptor.newBuilder()
+                    .setTripId(trip.getId().getId())
+                    .setRouteId(trip.getRoute().getId().getId())
+                    .setStartDate(startDate)
+                    .setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.SCHEDULED)
+                    .build();
+            GtfsRealtime.FeedEntity.Builder entity = GtfsRealtime.FeedEntity.newBuilder().setId(Integer.toString(i));
+
+            if (i % ALERT_INTERVAL == ALERT_INTERVAL - 1) {
+                entity.setAlert(GtfsRealtime.Alert.newBuilder()
+                        .addInformedEntity(GtfsRealtime.EntitySelector.newBuilder()
+                                .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setRouteId(tripDescriptor.getRouteId())))
+                        .setEffect(GtfsRealtime.Alert.Effect.DETOUR)
+                        .setHeaderText(translatedString("Detour"))
+                        .setDescriptionText(translatedString("Buses are detoured")));
+                feedMessageBuilder.addEntity(entity);
+                continue;
+            }
+
+            String vehicleId = "vehicle" + i;
+            GtfsRealtime.TripUpdate.Builder tripUpdate = GtfsRealtime.TripUpdate.newBuilder()
+                    .setTrip(tripDescriptor)
+                    .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId(vehicleId))
+                    .setTimestamp(timestamp);
+            for (int j = 0; j < Math.min(MAX_STOP_TIME_UPDATES, stopTimes.size()); j++) {
+                StopTime stopTime = stopTimes.get(j);
+                tripUpdate.addStopTimeUpdate(GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder()
+                        .setStopSequence(stopTime.getStopSequence())
+                        .setStopId(stopTime.getStop().getId().getId())
+                        .setScheduleRelationship(GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship.SCHEDULED)
+                        .setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(timestamp + (j + 1) * 60)));
+            }
+            Stop firstStop = stopTimes.get(0).getStop();
+            entity.setTripUpdate(tripUpdate)
+                    .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                            .setTrip(tripDescriptor)
+                            .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId(vehicleId))
+                            .setPosition(GtfsRealtime.Position.newBuilder().setLatitude((float) firstStop.getLat()).setLongitude((float) firstStop.getLon()))
+                            .setTimestamp(timestamp));
+            feedMessageBuilder.addEntity(entity);
+        }
+        return feedMessageBuilder.build();
+    }
+
+    private static GtfsRealtime.TranslatedString translatedString(String text) {
+        return GtfsRealtime.TranslatedString.newBuilder()
+                .addTranslation(GtfsRealtime.TranslatedString.Translation.newBuilder().setText(text))
+                .build();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedBuffer;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.rules.*;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work BackgroundTask does for each new iteration of a feed, from the downloaded bytes to the list of
+ * errors and warnings to save: reading the feed into the FeedBuffer of the thread while computing its digest,
+ * comparing the digest with the previous feed, parsing the feed and validating all rules, either in a single pass or
+ * in parallel.  Synthetic feeds (see SyntheticFeedBuilder) from 100 to 50,000 entities for the Bull Runner GTFS data
+ * are read from memory, and the database isn't used - see DBHelperBenchmark for saving errors and warnings.
+ * <p>
+ * Throughput and the distribution of latencies are reported for each feed size, and the GC profiler shows the
+ * allocation rate (gc.alloc.rate.norm is the bytes allocated per iteration).
+ * <p>
+ * Run with:
+ * mvn -Pbenchmark test -DskipTests -Djmh.include=ValidationPipelineBenchmark
+ * <p>
+ * or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.benchmark.ValidationPipelineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ValidationPipelineBenchmark {
+
+    @Param({"100", "1000", "10000", "50000"})
+    public int entityCount;
+
+    private List<FeedEntityValidator> rules;
+    private GtfsDaoImpl gtfsData;
+    private GtfsMetadata gtfsMetadata;
+    private byte[] feed;
+    private GtfsRealtime.FeedMessage previousFeedMessage;
+    private byte[] previousFeedDigest;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        // The same rules as BackgroundTask
+        rules = Arrays.asList(
+                new CrossFeedDescriptorValidator(),
+                new VehicleValidator(),
+                new TimestampValidator(),
+                new StopTimeUpdateValidator(),
+                new TripDescriptorValidator(),
+                new StopValidator(),
+                new FrequencyTypeZeroValidator(),
+                new FrequencyTypeOneValidator(),
+                new HeaderValidator());
+
+        gtfsData = SyntheticFeedBuilder.loadGtfs(SyntheticFeedBuilder.BULLRUNNER_GTFS);
+        gtfsMetadata = new GtfsMetadata("bullrunner-gtfs.zip", TimeZone.getTimeZone("America/New_York"), gtfsData);
+
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        SyntheticFeedBuilder feedBuilder = new SyntheticFeedBuilder(gtfsData);
+        feed = feedBuilder.build(entityCount, timestamp).toByteArray();
+        previousFeedMessage = feedBuilder.build(entityCount, timestamp - 30);
+        byte[] previousFeed = previousFeedMessage.toByteArray();
+        FeedBuffer buffer = new FeedBuffer();
+        try (InputStream in = new ByteArrayInputStream(previousFeed)) {
+            while (buffer.read(in) != -1) {
+            }
+        }
+        previousFeedDigest = buffer.getDigest();
+
+        executor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public List<ErrorListHelperModel> singlePass() throws IOException {
+        CombinedFeedMessage combinedFeed = ingest();
+        List<List<ErrorListHelperModel>> results = FeedEntityTraversal.validate(rules, System.currentTimeMillis(), gtfsData, gtfsMetadata, combinedFeed, previousFeedMessage);
+        return flatten(results);
+    }
+
+    @Benchmark
+    public List<ErrorListHelperModel> parallel() throws IOException, InterruptedException, ExecutionException {
+        CombinedFeedMessage combinedFeed = ingest();
+        List<List<ErrorListHelperModel>> results = FeedEntityTraversal.validate(rules, executor, BackgroundTask.DEFAULT_ENTITY_CHUNK_SIZE, System.currentTimeMillis(), gtfsData, gtfsMetadata, combinedFeed, previousFeedMessage);
+        return flatten(results);
+    }
+
+    /**
+     * Reads the feed into the buffer of the thread, checks that it's not the same as the previous feed and parses it
+     */
+    private CombinedFeedMessage ingest() throws IOException {
+        FeedBuffer buffer = FeedBuffer.get();
+        try (InputStream in = new ByteArrayInputStream(feed)) {
+            while (buffer.read(in) != -1) {
+            }
+            if (MessageDigest.isEqual(buffer.getDigest(), previousFeedDigest)) {
+                throw new IllegalStateException("The feed is the same as the previous feed");
+            }
+            return CombinedFeedMessage.of(buffer.parseFeedMessage());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static List<ErrorListHelperModel> flatten(List<List<ErrorListHelperModel>> results) {
+        List<ErrorListHelperModel> allErrorLists = new ArrayList<>();
+        for (List<ErrorListHelperModel> errorLists : results) {
+            allErrorLists.addAll(errorLists);
+        }
+        return allErrorLists;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ValidationPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.validation.AlertIndex;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static com.google.transit.realtime.GtfsRealtime.Alert.Effect.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for looking up the service alerts of trips and routes using AlertIndex
+ */
+public class AlertIndexTest {
+
+    private static GtfsRealtime.FeedEntity alert(String id, GtfsRealtime.Alert.Effect effect, GtfsRealtime.TripDescriptor... trips) {
+        GtfsRealtime.Alert.Builder alert = GtfsRealtime.Alert.newBuilder();
+        if (effect != null) {
+            alert.setEffect(effect);
+        }
+        for (GtfsRealtime.TripDescriptor trip : trips) {
+            alert.addInformedEntity(GtfsRealtime.EntitySelector.newBuilder().setTrip(trip));
+        }
+        return GtfsRealtime.FeedEntity.newBuilder().setId(id).setAlert(alert).build();
+    }
+
+    @Test
+    public void testAlertIndex() {
+        CombinedFeedMessage feedMessage = CombinedFeedMessage.of(GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0"))
+                .addEntity(alert("1", DETOUR,
+                        GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip1").build(),
+                        GtfsRealtime.TripDescriptor.newBuilder().setRouteId("A").build()))
+                .addEntity(alert("2", REDUCED_SERVICE,
+                        GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip1").setRouteId("B").build()))
+                // Alerts without an effect aren't indexed
+                .addEntity(alert("3", null, GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip2").build()))
+                .build());
+
+        AlertIndex index = feedMessage.getAlertIndex();
+        // The index is only built once per feed
+        assertSame(index, feedMessage.getAlertIndex());
+
+        assertEquals(EnumSet.of(DETOUR, REDUCED_SERVICE), index.getTripEffects("trip1"));
+        assertTrue(index.getTripEffects("trip2").isEmpty());
+        assertEquals(EnumSet.of(DETOUR), index.getRouteEffects("A"));
+        assertEquals(EnumSet.of(REDUCED_SERVICE), index.getRouteEffects("B"));
+
+        assertTrue(index.hasEffect("trip1", null, DETOUR));
+        assertTrue(index.hasEffect("trip3", "A", DETOUR));
+        assertFalse(index.hasEffect("trip3", "B", DETOUR));
+        assertFalse(index.hasEffect("trip3", null, DETOUR));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.sun.net.httpserver.HttpServer;
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsDataRegistry;
+import edu.usf.cutr.gtfsrtvalidator.background.LatestFeedCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for polling a GTFS-realtime feed with BackgroundTask from a local HTTP server
+ */
+public class BackgroundTaskTest {
+
+    private static final int GTFS_FEED_ID = 1000;
+    private static final int GTFS_RT_ID = 1000;
+    private static final String ETAG = "\"v2\"";
+    // Not a valid FeedMessage, so the feed fails to parse
+    private static final byte[] INVALID_FEED = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    private HttpServer mServer;
+    // The If-None-Match header of each request, or null if there wasn't one
+    private final List<String> mIfNoneMatch = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.createContext("/feed", exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            mIfNoneMatch.add(ifNoneMatch);
+            if (ETAG.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(200, INVALID_FEED.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(INVALID_FEED);
+            }
+        });
+        mServer.start();
+
+        GtfsDataRegistry.register(GTFS_FEED_ID, new byte[]{1}, () -> new GtfsDataRegistry.Dataset(new byte[]{1}, 0, new GtfsDaoImpl(), null));
+        // A previous feed, so the task sends the ETag of the last feed it processed
+        LatestFeedCache.put(GTFS_RT_ID, new byte[]{0}, GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0"))
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        GtfsDataRegistry.clear();
+    }
+
+    @Test
+    public void testFailedFeedIsDownloadedAgain() {
+        GtfsFeedModel gtfsFeed = new GtfsFeedModel();
+        gtfsFeed.setFeedId(GTFS_FEED_ID);
+        GtfsRtFeedModel gtfsRtFeed = new GtfsRtFeedModel();
+        gtfsRtFeed.setGtfsRtId(GTFS_RT_ID);
+        gtfsRtFeed.setGtfsUrl("http://localhost:" + mServer.getAddress().getPort() + "/feed");
+        gtfsRtFeed.setGtfsFeedModel(gtfsFeed);
+
+        BackgroundTask task = new BackgroundTask(gtfsRtFeed);
+        task.run();
+        task.run();
+
+        assertEquals(2, mIfNoneMatch.size());
+        // The first feed couldn't be parsed, so the second request doesn't send its ETag and gets the feed again
+        // instead of a 304 that would be saved as a duplicate of the previous feed
+        assertNull(mIfNoneMatch.get(1));
+    }
+
+    private static GtfsRtFeedModel gtfsRtFeed(int gtfsRtId) {
+        GtfsRtFeedModel gtfsRtFeed = new GtfsRtFeedModel();
+        gtfsRtFeed.setGtfsRtId(gtfsRtId);
+        gtfsRtFeed.setGtfsUrl("http://localhost/feed" + gtfsRtId);
+        return gtfsRtFeed;
+    }
+
+    private static GtfsRealtime.FeedMessage feedMessage(long timestamp) {
+        return GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0").setTimestamp(timestamp))
+                .build();
+    }
+
+    @Test
+    public void testStoppedFeedIsNotValidated() {
+        GtfsRtFeedModel feedA = gtfsRtFeed(2001);
+        GtfsRtFeedModel feedB = gtfsRtFeed(2002);
+        List<GtfsRtFeedModel> feeds = Arrays.asList(feedA, feedB);
+        GtfsRealtime.FeedMessage messageA = feedMessage(1);
+        GtfsRealtime.FeedMessage messageB = feedMessage(2);
+
+        BackgroundTask.getLatestFeeds(feedA, messageA, feeds);
+        assertEquals(Arrays.asList(messageA, messageB), BackgroundTask.getLatestFeeds(feedB, messageB, feeds));
+
+        BackgroundTask.remove(feedA.getGtfsRtId());
+        assertEquals(Collections.singletonList(messageB), BackgroundTask.getLatestFeeds(feedB, messageB, feeds));
+
+        // An iteration of feed A that was still running when it stopped being monitored doesn't add it back
+        BackgroundTask.getLatestFeeds(feedA, feedMessage(3), feeds);
+        assertEquals(Collections.singletonList(messageB), BackgroundTask.getLatestFeeds(feedB, messageB, feeds));
+
+        // Until it's monitored again
+        new BackgroundTask(feedA);
+        BackgroundTask.getLatestFeeds(feedA, messageA, feeds);
+        assertEquals(Arrays.asList(messageA, messageB), BackgroundTask.getLatestFeeds(feedB, messageB, feeds));
+
+        BackgroundTask.remove(feedA.getGtfsRtId());
+        BackgroundTask.remove(feedB.getGtfsRtId());
+        BackgroundTask.removeMetrics(feedA);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.api.model.*;
+import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
+import edu.usf.cutr.gtfsrtvalidator.helper.DBHelper;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
+import edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests saving the errors and warnings of iterations with DBHelper.saveErrors(), which inserts the rows with JDBC
+ */
+public class DBHelperTest {
+
+    private GtfsRtFeedModel gtfsRtFeed;
+
+    @Before
+    public void setUp() {
+        HibernateUtil.configureSessionFactory();
+        GTFSDB.initializeDB();
+
+        GtfsFeedModel gtfsFeed = new GtfsFeedModel();
+        gtfsFeed.setGtfsUrl("http://localhost/DBHelperTest/gtfs.zip");
+        gtfsRtFeed = new GtfsRtFeedModel();
+        gtfsRtFeed.setGtfsUrl("http://localhost/DBHelperTest/gtfs-rt");
+        gtfsRtFeed.setGtfsFeedModel(gtfsFeed);
+
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.save(gtfsFeed);
+        session.save(gtfsRtFeed);
+        GTFSDB.commitAndCloseSession(session);
+    }
+
+    @Test
+    public void testSaveErrors() {
+        GtfsRtFeedIterationModel iteration1 = saveIteration();
+        GtfsRtFeedIterationModel iteration2 = saveIteration();
+
+        // More occurrences than fit in a single JDBC batch, and a rule without occurrences that isn't saved
+        List<ErrorListHelperModel> errorLists1 = Arrays.asList(
+                errorList(ValidationRules.E004, DBHelper.OCCURRENCE_BATCH_SIZE + 1),
+                errorList(ValidationRules.E022, 3),
+                errorList(ValidationRules.E029, 0),
+                errorList(ValidationRules.W001, 1));
+        List<ErrorListHelperModel> errorLists2 = Arrays.asList(
+                errorList(ValidationRules.E004, 2),
+                errorList(ValidationRules.W009, 5));
+        Map<GtfsRtFeedIterationModel, List<ErrorListHelperModel>> errorListsByIteration = new LinkedHashMap<>();
+        errorListsByIteration.put(iteration1, errorLists1);
+        errorListsByIteration.put(iteration2, errorLists2);
+
+        DBHelper.saveErrors(errorListsByIteration);
+
+        assertSaved(iteration1, errorLists1);
+        assertSaved(iteration2, errorLists2);
+    }
+
+    private GtfsRtFeedIterationModel saveIteration() {
+        GtfsRtFeedIterationModel iteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), System.currentTimeMillis(), null, gtfsRtFeed, null);
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.save(iteration);
+        GTFSDB.commitAndCloseSession(session);
+        return iteration;
+    }
+
+    private static ErrorListHelperModel errorList(ValidationRule rule, int occurrenceCount) {
+        List<OccurrenceModel> occurrences = new ArrayList<>();
+        for (int i = 0; i < occurrenceCount; i++) {
+            occurrences.add(new OccurrenceModel("trip_id " + i));
+        }
+        return new ErrorListHelperModel(new MessageLogModel(rule), occurrences);
+    }
+
+    /**
+     * Asserts that the database has one MessageLog row for iteration for each of errorLists with occurrences, with the
+     * ID set in its MessageLogModel, and that each of them has one Occurrence row per occurrence
+     */
+    private static void assertSaved(GtfsRtFeedIterationModel iteration, List<ErrorListHelperModel> errorLists) {
+        Map<Integer, String> expectedErrorIds = new HashMap<>();
+        Map<Integer, Integer> expectedOccurrenceCounts = new HashMap<>();
+        for (ErrorListHelperModel errorList : errorLists) {
+            if (errorList.getOccurrenceList().isEmpty()) {
+                continue;
+            }
+            MessageLogModel messageLog = errorList.getErrorMessage();
+            assertSame(iteration, messageLog.getGtfsRtFeedIterationModel());
+            expectedErrorIds.put(messageLog.getMessageId(), messageLog.getValidationRule().getErrorId());
+            expectedOccurrenceCounts.put(messageLog.getMessageId(), errorList.getOccurrenceList().size());
+        }
+
+        Map<Integer, String> errorIds = new HashMap<>();
+        Map<Integer, Integer> occurrenceCounts = new HashMap<>();
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT messageID, errorID FROM MessageLog WHERE iterationID = ?")) {
+                statement.setInt(1, iteration.getIterationId());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        errorIds.put(resultSet.getInt(1), resultSet.getString(2));
+                    }
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT o.messageID, COUNT(*) FROM Occurrence o" +
+                    " JOIN MessageLog m ON o.messageID = m.messageID WHERE m.iterationID = ? GROUP BY o.messageID")) {
+                statement.setInt(1, iteration.getIterationId());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        occurrenceCounts.put(resultSet.getInt(1), resultSet.getInt(2));
+                    }
+                }
+            }
+        });
+        GTFSDB.commitAndCloseSession(session);
+
+        assertEquals(expectedErrorIds, errorIds);
+        assertEquals(expectedOccurrenceCounts, occurrenceCounts);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.api.model.GtfsRtFeedIterationModel;
+import edu.usf.cutr.gtfsrtvalidator.background.ErrorWriter;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for saving errors and warnings on a separate thread using ErrorWriter, with a fake database that can be
+ * paused to simulate a slow database
+ */
+public class ErrorWriterTest {
+
+    // Iteration IDs in the order they were written
+    private final List<Integer> mWritten = Collections.synchronizedList(new ArrayList<>());
+    // Number of iterations passed to each write
+    private final List<Integer> mBatchSizes = Collections.synchronizedList(new ArrayList<>());
+    // Counted down when the first write starts
+    private final CountDownLatch mWriteStarted = new CountDownLatch(1);
+    // Writes wait for this before finishing
+    private final CountDownLatch mDatabaseReady = new CountDownLatch(1);
+
+    private ErrorWriter createErrorWriter(int capacity, ErrorWriter.OverflowPolicy overflowPolicy) {
+        return new ErrorWriter(capacity, overflowPolicy, ErrorWriter.DEFAULT_MAX_BATCH_SIZE, errorListsByIteration -> {
+            mWriteStarted.countDown();
+            try {
+                mDatabaseReady.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            mBatchSizes.add(errorListsByIteration.size());
+            for (GtfsRtFeedIterationModel feedIteration : errorListsByIteration.keySet()) {
+                mWritten.add(feedIteration.getIterationId());
+            }
+        });
+    }
+
+    private static GtfsRtFeedIterationModel iteration(int iterationId) {
+        GtfsRtFeedIterationModel feedIteration = new GtfsRtFeedIterationModel();
+        feedIteration.setIterationId(iterationId);
+        return feedIteration;
+    }
+
+    /**
+     * Submits iteration 1 and waits until the writer is blocked saving it, so following iterations stay in the queue
+     */
+    private void submitFirstAndWaitForWrite(ErrorWriter errorWriter) throws InterruptedException {
+        assertTrue(errorWriter.submit(iteration(1), new ArrayList<ErrorListHelperModel>()));
+        assertTrue(mWriteStarted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueuedIterationsAreCoalescedAndDrainedOnShutdown() throws InterruptedException {
+        ErrorWriter errorWriter = createErrorWriter(10, ErrorWriter.OverflowPolicy.BLOCK);
+        submitFirstAndWaitForWrite(errorWriter);
+
+        for (int i = 2; i <= 5; i++) {
+            assertTrue(errorWriter.submit(iteration(i), new ArrayList<ErrorListHelperModel>()));
+        }
+        assertEquals(4, errorWriter.getQueueDepth());
+        assertEquals(4, errorWriter.getMaxQueueDepth());
+
+        mDatabaseReady.countDown();
+        assertTrue(errorWriter.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), mWritten);
+        // The 4 iterations queued while the first was being written are written together
+        assertEquals(Arrays.asList(1, 4), mBatchSizes);
+        assertEquals(5, errorWriter.getWrittenCount());
+        assertEquals(2, errorWriter.getBatchCount());
+        assertEquals(0, errorWriter.getDroppedCount());
+        assertEquals(0, errorWriter.getQueueDepth());
+
+        // Iterations submitted after shutdown are dropped
+        assertFalse(errorWriter.submit(iteration(6), new ArrayList<ErrorListHelperModel>()));
+        assertEquals(1, errorWriter.getDroppedCount());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        ErrorWriter errorWriter = createErrorWriter(2, ErrorWriter.OverflowPolicy.DROP_NEWEST);
+        submitFirstAndWaitForWrite(errorWriter);
+
+        assertTrue(errorWriter.submit(iteration(2), new ArrayList<ErrorListHelperModel>()));
+        assertTrue(errorWriter.submit(iteration(3), new ArrayList<ErrorListHelperModel>()));
+        assertFalse(errorWriter.submit(iteration(4), new ArrayList<ErrorListHelperModel>()));
+
+        mDatabaseReady.countDown();
+        assertTrue(errorWriter.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(1, 2, 3), mWritten);
+        assertEquals(1, errorWriter.getDroppedCount());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        ErrorWriter errorWriter = createErrorWriter(2, ErrorWriter.OverflowPolicy.DROP_OLDEST);
+        submitFirstAndWaitForWrite(errorWriter);
+
+        assertTrue(errorWriter.submit(iteration(2), new ArrayList<ErrorListHelperModel>()));
+        assertTrue(errorWriter.submit(iteration(3), new ArrayList<ErrorListHelperModel>()));
+        assertTrue(errorWriter.submit(iteration(4), new ArrayList<ErrorListHelperModel>()));
+
+        mDatabaseReady.countDown();
+        assertTrue(errorWriter.shutdown(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(1, 3, 4), mWritten);
+        assertEquals(1, errorWriter.getDroppedCount());
+    }
+
+    @Test
+    public void testFailedIterationDoesNotLoseTheBatch() throws InterruptedException {
+        // Iteration 3 can't be saved, so any transaction that includes it fails
+        ErrorWriter errorWriter = new ErrorWriter(10, ErrorWriter.OverflowPolicy.BLOCK, ErrorWriter.DEFAULT_MAX_BATCH_SIZE, errorListsByIteration -> {
+            mWriteStarted.countDown();
+            try {
+                mDatabaseReady.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            for (GtfsRtFeedIterationModel feedIteration : errorListsByIteration.keySet()) {
+                if (feedIteration.getIterationId() == 3) {
+                    throw new RuntimeException("Can't save iteration 3");
+                }
+            }
+            mBatchSizes.add(errorListsByIteration.size());
+            for (GtfsRtFeedIterationModel feedIteration : errorListsByIteration.keySet()) {
+                mWritten.add(feedIteration.getIterationId());
+            }
+        });
+        submitFirstAndWaitForWrite(errorWriter);
+        for (int i = 2; i <= 5; i++) {
+            assertTrue(errorWriter.submit(iteration(i), new ArrayList<ErrorListHelperModel>()));
+        }
+
+        mDatabaseReady.countDown();
+        assertTrue(errorWriter.shutdown(10, TimeUnit.SECONDS));
+
+        // The batch of iterations 2 to 5 failed, so they were saved one at a time and only iteration 3 was lost
+        assertEquals(Arrays.asList(1, 2, 4, 5), mWritten);
+        assertEquals(Arrays.asList(1, 1, 1, 1), mBatchSizes);
+        assertEquals(4, errorWriter.getWrittenCount());
+        assertEquals(1, errorWriter.getFailedCount());
+    }
+
+    @Test
+    public void testShutdownTimesOutWhenDatabaseIsStuck() throws InterruptedException {
+        ErrorWriter errorWriter = createErrorWriter(10, ErrorWriter.OverflowPolicy.BLOCK);
+        submitFirstAndWaitForWrite(errorWriter);
+        assertTrue(errorWriter.submit(iteration(2), new ArrayList<ErrorListHelperModel>()));
+
+        assertFalse(errorWriter.shutdown(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, errorWriter.getQueueDepth());
+
+        mDatabaseReady.countDown();
+    }
+
+    @Test
+    public void testBlockedSubmitReturnsAfterShutdown() throws InterruptedException {
+        ErrorWriter errorWriter = createErrorWriter(1, ErrorWriter.OverflowPolicy.BLOCK);
+        submitFirstAndWaitForWrite(errorWriter);
+        assertTrue(errorWriter.submit(iteration(2), new ArrayList<ErrorListHelperModel>()));
+
+        // The queue is full and the database is stuck, so this feed waits for room in the queue
+        boolean[] queued = {true};
+        Thread feed = new Thread(() -> {
+            try {
+                queued[0] = errorWriter.submit(iteration(3), new ArrayList<ErrorListHelperModel>());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        feed.start();
+
+        // It stops waiting and drops the iteration once the writer is shut down, even though the queue is still full
+        assertFalse(errorWriter.shutdown(100, TimeUnit.MILLISECONDS));
+        feed.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(feed.isAlive());
+        assertFalse(queued[0]);
+        assertEquals(1, errorWriter.getDroppedCount());
+
+        mDatabaseReady.countDown();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedBuffer;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for downloading feeds into the reusable FeedBuffer of each thread
+ */
+public class FeedBufferTest {
+
+    @After
+    public void tearDown() {
+        FeedBuffer.setMaxPooledSize(FeedBuffer.DEFAULT_MAX_POOLED_SIZE);
+        FeedHashAlgorithm.setCurrent(FeedHashAlgorithm.DEFAULT);
+        FeedBuffer.setComputeBlobKey(false);
+    }
+
+    /**
+     * Returns a stream that returns at most 1000 bytes from each read, like a network connection
+     */
+    private static InputStream slowStream(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+    }
+
+    private static void readAll(FeedBuffer buffer, InputStream in) throws IOException {
+        while (buffer.read(in) != -1) {
+        }
+    }
+
+    @Test
+    public void testReadAndDigest() throws Exception {
+        byte[] bytes = new byte[200000];
+        new Random(1).nextBytes(bytes);
+
+        FeedBuffer buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        assertEquals(bytes.length, buffer.size());
+        assertArrayEquals(bytes, buffer.toByteArray());
+        // The digest computed while reading is the same as the digest of the whole array
+        assertArrayEquals(FeedHashAlgorithm.getCurrent().hash(bytes, 0, bytes.length), buffer.getDigest());
+        buffer.release();
+
+        // The same buffer is reused on the same thread, empty
+        FeedBuffer reused = FeedBuffer.get();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.size());
+        readAll(reused, slowStream(new byte[]{1, 2, 3}));
+        assertArrayEquals(FeedHashAlgorithm.getCurrent().hash(new byte[]{1, 2, 3}, 0, 3), reused.getDigest());
+        reused.release();
+    }
+
+    @Test
+    public void testChangeHashAlgorithm() throws Exception {
+        byte[] bytes = {1, 2, 3};
+        FeedBuffer buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        assertArrayEquals(FeedHashAlgorithm.MURMUR3_128.hash(bytes, 0, bytes.length), buffer.getDigest());
+        buffer.release();
+
+        // Buffers use the new algorithm the next time they're used
+        FeedHashAlgorithm.setCurrent(FeedHashAlgorithm.MD5);
+        buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(bytes), buffer.getDigest());
+        buffer.release();
+    }
+
+    @Test
+    public void testBlobKey() throws Exception {
+        byte[] bytes = new byte[200000];
+        new Random(1).nextBytes(bytes);
+        byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(bytes);
+
+        FeedBuffer buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        // Not computed unless feeds are stored in a FeedBlobStore
+        assertNull(buffer.getBlobKey());
+        buffer.release();
+
+        FeedBuffer.setComputeBlobKey(true);
+        buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        // Computed in the same pass as the digest
+        assertArrayEquals(sha256, buffer.getBlobKey());
+        assertArrayEquals(FeedHashAlgorithm.MURMUR3_128.hash(bytes, 0, bytes.length), buffer.getDigest());
+        buffer.release();
+
+        // With SHA256 as the current algorithm, the digest is the key
+        FeedHashAlgorithm.setCurrent(FeedHashAlgorithm.SHA256);
+        buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(bytes));
+        assertArrayEquals(sha256, buffer.getBlobKey());
+        assertArrayEquals(sha256, buffer.getDigest());
+        buffer.release();
+    }
+
+    @Test
+    public void testReleaseShrinksLargeBuffers() throws IOException {
+        FeedBuffer.setMaxPooledSize(100000);
+        FeedBuffer buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(new byte[50000]));
+        buffer.release();
+        int pooledSize = buffer.getBytes().length;
+
+        readAll(buffer, slowStream(new byte[300000]));
+        assertTrue(buffer.getBytes().length >= 300000);
+        buffer.release();
+        // The large array isn't kept for the next download
+        assertTrue(buffer.getBytes().length <= FeedBuffer.getMaxPooledSize());
+        assertTrue(buffer.getBytes().length <= pooledSize);
+    }
+
+    @Test
+    public void testParseFeedMessage() throws IOException {
+        GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0").setTimestamp(1234))
+                .addEntity(GtfsRealtime.FeedEntity.newBuilder().setId("1")
+                        .setVehicle(GtfsRealtime.VehiclePosition.newBuilder()
+                                .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId("vehicle1"))))
+                .build();
+
+        FeedBuffer buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(feedMessage.toByteArray()));
+        GtfsRealtime.FeedMessage parsed = buffer.parseFeedMessage();
+        buffer.release();
+        assertEquals(feedMessage, parsed);
+
+        // The parsed feed doesn't change when the buffer is reused for another feed
+        buffer = FeedBuffer.get();
+        readAll(buffer, slowStream(new byte[feedMessage.getSerializedSize()]));
+        buffer.release();
+        assertEquals(feedMessage, parsed);
+    }
+}
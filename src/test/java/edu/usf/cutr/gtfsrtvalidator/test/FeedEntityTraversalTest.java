@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.api.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+import edu.usf.cutr.gtfsrtvalidator.validation.CombinedFeedMessage;
+import edu.usf.cutr.gtfsrtvalidator.validation.EntityResultCache;
+import edu.usf.cutr.gtfsrtvalidator.validation.FeedEntityTraversal;
+import edu.usf.cutr.gtfsrtvalidator.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.validation.rules.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static edu.usf.cutr.gtfsrtvalidator.util.TimestampUtils.MIN_POSIX_TIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that validating all rules in a single pass over the feed, in parallel, in parallel chunks of entities, or
+ * incrementally, produces the same results as validating each rule on its own
+ */
+public class FeedEntityTraversalTest extends FeedMessageTest {
+
+    private final List<FeedEntityValidator> rules = Arrays.asList(
+            new CrossFeedDescriptorValidator(),
+            new VehicleValidator(),
+            new TimestampValidator(),
+            new StopTimeUpdateValidator(),
+            new TripDescriptorValidator(),
+            new StopValidator(),
+            new FrequencyTypeZeroValidator(),
+            new FrequencyTypeOneValidator(),
+            new HeaderValidator());
+
+    public FeedEntityTraversalTest() throws Exception {
+    }
+
+    @Test
+    public void testSinglePassMatchesPerRuleValidation() {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+
+        List<List<ErrorListHelperModel>> singlePass = FeedEntityTraversal.validate(rules, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(feedMessage), null);
+        assertMatchesPerRuleValidation(feedMessage, singlePass);
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    @Test
+    public void testParallelMatchesPerRuleValidation() throws Exception {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<List<ErrorListHelperModel>> parallel = FeedEntityTraversal.validate(rules, executor, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(feedMessage), null);
+            assertMatchesPerRuleValidation(feedMessage, parallel);
+        } finally {
+            executor.shutdown();
+        }
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    @Test
+    public void testChunkedMatchesPerRuleValidation() throws Exception {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Split the entities of entity-local rules into chunks of a single entity
+            List<List<ErrorListHelperModel>> chunked = FeedEntityTraversal.validate(rules, executor, 1, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(feedMessage), null);
+            assertMatchesPerRuleValidation(feedMessage, chunked);
+        } finally {
+            executor.shutdown();
+        }
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    @Test
+    public void testCombinedFeedsMatchSingleFeed() throws Exception {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+        // Split the entities into two feeds, like separate TripUpdates and VehiclePositions feeds for the same GTFS data
+        GtfsRealtime.FeedMessage first = GtfsRealtime.FeedMessage.newBuilder(feedMessage)
+                .clearEntity()
+                .addAllEntity(feedMessage.getEntityList().subList(0, 2))
+                .build();
+        GtfsRealtime.FeedMessage second = GtfsRealtime.FeedMessage.newBuilder(feedMessage)
+                .clearEntity()
+                .addAllEntity(feedMessage.getEntityList().subList(2, feedMessage.getEntityCount()))
+                .build();
+        CombinedFeedMessage combinedFeed = new CombinedFeedMessage(Arrays.asList(first, second));
+        assertEquals(feedMessage.getEntityList(), combinedFeed.getEntityList());
+        assertTrue(combinedFeed.contentEquals(feedMessage));
+
+        List<List<ErrorListHelperModel>> singlePass = FeedEntityTraversal.validate(rules, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, combinedFeed, null);
+        assertMatchesPerRuleValidation(feedMessage, singlePass);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Chunks of entities span both feeds
+            List<List<ErrorListHelperModel>> chunked = FeedEntityTraversal.validate(rules, executor, 3, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, combinedFeed, null);
+            assertMatchesPerRuleValidation(feedMessage, chunked);
+        } finally {
+            executor.shutdown();
+        }
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    @Test
+    public void testIncrementalMatchesPerRuleValidation() throws Exception {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+        FeedEntityValidator timestampValidator = rules.get(2);
+        FeedEntityValidator stopTimeUpdateValidator = rules.get(3);
+
+        EntityResultCache cache = new EntityResultCache();
+        List<List<ErrorListHelperModel>> incremental = FeedEntityTraversal.validate(rules, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(feedMessage), null, cache, null);
+        assertMatchesPerRuleValidation(feedMessage, incremental);
+        assertEquals(0, cache.getReusedCount(stopTimeUpdateValidator));
+
+        // The next feed has a new header timestamp, as usual, and one changed TripUpdate - the results of the other
+        // entities are reused by rules that don't depend on the header
+        GtfsRealtime.FeedEntity changedEntity = GtfsRealtime.FeedEntity.newBuilder(feedMessage.getEntity(3))
+                .setTripUpdate(GtfsRealtime.TripUpdate.newBuilder(feedMessage.getEntity(3).getTripUpdate()).setTimestamp(MIN_POSIX_TIME - 10))
+                .build();
+        GtfsRealtime.FeedMessage changedFeedMessage = GtfsRealtime.FeedMessage.newBuilder(feedMessage)
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder(feedMessage.getHeader()).setTimestamp(MIN_POSIX_TIME + 5))
+                .setEntity(3, changedEntity)
+                .build();
+        incremental = FeedEntityTraversal.validate(rules, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(changedFeedMessage), null, cache, null);
+        assertMatchesPerRuleValidation(changedFeedMessage, incremental);
+        assertEquals(3, cache.getReusedCount(stopTimeUpdateValidator));
+        // TimestampValidator compares entities with the header timestamp (E012), so it validates every entity
+        assertEquals(0, cache.getReusedCount(timestampValidator));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Another new header timestamp, with the same entities
+            GtfsRealtime.FeedMessage newHeaderFeedMessage = GtfsRealtime.FeedMessage.newBuilder(changedFeedMessage)
+                    .setHeader(GtfsRealtime.FeedHeader.newBuilder(changedFeedMessage.getHeader()).setTimestamp(MIN_POSIX_TIME + 10))
+                    .build();
+            incremental = FeedEntityTraversal.validate(rules, executor, 1, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(newHeaderFeedMessage), null, cache, null);
+            assertMatchesPerRuleValidation(newHeaderFeedMessage, incremental);
+            assertEquals(4, cache.getReusedCount(stopTimeUpdateValidator));
+            assertEquals(0, cache.getReusedCount(timestampValidator));
+        } finally {
+            executor.shutdown();
+        }
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    @Test
+    public void testRuleDurationsPerFeed() {
+        GtfsRealtime.FeedMessage feedMessage = buildFeedWithErrors();
+        String feed = "http://example.com/rule-durations";
+        String series = "gtfsrt_rule_duration_seconds_count{feed=\"" + feed + "\",validator=\"StopTimeUpdateValidator\"} 1";
+
+        FeedEntityTraversal.validate(rules, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, CombinedFeedMessage.of(feedMessage), null, null, feed);
+        assertTrue(MetricsRegistry.getDefault().scrape().contains(series));
+
+        FeedEntityTraversal.removeMetrics(rules, feed);
+        assertFalse(MetricsRegistry.getDefault().scrape().contains(feed));
+
+        clearAndInitRequiredFeedFields();
+    }
+
+    /**
+     * Builds a feed with TripUpdates, a VehiclePosition and an Alert that each trigger errors for several rules
+     */
+    private GtfsRealtime.FeedMessage buildFeedWithErrors() {
+        feedHeaderBuilder.setTimestamp(MIN_POSIX_TIME);
+        feedMessageBuilder.setHeader(feedHeaderBuilder.build());
+        feedMessageBuilder.clearEntity();
+
+        // TripUpdate for a trip that's not in GTFS, with unsorted stop_sequences and decreasing arrival times
+        GtfsRealtime.TripDescriptor.Builder tripDescriptorBuilder = GtfsRealtime.TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId("NOT_IN_GTFS");
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder.build());
+        tripUpdateBuilder.setTimestamp(MIN_POSIX_TIME + 10);
+        GtfsRealtime.TripUpdate.StopTimeUpdate.Builder stopTimeUpdateBuilder = GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder();
+        stopTimeUpdateBuilder.setStopSequence(5);
+        stopTimeUpdateBuilder.setStopId("A");
+        stopTimeUpdateBuilder.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME + 100));
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+        stopTimeUpdateBuilder.setStopSequence(3);
+        stopTimeUpdateBuilder.setStopId("A");
+        stopTimeUpdateBuilder.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME + 50));
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+        feedEntityBuilder.setId("1");
+        feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+        feedMessageBuilder.addEntity(feedEntityBuilder.build());
+
+        // VehiclePosition without a vehicle_id and with an invalid position and bearing
+        feedEntityBuilder.clear();
+        vehiclePositionBuilder.setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("1.1"));
+        vehiclePositionBuilder.setPosition(GtfsRealtime.Position.newBuilder().setLatitude(100f).setLongitude(200f).setBearing(400f));
+        feedEntityBuilder.setId("2");
+        feedEntityBuilder.setVehicle(vehiclePositionBuilder.build());
+        feedMessageBuilder.addEntity(feedEntityBuilder.build());
+
+        // Alert without an informed_entity
+        feedEntityBuilder.clear();
+        feedEntityBuilder.setId("3");
+        feedEntityBuilder.setAlert(alertBuilder.build());
+        feedMessageBuilder.addEntity(feedEntityBuilder.build());
+
+        // Another TripUpdate with the same errors, so errors for the same rule come from several entities
+        feedEntityBuilder.clear();
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder.setTripId("ALSO_NOT_IN_GTFS").build());
+        feedEntityBuilder.setId("4");
+        feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+        feedMessageBuilder.addEntity(feedEntityBuilder.build());
+
+        return feedMessageBuilder.build();
+    }
+
+    /**
+     * Asserts that results contains, for each rule, the same results as validating that rule on its own
+     */
+    private void assertMatchesPerRuleValidation(GtfsRealtime.FeedMessage feedMessage, List<List<ErrorListHelperModel>> results) {
+        assertEquals(rules.size(), results.size());
+
+        List<String> allOccurrences = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            List<String> expected = toStrings(rules.get(i).validate(MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, feedMessage, null));
+            List<String> actual = toStrings(results.get(i));
+            assertEquals(rules.get(i).getClass().getSimpleName(), expected, actual);
+            allOccurrences.addAll(actual);
+        }
+        // Make sure the feed actually exercised the rules
+        assertFalse(allOccurrences.isEmpty());
+    }
+
+    /**
+     * Flattens the results of a rule into "errorId prefix" strings, preserving the order of the results
+     */
+    private static List<String> toStrings(List<ErrorListHelperModel> results) {
+        List<String> strings = new ArrayList<>();
+        for (ErrorListHelperModel errorList : results) {
+            for (OccurrenceModel occurrence : errorList.getOccurrenceList()) {
+                strings.add(errorList.getErrorMessage().getValidationRule().getErrorId() + " " + occurrence.getPrefix());
+            }
+        }
+        return strings;
+    }
+}
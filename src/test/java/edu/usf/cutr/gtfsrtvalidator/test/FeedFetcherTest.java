@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedFetcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for downloading feeds with FeedFetcher from a local HTTP server
+ */
+public class FeedFetcherTest {
+
+    private static final byte[] FEED = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final String LAST_MODIFIED = "Wed, 21 Jun 2017 07:28:00 GMT";
+
+    private HttpServer mServer;
+    private final AtomicInteger mActiveRequests = new AtomicInteger();
+    private final AtomicInteger mMaxActiveRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.setExecutor(Executors.newFixedThreadPool(10));
+        mServer.createContext("/feed", exchange -> respond(exchange, 200, FEED));
+        mServer.createContext("/etag", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, new byte[0]);
+            } else {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                respond(exchange, 200, FEED);
+            }
+        });
+        mServer.createContext("/last-modified", exchange -> {
+            if (LAST_MODIFIED.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                respond(exchange, 304, new byte[0]);
+            } else {
+                exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+                respond(exchange, 200, FEED);
+            }
+        });
+        mServer.createContext("/missing", exchange -> respond(exchange, 404, new byte[0]));
+        mServer.createContext("/slow", exchange -> {
+            int active = mActiveRequests.incrementAndGet();
+            mMaxActiveRequests.accumulateAndGet(active, Math::max);
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mActiveRequests.decrementAndGet();
+            respond(exchange, 200, FEED);
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        ((ExecutorService) mServer.getExecutor()).shutdownNow();
+    }
+
+    private static void respond(HttpExchange exchange, int responseCode, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(responseCode, body.length > 0 ? body.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + mServer.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher();
+        assertArrayEquals(FEED, fetcher.fetch(url("/feed")));
+        assertEquals(0, fetcher.getActiveConnections("localhost"));
+    }
+
+    @Test
+    public void testConditionalGetWithETag() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher();
+        FeedFetcher.FetchResult result = fetcher.fetch(url("/etag"), null, 0);
+        assertFalse(result.isNotModified());
+        assertArrayEquals(FEED, result.getBody());
+        assertEquals("\"v1\"", result.getETag());
+
+        result = fetcher.fetch(url("/etag"), result.getETag(), result.getLastModified());
+        assertTrue(result.isNotModified());
+        assertNull(result.getBody());
+        // Keep the ETag for the next request
+        assertEquals("\"v1\"", result.getETag());
+
+        assertFalse(fetcher.fetch(url("/etag"), "\"v0\"", 0).isNotModified());
+    }
+
+    @Test
+    public void testConditionalGetWithLastModified() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher();
+        FeedFetcher.FetchResult result = fetcher.fetch(url("/last-modified"), null, 0);
+        assertFalse(result.isNotModified());
+        assertTrue(result.getLastModified() > 0);
+        assertNull(result.getETag());
+
+        result = fetcher.fetch(url("/last-modified"), result.getETag(), result.getLastModified());
+        assertTrue(result.isNotModified());
+    }
+
+    @Test(expected = IOException.class)
+    public void testHttpError() throws IOException {
+        new FeedFetcher().fetch(url("/missing"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFeedTooLarge() throws IOException {
+        new FeedFetcher(10, TimeUnit.SECONDS, 1, FEED.length - 1).fetch(url("/feed"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTimeout() throws IOException {
+        new FeedFetcher(100, TimeUnit.MILLISECONDS, 1, FeedFetcher.DEFAULT_MAX_FEED_BYTES).fetch(url("/slow"));
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        FeedFetcher fetcher = new FeedFetcher(10, TimeUnit.SECONDS, 2, FeedFetcher.DEFAULT_MAX_FEED_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                results.add(executor.submit(() -> fetcher.fetch(url("/slow"))));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(FEED, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // All 6 feeds were downloaded, but never more than 2 at the same time
+        assertTrue(mMaxActiveRequests.get() <= 2);
+        assertEquals(0, fetcher.getActiveConnections("localhost"));
+    }
+}
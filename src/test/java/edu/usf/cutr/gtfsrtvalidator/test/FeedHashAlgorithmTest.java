@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the algorithms used to hash GTFS-realtime feeds and GTFS zip files
+ */
+public class FeedHashAlgorithmTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testMd5() throws Exception {
+        byte[] bytes = randomBytes(100000);
+        // Hashes are the same as the MD5 hashes stored by earlier versions
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(bytes), FeedHashAlgorithm.MD5.hash(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void testSha256() throws Exception {
+        byte[] bytes = randomBytes(100000);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), FeedHashAlgorithm.SHA256.hash(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void testDigestInParts() {
+        byte[] bytes = randomBytes(100000);
+        for (FeedHashAlgorithm algorithm : FeedHashAlgorithm.values()) {
+            byte[] hash = algorithm.hash(bytes, 0, bytes.length);
+            assertEquals(algorithm == FeedHashAlgorithm.SHA256 ? 32 : 16, hash.length);
+
+            FeedHashAlgorithm.Digest digest = algorithm.newDigest();
+            digest.update(bytes, 0, 1000);
+            digest.update(ByteBuffer.wrap(bytes, 1000, 9000));
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length - 10000);
+            direct.put(bytes, 10000, bytes.length - 10000).flip();
+            digest.update(direct);
+            assertFalse(direct.hasRemaining());
+            assertArrayEquals(hash, digest.digest());
+
+            // The digest is reset after digest()
+            digest.update(bytes, 0, bytes.length);
+            assertArrayEquals(hash, digest.digest());
+            digest.update(bytes, 0, 10);
+            digest.reset();
+            assertArrayEquals(algorithm.hash(new byte[0], 0, 0), digest.digest());
+
+            // Different content has a different hash
+            bytes[50000]++;
+            assertFalse(MessageDigest.isEqual(hash, algorithm.hash(bytes, 0, bytes.length)));
+            bytes[50000]--;
+        }
+    }
+
+    @Test
+    public void testHashFile() throws IOException {
+        byte[] bytes = randomBytes(300000);
+        Path file = Files.createTempFile("gtfs", ".zip");
+        Path emptyFile = Files.createTempFile("gtfs", ".zip");
+        try {
+            Files.write(file, bytes);
+            for (FeedHashAlgorithm algorithm : FeedHashAlgorithm.values()) {
+                assertArrayEquals(algorithm.hash(bytes, 0, bytes.length), algorithm.hashFile(file));
+                assertArrayEquals(algorithm.hash(new byte[0], 0, 0), algorithm.hashFile(emptyFile));
+            }
+        } finally {
+            Files.delete(file);
+            Files.delete(emptyFile);
+        }
+    }
+}
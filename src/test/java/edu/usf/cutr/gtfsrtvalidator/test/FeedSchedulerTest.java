@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.background.FeedScheduler;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running the tasks of all feeds on the shared FeedScheduler
+ */
+public class FeedSchedulerTest {
+
+    @Test
+    public void testScheduleAndCancel() throws InterruptedException {
+        FeedScheduler scheduler = new FeedScheduler(2, 10);
+        try {
+            CountDownLatch ran = new CountDownLatch(3);
+            AtomicInteger secondTaskRuns = new AtomicInteger();
+            assertTrue(scheduler.schedule("http://feed1", ran::countDown, 20, TimeUnit.MILLISECONDS));
+            // The same feed is only scheduled once
+            assertFalse(scheduler.schedule("http://feed1", secondTaskRuns::incrementAndGet, 20, TimeUnit.MILLISECONDS));
+            assertTrue(scheduler.isScheduled("http://feed1"));
+            assertEquals(1, scheduler.getScheduledCount());
+
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+            assertEquals(0, secondTaskRuns.get());
+
+            assertTrue(scheduler.cancel("http://feed1"));
+            assertFalse(scheduler.cancel("http://feed1"));
+            assertFalse(scheduler.isScheduled("http://feed1"));
+            assertEquals(0, scheduler.getScheduledCount());
+
+            // The feed can be scheduled again after it's cancelled
+            assertTrue(scheduler.schedule("http://feed1", secondTaskRuns::incrementAndGet, 20, TimeUnit.MILLISECONDS));
+        } finally {
+            assertTrue(scheduler.stop(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testManyFeedsShareThreads() throws InterruptedException {
+        FeedScheduler scheduler = new FeedScheduler(2, 10);
+        try {
+            int feedCount = 50;
+            CountDownLatch allRan = new CountDownLatch(feedCount);
+            for (int i = 0; i < feedCount; i++) {
+                assertTrue(scheduler.schedule("http://feed" + i, allRan::countDown, 1, TimeUnit.HOURS));
+            }
+            // Each feed runs once (after its jitter) even though there are only 2 threads
+            assertTrue(allRan.await(10, TimeUnit.SECONDS));
+            assertEquals(feedCount, scheduler.getScheduledCount());
+        } finally {
+            assertTrue(scheduler.stop(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testOverrunsAndExceptions() throws InterruptedException {
+        FeedScheduler scheduler = new FeedScheduler(1, 1);
+        try {
+            CountDownLatch ran = new CountDownLatch(3);
+            // Each run takes longer than the interval, and throws an exception which shouldn't stop future runs
+            scheduler.schedule("http://slowfeed", () -> {
+                ran.countDown();
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("Feed failed");
+            }, 10, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+            assertTrue(scheduler.getOverrunCount("http://slowfeed") >= 2);
+            assertTrue(scheduler.getMaxRunMillis("http://slowfeed") >= 30);
+            assertTrue(scheduler.getOverrunCount() >= 2);
+            assertTrue(scheduler.getRunCount() >= 2);
+            assertEquals(0, scheduler.getOverrunCount("http://otherfeed"));
+        } finally {
+            assertTrue(scheduler.stop(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testScheduleAfterStop() throws InterruptedException {
+        FeedScheduler scheduler = new FeedScheduler(1);
+        scheduler.stop(10, TimeUnit.SECONDS);
+        scheduler.schedule("http://feed1", () -> {
+        }, 10, TimeUnit.SECONDS);
+    }
+}
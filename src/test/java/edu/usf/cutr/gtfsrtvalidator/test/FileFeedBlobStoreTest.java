@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.db.FeedBlobStore;
+import edu.usf.cutr.gtfsrtvalidator.db.FileFeedBlobStore;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for storing feeds in files with FileFeedBlobStore
+ */
+public class FileFeedBlobStoreTest {
+
+    private static final byte[] HASH = {(byte) 0xab, 0x12, (byte) 0xcd, (byte) 0xef};
+    private static final byte[] FEED = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("gtfsrt-feeds").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(mDirectory);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        FileFeedBlobStore store = new FileFeedBlobStore(mDirectory, false);
+        store.put(HASH, FEED);
+        assertArrayEquals(FEED, store.get(HASH));
+        assertEquals(1, new File(mDirectory, "ab").list().length);
+    }
+
+    @Test
+    public void testPutAndGetGzip() throws IOException {
+        FileFeedBlobStore store = new FileFeedBlobStore(mDirectory, true);
+        store.put(HASH, FEED);
+        assertArrayEquals(FEED, store.get(HASH));
+        assertEquals("ab12cdef.pb.gz", new File(mDirectory, "ab").list()[0]);
+    }
+
+    @Test
+    public void testSameFeedStoredOnce() throws IOException {
+        new FileFeedBlobStore(mDirectory, false).put(HASH, FEED);
+        // Turning compression on doesn't store the feed again, and the uncompressed feed can still be read
+        FileFeedBlobStore gzipStore = new FileFeedBlobStore(mDirectory, true);
+        gzipStore.put(HASH, FEED);
+        assertEquals(1, new File(mDirectory, "ab").list().length);
+        assertArrayEquals(FEED, gzipStore.get(HASH));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        // Feeds are keyed by their SHA-256 digest, which resists deliberate collisions between feeds
+        byte[] key = FeedBlobStore.getKey(FEED, FEED.length);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(FEED), key);
+        // Only the first length bytes of the array are part of the feed
+        assertArrayEquals(key, FeedBlobStore.getKey(Arrays.copyOf(FEED, 100), FEED.length));
+
+        FileFeedBlobStore store = new FileFeedBlobStore(mDirectory, false);
+        store.put(key, FEED);
+        assertArrayEquals(FEED, store.get(key));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFeed() throws IOException {
+        new FileFeedBlobStore(mDirectory, false).get(HASH);
+    }
+}
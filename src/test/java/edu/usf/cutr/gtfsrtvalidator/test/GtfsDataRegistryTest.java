@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsDataRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sharing, evicting and reloading GTFS data in GtfsDataRegistry
+ */
+public class GtfsDataRegistryTest {
+
+    private static final byte[] CHECKSUM_A = {1, 2, 3, 4};
+    private static final byte[] CHECKSUM_B = {5, 6, 7, 8};
+    private static final byte[] CHECKSUM_C = {9, 10, 11, 12};
+    private static final long SIZE = 100;
+
+    private final AtomicInteger mLoadCount = new AtomicInteger();
+
+    private GtfsDataRegistry.Dataset load(byte[] checksum) {
+        mLoadCount.incrementAndGet();
+        return new GtfsDataRegistry.Dataset(checksum, SIZE, new GtfsDaoImpl(), null);
+    }
+
+    @After
+    public void tearDown() {
+        GtfsDataRegistry.clear();
+        GtfsDataRegistry.setMaxSize(GtfsDataRegistry.DEFAULT_MAX_SIZE);
+    }
+
+    @Test
+    public void testSameDataIsShared() {
+        GtfsDataRegistry.Dataset first = GtfsDataRegistry.register(1, CHECKSUM_A, () -> load(CHECKSUM_A));
+        // A different URL with the same content (an equal, but not identical, checksum array) isn't loaded again
+        GtfsDataRegistry.Dataset second = GtfsDataRegistry.register(2, CHECKSUM_A.clone(), () -> load(CHECKSUM_A));
+        assertSame(first, second);
+        assertSame(first, GtfsDataRegistry.get(2));
+        assertEquals(1, mLoadCount.get());
+        assertEquals(1, GtfsDataRegistry.getDatasetCount());
+        assertEquals(SIZE, GtfsDataRegistry.getSize());
+
+        GtfsDataRegistry.register(3, CHECKSUM_B, () -> load(CHECKSUM_B));
+        assertEquals(2, mLoadCount.get());
+        assertEquals(2, GtfsDataRegistry.getDatasetCount());
+        assertEquals(2, GtfsDataRegistry.getMissCount());
+        assertEquals(2, GtfsDataRegistry.getHitCount());
+    }
+
+    @Test
+    public void testLoadFailure() {
+        assertNull(GtfsDataRegistry.register(1, CHECKSUM_A, () -> null));
+        assertNull(GtfsDataRegistry.get(1));
+        assertEquals(0, GtfsDataRegistry.getDatasetCount());
+        // A GTFS feed that was never registered
+        assertNull(GtfsDataRegistry.get(2));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        GtfsDataRegistry.setMaxSize(2 * SIZE);
+        GtfsDataRegistry.register(1, CHECKSUM_A, () -> load(CHECKSUM_A));
+        GtfsDataRegistry.register(2, CHECKSUM_B, () -> load(CHECKSUM_B));
+        // Use A, so B is the least recently used
+        GtfsDataRegistry.get(1);
+        GtfsDataRegistry.register(3, CHECKSUM_C, () -> load(CHECKSUM_C));
+        assertEquals(2, GtfsDataRegistry.getDatasetCount());
+        assertEquals(2 * SIZE, GtfsDataRegistry.getSize());
+        assertEquals(1, GtfsDataRegistry.getEvictionCount());
+
+        // A is still loaded, and B is loaded again when it's needed
+        assertEquals(3, mLoadCount.get());
+        assertNotNull(GtfsDataRegistry.get(1));
+        assertEquals(3, mLoadCount.get());
+        assertNotNull(GtfsDataRegistry.get(2));
+        assertEquals(4, mLoadCount.get());
+    }
+
+    @Test
+    public void testMonitoredFeedsPinned() {
+        GtfsDataRegistry.setMaxSize(SIZE);
+        GtfsDataRegistry.register(1, CHECKSUM_A, () -> load(CHECKSUM_A));
+        GtfsDataRegistry.acquire(1);
+        GtfsDataRegistry.acquire(1);
+        GtfsDataRegistry.register(2, CHECKSUM_B, () -> load(CHECKSUM_B));
+        GtfsDataRegistry.acquire(2);
+        // Both datasets are kept while they are used by monitored GTFS-realtime feeds, even though they don't fit
+        assertEquals(2, GtfsDataRegistry.getDatasetCount());
+        assertEquals(0, GtfsDataRegistry.getEvictionCount());
+
+        // One of the two GTFS-realtime feeds using A stops
+        GtfsDataRegistry.release(1);
+        assertEquals(2, GtfsDataRegistry.getDatasetCount());
+
+        GtfsDataRegistry.release(1);
+        assertEquals(1, GtfsDataRegistry.getDatasetCount());
+        assertEquals(1, GtfsDataRegistry.getEvictionCount());
+
+        // Releasing a feed that isn't referenced does nothing
+        GtfsDataRegistry.release(1);
+
+        // A is loaded again when it's needed, evicting B once it isn't used by a monitored feed
+        assertNotNull(GtfsDataRegistry.get(1));
+        assertEquals(3, mLoadCount.get());
+        GtfsDataRegistry.release(2);
+        assertEquals(1, GtfsDataRegistry.getDatasetCount());
+        assertEquals(SIZE, GtfsDataRegistry.getSize());
+    }
+
+    @Test
+    public void testChangedFeed() {
+        GtfsDataRegistry.register(1, CHECKSUM_A, () -> load(CHECKSUM_A));
+        GtfsDataRegistry.register(2, CHECKSUM_A, () -> load(CHECKSUM_A));
+
+        // GTFS feed 1 changes, but its old data is still used by GTFS feed 2
+        GtfsDataRegistry.register(1, CHECKSUM_B, () -> load(CHECKSUM_B));
+        assertEquals(2, GtfsDataRegistry.getDatasetCount());
+
+        // GTFS feed 2 changes to the same data as GTFS feed 1, so the old data isn't used anymore
+        GtfsDataRegistry.register(2, CHECKSUM_B, () -> load(CHECKSUM_B));
+        assertEquals(1, GtfsDataRegistry.getDatasetCount());
+        assertSame(GtfsDataRegistry.get(1), GtfsDataRegistry.get(2));
+        assertEquals(2, mLoadCount.get());
+        assertEquals(0, GtfsDataRegistry.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentLoadsAreShared() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadCanFinish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<GtfsDataRegistry.Dataset> first = executor.submit(() -> GtfsDataRegistry.register(1, CHECKSUM_A, () -> {
+                loadStarted.countDown();
+                try {
+                    loadCanFinish.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return load(CHECKSUM_A);
+            }));
+            assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+
+            // Other GTFS feeds with the same data wait for the load in progress instead of loading it again
+            List<Future<GtfsDataRegistry.Dataset>> others = new ArrayList<>();
+            for (int feedId = 2; feedId <= 4; feedId++) {
+                int id = feedId;
+                others.add(executor.submit(() -> GtfsDataRegistry.register(id, CHECKSUM_A, () -> load(CHECKSUM_A))));
+            }
+            loadCanFinish.countDown();
+
+            GtfsDataRegistry.Dataset dataset = first.get(10, TimeUnit.SECONDS);
+            assertNotNull(dataset);
+            for (Future<GtfsDataRegistry.Dataset> other : others) {
+                assertSame(dataset, other.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, mLoadCount.get());
+            assertEquals(1, GtfsDataRegistry.getMissCount());
+            assertEquals(SIZE, GtfsDataRegistry.getSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEstimateSize() {
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        assertEquals(0, GtfsDataRegistry.Dataset.estimateSize(gtfsData, null, null));
+
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", "stop"));
+        gtfsData.saveEntity(stop);
+        long stopsOnly = GtfsDataRegistry.Dataset.estimateSize(gtfsData, null, null);
+        assertTrue(stopsOnly > 0);
+
+        for (int i = 0; i < 1000; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.setId(i);
+            stopTime.setStop(stop);
+            gtfsData.saveEntity(stopTime);
+        }
+        // Each stop_time takes much more memory than in a zip file, where it compresses to a few bytes
+        assertTrue(GtfsDataRegistry.Dataset.estimateSize(gtfsData, null, null) - stopsOnly >= 1000 * 100);
+    }
+}
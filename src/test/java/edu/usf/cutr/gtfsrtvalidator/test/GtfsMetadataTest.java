@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadataSnapshot;
+import edu.usf.cutr.gtfsrtvalidator.background.StopTimeTable;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for building the structures in GtfsMetadata on demand, and for GtfsMetadataSnapshot
+ */
+public class GtfsMetadataTest {
+
+    private static GtfsDaoImpl loadGtfsData(String fileName) throws IOException {
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        GtfsReader reader = new GtfsReader();
+        reader.setInputLocation(new File("src/test/resources/" + fileName));
+        reader.setEntityStore(gtfsData);
+        reader.run();
+        return gtfsData;
+    }
+
+    private static GtfsMetadata loadMetadata(String fileName) throws IOException {
+        return new GtfsMetadata(fileName, TimeZone.getTimeZone("America/New_York"), loadGtfsData(fileName));
+    }
+
+    @Test
+    public void testBuildOnFirstUse() throws IOException {
+        GtfsMetadata metadata = loadMetadata("bullrunner-gtfs.zip");
+        // The same structure is returned every time it's used
+        assertSame(metadata.getTrips(), metadata.getTrips());
+        assertSame(metadata.getStopTimeTable(), metadata.getStopTimeTable());
+        assertNotNull(metadata.getShapeBoundingBoxWithBuffer());
+        assertNotNull(metadata.getBufferedTripShape("1"));
+        // bullrunner-gtfs.zip trip_id 1 visits stop_id 222 twice
+        assertEquals("[222]", metadata.getTripsWithMultiStops().get("1").toString());
+        // bullrunner-gtfs.zip trip_ids 1 and 2 both use shape_id 0, so they share the same shape index
+        assertNotNull(metadata.getTripShapeGrid("1"));
+        assertSame(metadata.getTripShapeGrid("1"), metadata.getTripShapeGrid("2"));
+        assertNotSame(metadata.getTripShapeGrid("1"), metadata.getTripShapeGrid("3"));
+        assertSame(metadata.getTripShapes().get("1"), metadata.getTripShapes().get("2"));
+        assertSame(metadata.getBufferedTripShape("1"), metadata.getBufferedTripShape("2"));
+    }
+
+    @Test
+    public void testNoShapes() throws IOException {
+        GtfsMetadata metadata = loadMetadata("bullrunner-gtfs-no-shapes.zip");
+        assertNull(metadata.getShapeBoundingBox());
+        assertNull(metadata.getShapeBoundingBoxWithBuffer());
+        assertNull(metadata.getBufferedTripShape("1"));
+        assertNull(metadata.getTripShapeGrid("1"));
+        assertNotNull(metadata.getStopBoundingBoxWithBuffer());
+    }
+
+    @Test
+    public void testBuildInBackground() throws Exception {
+        GtfsMetadata metadata = loadMetadata("bullrunner-gtfs.zip");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CompletableFuture<Void> built = metadata.buildInBackground(executor);
+            // Structures can be used while they are being built in the background
+            List<Future<StopTimeTable>> stopTimeTables = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                stopTimeTables.add(executor.submit(metadata::getStopTimeTable));
+            }
+            built.get(1, TimeUnit.MINUTES);
+            // All threads got the same structure, which was only built once
+            for (Future<StopTimeTable> stopTimeTable : stopTimeTables) {
+                assertSame(metadata.getStopTimeTable(), stopTimeTable.get());
+            }
+            assertFalse(metadata.getTripShapes().isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        GtfsDaoImpl gtfsData = loadGtfsData("bullrunner-gtfs.zip");
+        GtfsMetadata metadata = new GtfsMetadata("bullrunner-gtfs.zip", TimeZone.getTimeZone("America/New_York"), gtfsData);
+        byte[] checksum = {1, 2, 3, 4};
+        File file = File.createTempFile("bullrunner-gtfs", GtfsMetadataSnapshot.EXTENSION);
+        try {
+            GtfsMetadataSnapshot.write(file, checksum, gtfsData, metadata);
+
+            // A snapshot of a different version of the GTFS feed isn't loaded
+            assertNull(GtfsMetadataSnapshot.read(file, new byte[]{5, 6, 7, 8}));
+
+            GtfsMetadataSnapshot snapshot = GtfsMetadataSnapshot.read(file, checksum);
+            assertNotNull(snapshot);
+            assertEquals(gtfsData.getAllTrips().size(), snapshot.getGtfsData().getAllTrips().size());
+            assertTrue(snapshot.getGtfsData().getAllStopTimes().isEmpty());
+
+            GtfsMetadata snapshotMetadata = snapshot.createMetadata("bullrunner-gtfs.zip", TimeZone.getTimeZone("America/New_York"));
+            assertEquals(metadata.getStopTimeTable().size(), snapshotMetadata.getStopTimeTable().size());
+            assertEquals(metadata.getTrips().keySet(), snapshotMetadata.getTrips().keySet());
+            assertEquals(metadata.getStopIds(), snapshotMetadata.getStopIds());
+            assertEquals(metadata.getTripsWithMultiStops(), snapshotMetadata.getTripsWithMultiStops());
+            assertEquals(metadata.getShapeBoundingBox(), snapshotMetadata.getShapeBoundingBox());
+            assertEquals(metadata.getTripStopTimes().get("1").get(0).getArrivalTime(),
+                    snapshotMetadata.getTripStopTimes().get("1").get(0).getArrivalTime());
+            // Trips in the stop_times table are the same objects as the trips in the GTFS data
+            assertSame(snapshotMetadata.getTrips().get("1"), snapshotMetadata.getStopTimeTable().getTrip(snapshotMetadata.getStopTimeTable().getTripIndex("1")));
+        } finally {
+            file.delete();
+        }
+    }
+}
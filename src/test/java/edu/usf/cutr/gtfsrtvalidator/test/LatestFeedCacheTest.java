@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.background.LatestFeedCache;
+import edu.usf.cutr.gtfsrtvalidator.util.FeedHashAlgorithm;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping the latest unique feed of each monitored GTFS-realtime feed in LatestFeedCache
+ */
+public class LatestFeedCacheTest {
+
+    private static final int GTFS_RT_ID = 3000;
+
+    private static GtfsRealtime.FeedMessage feedMessage(long timestamp) {
+        return GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0").setTimestamp(timestamp))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        LatestFeedCache.remove(GTFS_RT_ID);
+        FeedHashAlgorithm.setCurrent(FeedHashAlgorithm.DEFAULT);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertNull(LatestFeedCache.get(GTFS_RT_ID));
+
+        LatestFeedCache.put(GTFS_RT_ID, new byte[]{1}, feedMessage(100));
+        LatestFeedCache.put(GTFS_RT_ID, new byte[]{2}, feedMessage(200));
+
+        LatestFeedCache.LatestFeed latestFeed = LatestFeedCache.get(GTFS_RT_ID);
+        assertArrayEquals(new byte[]{2}, latestFeed.getDigest());
+        assertEquals(feedMessage(200), latestFeed.getFeedMessage());
+        assertEquals(200000, latestFeed.getFeedTimestamp());
+    }
+
+    @Test
+    public void testWarmUsesTheCurrentAlgorithm() throws IOException {
+        // The feed was stored with an MD5 feedHash by an earlier run, and MURMUR3_128 is used now
+        byte[] feedProtobuf = feedMessage(100).toByteArray();
+        FeedHashAlgorithm.setCurrent(FeedHashAlgorithm.MURMUR3_128);
+
+        LatestFeedCache.warm(GTFS_RT_ID, feedProtobuf);
+
+        LatestFeedCache.LatestFeed latestFeed = LatestFeedCache.get(GTFS_RT_ID);
+        // The digest matches the next download of the same feed
+        assertArrayEquals(FeedHashAlgorithm.MURMUR3_128.hash(feedProtobuf, 0, feedProtobuf.length), latestFeed.getDigest());
+        assertFalse(Arrays.equals(FeedHashAlgorithm.MD5.hash(feedProtobuf, 0, feedProtobuf.length), latestFeed.getDigest()));
+        assertEquals(feedMessage(100), latestFeed.getFeedMessage());
+    }
+
+    @Test
+    public void testWarmDoesNotReplaceANewerFeed() throws IOException {
+        LatestFeedCache.put(GTFS_RT_ID, new byte[]{2}, feedMessage(200));
+
+        LatestFeedCache.warm(GTFS_RT_ID, feedMessage(100).toByteArray());
+
+        assertEquals(feedMessage(200), LatestFeedCache.get(GTFS_RT_ID).getFeedMessage());
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        LatestFeedCache.warm(GTFS_RT_ID, feedMessage(100).toByteArray());
+        assertNotNull(LatestFeedCache.get(GTFS_RT_ID));
+
+        LatestFeedCache.remove(GTFS_RT_ID);
+
+        assertNull(LatestFeedCache.get(GTFS_RT_ID));
+        // The feed can be loaded again when it's monitored again
+        LatestFeedCache.warm(GTFS_RT_ID, feedMessage(300).toByteArray());
+        assertEquals(feedMessage(300), LatestFeedCache.get(GTFS_RT_ID).getFeedMessage());
+    }
+}
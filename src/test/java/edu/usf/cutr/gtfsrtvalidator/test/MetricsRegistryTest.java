@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.metrics.Counter;
+import edu.usf.cutr.gtfsrtvalidator.metrics.Histogram;
+import edu.usf.cutr.gtfsrtvalidator.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the metrics exported by /api/metrics
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void testCounter() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Counter counter = metrics.counter("test_occurrences_total", "Occurrences", "rule_id", "E001");
+        counter.increment();
+        counter.increment(4);
+        // Getting the same counter again returns the same instance
+        assertSame(counter, metrics.counter("test_occurrences_total", "Occurrences", "rule_id", "E001"));
+        metrics.counter("test_occurrences_total", "Occurrences", "rule_id", "W001").increment();
+
+        assertEquals(5, counter.get());
+        assertEquals("# HELP test_occurrences_total Occurrences\n"
+                + "# TYPE test_occurrences_total counter\n"
+                + "test_occurrences_total{rule_id=\"E001\"} 5\n"
+                + "test_occurrences_total{rule_id=\"W001\"} 1\n", metrics.scrape());
+    }
+
+    @Test
+    public void testHistogram() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Histogram histogram = metrics.histogram("test_duration_seconds", "Duration");
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(300));
+        histogram.observeNanos(TimeUnit.SECONDS.toNanos(120));
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(120.302, histogram.getSumSeconds(), 1e-9);
+
+        long[] counts = histogram.getCumulativeCounts();
+        assertEquals(Histogram.BUCKETS_SECONDS.length + 1, counts.length);
+        // 0.001 bucket
+        assertEquals(0, counts[0]);
+        // 0.0025 bucket
+        assertEquals(1, counts[1]);
+        // 0.5 bucket
+        assertEquals(2, counts[8]);
+        // 60 bucket
+        assertEquals(2, counts[Histogram.BUCKETS_SECONDS.length - 1]);
+        // +Inf bucket
+        assertEquals(3, counts[Histogram.BUCKETS_SECONDS.length]);
+
+        String output = metrics.scrape();
+        assertTrue(output.contains("# TYPE test_duration_seconds histogram\n"));
+        assertTrue(output.contains("test_duration_seconds_bucket{le=\"0.0025\"} 1\n"));
+        assertTrue(output.contains("test_duration_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(output.contains("test_duration_seconds_count 3\n"));
+        assertTrue(output.contains("test_duration_seconds_sum 120.302"));
+    }
+
+    @Test
+    public void testGauge() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        AtomicInteger queueDepth = new AtomicInteger(3);
+        metrics.gauge("test_queue_depth", "Queue depth", queueDepth::get, "feed", "http://example.com/\"feed\"");
+
+        assertTrue(metrics.scrape().contains("test_queue_depth{feed=\"http://example.com/\\\"feed\\\"\"} 3\n"));
+        // Gauges are read each time the metrics are exported
+        queueDepth.set(7);
+        assertTrue(metrics.scrape().contains("test_queue_depth{feed=\"http://example.com/\\\"feed\\\"\"} 7\n"));
+    }
+
+    @Test
+    public void testRemove() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Histogram histogram = metrics.histogram("test_duration_seconds", "Duration", "feed", "http://example.com/a");
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.histogram("test_duration_seconds", "Duration", "feed", "http://example.com/b").observeNanos(TimeUnit.MILLISECONDS.toNanos(2));
+
+        metrics.remove("test_duration_seconds", "feed", "http://example.com/a");
+        // Removing metrics that don't exist does nothing
+        metrics.remove("test_duration_seconds", "feed", "http://example.com/c");
+        metrics.remove("test_missing_seconds", "feed", "http://example.com/a");
+
+        String output = metrics.scrape();
+        assertFalse(output.contains("http://example.com/a"));
+        assertTrue(output.contains("test_duration_seconds_count{feed=\"http://example.com/b\"} 1\n"));
+        // Getting a removed metric again creates a new one
+        assertNotSame(histogram, metrics.histogram("test_duration_seconds", "Duration", "feed", "http://example.com/a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeMismatch() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("test_metric", "Metric");
+        metrics.histogram("test_metric", "Metric");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpairedLabels() {
+        new MetricsRegistry().counter("test_metric", "Metric", "rule_id");
+    }
+}
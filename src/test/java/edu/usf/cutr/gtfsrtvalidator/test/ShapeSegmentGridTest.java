@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.background.ShapePointTable;
+import edu.usf.cutr.gtfsrtvalidator.background.ShapeSegmentGrid;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata.TRIP_BUFFER_DEGREES;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for checking if positions are within the buffer of a shape using ShapeSegmentGrid
+ */
+public class ShapeSegmentGridTest {
+
+    private static final double BUFFER = TRIP_BUFFER_DEGREES;
+
+    private static ShapeSegmentGrid grid(double[][] points) {
+        List<ShapePoint> shapePoints = new ArrayList<>();
+        for (int i = 0; i < points.length; i++) {
+            ShapePoint p = new ShapePoint();
+            p.setShapeId(new AgencyAndId("agency", "shape"));
+            p.setSequence(i);
+            p.setLat(points[i][0]);
+            p.setLon(points[i][1]);
+            shapePoints.add(p);
+        }
+        ShapePointTable table = new ShapePointTable(shapePoints);
+        return new ShapeSegmentGrid(table, table.getShapeIndex("shape"), BUFFER);
+    }
+
+    @Test
+    public void testLongSegment() {
+        // One segment much longer than the buffer, going east and then north
+        ShapeSegmentGrid grid = grid(new double[][]{{28.0, -82.5}, {28.0, -82.4}, {28.1, -82.4}});
+        assertTrue(grid.isWithinBuffer(28.0, -82.45));
+        assertTrue(grid.isWithinBuffer(28.0 + BUFFER * 0.9, -82.45));
+        assertFalse(grid.isWithinBuffer(28.0 + BUFFER * 1.1, -82.45));
+        assertFalse(grid.isWithinBuffer(28.05, -82.45));
+        assertTrue(grid.isWithinBuffer(28.05, -82.4 - BUFFER * 0.9));
+        assertFalse(grid.isWithinBuffer(28.05, -82.4 - BUFFER * 1.1));
+
+        // Past the ends of the shape, the buffer is round
+        assertTrue(grid.isWithinBuffer(28.0, -82.5 - BUFFER * 0.9));
+        assertFalse(grid.isWithinBuffer(28.0 - BUFFER * 0.8, -82.5 - BUFFER * 0.8));
+        assertFalse(grid.isWithinBuffer(28.1 + BUFFER * 1.1, -82.4));
+
+        // Far from the shape
+        assertFalse(grid.isWithinBuffer(40.0, -74.0));
+    }
+
+    @Test
+    public void testBufferBoundary() {
+        // Just inside and just outside the buffer distance
+        double inside = BUFFER * (1 - 1e-6);
+        double outside = BUFFER * (1 + 1e-6);
+        double diagonalInside = inside / Math.sqrt(2);
+        double diagonalOutside = outside / Math.sqrt(2);
+        ShapeSegmentGrid grid = grid(new double[][]{{28.0, -82.5}, {28.0, -82.4}, {28.1, -82.4}});
+
+        // Past the end of the first segment, straight ahead and diagonally on the round end
+        assertTrue(grid.isWithinBuffer(28.0, -82.5 - inside));
+        assertFalse(grid.isWithinBuffer(28.0, -82.5 - outside));
+        assertTrue(grid.isWithinBuffer(28.0 - diagonalInside, -82.5 - diagonalInside));
+        assertFalse(grid.isWithinBuffer(28.0 - diagonalOutside, -82.5 - diagonalOutside));
+
+        // Beside a segment, next to the join
+        assertTrue(grid.isWithinBuffer(28.0 - inside, -82.4 - BUFFER * 0.1));
+        assertFalse(grid.isWithinBuffer(28.0 - outside, -82.4 - BUFFER * 0.1));
+
+        // Around the outside of the join, where the buffers of the two segments meet
+        assertTrue(grid.isWithinBuffer(28.0 - diagonalInside, -82.4 + diagonalInside));
+        assertFalse(grid.isWithinBuffer(28.0 - diagonalOutside, -82.4 + diagonalOutside));
+        assertTrue(grid.isWithinBuffer(28.0 - inside, -82.4));
+        assertFalse(grid.isWithinBuffer(28.0 - outside, -82.4));
+        assertTrue(grid.isWithinBuffer(28.0, -82.4 + inside));
+        assertFalse(grid.isWithinBuffer(28.0, -82.4 + outside));
+    }
+
+    @Test
+    public void testSinglePoint() {
+        ShapeSegmentGrid grid = grid(new double[][]{{28.0, -82.5}});
+        assertTrue(grid.isWithinBuffer(28.0, -82.5));
+        assertTrue(grid.isWithinBuffer(28.0 + BUFFER * 0.5, -82.5 + BUFFER * 0.5));
+        assertFalse(grid.isWithinBuffer(28.0 + BUFFER * 0.8, -82.5 + BUFFER * 0.8));
+    }
+
+    @Test
+    public void testSameAsDistanceToEverySegment() {
+        Random random = new Random(42);
+        double[][] points = new double[500][];
+        double lat = 28.0, lon = -82.5;
+        for (int i = 0; i < points.length; i++) {
+            lat += (random.nextDouble() - 0.3) * BUFFER * 3;
+            lon += (random.nextDouble() - 0.3) * BUFFER * 3;
+            points[i] = new double[]{lat, lon};
+        }
+        ShapeSegmentGrid grid = grid(points);
+        assertEquals(points.length, grid.size());
+        int within = 0;
+        for (int i = 0; i < 10000; i++) {
+            // Random points near the shape
+            double[] near = points[random.nextInt(points.length)];
+            double pointLat = near[0] + (random.nextDouble() - 0.5) * BUFFER * 6;
+            double pointLon = near[1] + (random.nextDouble() - 0.5) * BUFFER * 6;
+            boolean expected = getDistance(points, pointLat, pointLon) <= BUFFER;
+            assertEquals(expected, grid.isWithinBuffer(pointLat, pointLon));
+            within += expected ? 1 : 0;
+        }
+        // Make sure both cases were checked
+        assertTrue(within > 1000 && within < 9000);
+    }
+
+    @Test
+    public void testFarOutlierPoint() {
+        // A shape in Florida with a bad shapes.txt point at (0, 0), so two segments cross most of the grid diagonally
+        double[][] points = {{28.0, -82.5}, {28.0, -82.4}, {0, 0}, {28.1, -82.4}, {28.1, -82.3}};
+        ShapeSegmentGrid grid = grid(points);
+        // Only the cells along the segments are stored, not every cell of their bounding boxes (about 7 * 10^8)
+        assertTrue(grid.getCellCount() < 1000000);
+
+        assertTrue(grid.isWithinBuffer(28.0, -82.45));
+        assertTrue(grid.isWithinBuffer(28.1, -82.35));
+        assertTrue(grid.isWithinBuffer(0, 0));
+        assertFalse(grid.isWithinBuffer(28.05, -82.45));
+        assertFalse(grid.isWithinBuffer(10.0, -60.0));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Random points near the segments to and from the outlier
+            double t = random.nextDouble();
+            double pointLat = 28.0 * t + (random.nextDouble() - 0.5) * BUFFER * 6;
+            double pointLon = -82.4 * t + (random.nextDouble() - 0.5) * BUFFER * 6;
+            assertEquals(getDistance(points, pointLat, pointLon) <= BUFFER, grid.isWithinBuffer(pointLat, pointLon));
+        }
+    }
+
+    /**
+     * Returns the distance from a point to the closest segment of a shape, checking every segment
+     */
+    private static double getDistance(double[][] points, double lat, double lon) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < points.length - 1; i++) {
+            double x1 = points[i][1], y1 = points[i][0], x2 = points[i + 1][1], y2 = points[i + 1][0];
+            double dx = x2 - x1, dy = y2 - y1;
+            double t = Math.max(0, Math.min(1, ((lon - x1) * dx + (lat - y1) * dy) / (dx * dx + dy * dy)));
+            min = Math.min(min, Math.hypot(x1 + t * dx - lon, y1 + t * dy - lat));
+        }
+        return min;
+    }
+}
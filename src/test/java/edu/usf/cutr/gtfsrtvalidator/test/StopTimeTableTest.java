@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.test;
+
+import edu.usf.cutr.gtfsrtvalidator.background.ShapePointTable;
+import edu.usf.cutr.gtfsrtvalidator.background.StopTimeTable;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the compact stop_times and shapes storage used by GtfsMetadata
+ */
+public class StopTimeTableTest {
+
+    private static Trip trip(String id) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", id));
+        return trip;
+    }
+
+    private static Stop stop(String id) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", id));
+        return stop;
+    }
+
+    private static StopTime stopTime(Trip trip, Stop stop, int stopSequence, int arrivalTime) {
+        StopTime stopTime = new StopTime();
+        stopTime.setTrip(trip);
+        stopTime.setStop(stop);
+        stopTime.setStopSequence(stopSequence);
+        stopTime.setArrivalTime(arrivalTime);
+        return stopTime;
+    }
+
+    private static ShapePoint shapePoint(String shapeId, int sequence, double lat, double lon) {
+        ShapePoint p = new ShapePoint();
+        p.setShapeId(new AgencyAndId("agency", shapeId));
+        p.setSequence(sequence);
+        p.setLat(lat);
+        p.setLon(lon);
+        return p;
+    }
+
+    @Test
+    public void testStopTimesGroupedByTripAndSorted() {
+        Trip trip1 = trip("1");
+        Trip trip2 = trip("2");
+        Stop stopA = stop("A");
+        Stop stopB = stop("B");
+        // Unsorted, and with the stop_times of both trips mixed together
+        StopTimeTable table = new StopTimeTable(Arrays.asList(
+                stopTime(trip1, stopB, 20, 200),
+                stopTime(trip2, stopA, 1, 1000),
+                stopTime(trip1, stopA, 10, 100),
+                stopTime(trip1, stopA, 30, 300)));
+
+        assertEquals(2, table.getTripCount());
+        assertEquals(4, table.size());
+        assertEquals(-1, table.getTripIndex("3"));
+
+        int tripIndex = table.getTripIndex("1");
+        assertEquals(trip1, table.getTrip(tripIndex));
+        assertEquals(3, table.getEnd(tripIndex) - table.getStart(tripIndex));
+        int first = table.getStart(tripIndex);
+        assertEquals(10, table.getStopSequence(first));
+        assertEquals(20, table.getStopSequence(first + 1));
+        assertEquals(30, table.getStopSequence(first + 2));
+        assertEquals("A", table.getStopId(first));
+        assertEquals("B", table.getStopId(first + 1));
+        assertEquals(200, table.getArrivalTime(first + 1));
+        // Both stop_times visit stop A, so they have the same stop index
+        assertEquals(table.getStopIndex(first), table.getStopIndex(first + 2));
+        assertFalse(table.getStopIndex(first) == table.getStopIndex(first + 1));
+    }
+
+    @Test
+    public void testStopTimeMapView() {
+        Trip trip1 = trip("1");
+        Stop stopA = stop("A");
+        Stop stopB = stop("B");
+        StopTimeTable table = new StopTimeTable(Arrays.asList(
+                stopTime(trip1, stopB, 2, 200),
+                stopTime(trip1, stopA, 1, StopTime.MISSING_VALUE)));
+
+        assertEquals(1, table.asMap().size());
+        assertTrue(table.asMap().containsKey("1"));
+        assertNull(table.asMap().get("2"));
+
+        List<StopTime> stopTimes = table.asMap().get("1");
+        assertEquals(2, stopTimes.size());
+        assertEquals(1, stopTimes.get(0).getStopSequence());
+        assertEquals(stopA, stopTimes.get(0).getStop());
+        assertEquals(trip1, stopTimes.get(0).getTrip());
+        assertFalse(stopTimes.get(0).isArrivalTimeSet());
+        assertEquals(200, stopTimes.get(1).getArrivalTime());
+        assertEquals("1", table.asMap().keySet().iterator().next());
+    }
+
+    @Test
+    public void testFindStopTimes() {
+        Trip trip1 = trip("1");
+        Trip trip2 = trip("2");
+        Stop stopA = stop("A");
+        Stop stopB = stop("B");
+        Stop stopC = stop("C");
+        // trip 1 is a loop that starts and ends at stop A, with gaps between stop_sequences
+        StopTimeTable table = new StopTimeTable(Arrays.asList(
+                stopTime(trip2, stopB, 1, 1000),
+                stopTime(trip1, stopA, 30, 300),
+                stopTime(trip1, stopB, 10, 100),
+                stopTime(trip1, stopA, 5, 50),
+                stopTime(trip1, stopC, 20, 200)));
+
+        int tripIndex = table.getTripIndex("1");
+        int first = table.getStart(tripIndex);
+        assertEquals(first, table.findStopSequence(tripIndex, 5));
+        assertEquals(first + 3, table.findStopSequence(tripIndex, 30));
+        assertEquals(-1, table.findStopSequence(tripIndex, 1));
+        assertEquals(-1, table.findStopSequence(tripIndex, 15));
+
+        // The first visit to stop A, and then the second visit once the first was matched
+        assertEquals(first, table.findStopId(tripIndex, "A", 0));
+        assertEquals(first + 3, table.findStopId(tripIndex, "A", first + 1));
+        assertEquals(-1, table.findStopId(tripIndex, "A", first + 4));
+        assertEquals(first + 2, table.findStopId(tripIndex, "C", first));
+        assertEquals(-1, table.findStopId(tripIndex, "D", first));
+        // Stop B is visited by both trips, but only the stop_time of the trip is found
+        assertEquals(-1, table.findStopId(tripIndex, "B", first + 2));
+        int trip2Index = table.getTripIndex("2");
+        assertEquals(table.getStart(trip2Index), table.findStopId(trip2Index, "B", 0));
+    }
+
+    @Test
+    public void testShapePointsGroupedByShapeAndSorted() {
+        ShapePointTable table = new ShapePointTable(Arrays.asList(
+                shapePoint("s1", 2, 28.2, -82.2),
+                shapePoint("s2", 1, 27.0, -81.0),
+                shapePoint("s1", 1, 28.1, -82.1)));
+
+        assertEquals(2, table.getShapeCount());
+        assertEquals(-1, table.getShapeIndex("s3"));
+        int shapeIndex = table.getShapeIndex("s1");
+        int first = table.getStart(shapeIndex);
+        assertEquals(2, table.getEnd(shapeIndex) - first);
+        assertEquals(28.1, table.getLat(first), 0.0);
+        assertEquals(-82.2, table.getLon(first + 1), 0.0);
+
+        List<ShapePoint> shapePoints = table.asMap().get("s1");
+        assertEquals(2, shapePoints.size());
+        assertEquals(1, shapePoints.get(0).getSequence());
+        assertEquals("s1", shapePoints.get(1).getShapeId().getId());
+        assertEquals(28.2, shapePoints.get(1).getLat(), 0.0);
+    }
+}
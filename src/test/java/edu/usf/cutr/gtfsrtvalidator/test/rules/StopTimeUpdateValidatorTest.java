@@ -18,13 +18,20 @@ package edu.usf.cutr.gtfsrtvalidator.test.rules;
 
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.api.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.background.GtfsMetadata;
 import edu.usf.cutr.gtfsrtvalidator.test.FeedMessageTest;
 import edu.usf.cutr.gtfsrtvalidator.test.util.TestUtils;
 import edu.usf.cutr.gtfsrtvalidator.validation.rules.StopTimeUpdateValidator;
 import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 
 import static edu.usf.cutr.gtfsrtvalidator.util.TimestampUtils.MIN_POSIX_TIME;
 import static edu.usf.cutr.gtfsrtvalidator.validation.ValidationRules.*;
@@ -2097,4 +2104,121 @@ public class StopTimeUpdateValidatorTest extends FeedMessageTest {
 
         clearAndInitRequiredFeedFields();
     }
+
+    /**
+     * E045 and E046 for a trip that visits the same stop more than once - each stop_time_update must be checked against
+     * the GTFS stop_times.txt entry for the right visit to the stop
+     */
+    @Test
+    public void testE45E46LoopTrip() {
+        /**
+         * The GTFS data has the following in stop_times.txt:
+         *
+         * trip_id,arrival_time,departure_time,stop_id,stop_sequence
+         * loop,7:00:00,7:00:00,A,1
+         * loop,,,B,2
+         * loop,,,A,3
+         * loop,7:10:00,7:10:00,C,4
+         */
+        GtfsDaoImpl loopGtfs = new GtfsDaoImpl();
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", "loop"));
+        loopGtfs.saveEntity(trip);
+        Map<String, Stop> stops = new HashMap<>();
+        for (String stopId : new String[]{"A", "B", "C"}) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", stopId));
+            loopGtfs.saveEntity(stop);
+            stops.put(stopId, stop);
+        }
+        String[] stopIds = {"A", "B", "A", "C"};
+        int[] times = {7 * 3600, StopTime.MISSING_VALUE, StopTime.MISSING_VALUE, 7 * 3600 + 600};
+        for (int i = 0; i < stopIds.length; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.setId(i);
+            stopTime.setTrip(trip);
+            stopTime.setStop(stops.get(stopIds[i]));
+            stopTime.setStopSequence(i + 1);
+            stopTime.setArrivalTime(times[i]);
+            stopTime.setDepartureTime(times[i]);
+            loopGtfs.saveEntity(stopTime);
+        }
+        GtfsMetadata loopGtfsMetadata = new GtfsMetadata("loop", TimeZone.getTimeZone("America/New_York"), loopGtfs);
+
+        StopTimeUpdateValidator stopSequenceValidator = new StopTimeUpdateValidator();
+        Map<ValidationRule, Integer> expected = new HashMap<>();
+
+        GtfsRealtime.TripUpdate.StopTimeUpdate.Builder stopTimeUpdateBuilder = GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder();
+        GtfsRealtime.TripDescriptor.Builder tripDescriptorBuilder = GtfsRealtime.TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId("loop");
+        tripDescriptorBuilder.setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.SCHEDULED);
+
+        // tripDescriptor is a required field in tripUpdate
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder.build());
+
+        // Times are provided, stop_sequence 3 is the second visit to stop_id A, but has stop_id B - 1 E045 error
+        stopTimeUpdateBuilder.setStopSequence(1);
+        stopTimeUpdateBuilder.setStopId("A");
+        stopTimeUpdateBuilder.setScheduleRelationship(GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship.SCHEDULED);
+        stopTimeUpdateBuilder.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME));
+        stopTimeUpdateBuilder.setDeparture(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME));
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+
+        stopTimeUpdateBuilder.setStopSequence(3);
+        stopTimeUpdateBuilder.setStopId("B");  // Wrong
+        stopTimeUpdateBuilder.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME + 1));
+        stopTimeUpdateBuilder.setDeparture(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(MIN_POSIX_TIME + 1));
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+
+        feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+        feedMessageBuilder.setEntity(0, feedEntityBuilder.build());
+
+        results = stopSequenceValidator.validate(MIN_POSIX_TIME, loopGtfs, loopGtfsMetadata, feedMessageBuilder.build(), null);
+        expected.put(E045, 1);
+        TestUtils.assertResults(expected, results);
+
+        // Delays are provided, stop_sequence 1 is the first visit to stop_id A, which has times in GTFS, and stop_sequence 3 is the second visit, which doesn't - 2 E046 errors (arrival and departure for stop_sequence 3)
+        tripUpdateBuilder.clearStopTimeUpdate();
+
+        stopTimeUpdateBuilder.setStopSequence(1);
+        stopTimeUpdateBuilder.setStopId("A");
+        stopTimeUpdateBuilder.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setDelay(60));
+        stopTimeUpdateBuilder.setDeparture(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setDelay(60));
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+
+        stopTimeUpdateBuilder.setStopSequence(3);
+        stopTimeUpdateBuilder.setStopId("A");
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+
+        stopTimeUpdateBuilder.setStopSequence(4);
+        stopTimeUpdateBuilder.setStopId("C");
+        tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+
+        feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+        feedMessageBuilder.setEntity(0, feedEntityBuilder.build());
+
+        results = stopSequenceValidator.validate(MIN_POSIX_TIME, loopGtfs, loopGtfsMetadata, feedMessageBuilder.build(), null);
+        expected.clear();
+        expected.put(E046, 2);
+        TestUtils.assertResults(expected, results);
+
+        // Delays are provided and only stop_id is provided, so the second stop_id A matches the second visit after stop_id B - 4 E046 errors (arrival and departure for stop_ids B and the second A), and 1 E009 error for missing stop_sequence for loop trip
+        tripUpdateBuilder.clearStopTimeUpdate();
+        stopTimeUpdateBuilder.clearStopSequence();
+
+        for (String stopId : stopIds) {
+            stopTimeUpdateBuilder.setStopId(stopId);
+            tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+        }
+
+        feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+        feedMessageBuilder.setEntity(0, feedEntityBuilder.build());
+
+        results = stopSequenceValidator.validate(MIN_POSIX_TIME, loopGtfs, loopGtfsMetadata, feedMessageBuilder.build(), null);
+        expected.put(E046, 4);
+        expected.put(E009, 1);
+        TestUtils.assertResults(expected, results);
+
+        clearAndInitRequiredFeedFields();
+    }
 }